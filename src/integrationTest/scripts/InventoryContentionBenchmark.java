@@ -0,0 +1,168 @@
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Contention benchmark for inventory reservation.
+ * Creates one "hot" product with a fixed stock, then fires many concurrent single-unit orders for it
+ * through POST /orders. Afterwards it checks that exactly `stock` orders succeeded, that every other
+ * order was rejected with 409, and that the product's stock ended at zero, i.e. nothing was oversold.
+ *
+ * Usage: java InventoryContentionBenchmark.java [stock] [orders] [concurrency] [baseUrl]
+ */
+public class InventoryContentionBenchmark {
+    private static final String DEFAULT_BASE_URL = "http://localhost:8080";
+
+    public static void main(String[] args) throws Exception {
+        int stock = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int orders = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        int concurrency = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+        String baseUrl = args.length > 3 ? args[3] : DEFAULT_BASE_URL;
+        String runId = Long.toString(System.currentTimeMillis(), 36);
+
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+
+        String username = "contention-" + runId;
+        post(client, baseUrl + "/users", "{"
+                + "\"username\": \"" + username + "\","
+                + "\"password\": \"benchmark\","
+                + "\"email\": \"" + username + "@example.com\""
+                + "}", 201);
+
+        String productBody = post(client, baseUrl + "/products", "{"
+                + "\"sku\": \"HOT-" + runId.toUpperCase() + "\","
+                + "\"name\": \"Hot Onion " + runId + "\","
+                + "\"description\": \"Inventory contention benchmark product\","
+                + "\"price\": 1.00,"
+                + "\"quantity\": " + stock
+                + "}", 201);
+        long productId = extractLong(productBody, "\"id\":");
+
+        System.out.println("[DEBUG_LOG] Product " + productId + " with stock " + stock + ": sending " + orders
+                + " single-unit orders with concurrency " + concurrency);
+
+        String orderJson = "{\"username\": \"" + username + "\", \"items\": [{\"productId\": " + productId + ", \"quantity\": 1}]}";
+        Semaphore permits = new Semaphore(concurrency);
+        ConcurrentLinkedQueue<Long> latenciesMicros = new ConcurrentLinkedQueue<>();
+        AtomicInteger created = new AtomicInteger();
+        AtomicInteger rejected = new AtomicInteger();
+        AtomicInteger errors = new AtomicInteger();
+        List<CompletableFuture<Void>> inFlight = new ArrayList<>(orders);
+
+        long started = System.nanoTime();
+        for (int i = 0; i < orders; i++) {
+            permits.acquire();
+            HttpRequest request = HttpRequest.newBuilder()
+                    .uri(URI.create(baseUrl + "/orders"))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(orderJson))
+                    .build();
+            long start = System.nanoTime();
+            inFlight.add(client.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                    .handle((response, failure) -> {
+                        latenciesMicros.add((System.nanoTime() - start) / 1_000);
+                        if (failure != null) {
+                            errors.incrementAndGet();
+                        } else if (response.statusCode() == 201) {
+                            created.incrementAndGet();
+                        } else if (response.statusCode() == 409) {
+                            rejected.incrementAndGet();
+                        } else {
+                            if (errors.incrementAndGet() <= 5) {
+                                System.out.println("[DEBUG_LOG] Unexpected status " + response.statusCode() + ": " + response.body());
+                            }
+                        }
+                        permits.release();
+                        return null;
+                    }));
+        }
+        CompletableFuture.allOf(inFlight.toArray(new CompletableFuture[0])).join();
+        double elapsedSeconds = (System.nanoTime() - started) / 1e9;
+
+        String finalProduct = get(client, baseUrl + "/products/" + productId);
+        long finalStock = extractLong(finalProduct, "\"quantity\":");
+
+        System.out.printf("[DEBUG_LOG] created=%d rejected(409)=%d errors=%d in %.2fs (%.0f orders/s)%n",
+                created.get(), rejected.get(), errors.get(), elapsedSeconds, orders / elapsedSeconds);
+        report("orders", new ArrayList<>(latenciesMicros));
+
+        int expectedCreated = Math.min(stock, orders);
+        boolean consistent = created.get() == expectedCreated
+                && finalStock == stock - created.get()
+                && errors.get() == 0;
+        System.out.println("[DEBUG_LOG] final stock=" + finalStock + ", expected created=" + expectedCreated
+                + " -> " + (consistent ? "CONSISTENT" : "INCONSISTENT"));
+        if (!consistent) {
+            System.exit(1);
+        }
+    }
+
+    private static String post(HttpClient client, String url, String json, int expectedStatus) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json))
+                .build();
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != expectedStatus) {
+            throw new IllegalStateException("POST " + url + " returned " + response.statusCode() + ": " + response.body());
+        }
+        return response.body();
+    }
+
+    private static String get(HttpClient client, String url) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .header("Accept", "application/json")
+                .GET()
+                .build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString()).body();
+    }
+
+    private static long extractLong(String json, String key) {
+        int index = json.indexOf(key);
+        if (index < 0) {
+            throw new IllegalStateException("Missing " + key + " in " + json);
+        }
+        int start = index + key.length();
+        int end = start;
+        while (end < json.length() && (Character.isDigit(json.charAt(end)) || json.charAt(end) == '-' || json.charAt(end) == ' ')) {
+            end++;
+        }
+        return Long.parseLong(json.substring(start, end).trim());
+    }
+
+    private static void report(String label, List<Long> samples) {
+        if (samples.isEmpty()) {
+            System.out.println("[DEBUG_LOG] " + label + ": no samples");
+            return;
+        }
+        List<Long> sorted = new ArrayList<>(samples);
+        Collections.sort(sorted);
+        long sum = 0;
+        for (long sample : sorted) {
+            sum += sample;
+        }
+        System.out.printf("[DEBUG_LOG] %-12s n=%d mean=%.2fms p50=%.2fms p95=%.2fms p99=%.2fms max=%.2fms%n",
+                label, sorted.size(), sum / 1000.0 / sorted.size(),
+                percentile(sorted, 50), percentile(sorted, 95), percentile(sorted, 99),
+                sorted.get(sorted.size() - 1) / 1000.0);
+    }
+
+    private static double percentile(List<Long> sorted, int percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(index, sorted.size() - 1))) / 1000.0;
+    }
+}
@@ -0,0 +1,163 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Benchmark for order creation (POST /orders) with 1, 10 and 100 line items.
+ * Creates a user and 100 products with ample stock, then places orders of each size one at a time after
+ * a short warm-up and reports latency percentiles per size. When DATABASE_URL is set and the database has
+ * the pg_stat_statements extension, it also reports the statements executed per order, i.e. the
+ * database round-trips each order costs.
+ *
+ * Run it once on the code before a change and once after to compare.
+ *
+ * Usage: java OrderCreationBenchmark.java [ordersPerSize] [baseUrl]
+ */
+public class OrderCreationBenchmark {
+    private static final String DEFAULT_BASE_URL = "http://localhost:8080";
+    private static final int[] ORDER_SIZES = {1, 10, 100};
+    private static final int PRODUCTS = 100;
+    private static final int WARM_UP = 20;
+
+    public static void main(String[] args) throws Exception {
+        int orders = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        String baseUrl = args.length > 1 ? args[1] : DEFAULT_BASE_URL;
+        String databaseUrl = System.getenv("DATABASE_URL");
+        String runId = Long.toString(System.currentTimeMillis(), 36);
+
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+
+        String username = "order-bench-" + runId;
+        post(client, baseUrl + "/users", "{"
+                + "\"username\": \"" + username + "\","
+                + "\"password\": \"benchmark\","
+                + "\"email\": \"" + username + "@example.com\""
+                + "}", 201);
+
+        long[] productIds = new long[PRODUCTS];
+        for (int i = 0; i < PRODUCTS; i++) {
+            String body = post(client, baseUrl + "/products", "{"
+                    + "\"sku\": \"BENCH-ORD-" + runId.toUpperCase() + "-" + i + "\","
+                    + "\"name\": \"Order Bench Onion " + runId + " " + i + "\","
+                    + "\"price\": " + (1 + i % 20) + ".50,"
+                    + "\"quantity\": 100000000"
+                    + "}", 201);
+            productIds[i] = extractLong(body, "\"id\":");
+        }
+
+        System.out.println("[DEBUG_LOG] Placing " + orders + " orders per size against " + baseUrl
+                + (databaseUrl == null ? " (set DATABASE_URL to count statements)" : ""));
+
+        for (int size : ORDER_SIZES) {
+            StringBuilder items = new StringBuilder();
+            for (int i = 0; i < size; i++) {
+                items.append(i == 0 ? "" : ",")
+                        .append("{\"productId\": ").append(productIds[i % PRODUCTS]).append(", \"quantity\": 1}");
+            }
+            String orderJson = "{\"username\": \"" + username + "\", \"items\": [" + items + "]}";
+
+            List<Long> latenciesMicros = new ArrayList<>(orders);
+            long statementsBefore = 0;
+            for (int i = 0; i < WARM_UP + orders; i++) {
+                if (i == WARM_UP) {
+                    statementsBefore = statementCount(databaseUrl);
+                }
+                long start = System.nanoTime();
+                post(client, baseUrl + "/orders", orderJson, 201);
+                if (i >= WARM_UP) {
+                    latenciesMicros.add((System.nanoTime() - start) / 1_000);
+                }
+            }
+            long statements = statementCount(databaseUrl) - statementsBefore;
+
+            report(size + " item(s)", latenciesMicros);
+            if (statementsBefore >= 0 && statements >= 0) {
+                System.out.printf("[DEBUG_LOG] %-12s statements/order=%.1f%n", size + " item(s)", statements / (double) orders);
+            }
+        }
+    }
+
+    /**
+     * Total statements executed by the database so far according to pg_stat_statements, or -1 if unavailable.
+     */
+    private static long statementCount(String databaseUrl) {
+        if (databaseUrl == null) {
+            return -1;
+        }
+        try {
+            Process psql = new ProcessBuilder("psql", databaseUrl, "-Atc",
+                    "SELECT coalesce(sum(calls), 0) FROM pg_stat_statements s"
+                            + " JOIN pg_database d ON d.oid = s.dbid WHERE d.datname = current_database()")
+                    .redirectErrorStream(true)
+                    .start();
+            String output = new String(psql.getInputStream().readAllBytes(), StandardCharsets.UTF_8).trim();
+            if (psql.waitFor() != 0) {
+                System.out.println("[DEBUG_LOG] Cannot read pg_stat_statements: " + output);
+                return -1;
+            }
+            // The query above counts itself once
+            return Long.parseLong(output) - 1;
+        } catch (IOException | InterruptedException | NumberFormatException e) {
+            System.out.println("[DEBUG_LOG] Cannot read pg_stat_statements: " + e.getMessage());
+            return -1;
+        }
+    }
+
+    private static String post(HttpClient client, String url, String json, int expectedStatus) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json))
+                .build();
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != expectedStatus) {
+            throw new IllegalStateException("POST " + url + " returned " + response.statusCode() + ": " + response.body());
+        }
+        return response.body();
+    }
+
+    private static long extractLong(String json, String key) {
+        int index = json.indexOf(key);
+        if (index < 0) {
+            throw new IllegalStateException("Missing " + key + " in " + json);
+        }
+        int start = index + key.length();
+        int end = start;
+        while (end < json.length() && (Character.isDigit(json.charAt(end)) || json.charAt(end) == '-' || json.charAt(end) == ' ')) {
+            end++;
+        }
+        return Long.parseLong(json.substring(start, end).trim());
+    }
+
+    private static void report(String label, List<Long> samples) {
+        if (samples.isEmpty()) {
+            System.out.println("[DEBUG_LOG] " + label + ": no samples");
+            return;
+        }
+        List<Long> sorted = new ArrayList<>(samples);
+        Collections.sort(sorted);
+        long sum = 0;
+        for (long sample : sorted) {
+            sum += sample;
+        }
+        System.out.printf("[DEBUG_LOG] %-12s n=%d mean=%.2fms p50=%.2fms p95=%.2fms p99=%.2fms max=%.2fms%n",
+                label, sorted.size(), sum / 1000.0 / sorted.size(),
+                percentile(sorted, 50), percentile(sorted, 95), percentile(sorted, 99),
+                sorted.get(sorted.size() - 1) / 1000.0);
+    }
+
+    private static double percentile(List<Long> sorted, int percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(index, sorted.size() - 1))) / 1000.0;
+    }
+}
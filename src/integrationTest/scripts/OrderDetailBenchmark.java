@@ -0,0 +1,177 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Benchmark for reading an order with its items and products.
+ * Creates a user, 20 products and one order with 20 line items, then reads the order repeatedly in two ways:
+ * the separate calls `GET /orders/{id}` and `GET /orders/{id}/items`, and the single call
+ * `GET /orders/{id}?expand=items,products`. It reports latency percentiles per way and, when DATABASE_URL is set
+ * and the database has the pg_stat_statements extension, the statements executed per read.
+ *
+ * Usage: java OrderDetailBenchmark.java [reads] [baseUrl]
+ */
+public class OrderDetailBenchmark {
+    private static final String DEFAULT_BASE_URL = "http://localhost:8080";
+    private static final int ITEMS = 20;
+    private static final int WARM_UP = 50;
+
+    public static void main(String[] args) throws Exception {
+        int reads = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        String baseUrl = args.length > 1 ? args[1] : DEFAULT_BASE_URL;
+        String databaseUrl = System.getenv("DATABASE_URL");
+        String runId = Long.toString(System.currentTimeMillis(), 36);
+
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+
+        String username = "order-detail-bench-" + runId;
+        post(client, baseUrl + "/users", "{"
+                + "\"username\": \"" + username + "\","
+                + "\"password\": \"benchmark\","
+                + "\"email\": \"" + username + "@example.com\""
+                + "}", 201);
+
+        StringBuilder items = new StringBuilder();
+        for (int i = 0; i < ITEMS; i++) {
+            String body = post(client, baseUrl + "/products", "{"
+                    + "\"sku\": \"BENCH-DET-" + runId.toUpperCase() + "-" + i + "\","
+                    + "\"name\": \"Order Detail Bench Onion " + runId + " " + i + "\","
+                    + "\"price\": " + (1 + i) + ".50,"
+                    + "\"quantity\": 1000"
+                    + "}", 201);
+            items.append(i == 0 ? "" : ",")
+                    .append("{\"productId\": ").append(extractLong(body, "\"id\":")).append(", \"quantity\": 1}");
+        }
+        String order = post(client, baseUrl + "/orders",
+                "{\"username\": \"" + username + "\", \"items\": [" + items + "]}", 201);
+        long orderId = extractLong(order, "\"id\":");
+
+        System.out.println("[DEBUG_LOG] Reading order " + orderId + " with " + ITEMS + " items " + reads + " times per way against "
+                + baseUrl + (databaseUrl == null ? " (set DATABASE_URL to count statements)" : ""));
+
+        measure(client, databaseUrl, reads, "separate", List.of(
+                baseUrl + "/orders/" + orderId,
+                baseUrl + "/orders/" + orderId + "/items"));
+        measure(client, databaseUrl, reads, "expanded", List.of(
+                baseUrl + "/orders/" + orderId + "?expand=items,products"));
+    }
+
+    private static void measure(HttpClient client, String databaseUrl, int reads, String label, List<String> urls) throws Exception {
+        List<Long> latenciesMicros = new ArrayList<>(reads);
+        long statementsBefore = 0;
+        for (int i = 0; i < WARM_UP + reads; i++) {
+            if (i == WARM_UP) {
+                statementsBefore = statementCount(databaseUrl);
+            }
+            long start = System.nanoTime();
+            for (String url : urls) {
+                get(client, url);
+            }
+            if (i >= WARM_UP) {
+                latenciesMicros.add((System.nanoTime() - start) / 1_000);
+            }
+        }
+        long statements = statementCount(databaseUrl) - statementsBefore;
+
+        report(label, latenciesMicros);
+        if (statementsBefore >= 0 && statements >= 0) {
+            System.out.printf("[DEBUG_LOG] %-12s requests/read=%d statements/read=%.1f%n", label, urls.size(), statements / (double) reads);
+        }
+    }
+
+    private static void get(HttpClient client, String url) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .header("Accept", "application/json")
+                .GET()
+                .build();
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException("GET " + url + " returned " + response.statusCode() + ": " + response.body());
+        }
+    }
+
+    /**
+     * Total statements executed by the database so far according to pg_stat_statements, or -1 if unavailable.
+     */
+    private static long statementCount(String databaseUrl) {
+        if (databaseUrl == null) {
+            return -1;
+        }
+        try {
+            Process psql = new ProcessBuilder("psql", databaseUrl, "-Atc",
+                    "SELECT coalesce(sum(calls), 0) FROM pg_stat_statements s"
+                            + " JOIN pg_database d ON d.oid = s.dbid WHERE d.datname = current_database()")
+                    .redirectErrorStream(true)
+                    .start();
+            String output = new String(psql.getInputStream().readAllBytes(), StandardCharsets.UTF_8).trim();
+            if (psql.waitFor() != 0) {
+                System.out.println("[DEBUG_LOG] Cannot read pg_stat_statements: " + output);
+                return -1;
+            }
+            // The query above counts itself once
+            return Long.parseLong(output) - 1;
+        } catch (IOException | InterruptedException | NumberFormatException e) {
+            System.out.println("[DEBUG_LOG] Cannot read pg_stat_statements: " + e.getMessage());
+            return -1;
+        }
+    }
+
+    private static String post(HttpClient client, String url, String json, int expectedStatus) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json))
+                .build();
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != expectedStatus) {
+            throw new IllegalStateException("POST " + url + " returned " + response.statusCode() + ": " + response.body());
+        }
+        return response.body();
+    }
+
+    private static long extractLong(String json, String key) {
+        int index = json.indexOf(key);
+        if (index < 0) {
+            throw new IllegalStateException("Missing " + key + " in " + json);
+        }
+        int start = index + key.length();
+        int end = start;
+        while (end < json.length() && (Character.isDigit(json.charAt(end)) || json.charAt(end) == '-' || json.charAt(end) == ' ')) {
+            end++;
+        }
+        return Long.parseLong(json.substring(start, end).trim());
+    }
+
+    private static void report(String label, List<Long> samples) {
+        if (samples.isEmpty()) {
+            System.out.println("[DEBUG_LOG] " + label + ": no samples");
+            return;
+        }
+        List<Long> sorted = new ArrayList<>(samples);
+        Collections.sort(sorted);
+        long sum = 0;
+        for (long sample : sorted) {
+            sum += sample;
+        }
+        System.out.printf("[DEBUG_LOG] %-12s n=%d mean=%.2fms p50=%.2fms p95=%.2fms p99=%.2fms max=%.2fms%n",
+                label, sorted.size(), sum / 1000.0 / sorted.size(),
+                percentile(sorted, 50), percentile(sorted, 95), percentile(sorted, 99),
+                sorted.get(sorted.size() - 1) / 1000.0);
+    }
+
+    private static double percentile(List<Long> sorted, int percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(index, sorted.size() - 1))) / 1000.0;
+    }
+}
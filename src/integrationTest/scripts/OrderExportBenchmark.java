@@ -0,0 +1,153 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Benchmark for the streaming order export.
+ * Downloads `GET /orders/export` for January 2020 as CSV and NDJSON, each plain and gzipped, while sampling the
+ * server's heap through `/actuator/metrics/jvm.memory.used`. For each run it reports the time to the first byte,
+ * the total time, the rows and bytes received and the peak heap compared with the heap before the run.
+ * Seed the orders with order-export-seed.sql first.
+ *
+ * Usage: java OrderExportBenchmark.java [baseUrl]
+ */
+public class OrderExportBenchmark {
+    private static final String DEFAULT_BASE_URL = "http://localhost:8080";
+    private static final String RANGE = "from=2020-01-01&to=2020-01-31";
+    private static final long SAMPLE_INTERVAL_MS = 100;
+
+    public static void main(String[] args) throws Exception {
+        String baseUrl = args.length > 0 ? args[0] : DEFAULT_BASE_URL;
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+
+        System.out.println("[DEBUG_LOG] Exporting January 2020 from " + baseUrl);
+        for (String format : new String[] {"csv", "ndjson"}) {
+            for (boolean gzip : new boolean[] {false, true}) {
+                export(client, baseUrl, format, gzip);
+            }
+        }
+    }
+
+    private static void export(HttpClient client, String baseUrl, String format, boolean gzip) throws Exception {
+        HttpRequest.Builder builder = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + "/orders/export?" + RANGE + "&format=" + format))
+                .GET();
+        if (gzip) {
+            builder.header("Accept-Encoding", "gzip");
+        }
+
+        long heapBefore = heapUsed(client, baseUrl);
+        AtomicLong peakHeap = new AtomicLong(heapBefore);
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread sampler = new Thread(() -> {
+            while (running.get()) {
+                try {
+                    peakHeap.accumulateAndGet(heapUsed(client, baseUrl), Math::max);
+                    Thread.sleep(SAMPLE_INTERVAL_MS);
+                } catch (Exception e) {
+                    return;
+                }
+            }
+        });
+        sampler.start();
+
+        long start = System.nanoTime();
+        HttpResponse<InputStream> response = client.send(builder.build(), HttpResponse.BodyHandlers.ofInputStream());
+        if (response.statusCode() != 200) {
+            running.set(false);
+            throw new IllegalStateException("Export returned " + response.statusCode() + ": "
+                    + new String(response.body().readAllBytes(), StandardCharsets.UTF_8));
+        }
+        CountingInputStream wire = new CountingInputStream(response.body());
+        boolean gzipped = response.headers().firstValue("Content-Encoding").map("gzip"::equalsIgnoreCase).orElse(false);
+        long firstByteNanos = -1;
+        long lines = 0;
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream body = gzipped ? new GZIPInputStream(wire, buffer.length) : wire) {
+            int read;
+            while ((read = body.read(buffer)) > 0) {
+                if (firstByteNanos < 0) {
+                    firstByteNanos = System.nanoTime() - start;
+                }
+                for (int i = 0; i < read; i++) {
+                    if (buffer[i] == '\n') {
+                        lines++;
+                    }
+                }
+            }
+        }
+        long totalNanos = System.nanoTime() - start;
+        running.set(false);
+        sampler.join();
+
+        long rows = format.equals("csv") ? lines - 1 : lines;
+        System.out.printf("[DEBUG_LOG] %-6s %-5s rows=%d bytes=%d firstByte=%.1fms total=%.1fs rows/s=%.0f heapBefore=%dMB peakHeap=%dMB%n",
+                format, gzipped ? "gzip" : "plain", rows, wire.count, firstByteNanos / 1e6, totalNanos / 1e9,
+                rows / (totalNanos / 1e9), heapBefore >> 20, peakHeap.get() >> 20);
+    }
+
+    /**
+     * Heap used by the server in bytes, or 0 if the metrics endpoint is unavailable.
+     */
+    private static long heapUsed(HttpClient client, String baseUrl) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + "/actuator/metrics/jvm.memory.used?tag=area:heap"))
+                .GET()
+                .build();
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        String key = "\"value\":";
+        int index = response.body().indexOf(key);
+        if (response.statusCode() != 200 || index < 0) {
+            return 0;
+        }
+        int start = index + key.length();
+        int end = start;
+        while (end < response.body().length() && "0123456789.E+-".indexOf(response.body().charAt(end)) >= 0) {
+            end++;
+        }
+        return (long) Double.parseDouble(response.body().substring(start, end));
+    }
+
+    private static class CountingInputStream extends InputStream {
+        private final InputStream in;
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = in.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,247 @@
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Throughput benchmark for complete payment flows, meant to run against the application started with the
+ * `standin` profile and the local payment gateway stand-in (PaymentGatewayStandIn.java), so that no real
+ * Stripe or SumUp account or network access is needed.
+ *
+ * Each Stripe flow places an order, creates its Checkout Session, opens the session's url on the stand-in,
+ * which plays the customer paying and sends the webhooks, and waits until the order shows as PAID.
+ * Each SumUp flow places an order, then creates and processes a SumUp checkout for it.
+ * Flows run `concurrency` at a time; the benchmark reports flows per second, failures, and latency
+ * percentiles per step.
+ *
+ * Usage: java PaymentFlowBenchmark.java [flows] [concurrency] [stripe|sumup] [baseUrl]
+ */
+public class PaymentFlowBenchmark {
+    private static final String DEFAULT_BASE_URL = "http://localhost:8080";
+    private static final Duration SETTLE_TIMEOUT = Duration.ofSeconds(30);
+    private static final long POLL_INTERVAL_MS = 20;
+
+    private static final Map<String, List<Long>> latenciesMicros = new ConcurrentHashMap<>();
+    private static final Map<String, AtomicInteger> failures = new ConcurrentHashMap<>();
+
+    public static void main(String[] args) throws Exception {
+        int flows = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        String gateway = args.length > 2 ? args[2] : "stripe";
+        String baseUrl = args.length > 3 ? args[3] : DEFAULT_BASE_URL;
+        String runId = Long.toString(System.currentTimeMillis(), 36);
+
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .executor(Executors.newFixedThreadPool(4))
+                .build();
+
+        String username = "payment-bench-" + runId;
+        send(client, "POST", baseUrl + "/users", "{"
+                + "\"username\": \"" + username + "\","
+                + "\"password\": \"benchmark\","
+                + "\"email\": \"" + username + "@example.com\""
+                + "}", 201);
+        String product = send(client, "POST", baseUrl + "/products", "{"
+                + "\"sku\": \"BENCH-PAY-" + runId.toUpperCase() + "\","
+                + "\"name\": \"Payment Bench Onion " + runId + "\","
+                + "\"price\": 2.50,"
+                + "\"quantity\": 100000000"
+                + "}", 201);
+        String orderJson = "{\"username\": \"" + username + "\", \"items\": [{\"productId\": "
+                + extractLong(product, "\"id\":") + ", \"quantity\": 1}]}";
+
+        System.out.println("[DEBUG_LOG] Running " + flows + " " + gateway + " payment flows, " + concurrency
+                + " at a time, against " + baseUrl);
+
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        AtomicInteger completed = new AtomicInteger();
+        long start = System.nanoTime();
+        for (int i = 0; i < flows; i++) {
+            int flow = i;
+            executor.execute(() -> {
+                try {
+                    long flowStart = System.nanoTime();
+                    if (gateway.equals("sumup")) {
+                        sumUpFlow(client, baseUrl, orderJson, runId + "-" + flow);
+                    } else {
+                        stripeFlow(client, baseUrl, orderJson);
+                    }
+                    record("total", flowStart);
+                    completed.incrementAndGet();
+                } catch (StepException e) {
+                    failures.computeIfAbsent(e.step, k -> new AtomicInteger()).incrementAndGet();
+                    if (failures.get(e.step).get() <= 3) {
+                        System.out.println("[DEBUG_LOG] " + e.getMessage());
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.HOURS);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("[DEBUG_LOG] %d of %d flows completed in %.1fs: %.1f flows/s%n",
+                completed.get(), flows, seconds, completed.get() / seconds);
+        failures.forEach((step, count) -> System.out.println("[DEBUG_LOG] Failed at " + step + ": " + count.get()));
+        for (String step : gateway.equals("sumup")
+                ? new String[] {"order", "checkout", "process", "total"}
+                : new String[] {"order", "checkout", "pay", "settle", "total"}) {
+            report(step, latenciesMicros.getOrDefault(step, List.of()));
+        }
+    }
+
+    private static void stripeFlow(HttpClient client, String baseUrl, String orderJson) throws StepException {
+        long stepStart = System.nanoTime();
+        long orderId = extractLong(step("order", () -> send(client, "POST", baseUrl + "/orders", orderJson, 201)), "\"id\":");
+        record("order", stepStart);
+
+        stepStart = System.nanoTime();
+        String session = step("checkout", () -> send(client, "POST", baseUrl + "/api/payments/create-checkout", "{"
+                + "\"orderId\": " + orderId + ","
+                + "\"successUrl\": \"http://localhost/success\","
+                + "\"cancelUrl\": \"http://localhost/cancel\""
+                + "}", 200));
+        String checkoutUrl = extractString(session, "\"checkoutUrl\":");
+        record("checkout", stepStart);
+
+        // Opening the url plays the customer paying; the stand-in then sends the webhooks
+        stepStart = System.nanoTime();
+        step("pay", () -> send(client, "GET", checkoutUrl, null, 303));
+        record("pay", stepStart);
+
+        stepStart = System.nanoTime();
+        long deadline = stepStart + SETTLE_TIMEOUT.toNanos();
+        step("settle", () -> {
+            while (System.nanoTime() < deadline) {
+                String order = send(client, "GET", baseUrl + "/orders/" + orderId, null, 200);
+                if (order.contains("\"status\":\"PAID\"")) {
+                    return order;
+                }
+                Thread.sleep(POLL_INTERVAL_MS);
+            }
+            throw new IllegalStateException("Order " + orderId + " not PAID after " + SETTLE_TIMEOUT.toSeconds() + "s");
+        });
+        record("settle", stepStart);
+    }
+
+    private static void sumUpFlow(HttpClient client, String baseUrl, String orderJson, String reference) throws StepException {
+        long stepStart = System.nanoTime();
+        long orderId = extractLong(step("order", () -> send(client, "POST", baseUrl + "/orders", orderJson, 201)), "\"id\":");
+        record("order", stepStart);
+
+        stepStart = System.nanoTime();
+        String checkout = step("checkout", () -> send(client, "POST", baseUrl + "/api/sumup/checkout", "{"
+                + "\"checkoutReference\": \"order-" + orderId + "-" + reference + "\","
+                + "\"amount\": 2.50,"
+                + "\"currency\": \"EUR\","
+                + "\"merchantCode\": \"STANDIN\","
+                + "\"description\": \"Order #" + orderId + "\""
+                + "}", 200));
+        String checkoutId = extractString(checkout, "\"id\":");
+        record("checkout", stepStart);
+
+        stepStart = System.nanoTime();
+        String processed = step("process", () -> send(client, "PUT", baseUrl + "/api/sumup/checkout/process",
+                "{\"checkoutId\": \"" + checkoutId + "\", \"paymentType\": \"card\"}", 200));
+        if (!processed.contains("\"status\":\"PAID\"")) {
+            throw new StepException("process", "Checkout " + checkoutId + " not paid: " + processed);
+        }
+        record("process", stepStart);
+    }
+
+    private interface Step {
+        String run() throws Exception;
+    }
+
+    private static class StepException extends Exception {
+        final String step;
+
+        StepException(String step, String message) {
+            super(step + ": " + message);
+            this.step = step;
+        }
+    }
+
+    private static String step(String name, Step step) throws StepException {
+        try {
+            return step.run();
+        } catch (Exception e) {
+            throw new StepException(name, e.getMessage());
+        }
+    }
+
+    private static String send(HttpClient client, String method, String url, String json, int expectedStatus) throws Exception {
+        HttpRequest.Builder request = HttpRequest.newBuilder().uri(URI.create(url)).timeout(Duration.ofSeconds(30));
+        if (json == null) {
+            request.method(method, HttpRequest.BodyPublishers.noBody());
+        } else {
+            request.header("Content-Type", "application/json").method(method, HttpRequest.BodyPublishers.ofString(json));
+        }
+        HttpResponse<String> response = client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != expectedStatus) {
+            throw new IllegalStateException(method + " " + url + " returned " + response.statusCode() + ": " + response.body());
+        }
+        return response.body();
+    }
+
+    private static void record(String step, long startNanos) {
+        latenciesMicros.computeIfAbsent(step, k -> Collections.synchronizedList(new ArrayList<>()))
+                .add((System.nanoTime() - startNanos) / 1_000);
+    }
+
+    private static long extractLong(String json, String key) {
+        int index = json.indexOf(key);
+        if (index < 0) {
+            throw new IllegalStateException("Missing " + key + " in " + json);
+        }
+        int start = index + key.length();
+        int end = start;
+        while (end < json.length() && (Character.isDigit(json.charAt(end)) || json.charAt(end) == '-' || json.charAt(end) == ' ')) {
+            end++;
+        }
+        return Long.parseLong(json.substring(start, end).trim());
+    }
+
+    private static String extractString(String json, String key) {
+        int index = json.indexOf(key);
+        if (index < 0) {
+            throw new IllegalStateException("Missing " + key + " in " + json);
+        }
+        int start = json.indexOf('"', index + key.length()) + 1;
+        return json.substring(start, json.indexOf('"', start));
+    }
+
+    private static void report(String label, List<Long> samples) {
+        if (samples.isEmpty()) {
+            System.out.println("[DEBUG_LOG] " + label + ": no samples");
+            return;
+        }
+        List<Long> sorted = new ArrayList<>(samples);
+        Collections.sort(sorted);
+        long sum = 0;
+        for (long sample : sorted) {
+            sum += sample;
+        }
+        System.out.printf("[DEBUG_LOG] %-10s n=%d mean=%.2fms p50=%.2fms p95=%.2fms p99=%.2fms max=%.2fms%n",
+                label, sorted.size(), sum / 1000.0 / sorted.size(),
+                percentile(sorted, 50), percentile(sorted, 95), percentile(sorted, 99),
+                sorted.get(sorted.size() - 1) / 1000.0);
+    }
+
+    private static double percentile(List<Long> sorted, int percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(index, sorted.size() - 1))) / 1000.0;
+    }
+}
@@ -0,0 +1,118 @@
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+/**
+ * Benchmark for the bulk product import (POST /products/import).
+ * Generates N synthetic products on the fly and streams them as one CSV or NDJSON upload, so neither
+ * side holds the whole payload in memory, then reports the elapsed time, the throughput and the
+ * server's import summary. Every run uses a fresh SKU prefix (BENCH-IMP-<run>-), so runs never collide.
+ *
+ * Usage: java ProductImportBenchmark.java [count] [csv|ndjson] [baseUrl]
+ */
+public class ProductImportBenchmark {
+    private static final String DEFAULT_BASE_URL = "http://localhost:8080";
+    private static final String[] NAMES = {
+        "Red Onion", "White Onion", "Sweet Onion", "Shallot", "Leek", "Garlic", "Scallion", "Pearl Onion"
+    };
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        boolean csv = args.length <= 1 || args[1].equalsIgnoreCase("csv");
+        String baseUrl = args.length > 2 ? args[2] : DEFAULT_BASE_URL;
+        String run = Long.toString(System.currentTimeMillis(), 36);
+
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + "/products/import"))
+                .header("Content-Type", csv ? "text/csv" : "application/x-ndjson")
+                .header("Accept", "application/json")
+                .timeout(Duration.ofMinutes(30))
+                .POST(HttpRequest.BodyPublishers.ofInputStream(() -> new ProductStream(count, csv, run)))
+                .build();
+
+        System.out.println("[DEBUG_LOG] Importing " + count + " products as " + (csv ? "CSV" : "NDJSON")
+                + " into " + baseUrl + " (SKU prefix BENCH-IMP-" + run + "-)");
+
+        long start = System.nanoTime();
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+
+        if (response.statusCode() != 200) {
+            System.out.println("[DEBUG_LOG] Import failed with status " + response.statusCode() + ": " + response.body());
+            System.exit(1);
+        }
+        String body = response.body();
+        System.out.println("[DEBUG_LOG] Report: " + (body.length() > 500 ? body.substring(0, 500) + "..." : body));
+        System.out.printf("[DEBUG_LOG] %d products in %.2fs = %.0f products/sec%n", count, seconds, count / seconds);
+    }
+
+    /**
+     * Produces the upload lazily, one product line at a time.
+     */
+    private static final class ProductStream extends InputStream {
+        private final int count;
+        private final boolean csv;
+        private final String run;
+        private int next;
+        private byte[] line = new byte[0];
+        private int position;
+
+        ProductStream(int count, boolean csv, String run) {
+            this.count = count;
+            this.csv = csv;
+            this.run = run;
+            this.next = csv ? -1 : 0;
+        }
+
+        @Override
+        public int read() {
+            if (position == line.length && !advance()) {
+                return -1;
+            }
+            return line[position++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (position == line.length && !advance()) {
+                return -1;
+            }
+            int n = Math.min(length, line.length - position);
+            System.arraycopy(line, position, buffer, offset, n);
+            position += n;
+            return n;
+        }
+
+        private boolean advance() {
+            if (next >= count) {
+                return false;
+            }
+            String text;
+            if (next < 0) {
+                text = "sku,name,description,price,quantity\n";
+            } else {
+                String sku = "BENCH-IMP-" + run + "-" + next;
+                String name = NAMES[next % NAMES.length] + " " + (next / NAMES.length);
+                String price = (1 + next % 50) + "." + (next % 100 < 10 ? "0" : "") + (next % 100);
+                int quantity = next % 500;
+                text = csv
+                        ? sku + "," + name + ",\"Benchmark product, batch " + run + "\"," + price + "," + quantity + "\n"
+                        : "{\"sku\":\"" + sku + "\",\"name\":\"" + name + "\",\"description\":\"Benchmark product, batch "
+                            + run + "\",\"price\":" + price + ",\"quantity\":" + quantity + "}\n";
+            }
+            next++;
+            line = text.getBytes(StandardCharsets.UTF_8);
+            position = 0;
+            return true;
+        }
+    }
+}
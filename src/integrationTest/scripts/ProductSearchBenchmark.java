@@ -0,0 +1,92 @@
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Benchmark comparing the legacy substring search (GET /products/search?name=) with the ranked
+ * full-text search (GET /products/search?q=).
+ * Runs the same terms through both paths, one request at a time after a short warm-up, and reports
+ * latency percentiles for each. Seed the database first with product-search-seed.sql.
+ *
+ * Usage: java ProductSearchBenchmark.java [queries] [baseUrl]
+ */
+public class ProductSearchBenchmark {
+    private static final String DEFAULT_BASE_URL = "http://localhost:8080";
+    private static final String[] TERMS = {
+        "onion", "shallot", "leek", "garlic", "scallion", "potato", "pepper", "cabbage",
+        "red onion", "sweet pepper", "roasted garlic", "baby leek", "organic tomato", "giant fennel"
+    };
+    private static final int WARM_UP = 20;
+
+    public static void main(String[] args) throws Exception {
+        int queries = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        String baseUrl = args.length > 1 ? args[1] : DEFAULT_BASE_URL;
+
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+
+        System.out.println("[DEBUG_LOG] Running " + queries + " queries per search path against " + baseUrl);
+
+        report("LIKE ?name=", run(client, baseUrl + "/products/search?name=", queries));
+        report("FTS ?q=", run(client, baseUrl + "/products/search?size=20&q=", queries));
+    }
+
+    private static List<Long> run(HttpClient client, String urlPrefix, int queries) throws Exception {
+        List<Long> latenciesMicros = new ArrayList<>(queries);
+        int failures = 0;
+        for (int i = 0; i < WARM_UP + queries; i++) {
+            String term = TERMS[i % TERMS.length];
+            HttpRequest request = HttpRequest.newBuilder()
+                    .uri(URI.create(urlPrefix + URLEncoder.encode(term, StandardCharsets.UTF_8)))
+                    .header("Accept", "application/json")
+                    .GET()
+                    .build();
+
+            long start = System.nanoTime();
+            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            long elapsedMicros = (System.nanoTime() - start) / 1_000;
+
+            if (response.statusCode() != 200) {
+                failures++;
+                System.out.println("[DEBUG_LOG] Query '" + term + "' failed with status " + response.statusCode());
+            } else if (i >= WARM_UP) {
+                latenciesMicros.add(elapsedMicros);
+            }
+        }
+        if (failures > 0) {
+            System.out.println("[DEBUG_LOG] " + failures + " queries failed");
+        }
+        return latenciesMicros;
+    }
+
+    private static void report(String label, List<Long> samples) {
+        if (samples.isEmpty()) {
+            System.out.println("[DEBUG_LOG] " + label + ": no samples");
+            return;
+        }
+        List<Long> sorted = new ArrayList<>(samples);
+        Collections.sort(sorted);
+        long sum = 0;
+        for (long sample : sorted) {
+            sum += sample;
+        }
+        System.out.printf("[DEBUG_LOG] %-12s n=%d mean=%.2fms p50=%.2fms p95=%.2fms p99=%.2fms max=%.2fms%n",
+                label, sorted.size(), sum / 1000.0 / sorted.size(),
+                percentile(sorted, 50), percentile(sorted, 95), percentile(sorted, 99),
+                sorted.get(sorted.size() - 1) / 1000.0);
+    }
+
+    private static double percentile(List<Long> sorted, int percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(index, sorted.size() - 1))) / 1000.0;
+    }
+}
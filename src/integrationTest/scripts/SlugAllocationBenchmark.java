@@ -0,0 +1,105 @@
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Benchmark for product creation when many products share one base name.
+ * Creates N products (default 1,000) named "Benchmark Onion" and reports the create latency,
+ * both overall and for the first and last 100 creations, so a slug search that grows with the
+ * number of existing "benchmark-onion-N" slugs shows up as a rising tail.
+ *
+ * Usage: java SlugAllocationBenchmark.java [count] [baseUrl]
+ */
+public class SlugAllocationBenchmark {
+    private static final String DEFAULT_BASE_URL = "http://localhost:8080";
+    private static final String PRODUCT_NAME = "Benchmark Onion";
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        String baseUrl = args.length > 1 ? args[1] : DEFAULT_BASE_URL;
+        String runId = Long.toString(System.currentTimeMillis(), 36).toUpperCase();
+
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+
+        System.out.println("[DEBUG_LOG] Creating " + count + " products named '" + PRODUCT_NAME + "' (run " + runId + ")");
+
+        List<Long> latenciesMicros = new ArrayList<>(count);
+        int failures = 0;
+        String lastSlug = null;
+
+        for (int i = 0; i < count; i++) {
+            String productJson = "{"
+                + "\"sku\": \"BENCH-" + runId + "-" + i + "\","
+                + "\"name\": \"" + PRODUCT_NAME + "\","
+                + "\"description\": \"Slug allocation benchmark product\","
+                + "\"price\": 1.00,"
+                + "\"quantity\": 1"
+                + "}";
+
+            HttpRequest request = HttpRequest.newBuilder()
+                    .uri(URI.create(baseUrl + "/products"))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(productJson))
+                    .build();
+
+            long start = System.nanoTime();
+            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            long elapsedMicros = (System.nanoTime() - start) / 1_000;
+
+            if (response.statusCode() == 201) {
+                latenciesMicros.add(elapsedMicros);
+                lastSlug = extractSlug(response.body());
+            } else {
+                failures++;
+                System.out.println("[DEBUG_LOG] Create #" + i + " failed with status " + response.statusCode() + ": " + response.body());
+            }
+        }
+
+        System.out.println("[DEBUG_LOG] Created: " + latenciesMicros.size() + ", failed: " + failures + ", last slug: " + lastSlug);
+        report("all creates", latenciesMicros);
+        if (latenciesMicros.size() >= 200) {
+            report("first 100", latenciesMicros.subList(0, 100));
+            report("last 100", latenciesMicros.subList(latenciesMicros.size() - 100, latenciesMicros.size()));
+        }
+    }
+
+    private static void report(String label, List<Long> samples) {
+        if (samples.isEmpty()) {
+            System.out.println("[DEBUG_LOG] " + label + ": no samples");
+            return;
+        }
+        List<Long> sorted = new ArrayList<>(samples);
+        Collections.sort(sorted);
+        long sum = 0;
+        for (long sample : sorted) {
+            sum += sample;
+        }
+        System.out.printf("[DEBUG_LOG] %-12s n=%d mean=%.2fms p50=%.2fms p95=%.2fms p99=%.2fms max=%.2fms%n",
+                label, sorted.size(), sum / 1000.0 / sorted.size(),
+                percentile(sorted, 50), percentile(sorted, 95), percentile(sorted, 99),
+                sorted.get(sorted.size() - 1) / 1000.0);
+    }
+
+    private static double percentile(List<Long> sorted, int percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(index, sorted.size() - 1))) / 1000.0;
+    }
+
+    private static String extractSlug(String jsonResponse) {
+        int slugIndex = jsonResponse.indexOf("\"slug\":");
+        if (slugIndex < 0) {
+            return "SLUG_NOT_FOUND";
+        }
+        int slugStartIndex = jsonResponse.indexOf("\"", slugIndex + 7) + 1;
+        int slugEndIndex = jsonResponse.indexOf("\"", slugStartIndex);
+        return jsonResponse.substring(slugStartIndex, slugEndIndex);
+    }
+}
@@ -0,0 +1,7 @@
+#!/bin/bash
+
+# Navigate to the scripts directory
+cd "$(dirname "$0")"
+
+# Run the inventory contention benchmark (defaults: stock 100, 2000 orders, 64 concurrent, http://localhost:8080)
+java InventoryContentionBenchmark.java "$@"
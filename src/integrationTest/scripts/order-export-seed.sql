@@ -0,0 +1,41 @@
+-- Seeds :count synthetic orders of three line items each, spread over January 2020, for the order export benchmark.
+-- Usage: psql "$DATABASE_URL" -v count=1000000 -f order-export-seed.sql
+-- Previous benchmark orders (user bench-export) are removed first, so January 2020 holds exactly
+-- :count benchmark orders on top of the regular data.
+
+INSERT INTO users (username, password, email)
+VALUES ('bench-export', 'benchmark', 'bench-export@example.com')
+ON CONFLICT DO NOTHING;
+
+INSERT INTO products (sku, name, slug, price, quantity)
+SELECT 'BENCH-EXP-' || g, 'Export Bench Onion ' || g, 'bench-exp-' || g, g + 0.50, 1000
+FROM generate_series(1, 3) AS g
+ON CONFLICT DO NOTHING;
+
+SELECT create_order_partition(DATE '2020-01-01');
+
+DELETE FROM order_details d
+USING orders o, users u
+WHERE d.order_id = o.id AND d.order_date = o.order_date AND o.user_id = u.id AND u.username = 'bench-export'
+  AND o.order_date >= '2020-01-01' AND o.order_date < '2020-02-01';
+
+DELETE FROM orders o
+USING users u
+WHERE o.user_id = u.id AND u.username = 'bench-export'
+  AND o.order_date >= '2020-01-01' AND o.order_date < '2020-02-01';
+
+WITH placed AS (
+    INSERT INTO orders (user_id, total_amount, order_date, status)
+    SELECT u.id, 7.50, TIMESTAMP '2020-01-01' + (g * 2678399.0 / :count) * INTERVAL '1 second',
+           (ARRAY['PENDING', 'PAID', 'SHIPPED', 'DELIVERED', 'CANCELLED'])[1 + g % 5]
+    FROM generate_series(1, :count) AS g, users u
+    WHERE u.username = 'bench-export'
+    RETURNING id, order_date
+)
+INSERT INTO order_details (order_id, order_date, product_id, quantity, price)
+SELECT o.id, o.order_date, p.id, 1, p.price
+FROM placed o, products p
+WHERE p.sku LIKE 'BENCH-EXP-%';
+
+ANALYZE orders;
+ANALYZE order_details;
@@ -0,0 +1,8 @@
+#!/bin/bash
+
+# Navigate to the scripts directory
+cd "$(dirname "$0")"
+
+# Usage: ./payment-flow-benchmark.sh [flows] [concurrency] [stripe|sumup] [baseUrl]
+# Start the payment gateway stand-in and the application with the standin profile first.
+java PaymentFlowBenchmark.java "${1:-500}" "${2:-50}" "${3:-stripe}" "${4:-http://localhost:8080}"
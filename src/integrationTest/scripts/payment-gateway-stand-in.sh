@@ -0,0 +1,10 @@
+#!/bin/bash
+
+# Navigate to the scripts directory
+cd "$(dirname "$0")"
+
+# Usage: ./payment-gateway-stand-in.sh [port] [appBaseUrl]
+# Latency and error injection: STANDIN_LATENCY_MS, STANDIN_JITTER_MS, STANDIN_ERROR_RATE, STANDIN_ERROR_STATUS;
+# STANDIN_AUTO_COMPLETE_MS pays sessions and payment intents that long after their creation.
+# The stand-in is also the one the tests start, so it lives with the test sources
+java ../../test/java/com/execodex/demolocalai/client/PaymentGatewayStandIn.java "${1:-12111}" "${2:-http://localhost:8080}"
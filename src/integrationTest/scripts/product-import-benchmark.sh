@@ -0,0 +1,8 @@
+#!/bin/bash
+
+# Navigate to the scripts directory
+cd "$(dirname "$0")"
+
+# Usage: ./product-import-benchmark.sh [productCount] [csv|ndjson] [baseUrl]
+# Streams productCount generated products (default 100000) to POST /products/import and reports throughput.
+java ProductImportBenchmark.java "${1:-100000}" "${2:-csv}" "${3:-http://localhost:8080}"
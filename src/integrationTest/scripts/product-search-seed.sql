@@ -0,0 +1,23 @@
+-- Seeds :count synthetic products for the product search benchmark.
+-- Usage: psql "$DATABASE_URL" -v count=100000 -f product-search-seed.sql
+-- Previous benchmark rows (SKU prefix BENCH-FTS-) are removed first, so the table holds exactly
+-- :count benchmark products on top of the regular data.
+
+DELETE FROM products WHERE sku LIKE 'BENCH-FTS-%';
+
+INSERT INTO products (sku, name, slug, description, price, quantity)
+SELECT 'BENCH-FTS-' || g,
+       initcap(adjective) || ' ' || initcap(vegetable) || ' ' || g,
+       'bench-fts-' || g,
+       'A ' || adjective || ' ' || vegetable || ' grown in ' || region || ', ideal for ' || dish || '.',
+       round((1 + random() * 19)::numeric, 2),
+       100
+FROM generate_series(1, :count) AS g,
+LATERAL (
+    SELECT (ARRAY['red', 'white', 'yellow', 'sweet', 'spring', 'pickled', 'roasted', 'organic', 'giant', 'baby'])[1 + (g * 7) % 10] AS adjective,
+           (ARRAY['onion', 'shallot', 'leek', 'garlic', 'scallion', 'chive', 'potato', 'carrot', 'pepper', 'tomato', 'cabbage', 'fennel'])[1 + (g * 13) % 12] AS vegetable,
+           (ARRAY['Tropea', 'Vidalia', 'Walla Walla', 'Maui', 'Cevennes', 'Roscoff', 'Giarratana', 'Bermuda'])[1 + (g * 17) % 8] AS region,
+           (ARRAY['soups', 'salads', 'grilling', 'pickling', 'stews', 'sauces', 'roasting'])[1 + (g * 19) % 7] AS dish
+) AS words;
+
+ANALYZE products;
@@ -0,0 +1,7 @@
+#!/bin/bash
+
+# Navigate to the scripts directory
+cd "$(dirname "$0")"
+
+# Run the slug allocation benchmark (defaults: 1000 products against http://localhost:8080)
+java SlugAllocationBenchmark.java "$@"
@@ -0,0 +1,69 @@
+package com.execodex.demolocalai.client
+
+import org.springframework.ai.document.Document
+import org.springframework.ai.embedding.AbstractEmbeddingModel
+import org.springframework.ai.embedding.Embedding
+import org.springframework.ai.embedding.EmbeddingRequest
+import org.springframework.ai.embedding.EmbeddingResponse
+import java.util.Locale
+import kotlin.math.sqrt
+
+/**
+ * Deterministic, offline embedding model based on feature hashing.
+ *
+ * Each word and each character trigram of a word is hashed into one of `dimensions` buckets with a
+ * hash-derived sign, and the vector is L2-normalised. Texts sharing words or word fragments end up
+ * close in cosine distance, which is enough to exercise semantic search without a model server.
+ * The same text always yields the same vector.
+ *
+ * @param dimensions the size of the produced vectors
+ */
+class HashingEmbeddingModel(private val dimensions: Int) : AbstractEmbeddingModel() {
+
+    override fun call(request: EmbeddingRequest): EmbeddingResponse {
+        val embeddings = request.instructions.mapIndexed { index, text -> Embedding(embedText(text), index) }
+        return EmbeddingResponse(embeddings)
+    }
+
+    override fun embed(document: Document): FloatArray = embedText(document.text ?: "")
+
+    override fun dimensions(): Int = dimensions
+
+    /**
+     * Embed a single text.
+     *
+     * @param text the text to embed
+     * @return a unit-length vector, or the zero vector if the text contains no words
+     */
+    fun embedText(text: String): FloatArray {
+        val vector = FloatArray(dimensions)
+        WORD.findAll(text.lowercase(Locale.ROOT)).forEach { match ->
+            val word = match.value
+            addFeature(vector, "w:$word", WORD_WEIGHT)
+            val padded = "^$word$"
+            for (i in 0..padded.length - TRIGRAM) {
+                addFeature(vector, "t:${padded.substring(i, i + TRIGRAM)}", TRIGRAM_WEIGHT)
+            }
+        }
+        val norm = sqrt(vector.fold(0.0) { sum, value -> sum + value * value }).toFloat()
+        if (norm > 0f) {
+            for (i in vector.indices) {
+                vector[i] /= norm
+            }
+        }
+        return vector
+    }
+
+    private fun addFeature(vector: FloatArray, feature: String, weight: Float) {
+        val hash = feature.hashCode()
+        val bucket = Math.floorMod(hash, dimensions)
+        vector[bucket] += if ((hash ushr 31) == 0) weight else -weight
+    }
+
+    companion object {
+        private const val TRIGRAM = 3
+        private const val WORD_WEIGHT = 1.0f
+        private const val TRIGRAM_WEIGHT = 0.5f
+        private val WORD = "[\\p{L}\\p{N}]+".toRegex()
+    }
+}
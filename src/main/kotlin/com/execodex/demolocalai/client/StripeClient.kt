@@ -0,0 +1,199 @@
+package com.execodex.demolocalai.client
+
+import com.execodex.demolocalai.service.PaymentGatewayUnavailableException
+import com.fasterxml.jackson.core.JacksonException
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.stripe.Stripe
+import com.stripe.exception.ApiException
+import com.stripe.exception.AuthenticationException
+import com.stripe.exception.InvalidRequestException
+import com.stripe.exception.StripeException
+import com.stripe.model.PaymentIntent
+import com.stripe.model.PaymentIntentCollection
+import com.stripe.model.StripeError
+import com.stripe.model.StripeObject
+import com.stripe.model.checkout.Session
+import com.stripe.net.ApiRequestParams
+import com.stripe.net.ApiResource
+import com.stripe.net.FormEncoder
+import com.stripe.param.PaymentIntentCreateParams
+import com.stripe.param.PaymentIntentListParams
+import com.stripe.param.checkout.SessionCreateParams
+import io.netty.channel.ChannelOption
+import jakarta.annotation.PreDestroy
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.http.MediaType
+import org.springframework.http.client.reactive.ReactorClientHttpConnector
+import org.springframework.stereotype.Component
+import org.springframework.web.reactive.function.client.ClientResponse
+import org.springframework.web.reactive.function.client.WebClient
+import org.springframework.web.reactive.function.client.WebClientRequestException
+import reactor.core.publisher.Mono
+import reactor.netty.http.client.HttpClient
+import reactor.netty.resources.ConnectionProvider
+import java.security.MessageDigest
+import java.time.Duration
+import java.util.HexFormat
+
+/**
+ * Non-blocking Stripe API client on WebClient and reactor-netty.
+ *
+ * Requests are encoded and responses decoded with the Stripe SDK's own params and models, but go over a
+ * shared pool of at most `stripe.api.max-connections` keep-alive connections instead of the SDK's blocking
+ * transport, so a call in flight holds no thread. Requests waiting for a pooled connection are capped by
+ * `stripe.api.pending-acquire-max-count` and `stripe.api.pending-acquire-timeout-ms`, and each request
+ * times out after `stripe.api.read-timeout-ms` without a response.
+ *
+ * Creations are sent with an `Idempotency-Key` made of the caller's key and a hash of the request, so that
+ * repeating the same creation while Stripe keeps the key (24 hours) returns the object created first
+ * instead of a duplicate, while a changed request creates a new one.
+ *
+ * Calls that cannot be made or answered (pool exhausted, connection failure, timeout, Stripe 429 or 5xx)
+ * fail with a [PaymentGatewayUnavailableException]; other Stripe errors fail with the SDK's [StripeException]s.
+ * Latency is recorded by the `http.client.requests` metric, and the pool by the `reactor.netty.connection.provider` metrics.
+ */
+@Component
+class StripeClient(
+    webClientBuilder: WebClient.Builder,
+    private val objectMapper: ObjectMapper,
+    @Value("\${stripe.api.secretKey}") secretKey: String,
+    @Value("\${stripe.api.base-url:https://api.stripe.com}") baseUrl: String,
+    @Value("\${stripe.api.max-connections:200}") maxConnections: Int,
+    @Value("\${stripe.api.pending-acquire-max-count:1000}") pendingAcquireMaxCount: Int,
+    @Value("\${stripe.api.pending-acquire-timeout-ms:5000}") pendingAcquireTimeoutMs: Long,
+    @Value("\${stripe.api.max-idle-time-ms:20000}") maxIdleTimeMs: Long,
+    @Value("\${stripe.api.connect-timeout-ms:5000}") connectTimeoutMs: Int,
+    @Value("\${stripe.api.read-timeout-ms:15000}") readTimeoutMs: Long
+) {
+    private val connectionProvider: ConnectionProvider = ConnectionProvider.builder("stripe")
+        .maxConnections(maxConnections)
+        .pendingAcquireMaxCount(pendingAcquireMaxCount)
+        .pendingAcquireTimeout(Duration.ofMillis(pendingAcquireTimeoutMs))
+        // Below the idle timeout of Stripe's servers, so that a pooled connection is not closed under a request
+        .maxIdleTime(Duration.ofMillis(maxIdleTimeMs))
+        .evictInBackground(Duration.ofMillis(maxIdleTimeMs))
+        .metrics(true)
+        .build()
+
+    private val webClient: WebClient = webClientBuilder.clone()
+        .baseUrl(baseUrl)
+        .clientConnector(
+            ReactorClientHttpConnector(
+                HttpClient.create(connectionProvider)
+                    .keepAlive(true)
+                    .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeoutMs)
+                    .responseTimeout(Duration.ofMillis(readTimeoutMs))
+            )
+        )
+        .defaultHeaders { headers ->
+            headers.setBearerAuth(secretKey)
+            headers.set("Stripe-Version", Stripe.API_VERSION)
+        }
+        .build()
+
+    /**
+     * Create a payment intent.
+     *
+     * @param params the payment intent parameters
+     * @param idempotencyKey the key of the creation, e.g. per order
+     * @return a Mono containing the created PaymentIntent
+     */
+    fun createPaymentIntent(params: PaymentIntentCreateParams, idempotencyKey: String): Mono<PaymentIntent> =
+        post("/v1/payment_intents", params, idempotencyKey, PaymentIntent::class.java)
+
+    /**
+     * Retrieve a payment intent.
+     *
+     * @param paymentIntentId the ID of the payment intent
+     * @return a Mono containing the PaymentIntent
+     */
+    fun retrievePaymentIntent(paymentIntentId: String): Mono<PaymentIntent> =
+        exchange(webClient.get().uri("/v1/payment_intents/{id}", paymentIntentId), PaymentIntent::class.java)
+
+    /**
+     * List payment intents, newest first.
+     *
+     * @param params the list parameters: page size, creation time range and cursor
+     * @return a Mono containing one page of PaymentIntents
+     */
+    fun listPaymentIntents(params: PaymentIntentListParams): Mono<PaymentIntentCollection> =
+        exchange(
+            webClient.get().uri { builder ->
+                builder.path("/v1/payment_intents")
+                FormEncoder.flattenParams(params.toMap(), false).forEach { builder.queryParam(it.key, it.value) }
+                builder.build()
+            },
+            PaymentIntentCollection::class.java
+        )
+
+    /**
+     * Create a Checkout Session.
+     *
+     * @param params the Checkout Session parameters
+     * @param idempotencyKey the key of the creation, e.g. per order
+     * @return a Mono containing the created Session
+     */
+    fun createCheckoutSession(params: SessionCreateParams, idempotencyKey: String): Mono<Session> =
+        post("/v1/checkout/sessions", params, idempotencyKey, Session::class.java)
+
+    private fun <T : StripeObject> post(path: String, params: ApiRequestParams, idempotencyKey: String, type: Class<T>): Mono<T> {
+        val body = FormEncoder.createQueryString(params.toMap())
+        val digest = MessageDigest.getInstance("SHA-256").digest(body.encodeToByteArray())
+        return exchange(
+            webClient.post().uri(path)
+                .header("Idempotency-Key", "$idempotencyKey-${HexFormat.of().formatHex(digest)}")
+                .contentType(MediaType.APPLICATION_FORM_URLENCODED)
+                .bodyValue(body),
+            type
+        )
+    }
+
+    private fun <T : StripeObject> exchange(request: WebClient.RequestHeadersSpec<*>, type: Class<T>): Mono<T> =
+        request.exchangeToMono { response ->
+            response.bodyToMono(String::class.java)
+                .defaultIfEmpty("")
+                .handle { body, sink ->
+                    if (response.statusCode().is2xxSuccessful) {
+                        sink.next(StripeObject.deserializeStripeObject(body, type, ApiResource.getGlobalResponseGetter()))
+                    } else {
+                        sink.error(error(response, body))
+                    }
+                }
+        }
+            .onErrorMap(WebClientRequestException::class.java) { error ->
+                PaymentGatewayUnavailableException("Stripe request ${error.method} ${error.uri.path} failed: ${error.message}", error)
+            }
+
+    private fun error(response: ClientResponse, body: String): Exception {
+        val status = response.statusCode().value()
+        val requestId = response.headers().asHttpHeaders().getFirst("Request-Id")
+        val stripeError = try {
+            objectMapper.readTree(body).get("error")?.takeIf { it.isObject }?.let {
+                StripeObject.deserializeStripeObject(it.toString(), StripeError::class.java, ApiResource.getGlobalResponseGetter())
+            }
+        } catch (e: JacksonException) {
+            // Not a Stripe error body, e.g. the HTML error page of a proxy
+            null
+        }
+        val message = stripeError?.message ?: "Stripe returned HTTP $status"
+
+        if (status == 429 || status >= 500) {
+            return PaymentGatewayUnavailableException("Stripe is unavailable (HTTP $status): $message")
+        }
+        val exception = when (status) {
+            401 -> AuthenticationException(message, requestId, stripeError?.code, status)
+            400, 404 -> InvalidRequestException(message, stripeError?.param, requestId, stripeError?.code, status, null)
+            else -> ApiException(message, requestId, stripeError?.code, status, null)
+        }
+        stripeError?.let { exception.setStripeError(it) }
+        return exception
+    }
+
+    /**
+     * Close the pooled connections.
+     */
+    @PreDestroy
+    fun shutdown() {
+        connectionProvider.dispose()
+    }
+}
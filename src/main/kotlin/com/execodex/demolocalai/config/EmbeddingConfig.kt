@@ -0,0 +1,25 @@
+package com.execodex.demolocalai.config
+
+import com.execodex.demolocalai.client.HashingEmbeddingModel
+import org.springframework.ai.embedding.EmbeddingModel
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty
+import org.springframework.context.annotation.Bean
+import org.springframework.context.annotation.Configuration
+
+/**
+ * Embedding model selection.
+ *
+ * Spring AI picks the embedding provider from `spring.ai.model.embedding`: `local`, which the application
+ * properties set, uses the deterministic [HashingEmbeddingModel] below, which needs no model server and is
+ * meant for development and offline testing; `openai` uses the OpenAI-compatible model runner.
+ */
+@Configuration
+class EmbeddingConfig {
+
+    @Bean
+    @ConditionalOnProperty(name = ["spring.ai.model.embedding"], havingValue = "local")
+    fun localEmbeddingModel(
+        @Value("\${spring.ai.vectorstore.pgvector.dimensions:384}") dimensions: Int
+    ): EmbeddingModel = HashingEmbeddingModel(dimensions)
+}
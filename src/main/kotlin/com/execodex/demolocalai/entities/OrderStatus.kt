@@ -0,0 +1,49 @@
+package com.execodex.demolocalai.entities
+
+/**
+ * The lifecycle of an order, stored as its name in `orders.status`.
+ *
+ * ```
+ * PENDING ──> PAID ──> SHIPPED ──> DELIVERED
+ *    │          │         │            │
+ *    v          └─────────┴────────────┴──> REFUNDED
+ * CANCELLED
+ * ```
+ */
+enum class OrderStatus {
+    PENDING,
+    PAID,
+    SHIPPED,
+    DELIVERED,
+    CANCELLED,
+    REFUNDED;
+
+    /**
+     * The statuses this status may move to.
+     */
+    val next: Set<OrderStatus>
+        get() = when (this) {
+            PENDING -> setOf(PAID, CANCELLED)
+            PAID -> setOf(SHIPPED, REFUNDED)
+            SHIPPED -> setOf(DELIVERED, REFUNDED)
+            DELIVERED -> setOf(REFUNDED)
+            CANCELLED, REFUNDED -> emptySet()
+        }
+
+    /**
+     * The statuses an order must be in to move to this status.
+     */
+    val previous: Set<OrderStatus>
+        get() = entries.filterTo(HashSet()) { this in it.next }
+
+    companion object {
+        /**
+         * Parse a status name.
+         *
+         * @param name the status name, case-insensitive
+         * @return the status, or an [IllegalArgumentException] if there is no such status
+         */
+        fun of(name: String): OrderStatus = entries.firstOrNull { it.name.equals(name.trim(), ignoreCase = true) }
+            ?: throw IllegalArgumentException("Unknown order status: $name")
+    }
+}
@@ -0,0 +1,20 @@
+package com.execodex.demolocalai.entities
+
+import org.springframework.data.annotation.Id
+import org.springframework.data.relational.core.mapping.Table
+import java.time.LocalDateTime
+
+/**
+ * Entity representing one status transition of an order.
+ * Rows are only ever appended, by the statement that changes the order's status.
+ */
+@Table("order_status_history")
+data class OrderStatusChange(
+    @Id
+    val id: Long? = null,
+    val orderId: Long,
+    val fromStatus: String,
+    val toStatus: String,
+    val reason: String? = null,
+    val changedAt: LocalDateTime = LocalDateTime.now()
+)
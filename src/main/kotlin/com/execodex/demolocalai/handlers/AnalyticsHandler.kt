@@ -0,0 +1,107 @@
+package com.execodex.demolocalai.handlers
+
+import com.execodex.demolocalai.entities.OrderStatus
+import com.execodex.demolocalai.service.SalesRollupService
+import org.springframework.stereotype.Component
+import org.springframework.web.reactive.function.server.ServerRequest
+import org.springframework.web.reactive.function.server.ServerResponse
+import reactor.core.publisher.Mono
+import java.time.LocalDate
+import java.time.format.DateTimeParseException
+
+/**
+ * Handler for sales analytics HTTP requests, answered from the daily sales rollups.
+ */
+@Component
+class AnalyticsHandler(private val salesRollupService: SalesRollupService) {
+
+    /**
+     * Get the sales of each product over a date range, best-selling first.
+     *
+     * @param request the server request with the `from`, `to`, `status` and `limit` query parameters
+     * @return a server response containing the product sales
+     */
+    fun getProductSales(request: ServerRequest): Mono<ServerResponse> {
+        return Mono.fromCallable { SalesQuery.from(request) }
+            .flatMap { query ->
+                val limit = request.queryParam("limit")
+                    .filter { it.isNotBlank() }
+                    .map { value ->
+                        value.toIntOrNull()?.takeIf { it in 1..MAX_PRODUCTS }
+                            ?: throw IllegalArgumentException("Invalid limit: $value, expected 1-$MAX_PRODUCTS")
+                    }
+                    .orElse(DEFAULT_PRODUCTS)
+                salesRollupService.getProductSales(query.from, query.to, query.statuses, limit).collectList()
+            }
+            .flatMap { sales -> ServerResponse.ok().bodyValue(sales) }
+            .onErrorResume(IllegalArgumentException::class.java) { error ->
+                ServerResponse.badRequest().bodyValue(error.message ?: "Bad request")
+            }
+    }
+
+    /**
+     * Get the sales of each day and order status over a date range.
+     *
+     * @param request the server request with the `from`, `to` and `status` query parameters
+     * @return a server response containing the daily sales
+     */
+    fun getDailySales(request: ServerRequest): Mono<ServerResponse> {
+        return Mono.fromCallable { SalesQuery.from(request) }
+            .flatMap { query -> salesRollupService.getDailySales(query.from, query.to, query.statuses).collectList() }
+            .flatMap { sales -> ServerResponse.ok().bodyValue(sales) }
+            .onErrorResume(IllegalArgumentException::class.java) { error ->
+                ServerResponse.badRequest().bodyValue(error.message ?: "Bad request")
+            }
+    }
+
+    /**
+     * Rebuild the sales rollups of a date range from the orders.
+     *
+     * @param request the server request with the `from` and `to` query parameters
+     * @return a server response containing the rebuild report
+     */
+    fun rebuildRollups(request: ServerRequest): Mono<ServerResponse> {
+        return Mono.fromCallable { SalesQuery.from(request) }
+            .flatMap { query -> salesRollupService.rebuild(query.from, query.to) }
+            .flatMap { report -> ServerResponse.ok().bodyValue(report) }
+            .onErrorResume(IllegalArgumentException::class.java) { error ->
+                ServerResponse.badRequest().bodyValue(error.message ?: "Bad request")
+            }
+    }
+
+    /**
+     * The date range and statuses of an analytics request. The range defaults to the last
+     * [DEFAULT_RANGE_DAYS] days up to today, and the statuses to all of them.
+     */
+    private data class SalesQuery(val from: LocalDate, val to: LocalDate, val statuses: Set<OrderStatus>) {
+        companion object {
+            fun from(request: ServerRequest): SalesQuery {
+                val to = dateParam(request, "to") ?: LocalDate.now()
+                val from = dateParam(request, "from") ?: to.minusDays(DEFAULT_RANGE_DAYS - 1)
+                val statuses = request.queryParams()["status"].orEmpty()
+                    .flatMap { it.split(",") }
+                    .filter { it.isNotBlank() }
+                    .mapTo(HashSet()) { OrderStatus.of(it) }
+                return SalesQuery(from, to, statuses)
+            }
+
+            private fun dateParam(request: ServerRequest, name: String): LocalDate? =
+                request.queryParam(name)
+                    .filter { it.isNotBlank() }
+                    .map {
+                        try {
+                            LocalDate.parse(it)
+                        } catch (e: DateTimeParseException) {
+                            throw IllegalArgumentException("Invalid $name: $it, expected YYYY-MM-DD")
+                        }
+                    }
+                    .orElse(null)
+        }
+    }
+
+    companion object {
+        private const val DEFAULT_RANGE_DAYS = 30L
+        private const val DEFAULT_PRODUCTS = 50
+        private const val MAX_PRODUCTS = 1000
+    }
+}
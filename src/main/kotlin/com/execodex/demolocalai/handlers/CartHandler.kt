@@ -1,7 +1,7 @@
 package com.execodex.demolocalai.handlers
 
-import com.execodex.demolocalai.entities.Order
 import com.execodex.demolocalai.pojos.AddCartItemRequest
+import com.execodex.demolocalai.pojos.CartPatchRequest
 import com.execodex.demolocalai.pojos.RemoveCartItemRequest
 import com.execodex.demolocalai.service.CartService
 import com.execodex.demolocalai.service.OrderService
@@ -10,7 +10,7 @@ import org.springframework.web.reactive.function.server.ServerRequest
 import org.springframework.web.reactive.function.server.ServerResponse
 import org.springframework.web.reactive.function.server.bodyToMono
 import reactor.core.publisher.Mono
-import java.net.URI
+import java.util.concurrent.atomic.AtomicBoolean
 
 /**
  * Handler for cart-related HTTP requests.
@@ -18,7 +18,9 @@ import java.net.URI
 @Component
 class CartHandler(
     private val cartService: CartService,
-    private val orderService: OrderService
+    private val orderService: OrderService,
+    private val guestCartToken: GuestCartToken,
+    private val idempotentOrderResponder: IdempotentOrderResponder
 ) {
 
     /**
@@ -44,6 +46,42 @@ class CartHandler(
         return request.bodyToMono<AddCartItemRequest>()
             .flatMap { addRequest -> cartService.addItemToCart(userId, addRequest) }
             .flatMap { cart -> ServerResponse.ok().bodyValue(cart) }
+            .onErrorResume(IllegalArgumentException::class.java) { error ->
+                ServerResponse.badRequest().bodyValue(error.message ?: "Bad request")
+            }
+    }
+
+    /**
+     * Apply a batch of add, remove and set operations to a user's cart in one transaction.
+     *
+     * @param request the server request containing the user ID and the operations
+     * @return a server response containing the final cart
+     */
+    fun patchCart(request: ServerRequest): Mono<ServerResponse> {
+        val userId = request.pathVariable("userId").toLong()
+        return request.bodyToMono<CartPatchRequest>()
+            .flatMap { patchRequest -> cartService.applyOperations(userId, patchRequest) }
+            .flatMap { cart -> ServerResponse.ok().bodyValue(cart) }
+            .onErrorResume(IllegalArgumentException::class.java) { error ->
+                ServerResponse.badRequest().bodyValue(error.message ?: "Bad request")
+            }
+    }
+
+    /**
+     * Merge the guest cart carried by the request into a user's cart, and clear the guest cart.
+     *
+     * @param request the server request containing the user ID and the guest cart token
+     * @return a server response containing the merged cart
+     */
+    fun mergeGuestCart(request: ServerRequest): Mono<ServerResponse> {
+        val userId = request.pathVariable("userId").toLong()
+        val guestLines = guestCartToken.read(request)
+        return cartService.mergeGuestCart(userId, guestLines)
+            .flatMap { cart ->
+                val response = ServerResponse.ok()
+                if (guestLines.isNotEmpty()) response.cookie(guestCartToken.clearCookie())
+                response.bodyValue(cart)
+            }
     }
 
     /**
@@ -74,46 +112,26 @@ class CartHandler(
     }
     
     /**
-     * Checkout a user's cart by creating an order with all cart items.
+     * Checkout a user's cart by turning it into an order and emptying it, in one transaction.
+     * A guest cart carried by the request is merged into the user's cart first.
+     * A request sent with an `Idempotency-Key` header checks out at most once per key;
+     * retries get the first response back.
      *
      * @param request the server request containing the user ID
      * @return a server response containing the created order
      */
     fun checkout(request: ServerRequest): Mono<ServerResponse> {
         val userId = request.pathVariable("userId").toLong()
-        
-        return cartService.getCartWithItems(userId)
-            .flatMap { cartResponse ->
-                if (cartResponse.items.isEmpty()) {
-                    return@flatMap ServerResponse.badRequest()
-                        .bodyValue("Cart is empty, cannot checkout")
-                }
-                
-                // Create order items from cart items
-                val orderItems = cartResponse.items.map { cartItem ->
-                    com.execodex.demolocalai.pojos.OrderItemRequest(
-                        productId = cartItem.productId,
-                        quantity = cartItem.quantity
-                    )
-                }
-                
-                // Create the order using the user ID directly
-                orderService.createOrderForUser(userId, orderItems)
-                    .flatMap { order ->
-                        // Empty the cart after successful order creation
-                        cartService.emptyCart(userId)
-                            .thenReturn(order)
-                    }
-                    .flatMap { order ->
-                        ServerResponse.created(URI.create("/orders/${order.id}"))
-                            .bodyValue(order)
-                    }
-            }
-            .onErrorResume { error ->
-                when (error) {
-                    is IllegalArgumentException -> ServerResponse.badRequest().bodyValue(error.message ?: "Bad request")
-                    else -> ServerResponse.status(500).bodyValue("Internal server error: ${error.message}")
-                }
-            }
+        val guestLines = guestCartToken.read(request)
+        val requestData = mapOf("userId" to userId, "guestCart" to guestLines.toSortedMap())
+
+        // Once merged, the guest cart is in the user's cart: the response drops it so it is not merged twice
+        val merged = AtomicBoolean()
+        val cookies = { if (merged.get()) listOf(guestCartToken.clearCookie()) else emptyList() }
+        return idempotentOrderResponder.respond(request, "checkout", requestData, cookies) {
+            val guestMerge = if (guestLines.isEmpty()) Mono.empty()
+            else cartService.mergeGuestCart(userId, guestLines).doOnSuccess { merged.set(true) }.then()
+            guestMerge.then(Mono.defer { orderService.checkoutCart(userId) })
+        }
     }
-}
\ No newline at end of file
+}
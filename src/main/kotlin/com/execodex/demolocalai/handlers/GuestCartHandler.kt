@@ -0,0 +1,83 @@
+package com.execodex.demolocalai.handlers
+
+import com.execodex.demolocalai.pojos.AddCartItemRequest
+import com.execodex.demolocalai.pojos.RemoveCartItemRequest
+import com.execodex.demolocalai.service.GuestCartService
+import com.execodex.demolocalai.service.GuestCartService.GuestCart
+import org.springframework.stereotype.Component
+import org.springframework.web.reactive.function.server.ServerRequest
+import org.springframework.web.reactive.function.server.ServerResponse
+import org.springframework.web.reactive.function.server.bodyToMono
+import reactor.core.publisher.Mono
+
+/**
+ * Handler for anonymous shoppers' cart requests.
+ * The cart travels in the signed [GuestCartToken]; every response re-issues it as a cookie and
+ * in the `X-Guest-Cart` header, and none of these requests writes to the database.
+ */
+@Component
+class GuestCartHandler(
+    private val guestCartService: GuestCartService,
+    private val guestCartToken: GuestCartToken
+) {
+
+    /**
+     * Get the guest cart carried by the request, priced from the catalog.
+     *
+     * @param request the server request
+     * @return a server response containing the guest cart
+     */
+    fun getGuestCart(request: ServerRequest): Mono<ServerResponse> {
+        return guestCartService.price(guestCartToken.read(request))
+            .flatMap { cart -> respond(cart) }
+    }
+
+    /**
+     * Add an item to the guest cart.
+     *
+     * @param request the server request containing the item details
+     * @return a server response containing the updated guest cart
+     */
+    fun addItem(request: ServerRequest): Mono<ServerResponse> {
+        val lines = guestCartToken.read(request)
+        return request.bodyToMono<AddCartItemRequest>()
+            .flatMap { addRequest -> guestCartService.addItem(lines, addRequest) }
+            .flatMap { cart -> respond(cart) }
+            .onErrorResume(IllegalArgumentException::class.java) { error ->
+                ServerResponse.badRequest().bodyValue(error.message ?: "Bad request")
+            }
+    }
+
+    /**
+     * Remove an item from the guest cart.
+     *
+     * @param request the server request containing the product ID
+     * @return a server response containing the updated guest cart
+     */
+    fun removeItem(request: ServerRequest): Mono<ServerResponse> {
+        val lines = guestCartToken.read(request)
+        return request.bodyToMono<RemoveCartItemRequest>()
+            .flatMap { removeRequest -> guestCartService.removeItem(lines, removeRequest.productId) }
+            .flatMap { cart -> respond(cart) }
+    }
+
+    /**
+     * Empty the guest cart.
+     *
+     * @param request the server request
+     * @return a server response containing the empty guest cart
+     */
+    fun emptyGuestCart(request: ServerRequest): Mono<ServerResponse> {
+        return guestCartService.price(emptyMap())
+            .flatMap { cart -> respond(cart) }
+    }
+
+    private fun respond(cart: GuestCart): Mono<ServerResponse> {
+        val token = if (cart.lines.isEmpty()) null else guestCartToken.encode(cart.lines)
+        val builder = ServerResponse.ok().cookie(guestCartToken.cookie(token))
+        if (token != null) {
+            builder.header(GuestCartToken.HEADER_NAME, token)
+        }
+        return builder.bodyValue(cart.response)
+    }
+}
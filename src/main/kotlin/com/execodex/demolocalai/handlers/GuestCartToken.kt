@@ -0,0 +1,173 @@
+package com.execodex.demolocalai.handlers
+
+import org.slf4j.LoggerFactory
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.http.ResponseCookie
+import org.springframework.stereotype.Component
+import org.springframework.web.reactive.function.server.ServerRequest
+import java.nio.charset.StandardCharsets
+import java.security.MessageDigest
+import java.security.SecureRandom
+import java.time.Duration
+import java.time.Instant
+import java.util.Base64
+import javax.crypto.Mac
+import javax.crypto.spec.SecretKeySpec
+
+/**
+ * Signed, size-bounded token that carries an anonymous shopper's cart, so guest carts never touch the database.
+ *
+ * The token holds only product IDs, quantities and an expiry; prices are looked up when the cart is shown.
+ * It is `<payload>.<signature>`, both base64url: the payload is `v1|<expires epoch seconds>|<id>:<qty>,...`
+ * and the signature its HMAC-SHA256 under `cart.guest.secret`. Clients send it back in the `guest_cart`
+ * cookie or, for non-browser clients, the `X-Guest-Cart` header. A missing, expired, tampered or
+ * oversized token reads as an empty cart. The size limit follows from `cart.guest.max-items` and
+ * `cart.guest.max-quantity`, so every token [encode] issues can be read back.
+ */
+@Component
+class GuestCartToken(
+    @Value("\${cart.guest.secret:}") secret: String,
+    @Value("\${cart.guest.max-items:50}") private val maxItems: Int,
+    @Value("\${cart.guest.max-quantity:99}") private val maxQuantity: Int,
+    @Value("\${cart.guest.max-age-days:30}") maxAgeDays: Long
+) {
+    private val logger = LoggerFactory.getLogger(GuestCartToken::class.java)
+
+    private val maxAge: Duration = Duration.ofDays(maxAgeDays)
+    private val key: SecretKeySpec = SecretKeySpec(keyBytes(secret), HMAC_ALGORITHM)
+
+    /** The length of a token holding `maxItems` lines of the longest product IDs and quantities. */
+    private val maxTokenLength: Int = run {
+        val line = Long.MIN_VALUE.toString().length + 1 + maxQuantity.toString().length
+        val payload = "$VERSION|${Long.MIN_VALUE}|".length + maxItems * (line + 1)
+        base64Length(payload) + 1 + base64Length(SIGNATURE_LENGTH)
+    }
+
+    init {
+        if (maxTokenLength > MAX_COOKIE_LENGTH) {
+            logger.warn("cart.guest.max-items allows guest cart tokens of {} characters, more than browsers keep in a cookie; " +
+                "full carts will only survive in the {} header", maxTokenLength, HEADER_NAME)
+        }
+    }
+
+    /**
+     * Read the guest cart of a request.
+     *
+     * @param request the server request
+     * @return the quantity per product ID, empty if the request carries no valid guest cart
+     */
+    fun read(request: ServerRequest): Map<Long, Int> {
+        val token = request.cookies().getFirst(COOKIE_NAME)?.value
+            ?: request.headers().firstHeader(HEADER_NAME)
+        return decode(token)
+    }
+
+    /**
+     * Decode and verify a token.
+     *
+     * @param token the token, possibly null
+     * @return the quantity per product ID, empty if the token is missing or invalid
+     */
+    fun decode(token: String?): Map<Long, Int> {
+        if (token.isNullOrBlank() || token.length > maxTokenLength) return emptyMap()
+        return try {
+            val separator = token.lastIndexOf('.')
+            require(separator > 0) { "Malformed guest cart token" }
+            val payload = token.substring(0, separator)
+            val signature = Base64.getUrlDecoder().decode(token.substring(separator + 1))
+            require(MessageDigest.isEqual(sign(payload), signature)) { "Bad guest cart signature" }
+            parse(String(Base64.getUrlDecoder().decode(payload), StandardCharsets.UTF_8))
+        } catch (e: IllegalArgumentException) {
+            logger.debug("Ignoring guest cart token: {}", e.message)
+            emptyMap()
+        }
+    }
+
+    /**
+     * Encode and sign a guest cart.
+     *
+     * @param lines the quantity per product ID
+     * @return the signed token
+     * @throws IllegalArgumentException if the cart has more lines or larger quantities than a token may hold
+     */
+    fun encode(lines: Map<Long, Int>): String {
+        require(lines.size <= maxItems) { "A guest cart holds at most $maxItems products" }
+        require(lines.values.all { it in 1..maxQuantity }) { "Guest cart quantities must be between 1 and $maxQuantity" }
+        val expiresAt = Instant.now().plus(maxAge).epochSecond
+        val items = lines.entries.joinToString(",") { (productId, quantity) -> "$productId:$quantity" }
+        val payload = Base64.getUrlEncoder().withoutPadding()
+            .encodeToString("$VERSION|$expiresAt|$items".toByteArray(StandardCharsets.UTF_8))
+        return payload + "." + Base64.getUrlEncoder().withoutPadding().encodeToString(sign(payload))
+    }
+
+    /**
+     * Build the cookie that stores a guest cart token; a null token clears the cookie.
+     *
+     * @param token the token from [encode], or null for an empty cart
+     * @return the response cookie
+     */
+    fun cookie(token: String?): ResponseCookie {
+        if (token == null) return clearCookie()
+        return ResponseCookie.from(COOKIE_NAME, token)
+            .httpOnly(true)
+            .sameSite("Lax")
+            .path("/")
+            .maxAge(maxAge)
+            .build()
+    }
+
+    /**
+     * Build a cookie that removes the guest cart from the browser.
+     *
+     * @return the response cookie
+     */
+    fun clearCookie(): ResponseCookie =
+        ResponseCookie.from(COOKIE_NAME, "")
+            .httpOnly(true)
+            .sameSite("Lax")
+            .path("/")
+            .maxAge(Duration.ZERO)
+            .build()
+
+    private fun parse(text: String): Map<Long, Int> {
+        val parts = text.split('|')
+        require(parts.size == 3 && parts[0] == VERSION) { "Unsupported guest cart token" }
+        val expiresAt = parts[1].toLongOrNull() ?: throw IllegalArgumentException("Malformed guest cart expiry")
+        require(Instant.now().epochSecond < expiresAt) { "Guest cart token expired" }
+        if (parts[2].isEmpty()) return emptyMap()
+
+        val lines = LinkedHashMap<Long, Int>()
+        for (item in parts[2].split(',')) {
+            val productId = item.substringBefore(':').toLongOrNull()
+            val quantity = item.substringAfter(':', "").toIntOrNull()
+            require(productId != null && quantity != null && quantity in 1..maxQuantity) { "Malformed guest cart line" }
+            lines[productId] = quantity
+        }
+        require(lines.size <= maxItems) { "Guest cart has too many lines" }
+        return lines
+    }
+
+    private fun base64Length(bytes: Int): Int = (bytes * 4 + 2) / 3
+
+    private fun sign(payload: String): ByteArray {
+        val mac = Mac.getInstance(HMAC_ALGORITHM)
+        mac.init(key)
+        return mac.doFinal(payload.toByteArray(StandardCharsets.US_ASCII))
+    }
+
+    private fun keyBytes(secret: String): ByteArray {
+        if (secret.isNotBlank()) return secret.toByteArray(StandardCharsets.UTF_8)
+        logger.warn("cart.guest.secret is not set; guest carts will not survive a restart or span instances")
+        return ByteArray(32).also { SecureRandom().nextBytes(it) }
+    }
+
+    companion object {
+        const val COOKIE_NAME = "guest_cart"
+        const val HEADER_NAME = "X-Guest-Cart"
+
+        private const val VERSION = "v1"
+        private const val HMAC_ALGORITHM = "HmacSHA256"
+        private const val SIGNATURE_LENGTH = 32
+        private const val MAX_COOKIE_LENGTH = 4000
+    }
+}
@@ -0,0 +1,110 @@
+package com.execodex.demolocalai.handlers
+
+import com.execodex.demolocalai.entities.Order
+import com.execodex.demolocalai.pojos.IdempotentResponse
+import com.execodex.demolocalai.service.IdempotencyConflictException
+import com.execodex.demolocalai.service.IdempotencyService
+import com.execodex.demolocalai.service.InsufficientStockException
+import com.fasterxml.jackson.databind.ObjectMapper
+import org.springframework.http.HttpStatus
+import org.springframework.http.MediaType
+import org.springframework.http.ResponseCookie
+import org.springframework.stereotype.Component
+import org.springframework.web.reactive.function.server.ServerRequest
+import org.springframework.web.reactive.function.server.ServerResponse
+import reactor.core.publisher.Mono
+import java.net.URI
+import java.security.MessageDigest
+import java.util.HexFormat
+
+/**
+ * Writes the response of a request that creates an order, honouring its `Idempotency-Key` header.
+ *
+ * With a key, the order is created at most once per key and the response, including a 400 or 409,
+ * is replayed to retries with the `Idempotent-Replayed: true` header. Without a key the order is
+ * created as before.
+ */
+@Component
+class IdempotentOrderResponder(
+    private val idempotencyService: IdempotencyService,
+    private val objectMapper: ObjectMapper
+) {
+
+    /**
+     * Create an order and write the response.
+     *
+     * @param request the server request
+     * @param scope the operation, so that the same key may be used for different operations
+     * @param requestData the data identifying the request; a retry with the same key must carry equal data
+     * @param cookies the cookies to set on the response, read once the order creation is done
+     * @param createOrder the creation of the order
+     * @return a server response containing the created order, or the error
+     */
+    fun respond(
+        request: ServerRequest,
+        scope: String,
+        requestData: Any,
+        cookies: () -> List<ResponseCookie> = { emptyList() },
+        createOrder: () -> Mono<Order>
+    ): Mono<ServerResponse> {
+        val key = request.headers().firstHeader(IDEMPOTENCY_KEY_HEADER)
+            ?: return Mono.defer { toResponse(createOrder()) }.flatMap { render(it, cookies()) }
+        if (key.isBlank() || key.length > MAX_KEY_LENGTH) {
+            return ServerResponse.badRequest()
+                .bodyValue("$IDEMPOTENCY_KEY_HEADER must be between 1 and $MAX_KEY_LENGTH characters")
+        }
+
+        return idempotencyService.execute(scope, key, fingerprint(requestData)) { toResponse(createOrder()) }
+            .flatMap { render(it, cookies()) }
+            .onErrorResume(IdempotencyConflictException::class.java) { error ->
+                val status = if (error.inFlight) HttpStatus.CONFLICT else HttpStatus.UNPROCESSABLE_ENTITY
+                ServerResponse.status(status).bodyValue(error.message ?: "Idempotency key conflict")
+            }
+    }
+
+    private fun toResponse(order: Mono<Order>): Mono<IdempotentResponse> {
+        return order
+            .map { savedOrder ->
+                IdempotentResponse(
+                    status = HttpStatus.CREATED.value(),
+                    contentType = MediaType.APPLICATION_JSON_VALUE,
+                    body = objectMapper.writeValueAsString(savedOrder),
+                    location = "/orders/${savedOrder.id}"
+                )
+            }
+            .onErrorResume { error ->
+                Mono.just(
+                    when (error) {
+                        is IllegalArgumentException -> text(HttpStatus.BAD_REQUEST, error.message ?: "Bad request")
+                        is InsufficientStockException -> text(HttpStatus.CONFLICT, error.message ?: "Insufficient stock")
+                        else -> text(HttpStatus.INTERNAL_SERVER_ERROR, "Internal server error: ${error.message}")
+                    }
+                )
+            }
+    }
+
+    private fun text(status: HttpStatus, message: String) =
+        IdempotentResponse(status.value(), MediaType.TEXT_PLAIN_VALUE, message)
+
+    private fun render(response: IdempotentResponse, cookies: List<ResponseCookie>): Mono<ServerResponse> {
+        val builder = ServerResponse.status(response.status)
+            .contentType(MediaType.parseMediaType(response.contentType))
+        cookies.forEach { builder.cookie(it) }
+        response.location?.let { builder.location(URI.create(it)) }
+        if (response.replayed) {
+            builder.header(REPLAYED_HEADER, "true")
+        }
+        return builder.bodyValue(response.body)
+    }
+
+    private fun fingerprint(requestData: Any): String {
+        val digest = MessageDigest.getInstance("SHA-256").digest(objectMapper.writeValueAsBytes(requestData))
+        return HexFormat.of().formatHex(digest)
+    }
+
+    companion object {
+        const val IDEMPOTENCY_KEY_HEADER = "Idempotency-Key"
+        const val REPLAYED_HEADER = "Idempotent-Replayed"
+        private const val MAX_KEY_LENGTH = 255
+    }
+}
@@ -0,0 +1,104 @@
+package com.execodex.demolocalai.handlers
+
+import org.springframework.web.reactive.function.server.ServerRequest
+import org.springframework.web.reactive.function.server.ServerResponse
+import reactor.core.publisher.Mono
+import java.nio.charset.StandardCharsets
+import java.util.Base64
+
+/**
+ * Keyset pagination parameters parsed from `?after=<cursor>&limit=<n>`.
+ *
+ * Cursors are opaque to clients: they encode the id of the last row of the previous page.
+ * List endpoints return the page as a plain JSON array and advertise the next page through the
+ * `X-Next-Cursor` and `Link` response headers. The body keeps its shape, but a request without parameters
+ * now gets only the first [DEFAULT_LIMIT] rows: clients that expect every row must follow the next-page
+ * headers, or stream the rows as `application/x-ndjson`.
+ *
+ * @property afterId only rows with an id greater than this are returned
+ * @property limit the maximum number of rows in the page
+ */
+data class KeysetPage(val afterId: Long, val limit: Int) {
+
+    /**
+     * Build the response for one page of rows.
+     * Callers fetch `limit + 1` rows; the extra row only signals that a next page exists.
+     *
+     * @param request the server request, used to build the `Link` header
+     * @param rows the rows fetched for this page, at most `limit + 1`
+     * @param idOf extracts the keyset id from a row
+     * @return a server response containing the page
+     */
+    fun <T : Any> toResponse(request: ServerRequest, rows: List<T>, idOf: (T) -> Long?): Mono<ServerResponse> {
+        val items = rows.take(limit)
+        val builder = ServerResponse.ok()
+        val lastId = items.lastOrNull()?.let(idOf)
+        if (rows.size > limit && lastId != null) {
+            val cursor = encodeCursor(lastId)
+            val next = request.uriBuilder()
+                .replaceQueryParam(AFTER_PARAM, cursor)
+                .replaceQueryParam(LIMIT_PARAM, limit)
+                .build()
+            builder.header(NEXT_CURSOR_HEADER, cursor)
+                .header("Link", "<$next>; rel=\"next\"")
+        }
+        return builder.bodyValue(items)
+    }
+
+    companion object {
+        const val AFTER_PARAM = "after"
+        const val LIMIT_PARAM = "limit"
+        const val NEXT_CURSOR_HEADER = "X-Next-Cursor"
+        const val DEFAULT_LIMIT = 100
+        const val MAX_LIMIT = 500
+
+        private const val CURSOR_PREFIX = "id:"
+
+        /**
+         * Parse the pagination parameters of a request.
+         *
+         * @param request the server request
+         * @return the requested page
+         * @throws IllegalArgumentException if the cursor or the limit is invalid
+         */
+        fun from(request: ServerRequest): KeysetPage {
+            val afterId = request.queryParam(AFTER_PARAM)
+                .filter { it.isNotBlank() }
+                .map { decodeCursor(it) }
+                .orElse(0L)
+            val limit = request.queryParam(LIMIT_PARAM)
+                .filter { it.isNotBlank() }
+                .map { it.toIntOrNull() ?: throw IllegalArgumentException("Invalid limit: $it") }
+                .orElse(DEFAULT_LIMIT)
+            require(limit in 1..MAX_LIMIT) { "Limit must be between 1 and $MAX_LIMIT" }
+            return KeysetPage(afterId, limit)
+        }
+
+        /**
+         * Parse only the cursor of a request, for endpoints that stream every row after it.
+         *
+         * @param request the server request
+         * @return the id after which rows are returned, 0 if no cursor was given
+         */
+        fun afterIdFrom(request: ServerRequest): Long =
+            request.queryParam(AFTER_PARAM)
+                .filter { it.isNotBlank() }
+                .map { decodeCursor(it) }
+                .orElse(0L)
+
+        fun encodeCursor(id: Long): String =
+            Base64.getUrlEncoder().withoutPadding()
+                .encodeToString("$CURSOR_PREFIX$id".toByteArray(StandardCharsets.UTF_8))
+
+        fun decodeCursor(cursor: String): Long {
+            val decoded = try {
+                String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8)
+            } catch (e: IllegalArgumentException) {
+                throw IllegalArgumentException("Invalid cursor: $cursor")
+            }
+            return decoded.removePrefix(CURSOR_PREFIX).takeIf { decoded.startsWith(CURSOR_PREFIX) }
+                ?.toLongOrNull()
+                ?: throw IllegalArgumentException("Invalid cursor: $cursor")
+        }
+    }
+}
@@ -2,33 +2,50 @@ package com.execodex.demolocalai.handlers
 
 import com.execodex.demolocalai.entities.Order
 import com.execodex.demolocalai.entities.OrderItem
+import com.execodex.demolocalai.entities.OrderStatus
+import com.execodex.demolocalai.entities.OrderStatusChange
 import com.execodex.demolocalai.pojos.CreateOrderRequest
+import com.execodex.demolocalai.pojos.OrderStatusChangeRequest
+import com.execodex.demolocalai.service.InvalidOrderTransitionException
+import com.execodex.demolocalai.service.OrderExportFormat
+import com.execodex.demolocalai.service.OrderExportService
 import com.execodex.demolocalai.service.OrderService
+import org.springframework.core.io.buffer.DataBuffer
+import org.springframework.core.io.buffer.DefaultDataBufferFactory
+import org.springframework.http.ContentDisposition
+import org.springframework.http.HttpHeaders
+import org.springframework.http.MediaType
 import org.springframework.stereotype.Component
+import org.springframework.web.reactive.function.BodyInserters
 import org.springframework.web.reactive.function.server.ServerRequest
 import org.springframework.web.reactive.function.server.ServerResponse
 import org.springframework.web.reactive.function.server.bodyToMono
 import reactor.core.publisher.Mono
-import java.net.URI
+import java.time.LocalDate
+import java.time.format.DateTimeParseException
 
 /**
  * Handler for order-related HTTP requests.
  */
 @Component
-class OrderHandler(private val orderService: OrderService) {
+class OrderHandler(
+    private val orderService: OrderService,
+    private val orderExportService: OrderExportService,
+    private val idempotentOrderResponder: IdempotentOrderResponder
+) {
 
     /**
      * Create a new order with items.
+     * A request sent with an `Idempotency-Key` header creates at most one order per key;
+     * retries get the first response back.
      *
      * @param request the server request containing the order data
      * @return a server response containing the created order
      */
     fun createOrder(request: ServerRequest): Mono<ServerResponse> {
         return request.bodyToMono<CreateOrderRequest>()
-            .flatMap { orderRequest -> orderService.createOrder(orderRequest) }
-            .flatMap { savedOrder ->
-                ServerResponse.created(URI.create("/orders/${savedOrder.id}"))
-                    .bodyValue(savedOrder)
+            .flatMap { orderRequest ->
+                idempotentOrderResponder.respond(request, "orders", orderRequest) { orderService.createOrder(orderRequest) }
             }
             .onErrorResume { error ->
                 when (error) {
@@ -39,41 +56,160 @@ class OrderHandler(private val orderService: OrderService) {
     }
 
     /**
-     * Get all orders.
+     * Get one page of orders.
+     * Supports keyset pagination through the `after` cursor and `limit` query parameters,
+     * or streams every order when the client accepts `application/x-ndjson`.
      *
      * @param request the server request
-     * @return a server response containing all orders
+     * @return a server response containing the page of orders
      */
     fun getAllOrders(request: ServerRequest): Mono<ServerResponse> {
-        return ServerResponse.ok()
-            .body(orderService.getAllOrders(), Order::class.java)
+        if (request.headers().accept().contains(MediaType.APPLICATION_NDJSON)) {
+            return streamAllOrders(request)
+        }
+        return Mono.fromCallable { KeysetPage.from(request) }
+            .flatMap { page ->
+                orderService.getOrdersPage(page.afterId, page.limit + 1)
+                    .collectList()
+                    .flatMap { rows -> page.toResponse(request, rows) { it.id } }
+            }
+            .onErrorResume(IllegalArgumentException::class.java) { error ->
+                ServerResponse.badRequest().bodyValue(error.message ?: "Bad request")
+            }
+    }
+
+    /**
+     * Stream all orders as newline-delimited JSON, starting after the optional `after` cursor.
+     * Rows are written as they are read from the database.
+     *
+     * @param request the server request
+     * @return a streaming server response of orders
+     */
+    private fun streamAllOrders(request: ServerRequest): Mono<ServerResponse> {
+        return Mono.fromCallable { KeysetPage.afterIdFrom(request) }
+            .flatMap { afterId ->
+                ServerResponse.ok()
+                    .contentType(MediaType.APPLICATION_NDJSON)
+                    .body(orderService.streamOrders(afterId), Order::class.java)
+            }
+            .onErrorResume(IllegalArgumentException::class.java) { error ->
+                ServerResponse.badRequest().bodyValue(error.message ?: "Bad request")
+            }
+    }
+
+    /**
+     * Export the orders placed between the `from` and `to` days with their line items, one row per item,
+     * as `format=csv` (the default) or `format=ndjson`. The export is streamed from a database cursor as
+     * it is written, and gzipped when the client accepts `gzip` encoding.
+     *
+     * @param request the server request with the `from`, `to` and `format` query parameters
+     * @return a streaming server response of the export
+     */
+    fun exportOrders(request: ServerRequest): Mono<ServerResponse> {
+        return Mono.fromCallable {
+            val from = dateParam(request, "from") ?: throw IllegalArgumentException("from is required")
+            val to = dateParam(request, "to") ?: throw IllegalArgumentException("to is required")
+            val format = request.queryParam("format")
+                .filter { it.isNotBlank() }
+                .map { OrderExportFormat.of(it) }
+                .orElse(OrderExportFormat.CSV)
+            val gzip = acceptsGzip(request)
+            val chunks = orderExportService.export(from, to, format, gzip)
+                .map<DataBuffer> { DefaultDataBufferFactory.sharedInstance.wrap(it) }
+            val filename = "orders-$from-$to.${format.extension}"
+            val response = ServerResponse.ok()
+                .contentType(format.mediaType)
+                .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment().filename(filename).build().toString())
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+            if (gzip) response.header(HttpHeaders.CONTENT_ENCODING, "gzip")
+            response to chunks
+        }
+            .flatMap { (response, chunks) -> response.body(BodyInserters.fromDataBuffers(chunks)) }
+            .onErrorResume(IllegalArgumentException::class.java) { error ->
+                ServerResponse.badRequest().bodyValue(error.message ?: "Bad request")
+            }
     }
 
+    private fun acceptsGzip(request: ServerRequest): Boolean =
+        request.headers().header(HttpHeaders.ACCEPT_ENCODING)
+            .flatMap { it.split(",") }
+            .any { coding ->
+                val parts = coding.split(";").map { it.replace(" ", "") }
+                parts[0].equals("gzip", ignoreCase = true) && parts.drop(1).none { ZERO_QUALITY.matches(it) }
+            }
+
     /**
      * Get an order by its ID.
+     * `?expand=items` adds the order's line items and `?expand=products` (or `items,products`) adds each
+     * item's product too; the expanded order is still read with a single query.
      *
      * @param request the server request containing the order ID
      * @return a server response containing the order if found
      */
     fun getOrderById(request: ServerRequest): Mono<ServerResponse> {
         val id = request.pathVariable("id").toLong()
-        return orderService.getOrderById(id)
-            .flatMap { order -> ServerResponse.ok().bodyValue(order) }
+        val expand = try {
+            expandParam(request)
+        } catch (e: IllegalArgumentException) {
+            return ServerResponse.badRequest().bodyValue(e.message ?: "Bad request")
+        }
+        val order: Mono<out Any> = if (expand.isEmpty()) {
+            orderService.getOrderById(id)
+        } else {
+            orderService.getOrderDetail(id, withProducts = EXPAND_PRODUCTS in expand)
+        }
+        return order
+            .flatMap { ServerResponse.ok().bodyValue(it) }
             .switchIfEmpty(ServerResponse.notFound().build())
     }
 
+    private fun expandParam(request: ServerRequest): Set<String> {
+        val expand = request.queryParams()[EXPAND_PARAM].orEmpty()
+            .flatMap { it.split(",") }
+            .map { it.trim().lowercase() }
+            .filterTo(HashSet()) { it.isNotEmpty() }
+        val unknown = expand - setOf(EXPAND_ITEMS, EXPAND_PRODUCTS)
+        require(unknown.isEmpty()) { "Unknown $EXPAND_PARAM value(s): ${unknown.sorted().joinToString(", ")}" }
+        return expand
+    }
+
     /**
-     * Get orders by user ID.
+     * Get orders by user ID, optionally only those placed between the `from` and `to` days.
      *
-     * @param request the server request containing the user ID
+     * @param request the server request containing the user ID and the optional `from` and `to` query parameters
      * @return a server response containing the orders if found
      */
     fun getOrdersByUserId(request: ServerRequest): Mono<ServerResponse> {
         val userId = request.pathVariable("userId").toLong()
-        return ServerResponse.ok()
-            .body(orderService.getOrdersByUserId(userId), Order::class.java)
+        return Mono.fromCallable {
+            val from = dateParam(request, "from")
+            val to = dateParam(request, "to")
+            if (from == null && to == null) {
+                orderService.getOrdersByUserId(userId)
+            } else {
+                val until = to ?: LocalDate.now()
+                require(from == null || !from.isAfter(until)) { "from must not be after to" }
+                orderService.getOrdersByUserId(userId, from ?: LocalDate.EPOCH, until)
+            }
+        }
+            .flatMap { orders -> ServerResponse.ok().body(orders, Order::class.java) }
+            .onErrorResume(IllegalArgumentException::class.java) { error ->
+                ServerResponse.badRequest().bodyValue(error.message ?: "Bad request")
+            }
     }
 
+    private fun dateParam(request: ServerRequest, name: String): LocalDate? =
+        request.queryParam(name)
+            .filter { it.isNotBlank() }
+            .map {
+                try {
+                    LocalDate.parse(it)
+                } catch (e: DateTimeParseException) {
+                    throw IllegalArgumentException("Invalid $name: $it, expected YYYY-MM-DD")
+                }
+            }
+            .orElse(null)
+
     /**
      * Get order items by order ID.
      *
@@ -98,5 +234,48 @@ class OrderHandler(private val orderService: OrderService) {
             .flatMap { order -> orderService.updateOrder(id, order) }
             .flatMap { updatedOrder -> ServerResponse.ok().bodyValue(updatedOrder) }
             .switchIfEmpty(ServerResponse.notFound().build())
+            .onErrorResume { error -> statusChangeError(error) }
+    }
+
+    /**
+     * Move an order to another status.
+     *
+     * @param request the server request containing the order ID and the new status
+     * @return a server response containing the updated order if found
+     */
+    fun changeOrderStatus(request: ServerRequest): Mono<ServerResponse> {
+        val id = request.pathVariable("id").toLong()
+        return request.bodyToMono<OrderStatusChangeRequest>()
+            .flatMap { change -> orderService.changeStatus(id, OrderStatus.of(change.status), change.reason) }
+            .flatMap { updatedOrder -> ServerResponse.ok().bodyValue(updatedOrder) }
+            .switchIfEmpty(ServerResponse.notFound().build())
+            .onErrorResume { error -> statusChangeError(error) }
+    }
+
+    /**
+     * Get the status history of an order.
+     *
+     * @param request the server request containing the order ID
+     * @return a server response containing the order's status transitions, oldest first
+     */
+    fun getOrderStatusHistory(request: ServerRequest): Mono<ServerResponse> {
+        val id = request.pathVariable("id").toLong()
+        return ServerResponse.ok()
+            .body(orderService.getStatusHistory(id), OrderStatusChange::class.java)
+    }
+
+    private fun statusChangeError(error: Throwable): Mono<ServerResponse> {
+        return when (error) {
+            is InvalidOrderTransitionException -> ServerResponse.status(409).bodyValue(error.message ?: "Invalid status transition")
+            is IllegalArgumentException -> ServerResponse.badRequest().bodyValue(error.message ?: "Bad request")
+            else -> ServerResponse.status(500).bodyValue("Internal server error: ${error.message}")
+        }
+    }
+
+    companion object {
+        private const val EXPAND_PARAM = "expand"
+        private const val EXPAND_ITEMS = "items"
+        private const val EXPAND_PRODUCTS = "products"
+        private val ZERO_QUALITY = Regex("q=0(\\.0{0,3})?")
     }
 }
\ No newline at end of file
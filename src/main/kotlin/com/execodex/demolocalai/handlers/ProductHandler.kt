@@ -2,10 +2,15 @@ package com.execodex.demolocalai.handlers
 
 import com.execodex.demolocalai.entities.Product
 import com.execodex.demolocalai.handlers.errors.ProductErrorHandler
+import com.execodex.demolocalai.service.ProductImportService
+import com.execodex.demolocalai.service.ProductImportService.ImportFormat
 import com.execodex.demolocalai.service.ProductService
+import org.springframework.http.HttpStatus
+import org.springframework.http.MediaType
 import org.springframework.stereotype.Component
 import org.springframework.web.reactive.function.server.ServerRequest
 import org.springframework.web.reactive.function.server.ServerResponse
+import org.springframework.web.reactive.function.server.bodyToFlux
 import org.springframework.web.reactive.function.server.bodyToMono
 import reactor.core.publisher.Mono
 import java.net.URI
@@ -16,18 +21,50 @@ import java.net.URI
 @Component
 class ProductHandler(
     private val productService: ProductService,
+    private val productImportService: ProductImportService,
     private val productErrorHandler: ProductErrorHandler
 ) {
 
     /**
-     * Get all products.
+     * Get one page of products.
+     * Supports keyset pagination through the `after` cursor and `limit` query parameters,
+     * or streams every product when the client accepts `application/x-ndjson`.
      *
      * @param request the server request
-     * @return a server response containing all products
+     * @return a server response containing the page of products
      */
     fun getAllProducts(request: ServerRequest): Mono<ServerResponse> {
-        return ServerResponse.ok()
-            .body(productService.getAllProducts(), Product::class.java)
+        if (request.headers().accept().contains(MediaType.APPLICATION_NDJSON)) {
+            return streamAllProducts(request)
+        }
+        return Mono.fromCallable { KeysetPage.from(request) }
+            .flatMap { page ->
+                productService.getProductsPage(page.afterId, page.limit + 1)
+                    .collectList()
+                    .flatMap { rows -> page.toResponse(request, rows) { it.id } }
+            }
+            .onErrorResume(IllegalArgumentException::class.java) { error ->
+                ServerResponse.badRequest().bodyValue(error.message ?: "Bad request")
+            }
+    }
+
+    /**
+     * Stream all products as newline-delimited JSON, starting after the optional `after` cursor.
+     * Rows are written as they are read from the database.
+     *
+     * @param request the server request
+     * @return a streaming server response of products
+     */
+    private fun streamAllProducts(request: ServerRequest): Mono<ServerResponse> {
+        return Mono.fromCallable { KeysetPage.afterIdFrom(request) }
+            .flatMap { afterId ->
+                ServerResponse.ok()
+                    .contentType(MediaType.APPLICATION_NDJSON)
+                    .body(productService.streamProducts(afterId), Product::class.java)
+            }
+            .onErrorResume(IllegalArgumentException::class.java) { error ->
+                ServerResponse.badRequest().bodyValue(error.message ?: "Bad request")
+            }
     }
 
     fun getProductBySlug(request: ServerRequest): Mono<ServerResponse> {
@@ -70,6 +107,28 @@ class ProductHandler(
             .onErrorResume(productErrorHandler::handleError)
     }
 
+    /**
+     * Import many products from a streamed `text/csv` or `application/x-ndjson` upload.
+     * The body is read line by line and inserted in chunks, so uploads of any size run in bounded memory.
+     *
+     * @param request the server request whose body holds the products
+     * @return a server response containing the import report with per-row errors
+     */
+    fun importProducts(request: ServerRequest): Mono<ServerResponse> {
+        val contentType = request.headers().contentType().orElse(MediaType.APPLICATION_NDJSON)
+        val format = when {
+            contentType.isCompatibleWith(TEXT_CSV) -> ImportFormat.CSV
+            contentType.isCompatibleWith(MediaType.APPLICATION_NDJSON) -> ImportFormat.NDJSON
+            else -> return ServerResponse.status(HttpStatus.UNSUPPORTED_MEDIA_TYPE)
+                .bodyValue("Content-Type must be text/csv or application/x-ndjson")
+        }
+        return productImportService.importProducts(request.bodyToFlux<String>(), format)
+            .flatMap { report -> ServerResponse.ok().bodyValue(report) }
+            .onErrorResume(IllegalArgumentException::class.java) { error ->
+                ServerResponse.badRequest().bodyValue(error.message ?: "Bad request")
+            }
+    }
+
     /**
      * Update an existing product.
      *
@@ -82,6 +141,7 @@ class ProductHandler(
             .flatMap { product -> productService.updateProduct(id, product) }
             .flatMap { updatedProduct -> ServerResponse.ok().bodyValue(updatedProduct) }
             .switchIfEmpty(ServerResponse.notFound().build())
+            .onErrorResume(productErrorHandler::handleError)
     }
 
     /**
@@ -97,14 +157,67 @@ class ProductHandler(
     }
 
     /**
-     * Search for products by name pattern.
+     * Search for products.
+     * With `q`, runs a ranked full-text search over names and descriptions, paginated by `page` and `size`.
+     * Without it, falls back to the legacy case-insensitive substring match on `name`.
      *
      * @param request the server request containing the search query
      * @return a server response containing the matching products
      */
     fun searchProducts(request: ServerRequest): Mono<ServerResponse> {
-        val query = request.queryParam("name").orElse("")
-        return ServerResponse.ok()
-            .body(productService.findProductsByNamePattern(query), Product::class.java)
+        val text = request.queryParam("q").orElse(null)
+        if (text == null) {
+            val query = request.queryParam("name").orElse("")
+            return ServerResponse.ok()
+                .body(productService.findProductsByNamePattern(query), Product::class.java)
+        }
+        return Mono.fromCallable {
+            val page = intParam(request, "page", 0)
+            val size = intParam(request, "size", DEFAULT_SEARCH_SIZE)
+            require(page >= 0) { "Page must not be negative" }
+            require(size in 1..MAX_SEARCH_SIZE) { "Size must be between 1 and $MAX_SEARCH_SIZE" }
+            page to size
+        }
+            .flatMap { (page, size) -> productService.searchProducts(text, page, size) }
+            .flatMap { results -> ServerResponse.ok().bodyValue(results) }
+            .onErrorResume(IllegalArgumentException::class.java) { error ->
+                ServerResponse.badRequest().bodyValue(error.message ?: "Bad request")
+            }
+    }
+
+    /**
+     * Semantic search for products, ranked by embedding similarity to the `q` query parameter.
+     *
+     * @param request the server request containing the query and the optional `limit`
+     * @return a server response containing the closest products with their scores
+     */
+    fun semanticSearchProducts(request: ServerRequest): Mono<ServerResponse> {
+        return Mono.fromCallable {
+            val query = request.queryParam("q").filter { it.isNotBlank() }
+                .orElseThrow { IllegalArgumentException("Query parameter q is required") }
+            val limit = intParam(request, "limit", DEFAULT_SEARCH_SIZE)
+            require(limit in 1..MAX_SEARCH_SIZE) { "Limit must be between 1 and $MAX_SEARCH_SIZE" }
+            query to limit
+        }
+            .flatMap { (query, limit) -> productService.semanticSearch(query, limit).collectList() }
+            .flatMap { hits -> ServerResponse.ok().bodyValue(hits) }
+            .onErrorResume(IllegalArgumentException::class.java) { error ->
+                ServerResponse.badRequest().bodyValue(error.message ?: "Bad request")
+            }
+            .onErrorResume(IllegalStateException::class.java) { error ->
+                ServerResponse.status(HttpStatus.SERVICE_UNAVAILABLE).bodyValue(error.message ?: "Unavailable")
+            }
+    }
+
+    private fun intParam(request: ServerRequest, name: String, default: Int): Int =
+        request.queryParam(name)
+            .filter { it.isNotBlank() }
+            .map { it.toIntOrNull() ?: throw IllegalArgumentException("Invalid $name: $it") }
+            .orElse(default)
+
+    companion object {
+        private const val DEFAULT_SEARCH_SIZE = 20
+        private const val MAX_SEARCH_SIZE = 100
+        private val TEXT_CSV = MediaType.parseMediaType("text/csv")
     }
 }
\ No newline at end of file
@@ -6,9 +6,11 @@ import com.execodex.demolocalai.pojos.CreateCheckoutSessionRequest
 import com.execodex.demolocalai.pojos.CreatePaymentIntentRequest
 import com.execodex.demolocalai.pojos.PaymentConfirmationResponse
 import com.execodex.demolocalai.pojos.PaymentIntentResponse
-import com.execodex.demolocalai.pojos.StripeWebhookRequest
 import com.execodex.demolocalai.pojos.WebhookResponse
+import com.execodex.demolocalai.service.InvalidOrderTransitionException
+import com.execodex.demolocalai.service.PaymentGatewayUnavailableException
 import com.execodex.demolocalai.service.StripeService
+import com.execodex.demolocalai.service.StripeWebhookInboxService
 import org.slf4j.LoggerFactory
 import org.springframework.stereotype.Component
 import org.springframework.web.reactive.function.server.ServerRequest
@@ -20,7 +22,10 @@ import reactor.core.publisher.Mono
  * Handler for Stripe payment-related HTTP requests.
  */
 @Component
-class StripePaymentHandler(private val stripeService: StripeService) {
+class StripePaymentHandler(
+    private val stripeService: StripeService,
+    private val stripeWebhookInboxService: StripeWebhookInboxService
+) {
     private val logger = LoggerFactory.getLogger(StripePaymentHandler::class.java)
 
     /**
@@ -46,6 +51,7 @@ class StripePaymentHandler(private val stripeService: StripeService) {
             .onErrorResume { error ->
                 when (error) {
                     is IllegalArgumentException -> ServerResponse.badRequest().bodyValue(error.message ?: "Bad request")
+                    is PaymentGatewayUnavailableException -> ServerResponse.status(503).bodyValue(error.message ?: "Payment gateway unavailable")
                     else -> ServerResponse.status(500).bodyValue("Internal server error: ${error.message}")
                 }
             }
@@ -80,6 +86,10 @@ class StripePaymentHandler(private val stripeService: StripeService) {
                 )
                 
                 when (error) {
+                    is InvalidOrderTransitionException ->
+                        ServerResponse.status(409).bodyValue(errorResponse)
+                    is PaymentGatewayUnavailableException ->
+                        ServerResponse.status(503).bodyValue(errorResponse)
                     is IllegalArgumentException, is IllegalStateException -> 
                         ServerResponse.badRequest().bodyValue(errorResponse)
                     else -> 
@@ -113,6 +123,7 @@ class StripePaymentHandler(private val stripeService: StripeService) {
             .onErrorResume { error ->
                 when (error) {
                     is IllegalArgumentException -> ServerResponse.badRequest().bodyValue(error.message ?: "Bad request")
+                    is PaymentGatewayUnavailableException -> ServerResponse.status(503).bodyValue(error.message ?: "Payment gateway unavailable")
                     else -> ServerResponse.status(500).bodyValue("Internal server error: ${error.message}")
                 }
             }
@@ -120,46 +131,27 @@ class StripePaymentHandler(private val stripeService: StripeService) {
     
     /**
      * Handle Stripe webhook events.
-     * This endpoint receives webhook notifications from Stripe when payment events occur.
+     * The event is stored in the webhook inbox and acknowledged at once; it is processed asynchronously.
+     * Stripe redelivers events that are not acknowledged with a 2xx, so an event that could not be stored
+     * is answered with 503.
      *
      * @param request the server request containing the Stripe event data
      * @return a server response acknowledging receipt of the webhook
      */
     fun handleWebhook(request: ServerRequest): Mono<ServerResponse> {
-        logger.info("Received Stripe webhook request")
-        
-        return request.bodyToMono<StripeWebhookRequest>()
-            .flatMap { webhookRequest ->
-                logger.info("Processing webhook event: ${webhookRequest.type} with ID: ${webhookRequest.id}")
-                
-                stripeService.handleWebhookEvent(webhookRequest)
-                    .map { order ->
-                        WebhookResponse(
-                            received = true,
-                            eventId = webhookRequest.id
-                        )
-                    }
-                    .switchIfEmpty(
-                        Mono.just(
-                            WebhookResponse(
-                                received = true,
-                                eventId = webhookRequest.id
-                            )
-                        )
-                    )
-            }
-            .flatMap { response -> ServerResponse.ok().bodyValue(response) }
+        return request.bodyToMono<String>()
+            .switchIfEmpty(Mono.error(IllegalArgumentException("Empty Stripe event")))
+            .flatMap { payload -> stripeWebhookInboxService.receive(payload) }
+            .flatMap { event -> ServerResponse.ok().bodyValue(WebhookResponse(received = true, eventId = event.id)) }
             .onErrorResume { error ->
-                logger.error("Error processing webhook: ${error.message}", error)
-                
-                val errorResponse = WebhookResponse(
-                    received = false,
-                    eventId = "unknown"
-                )
-                
-                // Always return 200 OK to Stripe, even for errors
-                // This prevents Stripe from retrying the webhook unnecessarily
-                ServerResponse.ok().bodyValue(errorResponse)
+                val errorResponse = WebhookResponse(received = false, eventId = "unknown")
+                when (error) {
+                    is IllegalArgumentException -> ServerResponse.badRequest().bodyValue(errorResponse)
+                    else -> {
+                        logger.error("Could not store Stripe webhook event: {}", error.message)
+                        ServerResponse.status(503).bodyValue(errorResponse)
+                    }
+                }
             }
     }
-}
\ No newline at end of file
+}
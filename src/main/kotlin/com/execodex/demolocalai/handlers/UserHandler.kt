@@ -6,6 +6,7 @@ import com.execodex.demolocalai.pojos.GoogleUserInfo
 import com.execodex.demolocalai.pojos.GithubUserInfo
 import com.execodex.demolocalai.pojos.UserResponse
 import com.execodex.demolocalai.pojos.AuthProviderResponse
+import com.execodex.demolocalai.service.CartService
 import com.execodex.demolocalai.service.UserService
 import org.slf4j.LoggerFactory
 import org.springframework.security.core.Authentication
@@ -13,6 +14,7 @@ import org.springframework.security.core.GrantedAuthority
 import org.springframework.security.oauth2.core.oidc.user.OidcUser
 import org.springframework.security.oauth2.core.user.DefaultOAuth2User
 import org.springframework.security.oauth2.client.authentication.OAuth2AuthenticationToken
+import org.springframework.http.MediaType
 import org.springframework.stereotype.Component
 import org.springframework.web.reactive.function.server.ServerRequest
 import org.springframework.web.reactive.function.server.ServerResponse
@@ -26,7 +28,9 @@ import java.net.URI
 @Component
 class UserHandler(
     private val userService: UserService,
-    private val userErrorHandler: UserErrorHandler
+    private val userErrorHandler: UserErrorHandler,
+    private val cartService: CartService,
+    private val guestCartToken: GuestCartToken
 ) {
     private val logger = LoggerFactory.getLogger(UserHandler::class.java)
 
@@ -58,14 +62,45 @@ class UserHandler(
     }
 
     /**
-     * Get all users.
+     * Get one page of users.
+     * Supports keyset pagination through the `after` cursor and `limit` query parameters,
+     * or streams every user when the client accepts `application/x-ndjson`.
      *
      * @param request the server request
-     * @return a server response containing all users
+     * @return a server response containing the page of users
      */
     fun getAllUsers(request: ServerRequest): Mono<ServerResponse> {
-        return ServerResponse.ok()
-            .body(userService.getAllUsers(), User::class.java)
+        if (request.headers().accept().contains(MediaType.APPLICATION_NDJSON)) {
+            return streamAllUsers(request)
+        }
+        return Mono.fromCallable { KeysetPage.from(request) }
+            .flatMap { page ->
+                userService.getUsersPage(page.afterId, page.limit + 1)
+                    .collectList()
+                    .flatMap { rows -> page.toResponse(request, rows) { it.id } }
+            }
+            .onErrorResume(IllegalArgumentException::class.java) { error ->
+                ServerResponse.badRequest().bodyValue(error.message ?: "Bad request")
+            }
+    }
+
+    /**
+     * Stream all users as newline-delimited JSON, starting after the optional `after` cursor.
+     * Rows are written as they are read from the database.
+     *
+     * @param request the server request
+     * @return a streaming server response of users
+     */
+    private fun streamAllUsers(request: ServerRequest): Mono<ServerResponse> {
+        return Mono.fromCallable { KeysetPage.afterIdFrom(request) }
+            .flatMap { afterId ->
+                ServerResponse.ok()
+                    .contentType(MediaType.APPLICATION_NDJSON)
+                    .body(userService.streamUsers(afterId), User::class.java)
+            }
+            .onErrorResume(IllegalArgumentException::class.java) { error ->
+                ServerResponse.badRequest().bodyValue(error.message ?: "Bad request")
+            }
     }
 
     /**
@@ -280,6 +315,7 @@ class UserHandler(
      * - 401 if not authenticated
      * - 400 if email not present in principal
      * - 404 if no user exists with that email
+     * A guest cart carried by the request is merged into the user's cart, which is how it survives login.
      */
     fun ensureUserFromMe(request: ServerRequest): Mono<ServerResponse> {
         return request.principal()
@@ -301,16 +337,24 @@ class UserHandler(
                 val displayName = attributes["name"] as? String
                 val pictureUrl = attributes["picture"] as? String
 
+                val guestLines = guestCartToken.read(request)
                 userService.ensureUserFromGoogleProfile(email, displayName, pictureUrl)
                     .flatMap { user ->
-                        val dto = UserResponse(
-                            id = user.id,
-                            username = user.username,
-                            email = user.email,
-                            createdAt = user.createdAt,
-                            pictureUrl = user.pictureUrl
-                        )
-                        ServerResponse.ok().bodyValue(dto)
+                        val merge = if (guestLines.isEmpty() || user.id == null) Mono.just(false)
+                        else cartService.mergeGuestCart(user.id, guestLines).thenReturn(true)
+                        merge.flatMap { merged ->
+                            val dto = UserResponse(
+                                id = user.id,
+                                username = user.username,
+                                email = user.email,
+                                createdAt = user.createdAt,
+                                pictureUrl = user.pictureUrl
+                            )
+                            val response = ServerResponse.ok()
+                            // The guest cart is now in the user's cart: drop it so it is not merged twice
+                            if (merged) response.cookie(guestCartToken.clearCookie())
+                            response.bodyValue(dto)
+                        }
                     }
             }
             .switchIfEmpty(
@@ -1,5 +1,6 @@
 package com.execodex.demolocalai.handlers.errors
 
+import org.springframework.dao.DataIntegrityViolationException
 import org.springframework.http.MediaType
 import org.springframework.http.ProblemDetail
 import org.springframework.stereotype.Service
@@ -28,6 +29,18 @@ class ProductErrorHandler {
                     .contentType(MediaType.APPLICATION_PROBLEM_JSON)
                     .bodyValue(problemDetail)
             }
+            is DataIntegrityViolationException -> {
+                val problemDetail = ProblemDetail.forStatus(409)
+                    .apply {
+                        title = "Product Conflict"
+                        detail = "The product conflicts with an existing product (duplicate SKU or slug)."
+                        type = URI.create("https://example.com/errors/product-conflict")
+                    }
+
+                ServerResponse.status(409)
+                    .contentType(MediaType.APPLICATION_PROBLEM_JSON)
+                    .bodyValue(problemDetail)
+            }
             else -> {
                 println("ProductErrorHandler: Handling unknown error type")
                 val problemDetail = ProblemDetail.forStatus(500)
@@ -0,0 +1,31 @@
+package com.execodex.demolocalai.pojos
+
+/**
+ * Request object for applying several cart changes at once.
+ * Operations are applied in order, as if sent one by one, but in a single transaction.
+ */
+data class CartPatchRequest(
+    val operations: List<CartOperation>
+)
+
+/**
+ * A single cart change.
+ *
+ * @property op the kind of change
+ * @property productId the ID of the product to change
+ * @property quantity the quantity to add for `ADD`, the new quantity for `SET`; ignored for `REMOVE`
+ */
+data class CartOperation(
+    val op: CartOperationType,
+    val productId: Long,
+    val quantity: Int? = null
+)
+
+/**
+ * Cart operation type enum
+ */
+enum class CartOperationType {
+    ADD,
+    REMOVE,
+    SET
+}
@@ -0,0 +1,22 @@
+package com.execodex.demolocalai.pojos
+
+import java.math.BigDecimal
+
+/**
+ * Response object for an anonymous shopper's cart, priced from the product catalog.
+ */
+data class GuestCartResponse(
+    val items: List<GuestCartItemResponse>,
+    val totalPrice: BigDecimal
+)
+
+/**
+ * Response object for a guest cart line.
+ */
+data class GuestCartItemResponse(
+    val productId: Long,
+    val name: String,
+    val quantity: Int,
+    val price: BigDecimal,
+    val totalPrice: BigDecimal
+)
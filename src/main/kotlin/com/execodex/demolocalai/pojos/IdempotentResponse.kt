@@ -0,0 +1,18 @@
+package com.execodex.demolocalai.pojos
+
+/**
+ * A response stored under an idempotency key, replayed verbatim when the request is retried.
+ *
+ * @property status the HTTP status code
+ * @property contentType the media type of the body
+ * @property body the serialized response body
+ * @property location the `Location` header, if any
+ * @property replayed whether this response was replayed rather than produced by this request
+ */
+data class IdempotentResponse(
+    val status: Int,
+    val contentType: String,
+    val body: String,
+    val location: String? = null,
+    val replayed: Boolean = false
+)
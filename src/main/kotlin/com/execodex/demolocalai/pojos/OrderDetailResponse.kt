@@ -0,0 +1,41 @@
+package com.execodex.demolocalai.pojos
+
+import com.fasterxml.jackson.annotation.JsonInclude
+import java.math.BigDecimal
+import java.time.LocalDateTime
+
+/**
+ * Response object for an order with its line items, read with a single query.
+ * `items` is omitted unless requested with `?expand=items`.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+data class OrderDetailResponse(
+    val id: Long,
+    val userId: Long,
+    val totalAmount: BigDecimal,
+    val orderDate: LocalDateTime,
+    val status: String,
+    val items: List<OrderDetailItemResponse>? = null
+)
+
+/**
+ * Response object for an order line item.
+ * `product` is omitted unless requested with `?expand=products`.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+data class OrderDetailItemResponse(
+    val id: Long,
+    val productId: Long,
+    val quantity: Int,
+    val price: BigDecimal,
+    val product: OrderItemProductResponse? = null
+)
+
+/**
+ * Response object for the product of an order line item.
+ */
+data class OrderItemProductResponse(
+    val name: String,
+    val slug: String?,
+    val imageUrl: String?
+)
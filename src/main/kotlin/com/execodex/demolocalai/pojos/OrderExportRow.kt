@@ -0,0 +1,20 @@
+package com.execodex.demolocalai.pojos
+
+import java.math.BigDecimal
+import java.time.LocalDateTime
+
+/**
+ * One row of an order export: an order joined with one of its line items.
+ * An order without items is exported as a single row whose item fields are null.
+ */
+data class OrderExportRow(
+    val orderId: Long,
+    val userId: Long,
+    val orderDate: LocalDateTime,
+    val status: String,
+    val totalAmount: BigDecimal,
+    val itemId: Long?,
+    val productId: Long?,
+    val quantity: Int?,
+    val price: BigDecimal?
+)
@@ -0,0 +1,12 @@
+package com.execodex.demolocalai.pojos
+
+/**
+ * Request object for moving an order to another status.
+ *
+ * @property status the status to move to, such as `SHIPPED`
+ * @property reason why the status changes, kept in the order's status history
+ */
+data class OrderStatusChangeRequest(
+    val status: String,
+    val reason: String? = null
+)
@@ -0,0 +1,38 @@
+package com.execodex.demolocalai.pojos
+
+import java.math.BigDecimal
+
+/**
+ * One product of a bulk import, as read from a CSV row or an NDJSON line.
+ * Every field is optional here so that missing values are reported per row instead of failing the upload.
+ */
+data class ProductImportRow(
+    val sku: String? = null,
+    val name: String? = null,
+    val description: String? = null,
+    val imageUrl: String? = null,
+    val price: BigDecimal? = null,
+    val quantity: Int? = null
+)
+
+/**
+ * Response object summarising a bulk product import.
+ */
+data class ProductImportReport(
+    val received: Long,
+    val imported: Long,
+    val failed: Long,
+    val errors: List<ProductImportError>,
+    val errorsTruncated: Boolean
+)
+
+/**
+ * A row of a bulk import that was not imported.
+ *
+ * @property line the 1-based line number in the upload (the CSV header is line 1)
+ */
+data class ProductImportError(
+    val line: Long,
+    val sku: String?,
+    val message: String
+)
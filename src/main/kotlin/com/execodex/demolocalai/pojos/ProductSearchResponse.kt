@@ -0,0 +1,22 @@
+package com.execodex.demolocalai.pojos
+
+import com.execodex.demolocalai.entities.Product
+
+/**
+ * Response object for a page of ranked product search results.
+ */
+data class ProductSearchResponse(
+    val query: String,
+    val page: Int,
+    val size: Int,
+    val hasMore: Boolean,
+    val results: List<ProductSearchHit>
+)
+
+/**
+ * A product matching a search query together with its relevance score.
+ */
+data class ProductSearchHit(
+    val product: Product,
+    val score: Double
+)
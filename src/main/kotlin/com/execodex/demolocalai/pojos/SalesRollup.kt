@@ -0,0 +1,42 @@
+package com.execodex.demolocalai.pojos
+
+import java.math.BigDecimal
+import java.time.LocalDate
+
+/**
+ * Response object for the sales of one product over a date range.
+ */
+data class ProductSales(
+    val productId: Long,
+    val orders: Long,
+    val units: Long,
+    val revenue: BigDecimal
+)
+
+/**
+ * Response object for the sales of one day in one order status.
+ */
+data class DailySales(
+    val day: LocalDate,
+    val status: String,
+    val orders: Long,
+    val units: Long,
+    val revenue: BigDecimal
+)
+
+/**
+ * Response object for a rebuild of the sales rollups.
+ *
+ * @property from the first day rebuilt
+ * @property to the last day rebuilt
+ * @property chunks the number of chunks, each rebuilt in its own transaction
+ * @property productRows the number of per-product rows written
+ * @property statusRows the number of per-status rows written
+ */
+data class SalesRollupRebuildReport(
+    val from: LocalDate,
+    val to: LocalDate,
+    val chunks: Int,
+    val productRows: Long,
+    val statusRows: Long
+)
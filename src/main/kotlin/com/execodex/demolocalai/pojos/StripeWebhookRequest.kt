@@ -7,7 +7,9 @@ package com.execodex.demolocalai.pojos
 data class StripeWebhookRequest(
     val id: String,
     val type: String,
-    val data: StripeEventData
+    val data: StripeEventData,
+    /** When Stripe created the event, in seconds since the epoch. */
+    val created: Long? = null
 )
 
 /**
@@ -7,9 +7,10 @@ import reactor.core.publisher.Mono
 
 /**
  * Reactive repository for Cart entities.
+ * Cart mutations that must not race are provided by [CartRepositoryCustom].
  */
 @Repository
-interface CartRepository : ReactiveCrudRepository<Cart, Long> {
+interface CartRepository : ReactiveCrudRepository<Cart, Long>, CartRepositoryCustom {
     /**
      * Find a cart by user ID.
      *
@@ -0,0 +1,99 @@
+package com.execodex.demolocalai.repositories
+
+import com.execodex.demolocalai.entities.Cart
+import com.execodex.demolocalai.entities.CartItem
+import java.math.BigDecimal
+import reactor.core.publisher.Mono
+
+/**
+ * Single-statement cart operations, mixed into [CartRepository].
+ *
+ * Each mutation runs as one SQL statement that creates the cart if needed, applies the change,
+ * and returns the resulting cart with all its items, relying on the unique keys on
+ * `cart(user_id)` and `cart_items(cart_id, product_id)` to resolve concurrent writers.
+ */
+interface CartRepositoryCustom {
+
+    /**
+     * Load a user's cart with its items.
+     *
+     * @param userId the ID of the user
+     * @return a Mono containing the cart and its items, empty if the user has no cart
+     */
+    fun findWithItemsByUserId(userId: Long): Mono<CartWithItems>
+
+    /**
+     * Get a user's cart, creating it if it does not exist.
+     *
+     * @param userId the ID of the user
+     * @return a Mono containing the cart
+     */
+    fun upsertByUserId(userId: Long): Mono<Cart>
+
+    /**
+     * Add a quantity of a product to a user's cart, creating the cart and the line as needed.
+     * An existing line has the quantity added to it and its price refreshed.
+     *
+     * @param userId the ID of the user
+     * @param productId the ID of the product
+     * @param quantity the quantity to add
+     * @param price the current unit price of the product
+     * @return a Mono containing the updated cart and its items
+     */
+    fun upsertItem(userId: Long, productId: Long, quantity: Int, price: BigDecimal): Mono<CartWithItems>
+
+    /**
+     * Remove a product from a user's cart.
+     *
+     * @param userId the ID of the user
+     * @param productId the ID of the product
+     * @return a Mono containing the updated cart and its items, empty if the user has no cart
+     */
+    fun removeItem(userId: Long, productId: Long): Mono<CartWithItems>
+
+    /**
+     * Remove every item from a user's cart.
+     *
+     * @param userId the ID of the user
+     * @return a Mono containing the emptied cart, empty if the user has no cart
+     */
+    fun clearItems(userId: Long): Mono<Cart>
+
+    /**
+     * Apply a set of line changes to a user's cart in one statement, creating the cart if needed.
+     * Each product must appear at most once.
+     *
+     * @param userId the ID of the user
+     * @param changes the changes to apply
+     * @return a Mono containing the updated cart and its items
+     */
+    fun applyChanges(userId: Long, changes: List<CartLineChange>): Mono<CartWithItems>
+}
+
+/**
+ * A cart together with its items, in item id order.
+ */
+data class CartWithItems(
+    val cart: Cart,
+    val items: List<CartItem>
+)
+
+/**
+ * The net change to one cart line.
+ *
+ * @property productId the ID of the product
+ * @property mode whether `quantity` is added to the line or replaces it; a `SET` to 0 removes the line
+ * @property quantity the quantity to add or set
+ * @property price the current unit price of the product
+ */
+data class CartLineChange(
+    val productId: Long,
+    val mode: Mode,
+    val quantity: Int,
+    val price: BigDecimal
+) {
+    enum class Mode {
+        ADD,
+        SET
+    }
+}
@@ -0,0 +1,215 @@
+package com.execodex.demolocalai.repositories
+
+import com.execodex.demolocalai.entities.Cart
+import com.execodex.demolocalai.entities.CartItem
+import io.r2dbc.spi.Readable
+import org.springframework.data.r2dbc.convert.R2dbcConverter
+import org.springframework.r2dbc.core.DatabaseClient
+import reactor.core.publisher.Mono
+import java.math.BigDecimal
+import java.time.LocalDateTime
+
+/**
+ * [DatabaseClient] implementation of [CartRepositoryCustom].
+ */
+class CartRepositoryCustomImpl(
+    private val databaseClient: DatabaseClient,
+    private val converter: R2dbcConverter
+) : CartRepositoryCustom {
+
+    override fun findWithItemsByUserId(userId: Long): Mono<CartWithItems> {
+        return databaseClient.sql(
+            """
+            SELECT $CART_COLUMNS
+            FROM cart c LEFT JOIN cart_items i ON i.cart_id = c.id
+            WHERE c.user_id = :userId
+            ORDER BY i.id
+            """.trimIndent()
+        )
+            .bind("userId", userId)
+            .map { row, _ -> readCartRow(row) }
+            .all()
+            .collectList()
+            .flatMap { rows -> toCartWithItems(rows) }
+    }
+
+    override fun upsertByUserId(userId: Long): Mono<Cart> {
+        return databaseClient.sql(
+            """
+            INSERT INTO cart (user_id) VALUES (:userId)
+            ON CONFLICT (user_id) DO UPDATE SET user_id = EXCLUDED.user_id
+            RETURNING *
+            """.trimIndent()
+        )
+            .bind("userId", userId)
+            .map { row, metadata -> converter.read(Cart::class.java, row, metadata) }
+            .one()
+    }
+
+    override fun upsertItem(userId: Long, productId: Long, quantity: Int, price: BigDecimal): Mono<CartWithItems> {
+        // Sub-statements of a WITH query all see the same snapshot, so the final SELECT combines
+        // the untouched lines with the row returned by the upsert
+        return databaseClient.sql(
+            """
+            WITH c AS (
+                INSERT INTO cart (user_id) VALUES (:userId)
+                ON CONFLICT (user_id) DO UPDATE SET updated_at = CURRENT_TIMESTAMP
+                RETURNING *
+            ),
+            upserted AS (
+                INSERT INTO cart_items (cart_id, product_id, quantity, price)
+                SELECT c.id, :productId, :quantity, :price FROM c
+                ON CONFLICT (cart_id, product_id) DO UPDATE
+                SET quantity = cart_items.quantity + EXCLUDED.quantity,
+                    price = EXCLUDED.price,
+                    updated_at = CURRENT_TIMESTAMP
+                RETURNING *
+            )
+            SELECT $CART_COLUMNS
+            FROM c LEFT JOIN LATERAL (
+                SELECT * FROM cart_items WHERE cart_id = c.id AND product_id <> :productId
+                UNION ALL
+                SELECT * FROM upserted
+            ) i ON true
+            ORDER BY i.id
+            """.trimIndent()
+        )
+            .bind("userId", userId)
+            .bind("productId", productId)
+            .bind("quantity", quantity)
+            .bind("price", price)
+            .map { row, _ -> readCartRow(row) }
+            .all()
+            .collectList()
+            .flatMap { rows -> toCartWithItems(rows) }
+    }
+
+    override fun removeItem(userId: Long, productId: Long): Mono<CartWithItems> {
+        return databaseClient.sql(
+            """
+            WITH c AS (
+                UPDATE cart SET updated_at = CURRENT_TIMESTAMP WHERE user_id = :userId RETURNING *
+            ),
+            removed AS (
+                DELETE FROM cart_items WHERE cart_id IN (SELECT id FROM c) AND product_id = :productId
+            )
+            SELECT $CART_COLUMNS
+            FROM c LEFT JOIN cart_items i ON i.cart_id = c.id AND i.product_id <> :productId
+            ORDER BY i.id
+            """.trimIndent()
+        )
+            .bind("userId", userId)
+            .bind("productId", productId)
+            .map { row, _ -> readCartRow(row) }
+            .all()
+            .collectList()
+            .flatMap { rows -> toCartWithItems(rows) }
+    }
+
+    override fun clearItems(userId: Long): Mono<Cart> {
+        return databaseClient.sql(
+            """
+            WITH c AS (
+                UPDATE cart SET updated_at = CURRENT_TIMESTAMP WHERE user_id = :userId RETURNING *
+            ),
+            removed AS (
+                DELETE FROM cart_items WHERE cart_id IN (SELECT id FROM c)
+            )
+            SELECT * FROM c
+            """.trimIndent()
+        )
+            .bind("userId", userId)
+            .map { row, metadata -> converter.read(Cart::class.java, row, metadata) }
+            .one()
+    }
+
+    override fun applyChanges(userId: Long, changes: List<CartLineChange>): Mono<CartWithItems> {
+        // Added and set lines go through separate upserts, since ON CONFLICT DO UPDATE can only see
+        // the inserted values; the two never touch the same product
+        return databaseClient.sql(
+            """
+            WITH c AS (
+                INSERT INTO cart (user_id) VALUES (:userId)
+                ON CONFLICT (user_id) DO UPDATE SET updated_at = CURRENT_TIMESTAMP
+                RETURNING *
+            ),
+            changes AS (
+                SELECT * FROM unnest(:productIds::bigint[], :modes::text[], :quantities::int[], :prices::numeric[])
+                    AS ch(product_id, mode, quantity, price)
+            ),
+            removed AS (
+                DELETE FROM cart_items ci
+                USING c, changes ch
+                WHERE ci.cart_id = c.id AND ci.product_id = ch.product_id AND ch.mode = 'SET' AND ch.quantity = 0
+            ),
+            added AS (
+                INSERT INTO cart_items (cart_id, product_id, quantity, price)
+                SELECT c.id, ch.product_id, ch.quantity, ch.price FROM c, changes ch WHERE ch.mode = 'ADD'
+                ON CONFLICT (cart_id, product_id) DO UPDATE
+                SET quantity = cart_items.quantity + EXCLUDED.quantity,
+                    price = EXCLUDED.price,
+                    updated_at = CURRENT_TIMESTAMP
+                RETURNING *
+            ),
+            replaced AS (
+                INSERT INTO cart_items (cart_id, product_id, quantity, price)
+                SELECT c.id, ch.product_id, ch.quantity, ch.price FROM c, changes ch WHERE ch.mode = 'SET' AND ch.quantity > 0
+                ON CONFLICT (cart_id, product_id) DO UPDATE
+                SET quantity = EXCLUDED.quantity,
+                    price = EXCLUDED.price,
+                    updated_at = CURRENT_TIMESTAMP
+                RETURNING *
+            )
+            SELECT $CART_COLUMNS
+            FROM c LEFT JOIN LATERAL (
+                SELECT * FROM cart_items WHERE cart_id = c.id AND product_id NOT IN (SELECT product_id FROM changes)
+                UNION ALL
+                SELECT * FROM added
+                UNION ALL
+                SELECT * FROM replaced
+            ) i ON true
+            ORDER BY i.id
+            """.trimIndent()
+        )
+            .bind("userId", userId)
+            .bind("productIds", changes.map { it.productId }.toTypedArray())
+            .bind("modes", changes.map { it.mode.name }.toTypedArray())
+            .bind("quantities", changes.map { it.quantity }.toTypedArray())
+            .bind("prices", changes.map { it.price.toPlainString() }.toTypedArray())
+            .map { row, _ -> readCartRow(row) }
+            .all()
+            .collectList()
+            .flatMap { rows -> toCartWithItems(rows) }
+    }
+
+    private fun readCartRow(row: Readable): Pair<Cart, CartItem?> {
+        val cart = Cart(
+            id = row.get("cart_id", java.lang.Long::class.java)!!.toLong(),
+            userId = row.get("user_id", java.lang.Long::class.java)!!.toLong(),
+            createdAt = row.get("cart_created_at", LocalDateTime::class.java)!!,
+            updatedAt = row.get("cart_updated_at", LocalDateTime::class.java)!!
+        )
+        val itemId = row.get("item_id", java.lang.Long::class.java) ?: return cart to null
+        val item = CartItem(
+            id = itemId.toLong(),
+            cartId = cart.id!!,
+            productId = row.get("product_id", java.lang.Long::class.java)!!.toLong(),
+            quantity = row.get("quantity", java.lang.Integer::class.java)!!.toInt(),
+            price = row.get("price", BigDecimal::class.java)!!,
+            createdAt = row.get("item_created_at", LocalDateTime::class.java)!!,
+            updatedAt = row.get("item_updated_at", LocalDateTime::class.java)!!
+        )
+        return cart to item
+    }
+
+    private fun toCartWithItems(rows: List<Pair<Cart, CartItem?>>): Mono<CartWithItems> {
+        val cart = rows.firstOrNull()?.first ?: return Mono.empty()
+        return Mono.just(CartWithItems(cart, rows.mapNotNull { it.second }))
+    }
+
+    companion object {
+        private const val CART_COLUMNS = """c.id AS cart_id, c.user_id, c.created_at AS cart_created_at, c.updated_at AS cart_updated_at,
+                   i.id AS item_id, i.product_id, i.quantity, i.price,
+                   i.created_at AS item_created_at, i.updated_at AS item_updated_at"""
+    }
+}
@@ -0,0 +1,134 @@
+package com.execodex.demolocalai.repositories
+
+import com.execodex.demolocalai.entities.Order
+import com.execodex.demolocalai.entities.Product
+import org.springframework.data.r2dbc.convert.R2dbcConverter
+import org.springframework.r2dbc.core.DatabaseClient
+import org.springframework.stereotype.Repository
+import reactor.core.publisher.Flux
+import java.math.BigDecimal
+import java.time.LocalDateTime
+
+/**
+ * Server-side cart checkout: the cart is turned into an order by SQL reading `cart_items` directly,
+ * so the application never ships the cart's lines back and forth.
+ * Both statements must run in one transaction; see [com.execodex.demolocalai.service.OrderService.checkoutCart].
+ */
+@Repository
+class CheckoutRepository(
+    private val databaseClient: DatabaseClient,
+    private val converter: R2dbcConverter
+) {
+
+    /**
+     * Lock a user's cart, then the products in it in id order, until the end of the current transaction.
+     * The cart lock serialises concurrent checkouts of the same cart; the ordered product locks keep
+     * checkouts and order placements of overlapping products from deadlocking.
+     *
+     * @param userId the ID of the user
+     * @return a Flux of the IDs of the locked products
+     */
+    fun lockCart(userId: Long): Flux<Long> {
+        return databaseClient.sql(
+            """
+            WITH c AS (SELECT id FROM cart WHERE user_id = :userId FOR UPDATE)
+            SELECT p.id FROM products p
+            WHERE p.id IN (SELECT ci.product_id FROM cart_items ci JOIN c ON ci.cart_id = c.id)
+            ORDER BY p.id
+            FOR UPDATE OF p
+            """.trimIndent()
+        )
+            .bind("userId", userId)
+            .map { row, _ -> row.get("id", java.lang.Long::class.java)!!.toLong() }
+            .all()
+    }
+
+    /**
+     * Turn a user's cart into a pending order with one statement: price the lines at the current product
+     * prices, take their stock, insert the order, its items and its reservations, and empty the cart.
+     *
+     * Stock is taken only from products that still have enough of it. When any line falls short, no order
+     * is inserted and the cart is left alone, but the other lines' stock has been taken: the caller must
+     * then roll the transaction back.
+     *
+     * @param userId the ID of the user
+     * @param expiresAt when the reservations lapse if the order is still unpaid
+     * @return a Flux with one row per cart line, empty if the cart is empty
+     */
+    fun checkout(userId: Long, expiresAt: LocalDateTime): Flux<CheckoutLine> {
+        return databaseClient.sql(
+            """
+            WITH items AS (
+                SELECT ci.cart_id, ci.product_id, ci.quantity, p.price
+                FROM cart c
+                JOIN cart_items ci ON ci.cart_id = c.id
+                JOIN products p ON p.id = ci.product_id
+                WHERE c.user_id = :userId
+            ),
+            stock AS (
+                UPDATE products p SET quantity = p.quantity - i.quantity
+                FROM items i
+                WHERE p.id = i.product_id AND p.quantity >= i.quantity
+                RETURNING p.*
+            ),
+            placed AS (
+                INSERT INTO orders (user_id, total_amount, order_date, status)
+                SELECT :userId, SUM(i.price * i.quantity), :orderDate, 'PENDING'
+                FROM items i
+                HAVING COUNT(*) > 0 AND COUNT(*) = (SELECT COUNT(*) FROM stock)
+                RETURNING *
+            ),
+            details AS (
+                INSERT INTO order_details (order_id, order_date, product_id, quantity, price)
+                SELECT o.id, o.order_date, i.product_id, i.quantity, i.price
+                FROM placed o, items i
+                ORDER BY i.product_id
+            ),
+            reservations AS (
+                INSERT INTO inventory_reservations (order_id, product_id, quantity, expires_at)
+                SELECT o.id, i.product_id, i.quantity, :expiresAt
+                FROM placed o, items i
+            ),
+            cleared AS (
+                DELETE FROM cart_items ci USING placed o, items i
+                WHERE ci.cart_id = i.cart_id AND ci.product_id = i.product_id
+            )
+            SELECT s.*, i.product_id AS line_product_id,
+                   o.id AS order_id, o.user_id AS order_user_id, o.total_amount AS order_total_amount,
+                   o.order_date AS order_date, o.status AS order_status
+            FROM items i
+            LEFT JOIN stock s ON s.id = i.product_id
+            LEFT JOIN placed o ON true
+            """.trimIndent()
+        )
+            .bind("userId", userId)
+            .bind("orderDate", LocalDateTime.now())
+            .bind("expiresAt", expiresAt)
+            .map { row, metadata ->
+                val orderId = row.get("order_id", java.lang.Long::class.java)?.toLong()
+                CheckoutLine(
+                    productId = row.get("line_product_id", java.lang.Long::class.java)!!.toLong(),
+                    product = row.get("id", java.lang.Long::class.java)?.let { converter.read(Product::class.java, row, metadata) },
+                    order = orderId?.let {
+                        Order(
+                            id = it,
+                            userId = row.get("order_user_id", java.lang.Long::class.java)!!.toLong(),
+                            totalAmount = row.get("order_total_amount", BigDecimal::class.java)!!,
+                            orderDate = row.get("order_date", LocalDateTime::class.java)!!,
+                            status = row.get("order_status", String::class.java)!!
+                        )
+                    }
+                )
+            }
+            .all()
+    }
+}
+
+/**
+ * One cart line of a checkout.
+ *
+ * @property productId the ID of the product on the line
+ * @property product the product with its new stock, or null if it was short of stock
+ * @property order the created order, or null if no order was created
+ */
+data class CheckoutLine(val productId: Long, val product: Product?, val order: Order?)
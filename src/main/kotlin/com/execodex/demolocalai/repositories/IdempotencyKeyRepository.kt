@@ -0,0 +1,161 @@
+package com.execodex.demolocalai.repositories
+
+import com.execodex.demolocalai.pojos.IdempotentResponse
+import org.springframework.r2dbc.core.DatabaseClient
+import org.springframework.stereotype.Repository
+import reactor.core.publisher.Mono
+import java.time.LocalDateTime
+
+/**
+ * Statements over the `idempotency_keys` table.
+ */
+@Repository
+class IdempotencyKeyRepository(private val databaseClient: DatabaseClient) {
+
+    /**
+     * Claim a key for execution. A key is free if it was never used or its row has expired,
+     * which includes the lease of an execution that never completed.
+     *
+     * @param scope the operation the key belongs to
+     * @param key the client's idempotency key
+     * @param fingerprint the hash of the request
+     * @param now the current time
+     * @param leaseUntil how long the claim holds before another execution may take it over
+     * @return a Mono containing true if the key was claimed, false if another request holds it
+     */
+    fun claim(scope: String, key: String, fingerprint: String, now: LocalDateTime, leaseUntil: LocalDateTime): Mono<Boolean> {
+        return databaseClient.sql(
+            """
+            INSERT INTO idempotency_keys (scope, idempotency_key, fingerprint, created_at, expires_at)
+            VALUES (:scope, :key, :fingerprint, :now, :leaseUntil)
+            ON CONFLICT (scope, idempotency_key) DO UPDATE
+                SET fingerprint = EXCLUDED.fingerprint, status_code = NULL, content_type = NULL,
+                    response_body = NULL, location = NULL, created_at = EXCLUDED.created_at,
+                    expires_at = EXCLUDED.expires_at
+                WHERE idempotency_keys.expires_at < :now
+            RETURNING scope
+            """.trimIndent()
+        )
+            .bind("scope", scope)
+            .bind("key", key)
+            .bind("fingerprint", fingerprint)
+            .bind("now", now)
+            .bind("leaseUntil", leaseUntil)
+            .fetch()
+            .first()
+            .hasElement()
+    }
+
+    /**
+     * Find the current state of a key.
+     *
+     * @param scope the operation the key belongs to
+     * @param key the client's idempotency key
+     * @param now the current time; expired rows are ignored
+     * @return a Mono containing the key's state, empty if the key is free
+     */
+    fun find(scope: String, key: String, now: LocalDateTime): Mono<StoredIdempotencyKey> {
+        return databaseClient.sql(
+            """
+            SELECT fingerprint, status_code, content_type, response_body, location
+            FROM idempotency_keys
+            WHERE scope = :scope AND idempotency_key = :key AND expires_at >= :now
+            """.trimIndent()
+        )
+            .bind("scope", scope)
+            .bind("key", key)
+            .bind("now", now)
+            .map { row, _ ->
+                val status = row.get("status_code", Integer::class.java)?.toInt()
+                StoredIdempotencyKey(
+                    fingerprint = row.get("fingerprint", String::class.java)!!,
+                    response = status?.let {
+                        IdempotentResponse(
+                            status = it,
+                            contentType = row.get("content_type", String::class.java)!!,
+                            body = row.get("response_body", String::class.java) ?: "",
+                            location = row.get("location", String::class.java)
+                        )
+                    }
+                )
+            }
+            .one()
+    }
+
+    /**
+     * Store the response of a claimed key and keep it until `expiresAt`.
+     *
+     * @param scope the operation the key belongs to
+     * @param key the client's idempotency key
+     * @param response the response to replay
+     * @param expiresAt when the stored response may be forgotten
+     * @return a Mono completing when the response is stored
+     */
+    fun complete(scope: String, key: String, response: IdempotentResponse, expiresAt: LocalDateTime): Mono<Void> {
+        val spec = databaseClient.sql(
+            """
+            UPDATE idempotency_keys
+            SET status_code = :status, content_type = :contentType, response_body = :body,
+                location = :location, expires_at = :expiresAt
+            WHERE scope = :scope AND idempotency_key = :key
+            """.trimIndent()
+        )
+            .bind("scope", scope)
+            .bind("key", key)
+            .bind("status", response.status)
+            .bind("contentType", response.contentType)
+            .bind("body", response.body)
+            .bind("expiresAt", expiresAt)
+        return response.location
+            .let { if (it == null) spec.bindNull("location", String::class.java) else spec.bind("location", it) }
+            .then()
+    }
+
+    /**
+     * Give up a claimed key without storing a response, so that a retry executes again.
+     *
+     * @param scope the operation the key belongs to
+     * @param key the client's idempotency key
+     * @return a Mono completing when the key is released
+     */
+    fun release(scope: String, key: String): Mono<Void> {
+        return databaseClient.sql(
+            "DELETE FROM idempotency_keys WHERE scope = :scope AND idempotency_key = :key AND status_code IS NULL"
+        )
+            .bind("scope", scope)
+            .bind("key", key)
+            .then()
+    }
+
+    /**
+     * Delete one batch of expired keys.
+     *
+     * @param now the current time
+     * @param batchSize the maximum number of keys to delete
+     * @return a Mono containing the number of keys deleted
+     */
+    fun deleteExpired(now: LocalDateTime, batchSize: Int): Mono<Long> {
+        return databaseClient.sql(
+            """
+            DELETE FROM idempotency_keys
+            WHERE (scope, idempotency_key) IN (
+                SELECT scope, idempotency_key FROM idempotency_keys
+                WHERE expires_at < :now
+                LIMIT :batchSize
+            )
+            """.trimIndent()
+        )
+            .bind("now", now)
+            .bind("batchSize", batchSize)
+            .fetch()
+            .rowsUpdated()
+    }
+}
+
+/**
+ * The state of an idempotency key.
+ *
+ * @property fingerprint the hash of the request that claimed the key
+ * @property response the stored response, or null while the first request is still running
+ */
+data class StoredIdempotencyKey(val fingerprint: String, val response: IdempotentResponse?)
@@ -0,0 +1,202 @@
+package com.execodex.demolocalai.repositories
+
+import com.execodex.demolocalai.entities.Product
+import org.springframework.data.r2dbc.convert.R2dbcConverter
+import org.springframework.r2dbc.core.DatabaseClient
+import org.springframework.stereotype.Repository
+import reactor.core.publisher.Flux
+import reactor.core.publisher.Mono
+import java.time.LocalDateTime
+
+/**
+ * Stock and reservation statements for [com.execodex.demolocalai.service.InventoryService].
+ *
+ * Every statement takes all products of an order at once as parallel `bigint[]`/`int[]` arrays,
+ * so reserving or releasing an order costs a fixed number of round-trips whatever its size.
+ */
+@Repository
+class InventoryRepository(
+    private val databaseClient: DatabaseClient,
+    private val converter: R2dbcConverter
+) {
+
+    /**
+     * Lock product rows in id order until the end of the current transaction.
+     * Taking the locks in a fixed order keeps concurrent reservations of overlapping products from deadlocking.
+     *
+     * @param productIds the IDs of the products to lock
+     * @return a Flux of the IDs of the products that exist
+     */
+    fun lockProducts(productIds: Array<Long>): Flux<Long> {
+        return databaseClient.sql("SELECT id FROM products WHERE id = ANY(:ids) ORDER BY id FOR UPDATE")
+            .bind("ids", productIds)
+            .map { row, _ -> row.get("id", java.lang.Long::class.java)!!.toLong() }
+            .all()
+    }
+
+    /**
+     * Decrement stock for every product that still has enough of it.
+     *
+     * @param productIds the IDs of the products
+     * @param quantities the quantity to take from each product, index-aligned with `productIds`
+     * @return a Flux of the products that were decremented, with their new stock
+     */
+    fun decrementStock(productIds: Array<Long>, quantities: Array<Int>): Flux<Product> {
+        return databaseClient.sql(
+            """
+            UPDATE products p SET quantity = p.quantity - v.quantity
+            FROM unnest(:ids::bigint[], :quantities::int[]) AS v(product_id, quantity)
+            WHERE p.id = v.product_id AND p.quantity >= v.quantity
+            RETURNING p.*
+            """.trimIndent()
+        )
+            .bind("ids", productIds)
+            .bind("quantities", quantities)
+            .map { row, metadata -> converter.read(Product::class.java, row, metadata) }
+            .all()
+    }
+
+    /**
+     * Record the stock taken for an order.
+     *
+     * @param orderId the ID of the order
+     * @param productIds the IDs of the reserved products
+     * @param quantities the reserved quantities, index-aligned with `productIds`
+     * @param expiresAt when the reservation lapses if the order is still unpaid
+     * @return a Mono containing the number of reservations inserted
+     */
+    fun insertReservations(
+        orderId: Long,
+        productIds: Array<Long>,
+        quantities: Array<Int>,
+        expiresAt: LocalDateTime
+    ): Mono<Long> {
+        return databaseClient.sql(
+            """
+            INSERT INTO inventory_reservations (order_id, product_id, quantity, expires_at)
+            SELECT :orderId, v.product_id, v.quantity, :expiresAt
+            FROM unnest(:ids::bigint[], :quantities::int[]) AS v(product_id, quantity)
+            """.trimIndent()
+        )
+            .bind("orderId", orderId)
+            .bind("ids", productIds)
+            .bind("quantities", quantities)
+            .bind("expiresAt", expiresAt)
+            .fetch()
+            .rowsUpdated()
+    }
+
+    /**
+     * Release the active reservations of an order and return their stock in one statement.
+     * Already released or committed reservations are left alone, so releasing twice is harmless.
+     *
+     * @param orderId the ID of the order
+     * @return a Flux of the restocked products, with their new stock
+     */
+    fun releaseForOrder(orderId: Long): Flux<Product> {
+        return databaseClient.sql(
+            """
+            WITH released AS (
+                UPDATE inventory_reservations SET status = 'RELEASED', released_at = CURRENT_TIMESTAMP
+                WHERE order_id = :orderId AND status = 'ACTIVE'
+                RETURNING product_id, quantity
+            )
+            UPDATE products p SET quantity = p.quantity + r.quantity
+            FROM (SELECT product_id, SUM(quantity) AS quantity FROM released GROUP BY product_id) r
+            WHERE p.id = r.product_id
+            RETURNING p.*
+            """.trimIndent()
+        )
+            .bind("orderId", orderId)
+            .map { row, metadata -> converter.read(Product::class.java, row, metadata) }
+            .all()
+    }
+
+    /**
+     * Make the active reservations of a paid order permanent, so they never expire.
+     *
+     * @param orderId the ID of the order
+     * @return a Mono containing the number of reservations committed
+     */
+    fun commitForOrder(orderId: Long): Mono<Long> {
+        return databaseClient.sql(
+            "UPDATE inventory_reservations SET status = 'COMMITTED' WHERE order_id = :orderId AND status = 'ACTIVE'"
+        )
+            .bind("orderId", orderId)
+            .fetch()
+            .rowsUpdated()
+    }
+
+    /**
+     * Make the active reservations of paid orders permanent, so they never expire.
+     *
+     * @param orderIds the IDs of the orders
+     * @return a Mono containing the number of reservations committed
+     */
+    fun commitForOrders(orderIds: Array<Long>): Mono<Long> {
+        return databaseClient.sql(
+            "UPDATE inventory_reservations SET status = 'COMMITTED' WHERE order_id = ANY(:orderIds::bigint[]) AND status = 'ACTIVE'"
+        )
+            .bind("orderIds", orderIds)
+            .fetch()
+            .rowsUpdated()
+    }
+
+    /**
+     * Cancel one batch of pending orders whose reservations lapsed, release all of their active reservations and
+     * return that stock, logging the cancellations to the orders' status history, all in one statement.
+     *
+     * Whole orders are taken and locked, so an order is never left cancelled with reservations still active, and
+     * only the stock of orders the statement cancelled is returned. Orders locked by a concurrent run, or by a
+     * payment moving them to `PAID`, are skipped rather than waited for.
+     *
+     * @param now the current time
+     * @param batchSize the maximum number of orders to cancel
+     * @return a Flux of the restocked products, each paired with the IDs of the orders cancelled by the batch
+     */
+    fun expireReservations(now: LocalDateTime, batchSize: Int): Flux<Pair<Product, List<Long>>> {
+        return databaseClient.sql(
+            """
+            WITH lapsed AS (
+                SELECT o.id, o.order_date FROM orders o
+                WHERE o.status = 'PENDING' AND EXISTS (
+                    SELECT 1 FROM inventory_reservations ir
+                    WHERE ir.order_id = o.id AND ir.status = 'ACTIVE' AND ir.expires_at < :now
+                )
+                ORDER BY o.id
+                LIMIT :batchSize
+                FOR UPDATE SKIP LOCKED
+            ),
+            cancelled AS (
+                UPDATE orders o SET status = 'CANCELLED'
+                FROM lapsed l
+                WHERE o.id = l.id AND o.order_date = l.order_date
+                RETURNING o.id
+            ),
+            expired AS (
+                UPDATE inventory_reservations r SET status = 'RELEASED', released_at = :now
+                WHERE r.order_id IN (SELECT id FROM cancelled) AND r.status = 'ACTIVE'
+                RETURNING r.order_id, r.product_id, r.quantity
+            ),
+            history AS (
+                INSERT INTO order_status_history (order_id, from_status, to_status, reason, changed_at)
+                SELECT id, 'PENDING', 'CANCELLED', 'Stock reservation expired', :now FROM cancelled
+            ),
+            restocked AS (
+                UPDATE products p SET quantity = p.quantity + e.quantity
+                FROM (SELECT product_id, SUM(quantity) AS quantity FROM expired GROUP BY product_id) e
+                WHERE p.id = e.product_id
+                RETURNING p.*
+            )
+            SELECT restocked.*, ARRAY(SELECT id FROM cancelled) AS cancelled_order_ids FROM restocked
+            """.trimIndent()
+        )
+            .bind("now", now)
+            .bind("batchSize", batchSize)
+            .map { row, metadata ->
+                converter.read(Product::class.java, row, metadata) to
+                    row.get("cancelled_order_ids", Array<Long>::class.java)!!.toList()
+            }
+            .all()
+    }
+}
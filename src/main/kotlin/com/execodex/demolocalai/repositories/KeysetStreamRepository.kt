@@ -0,0 +1,38 @@
+package com.execodex.demolocalai.repositories
+
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.data.r2dbc.convert.R2dbcConverter
+import org.springframework.r2dbc.core.DatabaseClient
+import org.springframework.r2dbc.core.StatementFilterFunction
+import org.springframework.stereotype.Repository
+import reactor.core.publisher.Flux
+
+/**
+ * Streams whole tables in id order through a server-side cursor.
+ *
+ * Rows are fetched from Postgres in batches of `pagination.stream-fetch-size` as downstream demand
+ * arrives, so a slow client holds back the query instead of the rows piling up in memory.
+ */
+@Repository
+class KeysetStreamRepository(
+    private val databaseClient: DatabaseClient,
+    private val converter: R2dbcConverter,
+    @Value("\${pagination.stream-fetch-size:500}") private val fetchSize: Int
+) {
+
+    /**
+     * Stream every row of a table whose id is greater than the given one.
+     *
+     * @param type the entity class mapped to the table
+     * @param table the table name
+     * @param afterId only rows with an id greater than this are returned
+     * @return a Flux of entities in id order
+     */
+    fun <T : Any> streamAfter(type: Class<T>, table: String, afterId: Long): Flux<T> {
+        return databaseClient.sql("SELECT * FROM $table WHERE id > :afterId ORDER BY id")
+            .bind("afterId", afterId)
+            .filter(StatementFilterFunction { statement, next -> next.execute(statement.fetchSize(fetchSize)) })
+            .map { row, metadata -> converter.read(type, row, metadata) }
+            .all()
+    }
+}
@@ -0,0 +1,69 @@
+package com.execodex.demolocalai.repositories
+
+import com.execodex.demolocalai.entities.Order
+import com.execodex.demolocalai.pojos.OrderDetailItemResponse
+import com.execodex.demolocalai.pojos.OrderDetailResponse
+import com.fasterxml.jackson.core.type.TypeReference
+import com.fasterxml.jackson.databind.ObjectMapper
+import org.springframework.data.r2dbc.convert.R2dbcConverter
+import org.springframework.r2dbc.core.DatabaseClient
+import org.springframework.stereotype.Repository
+import reactor.core.publisher.Mono
+
+/**
+ * Read model of an order with its line items and their products.
+ *
+ * The lines are aggregated to a JSON array by the database, so the whole order is read with one query
+ * and one row whatever its number of lines.
+ */
+@Repository
+class OrderDetailRepository(
+    private val databaseClient: DatabaseClient,
+    private val converter: R2dbcConverter,
+    private val objectMapper: ObjectMapper
+) {
+
+    /**
+     * Find an order with its line items, each with the name, slug and image of its product.
+     *
+     * @param orderId the ID of the order
+     * @return a Mono containing the order with its items in line order, empty if the order does not exist
+     */
+    fun findById(orderId: Long): Mono<OrderDetailResponse> {
+        return databaseClient.sql(
+            """
+            SELECT o.*, COALESCE((
+                SELECT json_agg(json_build_object(
+                    'id', d.id,
+                    'productId', d.product_id,
+                    'quantity', d.quantity,
+                    'price', d.price,
+                    'product', json_build_object('name', p.name, 'slug', p.slug, 'imageUrl', p.image_url)
+                ) ORDER BY d.id)
+                FROM order_details d
+                JOIN products p ON p.id = d.product_id
+                WHERE d.order_id = o.id AND d.order_date = o.order_date
+            ), '[]')::text AS items
+            FROM orders o
+            WHERE o.id = :orderId
+            """.trimIndent()
+        )
+            .bind("orderId", orderId)
+            .map { row, metadata ->
+                val order = converter.read(Order::class.java, row, metadata)
+                OrderDetailResponse(
+                    id = order.id!!,
+                    userId = order.userId,
+                    totalAmount = order.totalAmount,
+                    orderDate = order.orderDate,
+                    status = order.status,
+                    items = objectMapper.readValue(row.get("items", String::class.java)!!, ITEMS_TYPE)
+                )
+            }
+            .one()
+    }
+
+    companion object {
+        private val ITEMS_TYPE = object : TypeReference<List<OrderDetailItemResponse>>() {}
+    }
+}
@@ -0,0 +1,61 @@
+package com.execodex.demolocalai.repositories
+
+import com.execodex.demolocalai.pojos.OrderExportRow
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.r2dbc.core.DatabaseClient
+import org.springframework.r2dbc.core.StatementFilterFunction
+import org.springframework.stereotype.Repository
+import reactor.core.publisher.Flux
+import java.math.BigDecimal
+import java.time.LocalDateTime
+
+/**
+ * Streams orders joined with their line items through a server-side cursor.
+ *
+ * Rows are fetched in batches of `orders.export.fetch-size` as downstream demand arrives, so an export
+ * holds at most a few batches in memory whatever the size of its date range.
+ */
+@Repository
+class OrderExportRepository(
+    private val databaseClient: DatabaseClient,
+    @Value("\${orders.export.fetch-size:1000}") private val fetchSize: Int
+) {
+
+    /**
+     * Stream the orders placed in a date range with their line items, one row per item.
+     *
+     * @param from the earliest order date, inclusive
+     * @param until the latest order date, exclusive
+     * @return a Flux of export rows by order date, order and item
+     */
+    fun stream(from: LocalDateTime, until: LocalDateTime): Flux<OrderExportRow> {
+        return databaseClient.sql(
+            """
+            SELECT o.id AS order_id, o.user_id, o.order_date, o.status, o.total_amount,
+                   d.id AS item_id, d.product_id, d.quantity, d.price
+            FROM orders o
+            LEFT JOIN order_details d ON d.order_id = o.id AND d.order_date = o.order_date
+                AND d.order_date >= :from AND d.order_date < :until
+            WHERE o.order_date >= :from AND o.order_date < :until
+            ORDER BY o.order_date, o.id, d.id
+            """.trimIndent()
+        )
+            .bind("from", from)
+            .bind("until", until)
+            .filter(StatementFilterFunction { statement, next -> next.execute(statement.fetchSize(fetchSize)) })
+            .map { row, _ ->
+                OrderExportRow(
+                    orderId = row.get("order_id", java.lang.Long::class.java)!!.toLong(),
+                    userId = row.get("user_id", java.lang.Long::class.java)!!.toLong(),
+                    orderDate = row.get("order_date", LocalDateTime::class.java)!!,
+                    status = row.get("status", String::class.java)!!,
+                    totalAmount = row.get("total_amount", BigDecimal::class.java)!!,
+                    itemId = row.get("item_id", java.lang.Long::class.java)?.toLong(),
+                    productId = row.get("product_id", java.lang.Long::class.java)?.toLong(),
+                    quantity = row.get("quantity", Integer::class.java)?.toInt(),
+                    price = row.get("price", BigDecimal::class.java)
+                )
+            }
+            .all()
+    }
+}
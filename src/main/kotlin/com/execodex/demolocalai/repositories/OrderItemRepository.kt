@@ -7,9 +7,10 @@ import reactor.core.publisher.Flux
 
 /**
  * Reactive repository for OrderItem entities.
+ * Multi-row inserts are provided by [OrderItemRepositoryCustom].
  */
 @Repository
-interface OrderItemRepository : ReactiveCrudRepository<OrderItem, Long> {
+interface OrderItemRepository : ReactiveCrudRepository<OrderItem, Long>, OrderItemRepositoryCustom {
     /**
      * Find order items by order ID.
      *
@@ -0,0 +1,21 @@
+package com.execodex.demolocalai.repositories
+
+import com.execodex.demolocalai.entities.OrderItem
+import reactor.core.publisher.Flux
+import java.time.LocalDateTime
+
+/**
+ * Multi-row order item statements, implemented with [org.springframework.r2dbc.core.DatabaseClient].
+ */
+interface OrderItemRepositoryCustom {
+
+    /**
+     * Insert all items of an order with one statement.
+     *
+     * @param orderId the ID of the order
+     * @param orderDate the date of the order, which picks the partition of the items
+     * @param items the items to insert; their `orderId` is ignored
+     * @return a Flux of the inserted items with their generated IDs, assigned in the given order
+     */
+    fun insertAll(orderId: Long, orderDate: LocalDateTime, items: List<OrderItem>): Flux<OrderItem>
+}
@@ -0,0 +1,37 @@
+package com.execodex.demolocalai.repositories
+
+import com.execodex.demolocalai.entities.OrderItem
+import org.springframework.data.r2dbc.convert.R2dbcConverter
+import org.springframework.r2dbc.core.DatabaseClient
+import reactor.core.publisher.Flux
+import java.time.LocalDateTime
+
+/**
+ * [DatabaseClient] implementation of [OrderItemRepositoryCustom].
+ */
+class OrderItemRepositoryCustomImpl(
+    private val databaseClient: DatabaseClient,
+    private val converter: R2dbcConverter
+) : OrderItemRepositoryCustom {
+
+    override fun insertAll(orderId: Long, orderDate: LocalDateTime, items: List<OrderItem>): Flux<OrderItem> {
+        if (items.isEmpty()) return Flux.empty()
+        return databaseClient.sql(
+            """
+            INSERT INTO order_details (order_id, order_date, product_id, quantity, price)
+            SELECT :orderId, :orderDate, v.product_id, v.quantity, v.price
+            FROM unnest(:productIds::bigint[], :quantities::int[], :prices::numeric[]) WITH ORDINALITY
+                AS v(product_id, quantity, price, position)
+            ORDER BY v.position
+            RETURNING *
+            """.trimIndent()
+        )
+            .bind("orderId", orderId)
+            .bind("orderDate", orderDate)
+            .bind("productIds", items.map { it.productId }.toTypedArray())
+            .bind("quantities", items.map { it.quantity }.toTypedArray())
+            .bind("prices", items.map { it.price.toPlainString() }.toTypedArray())
+            .map { row, metadata -> converter.read(OrderItem::class.java, row, metadata) }
+            .all()
+    }
+}
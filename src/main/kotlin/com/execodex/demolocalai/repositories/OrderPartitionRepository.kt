@@ -0,0 +1,26 @@
+package com.execodex.demolocalai.repositories
+
+import org.springframework.r2dbc.core.DatabaseClient
+import org.springframework.stereotype.Repository
+import reactor.core.publisher.Mono
+
+/**
+ * Maintenance of the monthly partitions of `orders` and `order_details`, through the functions of
+ * changeset 19. Old months are archived by a DBA with `detach_order_partition`.
+ */
+@Repository
+class OrderPartitionRepository(private val databaseClient: DatabaseClient) {
+
+    /**
+     * Create the partitions of the current month and of the next months that do not exist yet.
+     *
+     * @param monthsAhead the number of months after the current one to create partitions for
+     * @return a Mono containing the number of months whose partitions were created
+     */
+    fun ensurePartitions(monthsAhead: Int): Mono<Int> {
+        return databaseClient.sql("SELECT ensure_order_partitions(:monthsAhead) AS created")
+            .bind("monthsAhead", monthsAhead)
+            .map { row, _ -> row.get("created", Integer::class.java)!!.toInt() }
+            .one()
+    }
+}
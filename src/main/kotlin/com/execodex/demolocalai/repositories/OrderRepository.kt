@@ -1,10 +1,14 @@
 package com.execodex.demolocalai.repositories
 
 import com.execodex.demolocalai.entities.Order
+import org.springframework.data.r2dbc.repository.Modifying
+import org.springframework.data.r2dbc.repository.Query
 import org.springframework.data.repository.reactive.ReactiveCrudRepository
 import org.springframework.stereotype.Repository
 import reactor.core.publisher.Flux
 import reactor.core.publisher.Mono
+import java.math.BigDecimal
+import java.time.LocalDateTime
 
 /**
  * Reactive repository for Order entities.
@@ -18,6 +22,18 @@ interface OrderRepository : ReactiveCrudRepository<Order, Long> {
      * @return a Flux containing the orders if found
      */
     fun findByUserId(userId: Long): Flux<Order>
+
+    /**
+     * Find orders of a user placed within a date range. The range lets the query skip the monthly
+     * partitions of `orders` outside it.
+     *
+     * @param userId the ID of the user
+     * @param from the earliest order date, inclusive
+     * @param until the latest order date, exclusive
+     * @return a Flux containing the orders in date order
+     */
+    @Query("SELECT * FROM orders WHERE user_id = :userId AND order_date >= :from AND order_date < :until ORDER BY order_date, id")
+    fun findByUserIdInRange(userId: Long, from: LocalDateTime, until: LocalDateTime): Flux<Order>
     
     /**
      * Find orders by status.
@@ -26,4 +42,28 @@ interface OrderRepository : ReactiveCrudRepository<Order, Long> {
      * @return a Flux containing the orders if found
      */
     fun findByStatus(status: String): Flux<Order>
+
+    /**
+     * Find one keyset page of orders in id order.
+     *
+     * @param afterId only orders with an id greater than this are returned
+     * @param limit the maximum number of orders to return
+     * @return a Flux of at most `limit` orders
+     */
+    @Query("SELECT * FROM orders WHERE id > :afterId ORDER BY id LIMIT :limit")
+    fun findPage(afterId: Long, limit: Int): Flux<Order>
+
+    /**
+     * Update the fields of an order other than its status, which only changes through
+     * [OrderStatusRepository.transition].
+     *
+     * @param id the ID of the order
+     * @param userId the ID of the ordering user
+     * @param totalAmount the total amount of the order
+     * @param orderDate the date of the order
+     * @return a Mono containing the number of orders updated
+     */
+    @Modifying
+    @Query("UPDATE orders SET user_id = :userId, total_amount = :totalAmount, order_date = :orderDate WHERE id = :id")
+    fun updateDetails(id: Long, userId: Long, totalAmount: BigDecimal, orderDate: LocalDateTime): Mono<Long>
 }
\ No newline at end of file
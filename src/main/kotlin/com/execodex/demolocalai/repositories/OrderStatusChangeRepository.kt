@@ -0,0 +1,20 @@
+package com.execodex.demolocalai.repositories
+
+import com.execodex.demolocalai.entities.OrderStatusChange
+import org.springframework.data.repository.reactive.ReactiveCrudRepository
+import org.springframework.stereotype.Repository
+import reactor.core.publisher.Flux
+
+/**
+ * Reactive repository for the status history of orders.
+ */
+@Repository
+interface OrderStatusChangeRepository : ReactiveCrudRepository<OrderStatusChange, Long> {
+    /**
+     * Find the status transitions of an order, oldest first.
+     *
+     * @param orderId the ID of the order
+     * @return a Flux of the order's status transitions
+     */
+    fun findByOrderIdOrderById(orderId: Long): Flux<OrderStatusChange>
+}
@@ -0,0 +1,146 @@
+package com.execodex.demolocalai.repositories
+
+import com.execodex.demolocalai.entities.Order
+import com.execodex.demolocalai.entities.OrderStatus
+import org.springframework.data.r2dbc.convert.R2dbcConverter
+import org.springframework.r2dbc.core.DatabaseClient
+import org.springframework.stereotype.Repository
+import reactor.core.publisher.Flux
+import reactor.core.publisher.Mono
+import java.time.LocalDateTime
+
+/**
+ * Order status transitions as single conditional statements, for one order or a batch of orders.
+ *
+ * The status is changed only if the order is still in one of the statuses the transition starts from,
+ * so concurrent transitions cannot overwrite each other, and the change is logged to
+ * `order_status_history` by the same statement.
+ */
+@Repository
+class OrderStatusRepository(
+    private val databaseClient: DatabaseClient,
+    private val converter: R2dbcConverter
+) {
+
+    /**
+     * Move an order to a status if it is in one of the given statuses, and log the transition.
+     * If the order is not in any of them it is returned unchanged, as it was when the statement started.
+     *
+     * Callers only have the order's ID, so the order is looked up in the primary key index of every monthly
+     * partition. The update then compares the order date found as a single value rather than a join column,
+     * so the executor prunes the other partitions from it.
+     *
+     * @param orderId the ID of the order
+     * @param from the statuses the order may move from
+     * @param to the status to move to
+     * @param reason why the status changed, logged with the transition
+     * @return a Mono containing the outcome, empty if the order does not exist
+     */
+    fun transition(orderId: Long, from: Collection<OrderStatus>, to: OrderStatus, reason: String?): Mono<StatusTransition> {
+        val spec = databaseClient.sql(
+            """
+            WITH current AS (
+                SELECT id, order_date, status FROM orders
+                WHERE id = :orderId AND status = ANY(:from::varchar[])
+                FOR UPDATE
+            ),
+            updated AS (
+                UPDATE orders o SET status = :to
+                FROM current c
+                WHERE o.id = c.id AND o.order_date = (SELECT order_date FROM current)
+                RETURNING o.*, c.status AS previous_status
+            ),
+            history AS (
+                INSERT INTO order_status_history (order_id, from_status, to_status, reason, changed_at)
+                SELECT id, previous_status, status, :reason, :changedAt FROM updated
+            )
+            SELECT u.*, true AS transitioned FROM updated u
+            UNION ALL
+            SELECT o.*, o.status, false FROM orders o
+            WHERE o.id = :orderId AND NOT EXISTS (SELECT 1 FROM updated)
+            """.trimIndent()
+        )
+            .bind("orderId", orderId)
+            .bind("from", from.map { it.name }.toTypedArray())
+            .bind("to", to.name)
+            .bind("changedAt", LocalDateTime.now())
+        return (if (reason == null) spec.bindNull("reason", String::class.java) else spec.bind("reason", reason))
+            .map { row, metadata ->
+                StatusTransition(
+                    order = converter.read(Order::class.java, row, metadata),
+                    previousStatus = row.get("previous_status", String::class.java)!!,
+                    transitioned = row.get("transitioned", java.lang.Boolean::class.java)!!.booleanValue()
+                )
+            }
+            .one()
+    }
+
+    /**
+     * Move orders to a status with one statement: each order that is in one of the given statuses moves and
+     * its transition is logged; the others are returned unchanged, as they were when the statement started.
+     * Rows are locked in id order, so concurrent batches over overlapping orders cannot deadlock.
+     *
+     * @param orderIds the IDs of the orders, without duplicates
+     * @param reasons why each order's status changed, index-aligned with `orderIds`
+     * @param from the statuses the orders may move from
+     * @param to the status to move to
+     * @return a Flux of the outcomes of the orders that exist
+     */
+    fun transitionAll(
+        orderIds: Array<Long>,
+        reasons: Array<String?>,
+        from: Collection<OrderStatus>,
+        to: OrderStatus
+    ): Flux<StatusTransition> {
+        return databaseClient.sql(
+            """
+            WITH batch AS (
+                SELECT * FROM unnest(:orderIds::bigint[], :reasons::text[]) AS b(order_id, reason)
+            ),
+            current AS (
+                SELECT o.id, o.order_date, o.status FROM orders o
+                WHERE o.id IN (SELECT order_id FROM batch) AND o.status = ANY(:from::varchar[])
+                ORDER BY o.id
+                FOR UPDATE
+            ),
+            updated AS (
+                UPDATE orders o SET status = :to
+                FROM current c
+                WHERE o.id = c.id AND o.order_date = c.order_date
+                RETURNING o.*, c.status AS previous_status
+            ),
+            history AS (
+                INSERT INTO order_status_history (order_id, from_status, to_status, reason, changed_at)
+                SELECT u.id, u.previous_status, u.status, b.reason, :changedAt
+                FROM updated u JOIN batch b ON b.order_id = u.id
+            )
+            SELECT u.*, true AS transitioned FROM updated u
+            UNION ALL
+            SELECT o.*, o.status, false FROM orders o
+            WHERE o.id IN (SELECT order_id FROM batch) AND o.id NOT IN (SELECT id FROM updated)
+            """.trimIndent()
+        )
+            .bind("orderIds", orderIds)
+            .bind("reasons", reasons)
+            .bind("from", from.map { it.name }.toTypedArray())
+            .bind("to", to.name)
+            .bind("changedAt", LocalDateTime.now())
+            .map { row, metadata ->
+                StatusTransition(
+                    order = converter.read(Order::class.java, row, metadata),
+                    previousStatus = row.get("previous_status", String::class.java)!!,
+                    transitioned = row.get("transitioned", java.lang.Boolean::class.java)!!.booleanValue()
+                )
+            }
+            .all()
+    }
+}
+
+/**
+ * The outcome of a status transition.
+ *
+ * @property order the order after the statement
+ * @property previousStatus the status the order was in before the statement
+ * @property transitioned whether the statement changed the status
+ */
+data class StatusTransition(val order: Order, val previousStatus: String, val transitioned: Boolean)
@@ -0,0 +1,103 @@
+package com.execodex.demolocalai.repositories
+
+import org.springframework.r2dbc.core.DatabaseClient
+import org.springframework.stereotype.Repository
+import reactor.core.publisher.Mono
+import java.time.LocalDateTime
+
+/**
+ * Statements over the `payment_sessions` table.
+ */
+@Repository
+class PaymentSessionRepository(private val databaseClient: DatabaseClient) {
+
+    /**
+     * Find the open session of an order. A session is open while it has not expired, the order is still
+     * `PENDING`, and the order total is the amount the session was created for.
+     *
+     * @param orderId the ID of the order
+     * @param kind the kind of session
+     * @param now the current time
+     * @return a Mono containing the session's Stripe object as JSON, empty if the order has no open session
+     */
+    fun findOpen(orderId: Long, kind: String, now: LocalDateTime): Mono<String> {
+        return databaseClient.sql(
+            """
+            SELECT p.payload
+            FROM payment_sessions p
+            JOIN orders o ON o.id = p.order_id
+            WHERE p.order_id = :orderId AND p.kind = :kind AND p.expires_at > :now
+              AND o.status = 'PENDING' AND p.amount = (o.total_amount * 100)::bigint
+            """.trimIndent()
+        )
+            .bind("orderId", orderId)
+            .bind("kind", kind)
+            .bind("now", now)
+            .map { row, _ -> row.get("payload", String::class.java)!! }
+            .one()
+    }
+
+    /**
+     * Store the session of an order, replacing its previous session of the same kind.
+     *
+     * @param orderId the ID of the order
+     * @param kind the kind of session
+     * @param amount the order total in cents the session was created for
+     * @param stripeId the ID of the Stripe object
+     * @param payload the Stripe object as JSON
+     * @param now the current time
+     * @param expiresAt when the session may no longer be returned
+     * @return a Mono completing when the session is stored
+     */
+    fun save(
+        orderId: Long,
+        kind: String,
+        amount: Long,
+        stripeId: String,
+        payload: String,
+        now: LocalDateTime,
+        expiresAt: LocalDateTime
+    ): Mono<Void> {
+        return databaseClient.sql(
+            """
+            INSERT INTO payment_sessions (order_id, kind, amount, stripe_id, payload, created_at, expires_at)
+            VALUES (:orderId, :kind, :amount, :stripeId, :payload, :now, :expiresAt)
+            ON CONFLICT (order_id, kind) DO UPDATE
+                SET amount = EXCLUDED.amount, stripe_id = EXCLUDED.stripe_id, payload = EXCLUDED.payload,
+                    created_at = EXCLUDED.created_at, expires_at = EXCLUDED.expires_at
+            """.trimIndent()
+        )
+            .bind("orderId", orderId)
+            .bind("kind", kind)
+            .bind("amount", amount)
+            .bind("stripeId", stripeId)
+            .bind("payload", payload)
+            .bind("now", now)
+            .bind("expiresAt", expiresAt)
+            .then()
+    }
+
+    /**
+     * Delete one batch of expired sessions.
+     *
+     * @param now the current time
+     * @param batchSize the maximum number of sessions to delete
+     * @return a Mono containing the number of sessions deleted
+     */
+    fun deleteExpired(now: LocalDateTime, batchSize: Int): Mono<Long> {
+        return databaseClient.sql(
+            """
+            DELETE FROM payment_sessions
+            WHERE (order_id, kind) IN (
+                SELECT order_id, kind FROM payment_sessions
+                WHERE expires_at < :now
+                LIMIT :batchSize
+            )
+            """.trimIndent()
+        )
+            .bind("now", now)
+            .bind("batchSize", batchSize)
+            .fetch()
+            .rowsUpdated()
+    }
+}
@@ -0,0 +1,72 @@
+package com.execodex.demolocalai.repositories
+
+import com.execodex.demolocalai.entities.Product
+import org.springframework.data.r2dbc.convert.R2dbcConverter
+import org.springframework.r2dbc.core.DatabaseClient
+import org.springframework.stereotype.Repository
+import reactor.core.publisher.Flux
+
+/**
+ * Multi-row product statements for bulk imports.
+ *
+ * Each statement takes a whole chunk of products as parallel arrays, so importing a chunk costs
+ * a fixed number of round-trips whatever its size.
+ */
+@Repository
+class ProductBulkRepository(
+    private val databaseClient: DatabaseClient,
+    private val converter: R2dbcConverter
+) {
+
+    /**
+     * Find every slug derived from any of the given base slugs in one query.
+     * Each base is looked up as the range `[base, base.)`, which covers `base` and `base-<suffix>`
+     * and is served by the `varchar_pattern_ops` index on `products.slug`.
+     *
+     * @param bases the base slugs
+     * @return a Flux of (base slug, taken slug) pairs
+     */
+    fun findSlugsByBases(bases: Array<String>): Flux<Pair<String, String>> {
+        return databaseClient.sql(
+            """
+            SELECT b.base, p.slug
+            FROM unnest(:bases::text[]) AS b(base)
+            JOIN products p ON p.slug ~>=~ b.base AND p.slug ~<~ (b.base || '.')
+            """.trimIndent()
+        )
+            .bind("bases", bases)
+            .map { row, _ -> row.get("base", String::class.java)!! to row.get("slug", String::class.java)!! }
+            .all()
+    }
+
+    /**
+     * Insert a chunk of products with one statement.
+     * Products whose SKU already exists are skipped rather than failing the chunk;
+     * a slug taken concurrently still fails it with a unique-constraint violation.
+     *
+     * @param products the products to insert, with their slugs allocated
+     * @return a Flux of the inserted products
+     */
+    fun insertAll(products: List<Product>): Flux<Product> {
+        return databaseClient.sql(
+            """
+            INSERT INTO products (sku, name, slug, description, image_url, price, quantity)
+            SELECT * FROM unnest(
+                :skus::varchar[], :names::varchar[], :slugs::varchar[], :descriptions::text[],
+                :imageUrls::varchar[], :prices::numeric[], :quantities::int[]
+            )
+            ON CONFLICT (sku) DO NOTHING
+            RETURNING *
+            """.trimIndent()
+        )
+            .bind("skus", products.map { it.sku }.toTypedArray())
+            .bind("names", products.map { it.name }.toTypedArray())
+            .bind("slugs", products.map { it.slug }.toTypedArray())
+            .bind("descriptions", products.map { it.description }.toTypedArray())
+            .bind("imageUrls", products.map { it.imageUrl }.toTypedArray())
+            .bind("prices", products.map { it.price.toPlainString() }.toTypedArray())
+            .bind("quantities", products.map { it.quantity }.toTypedArray())
+            .map { row, metadata -> converter.read(Product::class.java, row, metadata) }
+            .all()
+    }
+}
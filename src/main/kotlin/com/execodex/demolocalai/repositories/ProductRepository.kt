@@ -1,6 +1,7 @@
 package com.execodex.demolocalai.repositories
 
 import com.execodex.demolocalai.entities.Product
+import org.springframework.data.r2dbc.repository.Query
 import org.springframework.data.repository.reactive.ReactiveCrudRepository
 import org.springframework.stereotype.Repository
 import reactor.core.publisher.Flux
@@ -42,4 +43,33 @@ interface ProductRepository : ReactiveCrudRepository<Product, Long> {
      * @return a Mono containing the product if found
      */
     fun findBySlug(slug: String): Mono<Product>
-    }
\ No newline at end of file
+
+    /**
+     * Find every slug derived from a base slug in a single query.
+     *
+     * @param baseSlug the base slug
+     * @param pattern the LIKE pattern matching suffixed slugs, e.g. `onion-%`
+     * @param excludeId the ID of a product whose slug should be ignored, or -1
+     * @return a Flux of the matching slugs
+     */
+    @Query("SELECT slug FROM products WHERE (slug = :baseSlug OR slug LIKE :pattern) AND id <> :excludeId")
+    fun findSlugsByBase(baseSlug: String, pattern: String, excludeId: Long): Flux<String>
+
+    /**
+     * Find one keyset page of products in id order.
+     *
+     * @param afterId only products with an id greater than this are returned
+     * @param limit the maximum number of products to return
+     * @return a Flux of at most `limit` products
+     */
+    @Query("SELECT * FROM products WHERE id > :afterId ORDER BY id LIMIT :limit")
+    fun findPage(afterId: Long, limit: Int): Flux<Product>
+
+    /**
+     * Find every product that has no row in `product_embeddings` yet.
+     *
+     * @return a Flux of products without an embedding, in id order
+     */
+    @Query("SELECT p.* FROM products p WHERE NOT EXISTS (SELECT 1 FROM product_embeddings e WHERE e.id = p.id::text) ORDER BY p.id")
+    fun findWithoutEmbedding(): Flux<Product>
+}
\ No newline at end of file
@@ -0,0 +1,48 @@
+package com.execodex.demolocalai.repositories
+
+import com.execodex.demolocalai.entities.Product
+import com.execodex.demolocalai.pojos.ProductSearchHit
+import org.springframework.data.r2dbc.convert.R2dbcConverter
+import org.springframework.r2dbc.core.DatabaseClient
+import org.springframework.stereotype.Repository
+import reactor.core.publisher.Flux
+
+/**
+ * Full-text search over the generated `products.search_vector` column (name weighted above description).
+ */
+@Repository
+class ProductSearchRepository(
+    private val databaseClient: DatabaseClient,
+    private val converter: R2dbcConverter
+) {
+
+    /**
+     * Find products matching a `tsquery`, best matches first.
+     *
+     * @param tsQuery the query in `to_tsquery` syntax, e.g. `red:* & onion:*`
+     * @param limit the maximum number of products to return
+     * @param offset the number of ranked products to skip
+     * @return a Flux of matching products with their relevance scores
+     */
+    fun search(tsQuery: String, limit: Int, offset: Long): Flux<ProductSearchHit> {
+        return databaseClient.sql(
+            """
+            SELECT p.*, ts_rank_cd(p.search_vector, q.query)::float8 AS score
+            FROM products p, to_tsquery('english', :query) AS q(query)
+            WHERE p.search_vector @@ q.query
+            ORDER BY score DESC, p.id
+            LIMIT :limit OFFSET :offset
+            """.trimIndent()
+        )
+            .bind("query", tsQuery)
+            .bind("limit", limit)
+            .bind("offset", offset)
+            .map { row, metadata ->
+                ProductSearchHit(
+                    product = converter.read(Product::class.java, row, metadata),
+                    score = row.get("score", java.lang.Double::class.java)?.toDouble() ?: 0.0
+                )
+            }
+            .all()
+    }
+}
@@ -0,0 +1,219 @@
+package com.execodex.demolocalai.repositories
+
+import com.execodex.demolocalai.pojos.DailySales
+import com.execodex.demolocalai.pojos.ProductSales
+import org.springframework.r2dbc.core.DatabaseClient
+import org.springframework.stereotype.Repository
+import reactor.core.publisher.Flux
+import reactor.core.publisher.Mono
+import java.math.BigDecimal
+import java.time.LocalDate
+
+/**
+ * Statements over the daily sales rollups `sales_daily_product` and `sales_daily_status`.
+ *
+ * Orders are added to or taken out of the rollups as signed deltas computed from their lines, under the day
+ * of their order date. Each delta statement locks the orders it reads, so it cannot interleave with a
+ * concurrent status change of the same orders.
+ */
+@Repository
+class SalesRollupRepository(private val databaseClient: DatabaseClient) {
+
+    /**
+     * Add orders to, or take them out of, the rollups.
+     *
+     * @param orderIds the IDs of the orders
+     * @param statuses the status to count each order under, or null for its current status
+     * @param signs 1 to add each order, -1 to take it out
+     * @return a Mono containing the number of per-status rows changed
+     */
+    fun applyDeltas(orderIds: Array<Long>, statuses: Array<String?>, signs: Array<Int>): Mono<Long> {
+        return databaseClient.sql(
+            """
+            WITH deltas AS (
+                SELECT * FROM unnest(:orderIds::bigint[], :statuses::varchar[], :signs::int[]) AS x(order_id, status, sign)
+            ),
+            locked AS (
+                SELECT o.id, o.status, o.order_date FROM orders o
+                WHERE o.id IN (SELECT order_id FROM deltas)
+                ORDER BY o.id
+                FOR UPDATE
+            ),
+            lines AS (
+                SELECT l.order_date::date AS day, COALESCE(x.status, l.status) AS status, x.sign, l.id AS order_id,
+                       d.product_id, SUM(d.quantity) AS units, SUM(d.price * d.quantity) AS revenue
+                FROM deltas x
+                JOIN locked l ON l.id = x.order_id
+                JOIN order_details d ON d.order_id = l.id AND d.order_date = l.order_date
+                GROUP BY 1, 2, 3, 4, 5
+            ),
+            by_product AS (
+                INSERT INTO sales_daily_product AS s (day, product_id, status, orders, units, revenue)
+                SELECT day, product_id, status, SUM(sign), SUM(sign * units), SUM(sign * revenue)
+                FROM lines
+                GROUP BY day, product_id, status
+                ON CONFLICT (day, product_id, status) DO UPDATE
+                    SET orders = s.orders + EXCLUDED.orders, units = s.units + EXCLUDED.units,
+                        revenue = s.revenue + EXCLUDED.revenue
+            )
+            INSERT INTO sales_daily_status AS s (day, status, shard, orders, units, revenue)
+            SELECT day, status, order_id % $STATUS_SHARDS, SUM(sign), SUM(sign * units), SUM(sign * revenue)
+            FROM (
+                SELECT day, status, sign, order_id, SUM(units) AS units, SUM(revenue) AS revenue
+                FROM lines
+                GROUP BY day, status, sign, order_id
+            ) per_order
+            GROUP BY day, status, order_id % $STATUS_SHARDS
+            ON CONFLICT (day, status, shard) DO UPDATE
+                SET orders = s.orders + EXCLUDED.orders, units = s.units + EXCLUDED.units,
+                    revenue = s.revenue + EXCLUDED.revenue
+            """.trimIndent()
+        )
+            .bind("orderIds", orderIds)
+            .bind("statuses", statuses)
+            .bind("signs", signs)
+            .fetch()
+            .rowsUpdated()
+    }
+
+    /**
+     * Delete the rollups of a range of days.
+     *
+     * @param from the first day, inclusive
+     * @param until the last day, exclusive
+     * @return a Mono completing when the rows are deleted
+     */
+    fun deleteRange(from: LocalDate, until: LocalDate): Mono<Void> {
+        return databaseClient.sql(
+            """
+            WITH by_product AS (
+                DELETE FROM sales_daily_product WHERE day >= :from AND day < :until
+            )
+            DELETE FROM sales_daily_status WHERE day >= :from AND day < :until
+            """.trimIndent()
+        )
+            .bind("from", from)
+            .bind("until", until)
+            .then()
+    }
+
+    /**
+     * Compute the rollups of a range of days from the orders placed in it. The range must have been deleted first.
+     *
+     * @param from the first day, inclusive
+     * @param until the last day, exclusive
+     * @return a Mono containing the numbers of per-product and per-status rows written
+     */
+    fun insertRange(from: LocalDate, until: LocalDate): Mono<Pair<Long, Long>> {
+        return databaseClient.sql(
+            """
+            WITH lines AS (
+                SELECT o.order_date::date AS day, o.status, o.id AS order_id, d.product_id,
+                       SUM(d.quantity) AS units, SUM(d.price * d.quantity) AS revenue
+                FROM orders o
+                JOIN order_details d ON d.order_id = o.id AND d.order_date = o.order_date
+                WHERE o.order_date >= :from AND o.order_date < :until
+                  AND d.order_date >= :from AND d.order_date < :until
+                GROUP BY 1, 2, 3, 4
+            ),
+            by_product AS (
+                INSERT INTO sales_daily_product (day, product_id, status, orders, units, revenue)
+                SELECT day, product_id, status, COUNT(*), SUM(units), SUM(revenue)
+                FROM lines
+                GROUP BY day, product_id, status
+                RETURNING 1
+            ),
+            by_status AS (
+                INSERT INTO sales_daily_status (day, status, shard, orders, units, revenue)
+                SELECT day, status, order_id % $STATUS_SHARDS, COUNT(DISTINCT order_id), SUM(units), SUM(revenue)
+                FROM lines
+                GROUP BY day, status, order_id % $STATUS_SHARDS
+                RETURNING 1
+            )
+            SELECT (SELECT COUNT(*) FROM by_product) AS product_rows, (SELECT COUNT(*) FROM by_status) AS status_rows
+            """.trimIndent()
+        )
+            .bind("from", from)
+            .bind("until", until)
+            .map { row, _ ->
+                row.get("product_rows", java.lang.Long::class.java)!!.toLong() to
+                    row.get("status_rows", java.lang.Long::class.java)!!.toLong()
+            }
+            .one()
+    }
+
+    /**
+     * Sum the sales of each product over a range of days, best-selling first.
+     *
+     * @param from the first day, inclusive
+     * @param to the last day, inclusive
+     * @param statuses the order statuses to count
+     * @param limit the maximum number of products to return
+     * @return a Flux of product sales ordered by revenue, highest first
+     */
+    fun findProductSales(from: LocalDate, to: LocalDate, statuses: Array<String>, limit: Int): Flux<ProductSales> {
+        return databaseClient.sql(
+            """
+            SELECT product_id, SUM(orders) AS orders, SUM(units) AS units, SUM(revenue) AS revenue
+            FROM sales_daily_product
+            WHERE day BETWEEN :from AND :to AND status = ANY(:statuses::varchar[])
+            GROUP BY product_id
+            ORDER BY revenue DESC, product_id
+            LIMIT :limit
+            """.trimIndent()
+        )
+            .bind("from", from)
+            .bind("to", to)
+            .bind("statuses", statuses)
+            .bind("limit", limit)
+            .map { row, _ ->
+                ProductSales(
+                    productId = row.get("product_id", java.lang.Long::class.java)!!.toLong(),
+                    orders = row.get("orders", BigDecimal::class.java)!!.toLong(),
+                    units = row.get("units", BigDecimal::class.java)!!.toLong(),
+                    revenue = row.get("revenue", BigDecimal::class.java)!!
+                )
+            }
+            .all()
+    }
+
+    /**
+     * Sum the sales of each day and order status over a range of days.
+     *
+     * @param from the first day, inclusive
+     * @param to the last day, inclusive
+     * @param statuses the order statuses to count
+     * @return a Flux of daily sales ordered by day and status
+     */
+    fun findDailySales(from: LocalDate, to: LocalDate, statuses: Array<String>): Flux<DailySales> {
+        return databaseClient.sql(
+            """
+            SELECT day, status, SUM(orders) AS orders, SUM(units) AS units, SUM(revenue) AS revenue
+            FROM sales_daily_status
+            WHERE day BETWEEN :from AND :to AND status = ANY(:statuses::varchar[])
+            GROUP BY day, status
+            ORDER BY day, status
+            """.trimIndent()
+        )
+            .bind("from", from)
+            .bind("to", to)
+            .bind("statuses", statuses)
+            .map { row, _ ->
+                DailySales(
+                    day = row.get("day", LocalDate::class.java)!!,
+                    status = row.get("status", String::class.java)!!,
+                    orders = row.get("orders", BigDecimal::class.java)!!.toLong(),
+                    units = row.get("units", BigDecimal::class.java)!!.toLong(),
+                    revenue = row.get("revenue", BigDecimal::class.java)!!
+                )
+            }
+            .all()
+    }
+
+    companion object {
+        /**
+         * The number of rows each day and status of `sales_daily_status` is split over.
+         */
+        private const val STATUS_SHARDS = 8
+    }
+}
@@ -0,0 +1,123 @@
+package com.execodex.demolocalai.repositories
+
+import org.springframework.r2dbc.core.DatabaseClient
+import org.springframework.stereotype.Repository
+import reactor.core.publisher.Flux
+import reactor.core.publisher.Mono
+import java.time.LocalDateTime
+
+/**
+ * Statements over the `stripe_reconciliation_state` table, and the lookup of the orders to reconcile.
+ */
+@Repository
+class StripeReconciliationRepository(private val databaseClient: DatabaseClient) {
+
+    /**
+     * Take the lease on the reconciliation, unless another instance holds it.
+     *
+     * @param now the current time
+     * @param leaseUntil how long the lease holds before another instance may take it over
+     * @return a Mono containing the cursor of the scan in progress, empty if another instance holds the lease
+     */
+    fun claim(now: LocalDateTime, leaseUntil: LocalDateTime): Mono<ReconciliationCursor> {
+        return databaseClient.sql(
+            """
+            UPDATE stripe_reconciliation_state SET locked_until = :leaseUntil
+            WHERE name = :name AND (locked_until IS NULL OR locked_until < :now)
+            RETURNING window_start, starting_after
+            """.trimIndent()
+        )
+            .bind("name", PAYMENT_INTENTS)
+            .bind("now", now)
+            .bind("leaseUntil", leaseUntil)
+            .map { row, _ ->
+                ReconciliationCursor(
+                    windowStart = row.get("window_start", LocalDateTime::class.java),
+                    startingAfter = row.get("starting_after", String::class.java)
+                )
+            }
+            .one()
+    }
+
+    /**
+     * Record a page of the scan in progress and extend the lease.
+     *
+     * @param windowStart the creation time the scan lists from
+     * @param startingAfter the last payment intent done
+     * @param repaired the number of orders repaired by the page
+     * @param leaseUntil the new end of the lease
+     * @return a Mono completing when the progress is stored
+     */
+    fun saveProgress(windowStart: LocalDateTime, startingAfter: String, repaired: Int, leaseUntil: LocalDateTime): Mono<Void> {
+        return databaseClient.sql(
+            """
+            UPDATE stripe_reconciliation_state
+            SET window_start = :windowStart, starting_after = :startingAfter,
+                repaired_total = repaired_total + :repaired, locked_until = :leaseUntil
+            WHERE name = :name
+            """.trimIndent()
+        )
+            .bind("name", PAYMENT_INTENTS)
+            .bind("windowStart", windowStart)
+            .bind("startingAfter", startingAfter)
+            .bind("repaired", repaired)
+            .bind("leaseUntil", leaseUntil)
+            .then()
+    }
+
+    /**
+     * End the lease. A completed scan clears its cursor, so that the next run starts a new one; an unfinished
+     * scan keeps it, so that the next run resumes it.
+     *
+     * @param completedAt when the scan completed, or null if it is unfinished
+     * @return a Mono completing when the lease is released
+     */
+    fun release(completedAt: LocalDateTime?): Mono<Void> {
+        if (completedAt == null) {
+            return databaseClient.sql("UPDATE stripe_reconciliation_state SET locked_until = NULL WHERE name = :name")
+                .bind("name", PAYMENT_INTENTS)
+                .then()
+        }
+        return databaseClient.sql(
+            """
+            UPDATE stripe_reconciliation_state
+            SET window_start = NULL, starting_after = NULL, locked_until = NULL, last_completed_at = :completedAt
+            WHERE name = :name
+            """.trimIndent()
+        )
+            .bind("name", PAYMENT_INTENTS)
+            .bind("completedAt", completedAt)
+            .then()
+    }
+
+    /**
+     * Find the status of each of the given orders, with one join over all of them.
+     *
+     * @param orderIds the IDs of the orders
+     * @return a Flux of the ID and status of each order that exists
+     */
+    fun findOrderStatuses(orderIds: Array<Long>): Flux<Pair<Long, String>> {
+        return databaseClient.sql(
+            """
+            SELECT o.id, o.status
+            FROM unnest(:orderIds::bigint[]) AS m(order_id)
+            JOIN orders o ON o.id = m.order_id
+            """.trimIndent()
+        )
+            .bind("orderIds", orderIds)
+            .map { row, _ -> row.get("id", java.lang.Long::class.java)!!.toLong() to row.get("status", String::class.java)!! }
+            .all()
+    }
+
+    companion object {
+        private const val PAYMENT_INTENTS = "payment_intents"
+    }
+}
+
+/**
+ * The position of the reconciliation scan in progress.
+ *
+ * @property windowStart the creation time the scan lists payment intents from, or null if no scan is in progress
+ * @property startingAfter the last payment intent done, or null if the scan has not done a page yet
+ */
+data class ReconciliationCursor(val windowStart: LocalDateTime?, val startingAfter: String?)
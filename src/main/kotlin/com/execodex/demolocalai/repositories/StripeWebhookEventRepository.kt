@@ -0,0 +1,178 @@
+package com.execodex.demolocalai.repositories
+
+import org.springframework.r2dbc.core.DatabaseClient
+import org.springframework.stereotype.Repository
+import reactor.core.publisher.Flux
+import reactor.core.publisher.Mono
+import java.time.LocalDateTime
+
+/**
+ * Statements over the `stripe_webhook_events` inbox table.
+ */
+@Repository
+class StripeWebhookEventRepository(private val databaseClient: DatabaseClient) {
+
+    /**
+     * Store a received event as due now, unless an event with the same id is already stored.
+     *
+     * @param id the Stripe event ID
+     * @param type the Stripe event type
+     * @param payload the raw event body
+     * @param now the current time
+     * @return a Mono containing true if the event was stored, false if it was a duplicate
+     */
+    fun insert(id: String, type: String, payload: String, now: LocalDateTime): Mono<Boolean> {
+        return databaseClient.sql(
+            """
+            INSERT INTO stripe_webhook_events (id, type, payload, received_at, next_attempt_at)
+            VALUES (:id, :type, :payload, :now, :now)
+            ON CONFLICT (id) DO NOTHING
+            RETURNING id
+            """.trimIndent()
+        )
+            .bind("id", id)
+            .bind("type", type)
+            .bind("payload", payload)
+            .bind("now", now)
+            .fetch()
+            .first()
+            .hasElement()
+    }
+
+    /**
+     * Claim due events, oldest first, skipping events claimed by other workers. Each claimed event counts an
+     * attempt and is leased until `leaseUntil`: if it is neither completed nor rescheduled by then, it is due again.
+     *
+     * @param now the current time
+     * @param leaseUntil the end of the claim
+     * @param batchSize the maximum number of events to claim
+     * @return a Flux of the claimed events
+     */
+    fun claimDue(now: LocalDateTime, leaseUntil: LocalDateTime, batchSize: Int): Flux<ClaimedWebhookEvent> {
+        return databaseClient.sql(
+            """
+            UPDATE stripe_webhook_events e
+            SET attempts = e.attempts + 1, next_attempt_at = :leaseUntil
+            FROM (
+                SELECT id FROM stripe_webhook_events
+                WHERE status = 'PENDING' AND next_attempt_at <= :now
+                ORDER BY next_attempt_at
+                LIMIT :batchSize
+                FOR UPDATE SKIP LOCKED
+            ) due
+            WHERE e.id = due.id
+            RETURNING e.id, e.type, e.payload, e.attempts, e.received_at
+            """.trimIndent()
+        )
+            .bind("now", now)
+            .bind("leaseUntil", leaseUntil)
+            .bind("batchSize", batchSize)
+            .map { row, _ ->
+                ClaimedWebhookEvent(
+                    id = row.get("id", String::class.java)!!,
+                    type = row.get("type", String::class.java)!!,
+                    payload = row.get("payload", String::class.java)!!,
+                    attempts = row.get("attempts", Integer::class.java)!!.toInt(),
+                    receivedAt = row.get("received_at", LocalDateTime::class.java)!!
+                )
+            }
+            .all()
+    }
+
+    /**
+     * Mark events as processed.
+     *
+     * @param ids the Stripe event IDs
+     * @param now the current time
+     * @return a Mono completing when the events are updated
+     */
+    fun markProcessed(ids: Array<String>, now: LocalDateTime): Mono<Void> {
+        if (ids.isEmpty()) return Mono.empty()
+        return databaseClient.sql(
+            """
+            UPDATE stripe_webhook_events SET status = 'PROCESSED', processed_at = :now, last_error = NULL
+            WHERE id = ANY(:ids::varchar[])
+            """.trimIndent()
+        )
+            .bind("ids", ids)
+            .bind("now", now)
+            .then()
+    }
+
+    /**
+     * Make a failed event due again later.
+     *
+     * @param id the Stripe event ID
+     * @param nextAttemptAt when the event is due again
+     * @param error the reason of the failure
+     * @return a Mono completing when the event is updated
+     */
+    fun reschedule(id: String, nextAttemptAt: LocalDateTime, error: String): Mono<Void> {
+        return databaseClient.sql(
+            "UPDATE stripe_webhook_events SET next_attempt_at = :nextAttemptAt, last_error = :error WHERE id = :id"
+        )
+            .bind("id", id)
+            .bind("nextAttemptAt", nextAttemptAt)
+            .bind("error", error)
+            .then()
+    }
+
+    /**
+     * Give up on a failed event, leaving it as dead-lettered.
+     *
+     * @param id the Stripe event ID
+     * @param error the reason of the last failure
+     * @param now the current time
+     * @return a Mono completing when the event is updated
+     */
+    fun markDead(id: String, error: String, now: LocalDateTime): Mono<Void> {
+        return databaseClient.sql(
+            "UPDATE stripe_webhook_events SET status = 'DEAD', last_error = :error, processed_at = :now WHERE id = :id"
+        )
+            .bind("id", id)
+            .bind("error", error)
+            .bind("now", now)
+            .then()
+    }
+
+    /**
+     * Delete one batch of events processed before a cutoff. Dead-lettered events are kept.
+     *
+     * @param cutoff the oldest processing time to keep
+     * @param batchSize the maximum number of events to delete
+     * @return a Mono containing the number of events deleted
+     */
+    fun deleteProcessedBefore(cutoff: LocalDateTime, batchSize: Int): Mono<Long> {
+        return databaseClient.sql(
+            """
+            DELETE FROM stripe_webhook_events
+            WHERE id IN (
+                SELECT id FROM stripe_webhook_events
+                WHERE status = 'PROCESSED' AND processed_at < :cutoff
+                LIMIT :batchSize
+            )
+            """.trimIndent()
+        )
+            .bind("cutoff", cutoff)
+            .bind("batchSize", batchSize)
+            .fetch()
+            .rowsUpdated()
+    }
+}
+
+/**
+ * A webhook event claimed for processing.
+ *
+ * @property id the Stripe event ID
+ * @property type the Stripe event type
+ * @property payload the raw event body
+ * @property attempts the number of attempts, including this one
+ * @property receivedAt when the event was received
+ */
+data class ClaimedWebhookEvent(
+    val id: String,
+    val type: String,
+    val payload: String,
+    val attempts: Int,
+    val receivedAt: LocalDateTime
+)
@@ -1,6 +1,7 @@
 package com.execodex.demolocalai.repositories
 
 import com.execodex.demolocalai.entities.User
+import org.springframework.data.r2dbc.repository.Query
 import org.springframework.data.repository.reactive.ReactiveCrudRepository
 import org.springframework.stereotype.Repository
 import reactor.core.publisher.Flux
@@ -34,4 +35,14 @@ interface UserRepository : ReactiveCrudRepository<User, Long> {
      * @return a Flux of users matching the pattern
      */
     fun findByUsernameContainingIgnoreCase(usernamePattern: String): Flux<User>
+
+    /**
+     * Find one keyset page of users in id order.
+     *
+     * @param afterId only users with an id greater than this are returned
+     * @param limit the maximum number of users to return
+     * @return a Flux of at most `limit` users
+     */
+    @Query("SELECT * FROM users WHERE id > :afterId ORDER BY id LIMIT :limit")
+    fun findPage(afterId: Long, limit: Int): Flux<User>
 }
\ No newline at end of file
@@ -0,0 +1,128 @@
+package com.execodex.demolocalai.routes
+
+import com.execodex.demolocalai.handlers.AnalyticsHandler
+import com.execodex.demolocalai.pojos.DailySales
+import com.execodex.demolocalai.pojos.ProductSales
+import com.execodex.demolocalai.pojos.SalesRollupRebuildReport
+import io.swagger.v3.oas.annotations.Operation
+import io.swagger.v3.oas.annotations.Parameter
+import io.swagger.v3.oas.annotations.enums.ParameterIn
+import io.swagger.v3.oas.annotations.media.ArraySchema
+import io.swagger.v3.oas.annotations.media.Content
+import io.swagger.v3.oas.annotations.media.Schema
+import io.swagger.v3.oas.annotations.responses.ApiResponse
+import org.springdoc.core.annotations.RouterOperation
+import org.springdoc.core.annotations.RouterOperations
+import org.springframework.context.annotation.Bean
+import org.springframework.context.annotation.Configuration
+import org.springframework.http.MediaType
+import org.springframework.web.reactive.function.server.RouterFunction
+import org.springframework.web.reactive.function.server.ServerResponse
+import org.springframework.web.reactive.function.server.router
+
+/**
+ * Configuration for sales analytics routes.
+ */
+@Configuration
+class AnalyticsRoute(private val analyticsHandler: AnalyticsHandler) {
+
+    /**
+     * Defines the routes for sales analytics.
+     *
+     * @return a router function with analytics routes
+     */
+    @Bean
+    @RouterOperations(
+        RouterOperation(
+            path = "/analytics/sales/products",
+            beanClass = AnalyticsHandler::class,
+            beanMethod = "getProductSales",
+            method = [org.springframework.web.bind.annotation.RequestMethod.GET],
+            operation = Operation(
+                operationId = "getProductSales",
+                summary = "Get sales per product",
+                description = "Returns revenue, units and orders per product over a date range, best-selling first, from the daily sales rollups",
+                parameters = [
+                    Parameter(name = "from", `in` = ParameterIn.QUERY, required = false, description = "First day, YYYY-MM-DD (default 29 days before to)"),
+                    Parameter(name = "to", `in` = ParameterIn.QUERY, required = false, description = "Last day, YYYY-MM-DD (default today)"),
+                    Parameter(name = "status", `in` = ParameterIn.QUERY, required = false, description = "Comma-separated order statuses to count (default all)"),
+                    Parameter(name = "limit", `in` = ParameterIn.QUERY, required = false, description = "Maximum number of products (1-1000, default 50)")
+                ],
+                responses = [
+                    ApiResponse(
+                        responseCode = "200",
+                        description = "Successful operation",
+                        content = [Content(array = ArraySchema(schema = Schema(implementation = ProductSales::class)))]
+                    ),
+                    ApiResponse(
+                        responseCode = "400",
+                        description = "Invalid date range, status or limit"
+                    )
+                ]
+            )
+        ),
+        RouterOperation(
+            path = "/analytics/sales/daily",
+            beanClass = AnalyticsHandler::class,
+            beanMethod = "getDailySales",
+            method = [org.springframework.web.bind.annotation.RequestMethod.GET],
+            operation = Operation(
+                operationId = "getDailySales",
+                summary = "Get daily sales per status",
+                description = "Returns revenue, units and orders per day and order status over a date range, from the daily sales rollups",
+                parameters = [
+                    Parameter(name = "from", `in` = ParameterIn.QUERY, required = false, description = "First day, YYYY-MM-DD (default 29 days before to)"),
+                    Parameter(name = "to", `in` = ParameterIn.QUERY, required = false, description = "Last day, YYYY-MM-DD (default today)"),
+                    Parameter(name = "status", `in` = ParameterIn.QUERY, required = false, description = "Comma-separated order statuses to count (default all)")
+                ],
+                responses = [
+                    ApiResponse(
+                        responseCode = "200",
+                        description = "Successful operation",
+                        content = [Content(array = ArraySchema(schema = Schema(implementation = DailySales::class)))]
+                    ),
+                    ApiResponse(
+                        responseCode = "400",
+                        description = "Invalid date range or status"
+                    )
+                ]
+            )
+        ),
+        RouterOperation(
+            path = "/analytics/sales/rebuild",
+            beanClass = AnalyticsHandler::class,
+            beanMethod = "rebuildRollups",
+            method = [org.springframework.web.bind.annotation.RequestMethod.POST],
+            operation = Operation(
+                operationId = "rebuildSalesRollups",
+                summary = "Rebuild sales rollups",
+                description = "Recomputes the daily sales rollups of a date range from the orders, a few days per transaction. " +
+                    "Use it to backfill existing orders or to repair days that were changed while being rebuilt",
+                parameters = [
+                    Parameter(name = "from", `in` = ParameterIn.QUERY, required = false, description = "First day, YYYY-MM-DD (default 29 days before to)"),
+                    Parameter(name = "to", `in` = ParameterIn.QUERY, required = false, description = "Last day, YYYY-MM-DD (default today)")
+                ],
+                responses = [
+                    ApiResponse(
+                        responseCode = "200",
+                        description = "Rollups rebuilt",
+                        content = [Content(schema = Schema(implementation = SalesRollupRebuildReport::class))]
+                    ),
+                    ApiResponse(
+                        responseCode = "400",
+                        description = "Invalid date range"
+                    )
+                ]
+            )
+        )
+    )
+    fun analyticsRoutes(): RouterFunction<ServerResponse> = router {
+        "/analytics/sales".nest {
+            accept(MediaType.APPLICATION_JSON).nest {
+                GET("/products", analyticsHandler::getProductSales)
+                GET("/daily", analyticsHandler::getDailySales)
+                POST("/rebuild", analyticsHandler::rebuildRollups)
+            }
+        }
+    }
+}
@@ -4,6 +4,7 @@ import com.execodex.demolocalai.entities.Cart
 import com.execodex.demolocalai.entities.Order
 import com.execodex.demolocalai.handlers.CartHandler
 import com.execodex.demolocalai.pojos.AddCartItemRequest
+import com.execodex.demolocalai.pojos.CartPatchRequest
 import com.execodex.demolocalai.pojos.CartResponse
 import com.execodex.demolocalai.pojos.RemoveCartItemRequest
 import io.swagger.v3.oas.annotations.Operation
@@ -87,6 +88,44 @@ class CartRoute(private val cartHandler: CartHandler) {
                         responseCode = "200",
                         description = "Item added to cart",
                         content = [Content(schema = Schema(implementation = CartResponse::class))]
+                    ),
+                    ApiResponse(
+                        responseCode = "400",
+                        description = "Product not found or quantity not positive"
+                    )
+                ]
+            )
+        ),
+        RouterOperation(
+            path = "/users/{userId}/cart",
+            beanClass = CartHandler::class,
+            beanMethod = "patchCart",
+            method = [org.springframework.web.bind.annotation.RequestMethod.PATCH],
+            operation = Operation(
+                operationId = "patchCart",
+                summary = "Apply several cart changes",
+                description = "Applies a list of ADD, REMOVE and SET operations in order, in one transaction, and returns the final cart",
+                parameters = [
+                    Parameter(
+                        name = "userId",
+                        `in` = ParameterIn.PATH,
+                        required = true,
+                        description = "User ID"
+                    )
+                ],
+                requestBody = RequestBody(
+                    required = true,
+                    content = [Content(schema = Schema(implementation = CartPatchRequest::class))]
+                ),
+                responses = [
+                    ApiResponse(
+                        responseCode = "200",
+                        description = "Operations applied",
+                        content = [Content(schema = Schema(implementation = CartResponse::class))]
+                    ),
+                    ApiResponse(
+                        responseCode = "400",
+                        description = "Unknown product, invalid quantity or too many operations; nothing is applied"
                     )
                 ]
             )
@@ -147,6 +186,38 @@ class CartRoute(private val cartHandler: CartHandler) {
                 ]
             )
         ),
+        RouterOperation(
+            path = "/users/{userId}/cart/merge",
+            beanClass = CartHandler::class,
+            beanMethod = "mergeGuestCart",
+            method = [org.springframework.web.bind.annotation.RequestMethod.POST],
+            operation = Operation(
+                operationId = "mergeGuestCart",
+                summary = "Merge guest cart",
+                description = "Adds the lines of the guest cart sent in the guest_cart cookie or X-Guest-Cart header to the user's cart with one write, and clears the guest cart cookie",
+                parameters = [
+                    Parameter(
+                        name = "userId",
+                        `in` = ParameterIn.PATH,
+                        required = true,
+                        description = "User ID"
+                    ),
+                    Parameter(
+                        name = "X-Guest-Cart",
+                        `in` = ParameterIn.HEADER,
+                        required = false,
+                        description = "Guest cart token, for clients that do not send the guest_cart cookie"
+                    )
+                ],
+                responses = [
+                    ApiResponse(
+                        responseCode = "200",
+                        description = "Guest cart merged",
+                        content = [Content(schema = Schema(implementation = CartResponse::class))]
+                    )
+                ]
+            )
+        ),
         RouterOperation(
             path = "/users/{userId}/cart/checkout",
             beanClass = CartHandler::class,
@@ -155,13 +226,19 @@ class CartRoute(private val cartHandler: CartHandler) {
             operation = Operation(
                 operationId = "checkout",
                 summary = "Checkout cart",
-                description = "Creates an order with all items from the user's cart",
+                description = "Merges the guest cart sent with the request, if any, then creates an order with all items from the user's cart",
                 parameters = [
                     Parameter(
                         name = "userId",
                         `in` = ParameterIn.PATH,
                         required = true,
                         description = "User ID"
+                    ),
+                    Parameter(
+                        name = "Idempotency-Key",
+                        `in` = ParameterIn.HEADER,
+                        required = false,
+                        description = "Client-generated key, at most 255 characters; a retry with the same key returns the first response with Idempotent-Replayed: true"
                     )
                 ],
                 responses = [
@@ -173,6 +250,14 @@ class CartRoute(private val cartHandler: CartHandler) {
                     ApiResponse(
                         responseCode = "400",
                         description = "Bad request, cart is empty or items not available"
+                    ),
+                    ApiResponse(
+                        responseCode = "409",
+                        description = "Not enough stock for one or more products, or a request with the same Idempotency-Key is still in progress"
+                    ),
+                    ApiResponse(
+                        responseCode = "422",
+                        description = "Idempotency-Key was already used for a different request"
                     )
                 ]
             )
@@ -184,8 +269,10 @@ class CartRoute(private val cartHandler: CartHandler) {
                 accept(MediaType.APPLICATION_JSON).nest {
                     GET("", cartHandler::getCart)
                     POST("/items", cartHandler::addItemToCart)
+                    PATCH("", cartHandler::patchCart)
                     DELETE("/items", cartHandler::removeItemFromCart)
                     DELETE("", cartHandler::emptyCart)
+                    POST("/merge", cartHandler::mergeGuestCart)
                     POST("/checkout", cartHandler::checkout)
                 }
             }
@@ -0,0 +1,155 @@
+package com.execodex.demolocalai.routes
+
+import com.execodex.demolocalai.handlers.GuestCartHandler
+import com.execodex.demolocalai.pojos.AddCartItemRequest
+import com.execodex.demolocalai.pojos.GuestCartResponse
+import com.execodex.demolocalai.pojos.RemoveCartItemRequest
+import io.swagger.v3.oas.annotations.Operation
+import io.swagger.v3.oas.annotations.Parameter
+import io.swagger.v3.oas.annotations.enums.ParameterIn
+import io.swagger.v3.oas.annotations.media.Content
+import io.swagger.v3.oas.annotations.media.Schema
+import io.swagger.v3.oas.annotations.parameters.RequestBody
+import io.swagger.v3.oas.annotations.responses.ApiResponse
+import org.springdoc.core.annotations.RouterOperation
+import org.springdoc.core.annotations.RouterOperations
+import org.springframework.context.annotation.Bean
+import org.springframework.context.annotation.Configuration
+import org.springframework.http.MediaType
+import org.springframework.web.reactive.function.server.RouterFunction
+import org.springframework.web.reactive.function.server.ServerResponse
+import org.springframework.web.reactive.function.server.router
+
+/**
+ * Configuration for guest cart routes.
+ */
+@Configuration
+class GuestCartRoute(private val guestCartHandler: GuestCartHandler) {
+
+    /**
+     * Defines the routes for anonymous shoppers' carts.
+     *
+     * @return a router function with guest cart routes
+     */
+    @Bean
+    @RouterOperations(
+        RouterOperation(
+            path = "/guest-cart",
+            beanClass = GuestCartHandler::class,
+            beanMethod = "getGuestCart",
+            method = [org.springframework.web.bind.annotation.RequestMethod.GET],
+            operation = Operation(
+                operationId = "getGuestCart",
+                summary = "Get guest cart",
+                description = "Returns the guest cart sent in the guest_cart cookie or X-Guest-Cart header, priced from the catalog",
+                parameters = [
+                    Parameter(
+                        name = "X-Guest-Cart",
+                        `in` = ParameterIn.HEADER,
+                        required = false,
+                        description = "Guest cart token, for clients that do not send the guest_cart cookie"
+                    )
+                ],
+                responses = [
+                    ApiResponse(
+                        responseCode = "200",
+                        description = "Successful operation",
+                        content = [Content(schema = Schema(implementation = GuestCartResponse::class))]
+                    )
+                ]
+            )
+        ),
+        RouterOperation(
+            path = "/guest-cart/items",
+            beanClass = GuestCartHandler::class,
+            beanMethod = "addItem",
+            method = [org.springframework.web.bind.annotation.RequestMethod.POST],
+            operation = Operation(
+                operationId = "addGuestCartItem",
+                summary = "Add item to guest cart",
+                description = "Adds an item to the guest cart and returns the re-signed cart in the guest_cart cookie and X-Guest-Cart header",
+                parameters = [
+                    Parameter(
+                        name = "X-Guest-Cart",
+                        `in` = ParameterIn.HEADER,
+                        required = false,
+                        description = "Guest cart token, for clients that do not send the guest_cart cookie"
+                    )
+                ],
+                requestBody = RequestBody(
+                    required = true,
+                    content = [Content(schema = Schema(implementation = AddCartItemRequest::class))]
+                ),
+                responses = [
+                    ApiResponse(
+                        responseCode = "200",
+                        description = "Item added to guest cart",
+                        content = [Content(schema = Schema(implementation = GuestCartResponse::class))]
+                    ),
+                    ApiResponse(
+                        responseCode = "400",
+                        description = "Product not found, quantity not positive or guest cart full"
+                    )
+                ]
+            )
+        ),
+        RouterOperation(
+            path = "/guest-cart/items",
+            beanClass = GuestCartHandler::class,
+            beanMethod = "removeItem",
+            method = [org.springframework.web.bind.annotation.RequestMethod.DELETE],
+            operation = Operation(
+                operationId = "removeGuestCartItem",
+                summary = "Remove item from guest cart",
+                description = "Removes an item from the guest cart",
+                parameters = [
+                    Parameter(
+                        name = "X-Guest-Cart",
+                        `in` = ParameterIn.HEADER,
+                        required = false,
+                        description = "Guest cart token, for clients that do not send the guest_cart cookie"
+                    )
+                ],
+                requestBody = RequestBody(
+                    required = true,
+                    content = [Content(schema = Schema(implementation = RemoveCartItemRequest::class))]
+                ),
+                responses = [
+                    ApiResponse(
+                        responseCode = "200",
+                        description = "Item removed from guest cart",
+                        content = [Content(schema = Schema(implementation = GuestCartResponse::class))]
+                    )
+                ]
+            )
+        ),
+        RouterOperation(
+            path = "/guest-cart",
+            beanClass = GuestCartHandler::class,
+            beanMethod = "emptyGuestCart",
+            method = [org.springframework.web.bind.annotation.RequestMethod.DELETE],
+            operation = Operation(
+                operationId = "emptyGuestCart",
+                summary = "Empty guest cart",
+                description = "Clears the guest_cart cookie",
+                responses = [
+                    ApiResponse(
+                        responseCode = "200",
+                        description = "Guest cart emptied",
+                        content = [Content(schema = Schema(implementation = GuestCartResponse::class))]
+                    )
+                ]
+            )
+        )
+    )
+    fun guestCartRoutes(): RouterFunction<ServerResponse> = router {
+        "/guest-cart".nest {
+            accept(MediaType.APPLICATION_JSON).nest {
+                GET("", guestCartHandler::getGuestCart)
+                POST("/items", guestCartHandler::addItem)
+                DELETE("/items", guestCartHandler::removeItem)
+                DELETE("", guestCartHandler::emptyGuestCart)
+            }
+        }
+    }
+}
@@ -2,11 +2,17 @@ package com.execodex.demolocalai.routes
 
 import com.execodex.demolocalai.entities.Order
 import com.execodex.demolocalai.entities.OrderItem
+import com.execodex.demolocalai.entities.OrderStatusChange
 import com.execodex.demolocalai.handlers.OrderHandler
 import com.execodex.demolocalai.pojos.CreateOrderRequest
+import com.execodex.demolocalai.pojos.OrderDetailResponse
+import com.execodex.demolocalai.pojos.OrderExportRow
+import com.execodex.demolocalai.pojos.OrderStatusChangeRequest
 import io.swagger.v3.oas.annotations.Operation
 import io.swagger.v3.oas.annotations.Parameter
 import io.swagger.v3.oas.annotations.enums.ParameterIn
+import io.swagger.v3.oas.annotations.headers.Header
+import io.swagger.v3.oas.annotations.media.ArraySchema
 import io.swagger.v3.oas.annotations.media.Content
 import io.swagger.v3.oas.annotations.media.Schema
 import io.swagger.v3.oas.annotations.parameters.RequestBody
@@ -40,13 +46,51 @@ class OrderRoute(private val orderHandler: OrderHandler) {
             method = [org.springframework.web.bind.annotation.RequestMethod.GET],
             operation = Operation(
                 operationId = "getAllOrders",
-                summary = "Get all orders",
-                description = "Returns a list of all orders",
+                summary = "List orders",
+                description = "Returns one page of orders in id order, 100 unless a limit is given: a request without parameters no longer returns every order. " +
+                    "Follow the X-Next-Cursor or Link header for the next page, or send Accept: application/x-ndjson to stream every order instead",
+                parameters = [
+                    Parameter(
+                        name = "after",
+                        `in` = ParameterIn.QUERY,
+                        required = false,
+                        description = "Opaque cursor from the X-Next-Cursor header of the previous page"
+                    ),
+                    Parameter(
+                        name = "limit",
+                        `in` = ParameterIn.QUERY,
+                        required = false,
+                        description = "Maximum number of orders per page (1-500, default 100); ignored when streaming"
+                    )
+                ],
                 responses = [
                     ApiResponse(
                         responseCode = "200",
                         description = "Successful operation",
-                        content = [Content(schema = Schema(implementation = Order::class))]
+                        headers = [
+                            Header(
+                                name = "X-Next-Cursor",
+                                description = "Cursor of the next page; absent on the last page"
+                            ),
+                            Header(
+                                name = "Link",
+                                description = "URL of the next page with rel=\"next\"; absent on the last page"
+                            )
+                        ],
+                        content = [
+                            Content(
+                                mediaType = "application/json",
+                                array = ArraySchema(schema = Schema(implementation = Order::class))
+                            ),
+                            Content(
+                                mediaType = "application/x-ndjson",
+                                schema = Schema(implementation = Order::class)
+                            )
+                        ]
+                    ),
+                    ApiResponse(
+                        responseCode = "400",
+                        description = "Invalid cursor or limit"
                     )
                 ]
             )
@@ -59,20 +103,31 @@ class OrderRoute(private val orderHandler: OrderHandler) {
             operation = Operation(
                 operationId = "getOrderById",
                 summary = "Get order by ID",
-                description = "Returns a single order by its ID",
+                description = "Returns a single order by its ID. With expand, the order's items and their products " +
+                    "are returned too, read with a single query",
                 parameters = [
                     Parameter(
                         name = "id",
                         `in` = ParameterIn.PATH,
                         required = true,
                         description = "Order ID"
+                    ),
+                    Parameter(
+                        name = "expand",
+                        `in` = ParameterIn.QUERY,
+                        required = false,
+                        description = "Comma-separated: items adds the line items, products adds each item's product name, slug and image"
                     )
                 ],
                 responses = [
                     ApiResponse(
                         responseCode = "200",
                         description = "Successful operation",
-                        content = [Content(schema = Schema(implementation = Order::class))]
+                        content = [Content(schema = Schema(implementation = OrderDetailResponse::class))]
+                    ),
+                    ApiResponse(
+                        responseCode = "400",
+                        description = "Unknown expand value"
                     ),
                     ApiResponse(
                         responseCode = "404",
@@ -90,6 +145,14 @@ class OrderRoute(private val orderHandler: OrderHandler) {
                 operationId = "createOrder",
                 summary = "Create a new order",
                 description = "Creates a new order with the provided details",
+                parameters = [
+                    Parameter(
+                        name = "Idempotency-Key",
+                        `in` = ParameterIn.HEADER,
+                        required = false,
+                        description = "Client-generated key, at most 255 characters; a retry with the same key returns the first response with Idempotent-Replayed: true"
+                    )
+                ],
                 requestBody = RequestBody(
                     required = true,
                     content = [Content(schema = Schema(implementation = CreateOrderRequest::class))]
@@ -103,6 +166,47 @@ class OrderRoute(private val orderHandler: OrderHandler) {
                     ApiResponse(
                         responseCode = "400",
                         description = "Invalid input"
+                    ),
+                    ApiResponse(
+                        responseCode = "409",
+                        description = "Not enough stock for one or more products, or a request with the same Idempotency-Key is still in progress"
+                    ),
+                    ApiResponse(
+                        responseCode = "422",
+                        description = "Idempotency-Key was already used for a different request"
+                    )
+                ]
+            )
+        ),
+        RouterOperation(
+            path = "/orders/export",
+            beanClass = OrderHandler::class,
+            beanMethod = "exportOrders",
+            method = [org.springframework.web.bind.annotation.RequestMethod.GET],
+            operation = Operation(
+                operationId = "exportOrders",
+                summary = "Export orders",
+                description = "Streams the orders placed between two days joined with their line items, one row per item, " +
+                    "as CSV or newline-delimited JSON. Rows are written as they are read from the database; the export " +
+                    "is gzipped when the request accepts gzip encoding",
+                parameters = [
+                    Parameter(name = "from", `in` = ParameterIn.QUERY, required = true, description = "First day, YYYY-MM-DD"),
+                    Parameter(name = "to", `in` = ParameterIn.QUERY, required = true, description = "Last day, YYYY-MM-DD"),
+                    Parameter(name = "format", `in` = ParameterIn.QUERY, required = false, description = "csv (default) or ndjson"),
+                    Parameter(name = "Accept-Encoding", `in` = ParameterIn.HEADER, required = false, description = "gzip to compress the export")
+                ],
+                responses = [
+                    ApiResponse(
+                        responseCode = "200",
+                        description = "The export, as an attachment",
+                        content = [
+                            Content(mediaType = "text/csv"),
+                            Content(mediaType = MediaType.APPLICATION_NDJSON_VALUE, schema = Schema(implementation = OrderExportRow::class))
+                        ]
+                    ),
+                    ApiResponse(
+                        responseCode = "400",
+                        description = "Missing or invalid from, to or format"
                     )
                 ]
             )
@@ -115,13 +219,26 @@ class OrderRoute(private val orderHandler: OrderHandler) {
             operation = Operation(
                 operationId = "getOrdersByUserId",
                 summary = "Get orders by user ID",
-                description = "Returns all orders for a specific user",
+                description = "Returns all orders for a specific user. With from or to, only the orders placed " +
+                    "between those days, in date order, reading only the monthly partitions of the range",
                 parameters = [
                     Parameter(
                         name = "userId",
                         `in` = ParameterIn.PATH,
                         required = true,
                         description = "User ID"
+                    ),
+                    Parameter(
+                        name = "from",
+                        `in` = ParameterIn.QUERY,
+                        required = false,
+                        description = "First day, YYYY-MM-DD (default: no lower bound)"
+                    ),
+                    Parameter(
+                        name = "to",
+                        `in` = ParameterIn.QUERY,
+                        required = false,
+                        description = "Last day, YYYY-MM-DD (default today)"
                     )
                 ],
                 responses = [
@@ -129,6 +246,10 @@ class OrderRoute(private val orderHandler: OrderHandler) {
                         responseCode = "200",
                         description = "Successful operation",
                         content = [Content(schema = Schema(implementation = Order::class))]
+                    ),
+                    ApiResponse(
+                        responseCode = "400",
+                        description = "Invalid from or to"
                     )
                 ]
             )
@@ -186,9 +307,86 @@ class OrderRoute(private val orderHandler: OrderHandler) {
                         description = "Order updated",
                         content = [Content(schema = Schema(implementation = Order::class))]
                     ),
+                    ApiResponse(
+                        responseCode = "400",
+                        description = "Unknown status"
+                    ),
+                    ApiResponse(
+                        responseCode = "404",
+                        description = "Order not found"
+                    ),
+                    ApiResponse(
+                        responseCode = "409",
+                        description = "The order cannot move to the requested status from its current one"
+                    )
+                ]
+            )
+        ),
+        RouterOperation(
+            path = "/orders/{id}/status",
+            beanClass = OrderHandler::class,
+            beanMethod = "changeOrderStatus",
+            method = [org.springframework.web.bind.annotation.RequestMethod.POST],
+            operation = Operation(
+                operationId = "changeOrderStatus",
+                summary = "Change order status",
+                description = "Moves an order along PENDING -> PAID -> SHIPPED -> DELIVERED, or to CANCELLED (from PENDING) or REFUNDED (once paid). " +
+                    "Moving an order to the status it is already in returns it unchanged",
+                parameters = [
+                    Parameter(
+                        name = "id",
+                        `in` = ParameterIn.PATH,
+                        required = true,
+                        description = "Order ID"
+                    )
+                ],
+                requestBody = RequestBody(
+                    required = true,
+                    content = [Content(schema = Schema(implementation = OrderStatusChangeRequest::class))]
+                ),
+                responses = [
+                    ApiResponse(
+                        responseCode = "200",
+                        description = "Order status changed",
+                        content = [Content(schema = Schema(implementation = Order::class))]
+                    ),
+                    ApiResponse(
+                        responseCode = "400",
+                        description = "Unknown status"
+                    ),
                     ApiResponse(
                         responseCode = "404",
                         description = "Order not found"
+                    ),
+                    ApiResponse(
+                        responseCode = "409",
+                        description = "The order cannot move to the requested status from its current one"
+                    )
+                ]
+            )
+        ),
+        RouterOperation(
+            path = "/orders/{id}/status-history",
+            beanClass = OrderHandler::class,
+            beanMethod = "getOrderStatusHistory",
+            method = [org.springframework.web.bind.annotation.RequestMethod.GET],
+            operation = Operation(
+                operationId = "getOrderStatusHistory",
+                summary = "Get order status history",
+                description = "Returns the status transitions of an order, oldest first",
+                parameters = [
+                    Parameter(
+                        name = "id",
+                        `in` = ParameterIn.PATH,
+                        required = true,
+                        description = "Order ID"
+                    )
+                ],
+                responses = [
+                    ApiResponse(
+                        responseCode = "200",
+                        description = "Successful operation",
+                        content = [Content(array = ArraySchema(schema = Schema(implementation = OrderStatusChange::class)))]
                     )
                 ]
             )
@@ -196,11 +394,14 @@ class OrderRoute(private val orderHandler: OrderHandler) {
     )
     fun orderRoutes(): RouterFunction<ServerResponse> = router {
         "/orders".nest {
+            GET("", orderHandler::getAllOrders)
+            GET("/export", orderHandler::exportOrders)
             accept(MediaType.APPLICATION_JSON).nest {
-                GET("", orderHandler::getAllOrders)
                 GET("/{id}", orderHandler::getOrderById)
                 POST("", orderHandler::createOrder)
                 PUT("/{id}", orderHandler::updateOrder)
+                POST("/{id}/status", orderHandler::changeOrderStatus)
+                GET("/{id}/status-history", orderHandler::getOrderStatusHistory)
                 GET("/user/{userId}", orderHandler::getOrdersByUserId)
                 GET("/{orderId}/items", orderHandler::getOrderItemsByOrderId)
             }
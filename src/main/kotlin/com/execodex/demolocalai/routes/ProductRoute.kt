@@ -2,9 +2,15 @@ package com.execodex.demolocalai.routes
 
 import com.execodex.demolocalai.entities.Product
 import com.execodex.demolocalai.handlers.ProductHandler
+import com.execodex.demolocalai.pojos.ProductImportReport
+import com.execodex.demolocalai.pojos.ProductImportRow
+import com.execodex.demolocalai.pojos.ProductSearchHit
+import com.execodex.demolocalai.pojos.ProductSearchResponse
 import io.swagger.v3.oas.annotations.Operation
 import io.swagger.v3.oas.annotations.Parameter
 import io.swagger.v3.oas.annotations.enums.ParameterIn
+import io.swagger.v3.oas.annotations.headers.Header
+import io.swagger.v3.oas.annotations.media.ArraySchema
 import io.swagger.v3.oas.annotations.media.Content
 import io.swagger.v3.oas.annotations.media.Schema
 import io.swagger.v3.oas.annotations.parameters.RequestBody
@@ -38,13 +44,51 @@ class ProductRoute(private val productHandler: ProductHandler) {
             method = [org.springframework.web.bind.annotation.RequestMethod.GET],
             operation = Operation(
                 operationId = "getAllProducts",
-                summary = "Get all products",
-                description = "Returns a list of all products",
+                summary = "List products",
+                description = "Returns one page of products in id order, 100 unless a limit is given: a request without parameters no longer returns every product. " +
+                    "Follow the X-Next-Cursor or Link header for the next page, or send Accept: application/x-ndjson to stream every product instead",
+                parameters = [
+                    Parameter(
+                        name = "after",
+                        `in` = ParameterIn.QUERY,
+                        required = false,
+                        description = "Opaque cursor from the X-Next-Cursor header of the previous page"
+                    ),
+                    Parameter(
+                        name = "limit",
+                        `in` = ParameterIn.QUERY,
+                        required = false,
+                        description = "Maximum number of products per page (1-500, default 100); ignored when streaming"
+                    )
+                ],
                 responses = [
                     ApiResponse(
                         responseCode = "200",
                         description = "Successful operation",
-                        content = [Content(schema = Schema(implementation = Product::class))]
+                        headers = [
+                            Header(
+                                name = "X-Next-Cursor",
+                                description = "Cursor of the next page; absent on the last page"
+                            ),
+                            Header(
+                                name = "Link",
+                                description = "URL of the next page with rel=\"next\"; absent on the last page"
+                            )
+                        ],
+                        content = [
+                            Content(
+                                mediaType = "application/json",
+                                array = ArraySchema(schema = Schema(implementation = Product::class))
+                            ),
+                            Content(
+                                mediaType = "application/x-ndjson",
+                                schema = Schema(implementation = Product::class)
+                            )
+                        ]
+                    ),
+                    ApiResponse(
+                        responseCode = "400",
+                        description = "Invalid cursor or limit"
                     )
                 ]
             )
@@ -131,6 +175,39 @@ class ProductRoute(private val productHandler: ProductHandler) {
                 ]
             )
         ),
+        RouterOperation(
+            path = "/products/import",
+            beanClass = ProductHandler::class,
+            beanMethod = "importProducts",
+            method = [org.springframework.web.bind.annotation.RequestMethod.POST],
+            operation = Operation(
+                operationId = "importProducts",
+                summary = "Bulk import products",
+                description = "Streams products from a CSV upload (header with sku, name, price and optionally description, image_url, quantity) or NDJSON (one product object per line). Rows are inserted in chunks; malformed, duplicate or existing SKUs are reported per line.",
+                requestBody = RequestBody(
+                    required = true,
+                    content = [
+                        Content(mediaType = "text/csv", schema = Schema(type = "string")),
+                        Content(mediaType = "application/x-ndjson", schema = Schema(implementation = ProductImportRow::class))
+                    ]
+                ),
+                responses = [
+                    ApiResponse(
+                        responseCode = "200",
+                        description = "Import finished",
+                        content = [Content(schema = Schema(implementation = ProductImportReport::class))]
+                    ),
+                    ApiResponse(
+                        responseCode = "400",
+                        description = "CSV header is missing a required column"
+                    ),
+                    ApiResponse(
+                        responseCode = "415",
+                        description = "Unsupported content type"
+                    )
+                ]
+            )
+        ),
         RouterOperation(
             path = "/products/{id}",
             beanClass = ProductHandler::class,
@@ -201,21 +278,84 @@ class ProductRoute(private val productHandler: ProductHandler) {
             method = [org.springframework.web.bind.annotation.RequestMethod.GET],
             operation = Operation(
                 operationId = "searchProducts",
-                summary = "Search products by name",
-                description = "Returns products matching the search query",
+                summary = "Search products",
+                description = "Ranked full-text search over product names and descriptions when q is given; " +
+                    "the last word matches as a prefix. Without q, returns products whose name contains the name parameter",
                 parameters = [
+                    Parameter(
+                        name = "q",
+                        `in` = ParameterIn.QUERY,
+                        required = false,
+                        description = "Free-text query"
+                    ),
+                    Parameter(
+                        name = "page",
+                        `in` = ParameterIn.QUERY,
+                        required = false,
+                        description = "Zero-based result page for q (default 0)"
+                    ),
+                    Parameter(
+                        name = "size",
+                        `in` = ParameterIn.QUERY,
+                        required = false,
+                        description = "Results per page for q (1-100, default 20)"
+                    ),
                     Parameter(
                         name = "name",
                         `in` = ParameterIn.QUERY,
                         required = false,
-                        description = "Name pattern to search for"
+                        description = "Name pattern to search for when q is absent"
+                    )
+                ],
+                responses = [
+                    ApiResponse(
+                        responseCode = "200",
+                        description = "Successful operation; a ProductSearchResponse for q, otherwise an array of products",
+                        content = [Content(schema = Schema(implementation = ProductSearchResponse::class))]
+                    ),
+                    ApiResponse(
+                        responseCode = "400",
+                        description = "Invalid page or size"
+                    )
+                ]
+            )
+        ),
+        RouterOperation(
+            path = "/products/semantic-search",
+            beanClass = ProductHandler::class,
+            beanMethod = "semanticSearchProducts",
+            method = [org.springframework.web.bind.annotation.RequestMethod.GET],
+            operation = Operation(
+                operationId = "semanticSearchProducts",
+                summary = "Semantic product search",
+                description = "Returns the products whose embeddings are closest to the query, with their cosine similarity",
+                parameters = [
+                    Parameter(
+                        name = "q",
+                        `in` = ParameterIn.QUERY,
+                        required = true,
+                        description = "Free-text query"
+                    ),
+                    Parameter(
+                        name = "limit",
+                        `in` = ParameterIn.QUERY,
+                        required = false,
+                        description = "Maximum number of products (1-100, default 20)"
                     )
                 ],
                 responses = [
                     ApiResponse(
                         responseCode = "200",
                         description = "Successful operation",
-                        content = [Content(schema = Schema(implementation = Product::class))]
+                        content = [Content(array = ArraySchema(schema = Schema(implementation = ProductSearchHit::class)))]
+                    ),
+                    ApiResponse(
+                        responseCode = "400",
+                        description = "Missing query or invalid limit"
+                    ),
+                    ApiResponse(
+                        responseCode = "503",
+                        description = "No vector store configured"
                     )
                 ]
             )
@@ -223,12 +363,14 @@ class ProductRoute(private val productHandler: ProductHandler) {
     )
     fun productRoutes(): RouterFunction<ServerResponse> = router {
         "/products".nest {
+            GET("", productHandler::getAllProducts)
             accept(MediaType.APPLICATION_JSON).nest {
-                GET("", productHandler::getAllProducts)
                 GET("/name/{slug}", productHandler::getProductBySlug)
                 GET("/search", productHandler::searchProducts)
+                GET("/semantic-search", productHandler::semanticSearchProducts)
                 GET("/{id}", productHandler::getProductById)
                 POST("", productHandler::createProduct)
+                POST("/import", productHandler::importProducts)
                 PUT("/{id}", productHandler::updateProduct)
                 DELETE("/{id}", productHandler::deleteProduct)
             }
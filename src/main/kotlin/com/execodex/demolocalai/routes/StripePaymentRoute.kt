@@ -32,7 +32,7 @@ class StripePaymentRoute(private val stripePaymentHandler: StripePaymentHandler)
             operation = io.swagger.v3.oas.annotations.Operation(
                 operationId = "createPaymentIntent",
                 summary = "Create a payment intent",
-                description = "Creates a payment intent for an order",
+                description = "Creates a payment intent for an order, or returns the open one while the order is pending and its total unchanged",
                 requestBody = io.swagger.v3.oas.annotations.parameters.RequestBody(
                     required = true,
                     content = [io.swagger.v3.oas.annotations.media.Content(
@@ -51,6 +51,10 @@ class StripePaymentRoute(private val stripePaymentHandler: StripePaymentHandler)
                     io.swagger.v3.oas.annotations.responses.ApiResponse(
                         responseCode = "400",
                         description = "Bad request"
+                    ),
+                    io.swagger.v3.oas.annotations.responses.ApiResponse(
+                        responseCode = "503",
+                        description = "Payment gateway busy or timed out"
                     )
                 ]
             )
@@ -86,6 +90,10 @@ class StripePaymentRoute(private val stripePaymentHandler: StripePaymentHandler)
                     io.swagger.v3.oas.annotations.responses.ApiResponse(
                         responseCode = "500",
                         description = "Internal server error"
+                    ),
+                    io.swagger.v3.oas.annotations.responses.ApiResponse(
+                        responseCode = "503",
+                        description = "Payment gateway busy or timed out"
                     )
                 ]
             )
@@ -98,7 +106,7 @@ class StripePaymentRoute(private val stripePaymentHandler: StripePaymentHandler)
             operation = io.swagger.v3.oas.annotations.Operation(
                 operationId = "createCheckoutSession",
                 summary = "Create a checkout session",
-                description = "Creates a Stripe checkout session for an order",
+                description = "Creates a Stripe checkout session for an order, or returns the open one created with the same redirect URLs while the order is pending and its total unchanged",
                 requestBody = io.swagger.v3.oas.annotations.parameters.RequestBody(
                     required = true,
                     content = [io.swagger.v3.oas.annotations.media.Content(
@@ -121,6 +129,10 @@ class StripePaymentRoute(private val stripePaymentHandler: StripePaymentHandler)
                     io.swagger.v3.oas.annotations.responses.ApiResponse(
                         responseCode = "500",
                         description = "Internal server error"
+                    ),
+                    io.swagger.v3.oas.annotations.responses.ApiResponse(
+                        responseCode = "503",
+                        description = "Payment gateway busy or timed out"
                     )
                 ]
             )
@@ -133,7 +145,8 @@ class StripePaymentRoute(private val stripePaymentHandler: StripePaymentHandler)
             operation = io.swagger.v3.oas.annotations.Operation(
                 operationId = "handleWebhook",
                 summary = "Handle Stripe webhook events",
-                description = "Processes webhook notifications from Stripe for payment events",
+                description = "Stores webhook notifications from Stripe for asynchronous processing and acknowledges them. " +
+                    "Redelivered events are acknowledged without being stored again",
                 requestBody = io.swagger.v3.oas.annotations.parameters.RequestBody(
                     required = true,
                     content = [io.swagger.v3.oas.annotations.media.Content(
@@ -143,11 +156,19 @@ class StripePaymentRoute(private val stripePaymentHandler: StripePaymentHandler)
                 responses = [
                     io.swagger.v3.oas.annotations.responses.ApiResponse(
                         responseCode = "200",
-                        description = "Webhook processed successfully",
+                        description = "Webhook received",
                         content = [io.swagger.v3.oas.annotations.media.Content(
                             schema = io.swagger.v3.oas.annotations.media.Schema(implementation = com.execodex.demolocalai.pojos.WebhookResponse::class)
                         )
                         ]
+                    ),
+                    io.swagger.v3.oas.annotations.responses.ApiResponse(
+                        responseCode = "400",
+                        description = "Not a Stripe event"
+                    ),
+                    io.swagger.v3.oas.annotations.responses.ApiResponse(
+                        responseCode = "503",
+                        description = "Event could not be stored; Stripe delivers it again later"
                     )
                 ]
             )
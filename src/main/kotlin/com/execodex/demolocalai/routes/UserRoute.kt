@@ -9,6 +9,8 @@ import com.execodex.demolocalai.pojos.AuthProviderResponse
 import io.swagger.v3.oas.annotations.Operation
 import io.swagger.v3.oas.annotations.Parameter
 import io.swagger.v3.oas.annotations.enums.ParameterIn
+import io.swagger.v3.oas.annotations.headers.Header
+import io.swagger.v3.oas.annotations.media.ArraySchema
 import io.swagger.v3.oas.annotations.media.Content
 import io.swagger.v3.oas.annotations.media.Schema
 import io.swagger.v3.oas.annotations.parameters.RequestBody
@@ -42,13 +44,51 @@ class UserRoute(private val userHandler: UserHandler) {
             method = [org.springframework.web.bind.annotation.RequestMethod.GET],
             operation = Operation(
                 operationId = "getAllUsers",
-                summary = "Get all users",
-                description = "Returns a list of all users",
+                summary = "List users",
+                description = "Returns one page of users in id order, 100 unless a limit is given: a request without parameters no longer returns every user. " +
+                    "Follow the X-Next-Cursor or Link header for the next page, or send Accept: application/x-ndjson to stream every user instead",
+                parameters = [
+                    Parameter(
+                        name = "after",
+                        `in` = ParameterIn.QUERY,
+                        required = false,
+                        description = "Opaque cursor from the X-Next-Cursor header of the previous page"
+                    ),
+                    Parameter(
+                        name = "limit",
+                        `in` = ParameterIn.QUERY,
+                        required = false,
+                        description = "Maximum number of users per page (1-500, default 100); ignored when streaming"
+                    )
+                ],
                 responses = [
                     ApiResponse(
                         responseCode = "200",
                         description = "Successful operation",
-                        content = [Content(schema = Schema(implementation = User::class))]
+                        headers = [
+                            Header(
+                                name = "X-Next-Cursor",
+                                description = "Cursor of the next page; absent on the last page"
+                            ),
+                            Header(
+                                name = "Link",
+                                description = "URL of the next page with rel=\"next\"; absent on the last page"
+                            )
+                        ],
+                        content = [
+                            Content(
+                                mediaType = "application/json",
+                                array = ArraySchema(schema = Schema(implementation = User::class))
+                            ),
+                            Content(
+                                mediaType = "application/x-ndjson",
+                                schema = Schema(implementation = User::class)
+                            )
+                        ]
+                    ),
+                    ApiResponse(
+                        responseCode = "400",
+                        description = "Invalid cursor or limit"
                     )
                 ]
             )
@@ -327,8 +367,8 @@ class UserRoute(private val userHandler: UserHandler) {
     )
     fun userRoutes(): RouterFunction<ServerResponse> = router {
         "/users".nest {
+            GET("", userHandler::getAllUsers)
             accept(MediaType.APPLICATION_JSON).nest {
-                GET("", userHandler::getAllUsers)
                 GET("/search", userHandler::searchUsers)
                 GET("/username/{username}", userHandler::getUserByUsername)
                 GET("/me", userHandler::getCurrentOAuth2User)
@@ -1,26 +1,28 @@
 package com.execodex.demolocalai.service
 
 import com.execodex.demolocalai.entities.Cart
-import com.execodex.demolocalai.entities.CartItem
 import com.execodex.demolocalai.pojos.AddCartItemRequest
+import com.execodex.demolocalai.pojos.CartOperation
+import com.execodex.demolocalai.pojos.CartOperationType
+import com.execodex.demolocalai.pojos.CartPatchRequest
 import com.execodex.demolocalai.pojos.CartItemResponse
 import com.execodex.demolocalai.pojos.CartResponse
-import com.execodex.demolocalai.repositories.CartItemRepository
+import com.execodex.demolocalai.repositories.CartLineChange
 import com.execodex.demolocalai.repositories.CartRepository
-import com.execodex.demolocalai.repositories.ProductRepository
+import com.execodex.demolocalai.repositories.CartWithItems
 import org.springframework.stereotype.Service
 import reactor.core.publisher.Mono
 import java.math.BigDecimal
-import java.time.LocalDateTime
 
 /**
  * Service for managing shopping carts.
+ * Every mutation is a single upsert-style statement that returns the updated cart, so concurrent
+ * requests for the same user neither create duplicate carts nor duplicate lines.
  */
 @Service
 class CartService(
     private val cartRepository: CartRepository,
-    private val cartItemRepository: CartItemRepository,
-    private val productRepository: ProductRepository
+    private val productCatalog: ProductCatalog
 ) {
 
     /**
@@ -31,15 +33,7 @@ class CartService(
      */
     fun getOrCreateCart(userId: Long): Mono<Cart> {
         return cartRepository.findByUserId(userId)
-            .switchIfEmpty(
-                cartRepository.save(
-                    Cart(
-                        userId = userId,
-                        createdAt = LocalDateTime.now(),
-                        updatedAt = LocalDateTime.now()
-                    )
-                )
-            )
+            .switchIfEmpty(Mono.defer { cartRepository.upsertByUserId(userId) })
     }
 
     /**
@@ -49,70 +43,29 @@ class CartService(
      * @return a Mono containing the cart response with items
      */
     fun getCartWithItems(userId: Long): Mono<CartResponse> {
-        return getOrCreateCart(userId)
-            .flatMap { cart ->
-                cartItemRepository.findByCartId(cart.id!!)
-                    .map { CartItemResponse.fromCartItem(it) }
-                    .collectList()
-                    .map { items ->
-                        CartResponse(
-                            id = cart.id,
-                            userId = cart.userId,
-                            items = items,
-                            totalPrice = items.fold(BigDecimal.ZERO) { acc, item -> acc.add(item.totalPrice) },
-                            createdAt = cart.createdAt,
-                            updatedAt = cart.updatedAt
-                        )
-                    }
-            }
+        return cartRepository.findWithItemsByUserId(userId)
+            .switchIfEmpty(Mono.defer { emptyCartFor(userId) })
+            .map { toResponse(it) }
     }
 
     /**
      * Add an item to a cart.
+     * The quantity is merged into an existing line of the same product by the database.
      *
      * @param userId the ID of the user
      * @param request the add cart item request
      * @return a Mono containing the updated cart response
      */
     fun addItemToCart(userId: Long, request: AddCartItemRequest): Mono<CartResponse> {
-        return getOrCreateCart(userId)
-            .flatMap { cart ->
-                // Check if product exists and get its price if not provided
-                productRepository.findById(request.productId)
-                    .flatMap { product ->
-                        val price = product.price
-                        
-                        // Check if item already exists in cart
-                        cartItemRepository.findByCartIdAndProductId(cart.id!!, request.productId)
-                            .flatMap { existingItem ->
-                                // Update existing item quantity
-                                val updatedItem = CartItem(
-                                    id = existingItem.id,
-                                    cartId = existingItem.cartId,
-                                    productId = existingItem.productId,
-                                    quantity = existingItem.quantity + request.quantity,
-                                    price = price,
-                                    createdAt = existingItem.createdAt,
-                                    updatedAt = LocalDateTime.now()
-                                )
-                                cartItemRepository.save(updatedItem)
-                            }
-                            .switchIfEmpty(
-                                // Create new cart item
-                                cartItemRepository.save(
-                                    CartItem(
-                                        cartId = cart.id,
-                                        productId = request.productId,
-                                        quantity = request.quantity,
-                                        price = price,
-                                        createdAt = LocalDateTime.now(),
-                                        updatedAt = LocalDateTime.now()
-                                    )
-                                )
-                            )
-                            .then(getCartWithItems(userId))
-                    }
+        if (request.quantity <= 0) {
+            return Mono.error(IllegalArgumentException("Quantity must be positive"))
+        }
+        return productCatalog.findById(request.productId)
+            .switchIfEmpty(Mono.error(IllegalArgumentException("Product not found: ${request.productId}")))
+            .flatMap { product ->
+                cartRepository.upsertItem(userId, request.productId, request.quantity, product.price)
             }
+            .map { toResponse(it) }
     }
 
     /**
@@ -123,12 +76,9 @@ class CartService(
      * @return a Mono containing the updated cart response
      */
     fun removeItemFromCart(userId: Long, productId: Long): Mono<CartResponse> {
-        return getOrCreateCart(userId)
-            .flatMap { cart ->
-                cartItemRepository.findByCartIdAndProductId(cart.id!!, productId)
-                    .flatMap { cartItemRepository.delete(it) }
-                    .then(getCartWithItems(userId))
-            }
+        return cartRepository.removeItem(userId, productId)
+            .switchIfEmpty(Mono.defer { emptyCartFor(userId) })
+            .map { toResponse(it) }
     }
 
     /**
@@ -138,10 +88,113 @@ class CartService(
      * @return a Mono containing the empty cart response
      */
     fun emptyCart(userId: Long): Mono<CartResponse> {
-        return getOrCreateCart(userId)
-            .flatMap { cart ->
-                cartItemRepository.deleteByCartId(cart.id!!)
-                    .then(getCartWithItems(userId))
+        return cartRepository.clearItems(userId)
+            .switchIfEmpty(Mono.defer { cartRepository.upsertByUserId(userId) })
+            .map { cart -> toResponse(CartWithItems(cart, emptyList())) }
+    }
+
+    /**
+     * Apply a list of cart operations in order, in a single transaction.
+     * Operations are first folded into one net change per product, the prices of all touched products
+     * are fetched at once, and the changes are written with one statement.
+     *
+     * @param userId the ID of the user
+     * @param request the operations to apply
+     * @return a Mono containing the final cart response
+     */
+    fun applyOperations(userId: Long, request: CartPatchRequest): Mono<CartResponse> {
+        val netChanges = try {
+            foldOperations(request.operations)
+        } catch (e: IllegalArgumentException) {
+            return Mono.error(e)
+        }
+        if (netChanges.isEmpty()) {
+            return getCartWithItems(userId)
+        }
+        val pricedIds = netChanges.filter { it.value.quantity > 0 }.keys
+        return productCatalog.findAllById(pricedIds)
+            .collectMap({ it.id!! }, { it.price })
+            .flatMap { prices ->
+                val unknown = pricedIds.filterNot { it in prices }
+                if (unknown.isNotEmpty()) {
+                    return@flatMap Mono.error(IllegalArgumentException("Product not found: ${unknown.joinToString(", ")}"))
+                }
+                val changes = netChanges.map { (productId, change) ->
+                    CartLineChange(productId, change.mode, change.quantity, prices[productId] ?: BigDecimal.ZERO)
+                }
+                cartRepository.applyChanges(userId, changes)
             }
+            .map { toResponse(it) }
+    }
+
+    /**
+     * Merge a guest cart into a user's cart with one batched write.
+     * Guest quantities are added to the user's existing lines; products that no longer exist are skipped.
+     *
+     * @param userId the ID of the user
+     * @param lines the guest cart's quantity per product ID
+     * @return a Mono containing the merged cart response
+     */
+    fun mergeGuestCart(userId: Long, lines: Map<Long, Int>): Mono<CartResponse> {
+        if (lines.isEmpty()) {
+            return getCartWithItems(userId)
+        }
+        return productCatalog.findAllById(lines.keys)
+            .map { product -> CartLineChange(product.id!!, CartLineChange.Mode.ADD, lines.getValue(product.id), product.price) }
+            .collectList()
+            .flatMap { changes ->
+                if (changes.isEmpty()) getCartWithItems(userId)
+                else cartRepository.applyChanges(userId, changes).map { toResponse(it) }
+            }
+    }
+
+    /**
+     * Reduce the operations on each product to a single change: a relative `ADD` while no `REMOVE` or `SET`
+     * has been seen for the product, an absolute `SET` afterwards.
+     */
+    private fun foldOperations(operations: List<CartOperation>): Map<Long, NetChange> {
+        require(operations.size <= MAX_OPERATIONS) { "At most $MAX_OPERATIONS operations are allowed" }
+        val net = LinkedHashMap<Long, NetChange>()
+        for (operation in operations) {
+            val current = net[operation.productId]
+            net[operation.productId] = when (operation.op) {
+                CartOperationType.ADD -> {
+                    val quantity = operation.quantity ?: 0
+                    require(quantity > 0) { "ADD quantity must be positive for product ${operation.productId}" }
+                    NetChange(current?.mode ?: CartLineChange.Mode.ADD, (current?.quantity ?: 0) + quantity)
+                }
+                CartOperationType.REMOVE -> NetChange(CartLineChange.Mode.SET, 0)
+                CartOperationType.SET -> {
+                    val quantity = operation.quantity
+                    require(quantity != null && quantity >= 0) {
+                        "SET quantity must not be negative for product ${operation.productId}"
+                    }
+                    NetChange(CartLineChange.Mode.SET, quantity)
+                }
+            }
+        }
+        return net
+    }
+
+    private data class NetChange(val mode: CartLineChange.Mode, val quantity: Int)
+
+    private fun emptyCartFor(userId: Long): Mono<CartWithItems> =
+        cartRepository.upsertByUserId(userId).map { cart -> CartWithItems(cart, emptyList()) }
+
+    private fun toResponse(cartWithItems: CartWithItems): CartResponse {
+        val cart = cartWithItems.cart
+        val items = cartWithItems.items.map { CartItemResponse.fromCartItem(it) }
+        return CartResponse(
+            id = cart.id!!,
+            userId = cart.userId,
+            items = items,
+            totalPrice = items.fold(BigDecimal.ZERO) { acc, item -> acc.add(item.totalPrice) },
+            createdAt = cart.createdAt,
+            updatedAt = cart.updatedAt
+        )
+    }
+
+    companion object {
+        private const val MAX_OPERATIONS = 500
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,94 @@
+package com.execodex.demolocalai.service
+
+import com.execodex.demolocalai.pojos.AddCartItemRequest
+import com.execodex.demolocalai.pojos.GuestCartItemResponse
+import com.execodex.demolocalai.pojos.GuestCartResponse
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.stereotype.Service
+import reactor.core.publisher.Mono
+import java.math.BigDecimal
+
+/**
+ * Service for anonymous shoppers' carts.
+ *
+ * A guest cart is just a quantity per product ID that the client carries in a signed token; this service
+ * validates changes to it and prices it from the [ProductCatalog], so browsing as a guest never writes to
+ * the database. The cart is written once, by [CartService.mergeGuestCart], when the shopper logs in or checks out.
+ */
+@Service
+class GuestCartService(
+    private val productCatalog: ProductCatalog,
+    @Value("\${cart.guest.max-items:50}") private val maxItems: Int,
+    @Value("\${cart.guest.max-quantity:99}") private val maxQuantity: Int
+) {
+
+    /**
+     * Price a guest cart. Products that no longer exist are dropped.
+     *
+     * @param lines the quantity per product ID
+     * @return a Mono containing the remaining lines and the priced cart
+     */
+    fun price(lines: Map<Long, Int>): Mono<GuestCart> {
+        if (lines.isEmpty()) {
+            return Mono.just(GuestCart(emptyMap(), GuestCartResponse(emptyList(), BigDecimal.ZERO)))
+        }
+        return productCatalog.findAllById(lines.keys)
+            .collectMap { it.id!! }
+            .map { products ->
+                val items = lines.mapNotNull { (productId, quantity) ->
+                    val product = products[productId] ?: return@mapNotNull null
+                    GuestCartItemResponse(
+                        productId = productId,
+                        name = product.name,
+                        quantity = quantity,
+                        price = product.price,
+                        totalPrice = product.price.multiply(BigDecimal(quantity))
+                    )
+                }
+                GuestCart(
+                    lines = items.associate { it.productId to it.quantity },
+                    response = GuestCartResponse(
+                        items = items,
+                        totalPrice = items.fold(BigDecimal.ZERO) { acc, item -> acc.add(item.totalPrice) }
+                    )
+                )
+            }
+    }
+
+    /**
+     * Add an item to a guest cart, merging it into an existing line of the same product.
+     *
+     * @param lines the current quantity per product ID
+     * @param request the add cart item request
+     * @return a Mono containing the updated, priced cart
+     */
+    fun addItem(lines: Map<Long, Int>, request: AddCartItemRequest): Mono<GuestCart> {
+        if (request.quantity <= 0) {
+            return Mono.error(IllegalArgumentException("Quantity must be positive"))
+        }
+        val quantity = (lines[request.productId] ?: 0) + request.quantity
+        if (quantity > maxQuantity) {
+            return Mono.error(IllegalArgumentException("At most $maxQuantity of a product fit in a guest cart"))
+        }
+        if (request.productId !in lines && lines.size >= maxItems) {
+            return Mono.error(IllegalArgumentException("A guest cart holds at most $maxItems products"))
+        }
+        return productCatalog.findById(request.productId)
+            .switchIfEmpty(Mono.error(IllegalArgumentException("Product not found: ${request.productId}")))
+            .flatMap { price(lines + (request.productId to quantity)) }
+    }
+
+    /**
+     * Remove an item from a guest cart.
+     *
+     * @param lines the current quantity per product ID
+     * @param productId the ID of the product to remove
+     * @return a Mono containing the updated, priced cart
+     */
+    fun removeItem(lines: Map<Long, Int>, productId: Long): Mono<GuestCart> = price(lines - productId)
+
+    /**
+     * A guest cart: the lines to put back in the client's token and their priced view.
+     */
+    data class GuestCart(val lines: Map<Long, Int>, val response: GuestCartResponse)
+}
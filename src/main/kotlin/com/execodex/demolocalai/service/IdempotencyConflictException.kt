@@ -0,0 +1,9 @@
+package com.execodex.demolocalai.service
+
+/**
+ * Thrown when an idempotency key cannot be honoured: it was reused for a different request,
+ * or the first request with the key is still running after the wait timeout.
+ *
+ * @property inFlight true if the first request is still running, false if the key was reused
+ */
+class IdempotencyConflictException(message: String, val inFlight: Boolean) : RuntimeException(message)
@@ -0,0 +1,208 @@
+package com.execodex.demolocalai.service
+
+import com.execodex.demolocalai.pojos.IdempotentResponse
+import com.execodex.demolocalai.repositories.IdempotencyKeyRepository
+import io.micrometer.core.instrument.Counter
+import io.micrometer.core.instrument.MeterRegistry
+import org.slf4j.LoggerFactory
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.scheduling.annotation.Scheduled
+import org.springframework.stereotype.Service
+import reactor.core.publisher.Mono
+import java.time.Duration
+import java.time.LocalDateTime
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Service for executing POST requests at most once per client-supplied idempotency key.
+ *
+ * A key is claimed in the `idempotency_keys` table before the request runs, and the response is stored
+ * under it for `idempotency.ttl-hours`; retries with the same key get the stored response back.
+ * Recently completed responses are also kept in a bounded in-memory cache, so most retries are answered
+ * without a query. Duplicates arriving while the first request is still running wait for its response:
+ * on this instance by joining the running execution, across instances by polling the table.
+ *
+ * Responses with a 5xx status are not stored, so such requests can be retried with the same key.
+ */
+@Service
+class IdempotencyService(
+    private val idempotencyKeyRepository: IdempotencyKeyRepository,
+    meterRegistry: MeterRegistry,
+    @Value("\${idempotency.ttl-hours:24}") private val ttlHours: Long,
+    @Value("\${idempotency.lease-seconds:60}") private val leaseSeconds: Long,
+    @Value("\${idempotency.cache-size:10000}") private val cacheSize: Int,
+    @Value("\${idempotency.wait-timeout-ms:10000}") private val waitTimeoutMs: Long,
+    @Value("\${idempotency.poll-interval-ms:100}") private val pollIntervalMs: Long,
+    @Value("\${idempotency.purge-batch-size:1000}") private val purgeBatchSize: Int
+) {
+    private val logger = LoggerFactory.getLogger(IdempotencyService::class.java)
+
+    private val executed: Counter = meterRegistry.counter("idempotency.requests", "result", "executed")
+    private val replayed: Counter = meterRegistry.counter("idempotency.requests", "result", "replayed")
+    private val conflicts: Counter = meterRegistry.counter("idempotency.requests", "result", "conflict")
+
+    /**
+     * Completed responses by `scope:key`, least recently used first.
+     */
+    private val completed = object : LinkedHashMap<String, CompletedKey>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, CompletedKey>) = size > cacheSize
+    }
+
+    /**
+     * Executions running on this instance by `scope:key`.
+     */
+    private val inFlight = ConcurrentHashMap<String, InFlightKey>()
+
+    /**
+     * Run an action once per idempotency key and replay its response for every retry with the same key.
+     *
+     * @param scope the operation the key belongs to, such as `orders`
+     * @param key the client's idempotency key
+     * @param fingerprint a hash of the request; a retry must send the same request
+     * @param action the request to execute, producing the response to store
+     * @return a Mono containing the response, marked as replayed if it was not produced by this call,
+     * or an [IdempotencyConflictException] if the key was used for another request or is still in use
+     */
+    fun execute(
+        scope: String,
+        key: String,
+        fingerprint: String,
+        action: () -> Mono<IdempotentResponse>
+    ): Mono<IdempotentResponse> {
+        val cacheKey = "$scope:$key"
+        return Mono.defer {
+            val cached = synchronized(completed) { completed[cacheKey] }
+            if (cached != null && cached.expiresAt.isAfter(LocalDateTime.now())) {
+                return@defer replay(key, cached.fingerprint, cached.response, fingerprint)
+            }
+
+            val execution = InFlightKey(
+                fingerprint,
+                Mono.defer { claimAndRun(scope, key, fingerprint, action, deadline()) }
+                    .doFinally { inFlight.remove(cacheKey) }
+                    .cache()
+            )
+            val running = inFlight.putIfAbsent(cacheKey, execution)
+            if (running == null) {
+                execution.result
+            } else if (running.fingerprint != fingerprint) {
+                conflict(reused(key))
+            } else {
+                running.result.map { it.copy(replayed = true) }.doOnNext { replayed.increment() }
+            }
+        }
+    }
+
+    /**
+     * Execute the action if this call claims the key, otherwise wait for the response of the claimant.
+     */
+    private fun claimAndRun(
+        scope: String,
+        key: String,
+        fingerprint: String,
+        action: () -> Mono<IdempotentResponse>,
+        deadline: LocalDateTime
+    ): Mono<IdempotentResponse> {
+        val now = LocalDateTime.now()
+        return idempotencyKeyRepository.claim(scope, key, fingerprint, now, now.plusSeconds(leaseSeconds))
+            .flatMap { claimed ->
+                if (claimed) run(scope, key, fingerprint, action) else awaitResponse(scope, key, fingerprint, action, deadline)
+            }
+    }
+
+    private fun run(
+        scope: String,
+        key: String,
+        fingerprint: String,
+        action: () -> Mono<IdempotentResponse>
+    ): Mono<IdempotentResponse> {
+        return Mono.defer(action)
+            .switchIfEmpty(Mono.error(IllegalStateException("Idempotent request produced no response")))
+            .flatMap { response ->
+                executed.increment()
+                if (response.status >= 500) {
+                    return@flatMap idempotencyKeyRepository.release(scope, key).thenReturn(response)
+                }
+                val expiresAt = LocalDateTime.now().plusHours(ttlHours)
+                idempotencyKeyRepository.complete(scope, key, response, expiresAt)
+                    .doOnSuccess { remember("$scope:$key", CompletedKey(fingerprint, response, expiresAt)) }
+                    .thenReturn(response)
+            }
+            .onErrorResume { error ->
+                idempotencyKeyRepository.release(scope, key)
+                    .doOnError { logger.warn("Failed to release idempotency key {}: {}", key, it.message) }
+                    .onErrorResume { Mono.empty() }
+                    .then(Mono.error(error))
+            }
+    }
+
+    /**
+     * Poll the key until its claimant stores a response. If the claimant gave the key up, claim it again.
+     */
+    private fun awaitResponse(
+        scope: String,
+        key: String,
+        fingerprint: String,
+        action: () -> Mono<IdempotentResponse>,
+        deadline: LocalDateTime
+    ): Mono<IdempotentResponse> {
+        return idempotencyKeyRepository.find(scope, key, LocalDateTime.now())
+            .flatMap { stored ->
+                when {
+                    stored.response != null -> {
+                        remember("$scope:$key", CompletedKey(stored.fingerprint, stored.response, LocalDateTime.now().plusHours(ttlHours)))
+                        replay(key, stored.fingerprint, stored.response, fingerprint)
+                    }
+                    stored.fingerprint != fingerprint -> conflict(reused(key))
+                    LocalDateTime.now().isAfter(deadline) ->
+                        conflict(IdempotencyConflictException("A request with idempotency key $key is still in progress", inFlight = true))
+                    else -> Mono.delay(Duration.ofMillis(pollIntervalMs))
+                        .then(Mono.defer { awaitResponse(scope, key, fingerprint, action, deadline) })
+                }
+            }
+            .switchIfEmpty(Mono.defer { claimAndRun(scope, key, fingerprint, action, deadline) })
+    }
+
+    private fun replay(key: String, storedFingerprint: String, response: IdempotentResponse, fingerprint: String): Mono<IdempotentResponse> {
+        if (storedFingerprint != fingerprint) {
+            return conflict(reused(key))
+        }
+        replayed.increment()
+        return Mono.just(response.copy(replayed = true))
+    }
+
+    private fun conflict(error: IdempotencyConflictException): Mono<IdempotentResponse> {
+        conflicts.increment()
+        return Mono.error(error)
+    }
+
+    private fun reused(key: String) =
+        IdempotencyConflictException("Idempotency key $key was already used for a different request", inFlight = false)
+
+    private fun remember(cacheKey: String, entry: CompletedKey) {
+        synchronized(completed) { completed[cacheKey] = entry }
+    }
+
+    private fun deadline(): LocalDateTime = LocalDateTime.now().plus(Duration.ofMillis(waitTimeoutMs))
+
+    /**
+     * Periodically delete expired idempotency keys, one batch per run.
+     */
+    @Scheduled(
+        initialDelayString = "\${idempotency.purge-interval-ms:600000}",
+        fixedDelayString = "\${idempotency.purge-interval-ms:600000}"
+    )
+    fun purgeExpiredKeys() {
+        val now = LocalDateTime.now()
+        synchronized(completed) { completed.values.removeIf { !it.expiresAt.isAfter(now) } }
+        idempotencyKeyRepository.deleteExpired(now, purgeBatchSize)
+            .doOnNext { deleted -> if (deleted > 0) logger.info("Purged {} expired idempotency keys", deleted) }
+            .doOnError { error -> logger.warn("Idempotency key purge failed: {}", error.message) }
+            .onErrorResume { Mono.empty() }
+            .subscribe()
+    }
+
+    private data class CompletedKey(val fingerprint: String, val response: IdempotentResponse, val expiresAt: LocalDateTime)
+
+    private class InFlightKey(val fingerprint: String, val result: Mono<IdempotentResponse>)
+}
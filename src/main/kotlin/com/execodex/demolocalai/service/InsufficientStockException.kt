@@ -0,0 +1,9 @@
+package com.execodex.demolocalai.service
+
+/**
+ * Thrown when an order asks for more units of a product than are in stock.
+ *
+ * @property productIds the IDs of the products that could not be reserved
+ */
+class InsufficientStockException(val productIds: Collection<Long>) :
+    RuntimeException("Insufficient stock for product(s): ${productIds.sorted().joinToString(", ")}")
@@ -0,0 +1,18 @@
+package com.execodex.demolocalai.service
+
+import com.execodex.demolocalai.entities.OrderStatus
+
+/**
+ * Thrown when an order cannot move to the requested status from the status it is in.
+ *
+ * @property orderId the ID of the order
+ * @property currentStatus the status the order is in
+ * @property requestedStatus the status the order was asked to move to
+ */
+class InvalidOrderTransitionException(
+    val orderId: Long,
+    val currentStatus: String,
+    val requestedStatus: OrderStatus
+) : RuntimeException(
+    "Order $orderId cannot move from status $currentStatus to $requestedStatus"
+)
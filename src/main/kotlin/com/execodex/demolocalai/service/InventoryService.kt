@@ -0,0 +1,151 @@
+package com.execodex.demolocalai.service
+
+import com.execodex.demolocalai.entities.OrderStatus
+import com.execodex.demolocalai.entities.Product
+import com.execodex.demolocalai.repositories.InventoryRepository
+import io.micrometer.core.instrument.Counter
+import io.micrometer.core.instrument.MeterRegistry
+import org.slf4j.LoggerFactory
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.scheduling.annotation.Scheduled
+import org.springframework.stereotype.Service
+import org.springframework.transaction.reactive.TransactionalOperator
+import reactor.core.publisher.Mono
+import java.time.Duration
+import java.time.LocalDateTime
+
+/**
+ * Service for reserving product stock against orders.
+ *
+ * Placing an order takes its stock immediately with a conditional decrement, and records an
+ * `ACTIVE` reservation that lapses after `inventory.reservation.ttl-minutes` unless the order is paid.
+ * Paying commits the reservation; cancelling the order, or letting it lapse, puts the stock back.
+ */
+@Service
+class InventoryService(
+    private val inventoryRepository: InventoryRepository,
+    private val productCatalog: ProductCatalog,
+    private val salesRollupService: SalesRollupService,
+    private val transactionalOperator: TransactionalOperator,
+    meterRegistry: MeterRegistry,
+    @Value("\${inventory.reservation.ttl-minutes:30}") private val ttlMinutes: Long,
+    @Value("\${inventory.reservation.expiry-batch-size:500}") private val expiryBatchSize: Int
+) {
+    private val logger = LoggerFactory.getLogger(InventoryService::class.java)
+
+    private val reserved: Counter = meterRegistry.counter("inventory.reservations", "result", "reserved")
+    private val rejected: Counter = meterRegistry.counter("inventory.reservations", "result", "rejected")
+    private val released: Counter = meterRegistry.counter("inventory.reservations", "result", "released")
+    private val expired: Counter = meterRegistry.counter("inventory.reservations", "result", "expired")
+
+    /**
+     * Take stock for every line of an order. Must run inside the transaction that creates the order:
+     * product rows stay locked until it commits, and a shortage fails the whole transaction.
+     *
+     * The products are locked in id order, then decremented with a single conditional update;
+     * lines of the same product are merged first.
+     *
+     * @param orderId the ID of the new order
+     * @param items the ordered quantity per product ID
+     * @return a Mono containing the products with their new stock, or an [InsufficientStockException]
+     */
+    fun reserve(orderId: Long, items: Map<Long, Int>): Mono<List<Product>> {
+        val lines = items.entries.sortedBy { it.key }
+        val productIds = lines.map { it.key }.toTypedArray()
+        val quantities = lines.map { it.value }.toTypedArray()
+
+        return inventoryRepository.lockProducts(productIds)
+            .then(inventoryRepository.decrementStock(productIds, quantities).collectList())
+            .flatMap { updated ->
+                if (updated.size < productIds.size) {
+                    val updatedIds = updated.mapNotNull { it.id }.toSet()
+                    rejected.increment()
+                    return@flatMap Mono.error(InsufficientStockException(productIds.filterNot { it in updatedIds }))
+                }
+                inventoryRepository.insertReservations(orderId, productIds, quantities, expiresAt())
+                    .doOnSuccess { reserved.increment() }
+                    .thenReturn(updated)
+            }
+    }
+
+    /**
+     * Count a reservation taken outside [reserve], such as by the cart checkout statement.
+     *
+     * @param accepted whether the stock was reserved or the order was rejected for lack of stock
+     */
+    fun recordReservation(accepted: Boolean) {
+        if (accepted) reserved.increment() else rejected.increment()
+    }
+
+    /**
+     * Put back the stock of an order's active reservations.
+     *
+     * @param orderId the ID of the order
+     * @return a Mono containing the restocked products
+     */
+    fun release(orderId: Long): Mono<List<Product>> =
+        inventoryRepository.releaseForOrder(orderId)
+            .collectList()
+            .doOnNext { products -> if (products.isNotEmpty()) released.increment() }
+
+    /**
+     * Keep the stock of a paid order for good.
+     *
+     * @param orderId the ID of the order
+     * @return a Mono containing the number of reservations committed
+     */
+    fun commit(orderId: Long): Mono<Long> = inventoryRepository.commitForOrder(orderId)
+
+    /**
+     * Keep the stock of paid orders for good, in one statement.
+     *
+     * @param orderIds the IDs of the orders
+     * @return a Mono containing the number of reservations committed
+     */
+    fun commitAll(orderIds: Collection<Long>): Mono<Long> = inventoryRepository.commitForOrders(orderIds.toTypedArray())
+
+    /**
+     * Refresh the catalog with stock levels changed by a committed transaction.
+     *
+     * @param products the products as returned by the stock update
+     */
+    fun publish(products: Collection<Product>) {
+        productCatalog.putAll(products)
+    }
+
+    /**
+     * Periodically cancel unpaid orders whose reservations lapsed and release their stock, moving them to
+     * `CANCELLED` in the sales rollups in the same transaction. Each run cancels up to
+     * `inventory.reservation.expiry-batch-size` orders.
+     */
+    @Scheduled(
+        initialDelayString = "\${inventory.reservation.expiry-interval-ms:60000}",
+        fixedDelayString = "\${inventory.reservation.expiry-interval-ms:60000}"
+    )
+    fun expireReservations() {
+        val expiry = inventoryRepository.expireReservations(LocalDateTime.now(), expiryBatchSize)
+            .collectList()
+            .flatMap { rows ->
+                val cancelledOrderIds = rows.firstOrNull()?.second.orEmpty()
+                salesRollupService.moveOrders(cancelledOrderIds, OrderStatus.PENDING.name, OrderStatus.CANCELLED.name)
+                    .thenReturn(rows.map { it.first } to cancelledOrderIds)
+            }
+        transactionalOperator.transactional(expiry)
+            .doOnNext { (restocked, cancelledOrderIds) ->
+                if (restocked.isEmpty()) return@doOnNext
+                publish(restocked)
+                expired.increment(cancelledOrderIds.size.toDouble())
+                logger.info("Released expired reservations of {} unpaid orders", cancelledOrderIds.size)
+            }
+            .doOnError { error -> logger.warn("Reservation expiry failed: {}", error.message) }
+            .onErrorResume { Mono.empty() }
+            .subscribe()
+    }
+
+    /**
+     * When a reservation taken now lapses if its order is still unpaid.
+     *
+     * @return the expiry time
+     */
+    fun expiresAt(): LocalDateTime = LocalDateTime.now().plus(Duration.ofMinutes(ttlMinutes))
+}
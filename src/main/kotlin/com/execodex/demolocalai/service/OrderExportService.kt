@@ -0,0 +1,150 @@
+package com.execodex.demolocalai.service
+
+import com.execodex.demolocalai.pojos.OrderExportRow
+import com.execodex.demolocalai.repositories.OrderExportRepository
+import com.fasterxml.jackson.databind.ObjectMapper
+import org.springframework.http.MediaType
+import org.springframework.stereotype.Service
+import reactor.core.publisher.Flux
+import reactor.core.publisher.Mono
+import java.io.ByteArrayOutputStream
+import java.nio.charset.StandardCharsets
+import java.time.LocalDate
+import java.time.format.DateTimeFormatter
+import java.util.zip.GZIPOutputStream
+
+/**
+ * Service encoding order exports as CSV or NDJSON, optionally gzip-compressed, as a stream of chunks.
+ *
+ * Rows are encoded [CHUNK_ROWS] at a time as they arrive from the database cursor, and each chunk is
+ * compressed on its own turn, so memory use stays flat whatever the number of rows and a slow client
+ * slows the query down instead of buffering the export.
+ */
+@Service
+class OrderExportService(
+    private val orderExportRepository: OrderExportRepository,
+    private val objectMapper: ObjectMapper
+) {
+
+    /**
+     * Export the orders placed between two days with their line items, one row per item.
+     *
+     * @param from the first day, inclusive
+     * @param to the last day, inclusive
+     * @param format the encoding of the rows
+     * @param gzip whether to gzip the encoded rows
+     * @return a Flux of chunks of the encoded export
+     * @throws IllegalArgumentException if `from` is after `to`
+     */
+    fun export(from: LocalDate, to: LocalDate, format: OrderExportFormat, gzip: Boolean): Flux<ByteArray> {
+        require(!from.isAfter(to)) { "from must not be after to" }
+        val chunks = orderExportRepository.stream(from.atStartOfDay(), to.plusDays(1).atStartOfDay())
+            .buffer(CHUNK_ROWS)
+            .map { rows ->
+                when (format) {
+                    OrderExportFormat.CSV -> csv(rows)
+                    OrderExportFormat.NDJSON -> ndjson(rows)
+                }
+            }
+        val encoded = if (format == OrderExportFormat.CSV) Flux.just(CSV_HEADER).concatWith(chunks) else chunks
+        return if (gzip) gzip(encoded) else encoded
+    }
+
+    private fun csv(rows: List<OrderExportRow>): ByteArray {
+        val text = StringBuilder()
+        rows.forEach { row ->
+            text.append(row.orderId).append(',')
+                .append(row.userId).append(',')
+                .append(DateTimeFormatter.ISO_LOCAL_DATE_TIME.format(row.orderDate)).append(',')
+                .append(csvField(row.status)).append(',')
+                .append(row.totalAmount.toPlainString()).append(',')
+                .append(row.itemId ?: "").append(',')
+                .append(row.productId ?: "").append(',')
+                .append(row.quantity ?: "").append(',')
+                .append(row.price?.toPlainString() ?: "").append("\r\n")
+        }
+        return text.toString().toByteArray(StandardCharsets.UTF_8)
+    }
+
+    private fun csvField(value: String): String =
+        if (value.none { it == ',' || it == '"' || it == '\r' || it == '\n' }) value
+        else "\"" + value.replace("\"", "\"\"") + "\""
+
+    private fun ndjson(rows: List<OrderExportRow>): ByteArray {
+        val out = ByteArrayOutputStream()
+        rows.forEach { row ->
+            out.write(objectMapper.writeValueAsBytes(row))
+            out.write('\n'.code)
+        }
+        return out.toByteArray()
+    }
+
+    private fun gzip(chunks: Flux<ByteArray>): Flux<ByteArray> = Flux.defer {
+        val compressor = GzipChunks()
+        chunks.map { compressor.write(it) }
+            .concatWith(Mono.fromCallable { compressor.finish() })
+            .filter { it.isNotEmpty() }
+            .doFinally { compressor.close() }
+    }
+
+    /**
+     * A gzip stream whose compressed bytes are taken out after each write. Synchronized because a
+     * cancelled export closes it from another thread than the one writing.
+     */
+    private class GzipChunks {
+        private val sink = ByteArrayOutputStream()
+        private val gzip = GZIPOutputStream(sink)
+        private var closed = false
+
+        @Synchronized
+        fun write(chunk: ByteArray): ByteArray {
+            gzip.write(chunk)
+            return drain()
+        }
+
+        @Synchronized
+        fun finish(): ByteArray {
+            gzip.finish()
+            return drain()
+        }
+
+        @Synchronized
+        fun close() {
+            if (closed) return
+            closed = true
+            gzip.close()
+        }
+
+        private fun drain(): ByteArray = sink.toByteArray().also { sink.reset() }
+    }
+
+    companion object {
+        private const val CHUNK_ROWS = 500
+        private val CSV_HEADER = "order_id,user_id,order_date,status,total_amount,item_id,product_id,quantity,price\r\n"
+            .toByteArray(StandardCharsets.UTF_8)
+    }
+}
+
+/**
+ * The encodings of an order export.
+ *
+ * @property mediaType the content type of the encoded export
+ * @property extension the file extension of the encoded export
+ */
+enum class OrderExportFormat(val mediaType: MediaType, val extension: String) {
+    CSV(MediaType("text", "csv", StandardCharsets.UTF_8), "csv"),
+    NDJSON(MediaType.APPLICATION_NDJSON, "ndjson");
+
+    companion object {
+        /**
+         * Find a format by name, ignoring case.
+         *
+         * @param name the name of the format
+         * @return the format
+         * @throws IllegalArgumentException if no format has this name
+         */
+        fun of(name: String): OrderExportFormat =
+            entries.firstOrNull { it.name.equals(name, ignoreCase = true) }
+                ?: throw IllegalArgumentException("Unknown format: $name, expected csv or ndjson")
+    }
+}
@@ -0,0 +1,39 @@
+package com.execodex.demolocalai.service
+
+import com.execodex.demolocalai.repositories.OrderPartitionRepository
+import org.slf4j.LoggerFactory
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.scheduling.annotation.Scheduled
+import org.springframework.stereotype.Service
+import reactor.core.publisher.Mono
+import java.time.LocalDate
+
+/**
+ * Service keeping `orders` and `order_details` partitioned by month of order date.
+ *
+ * Partitions are created ahead of time so that new orders never land in the default partitions.
+ */
+@Service
+class OrderPartitionService(
+    private val orderPartitionRepository: OrderPartitionRepository,
+    @Value("\${orders.partitions.months-ahead:3}") private val monthsAhead: Int
+) {
+    private val logger = LoggerFactory.getLogger(OrderPartitionService::class.java)
+
+    /**
+     * Periodically create the partitions of the coming months.
+     */
+    @Scheduled(
+        initialDelayString = "\${orders.partitions.initial-delay-ms:10000}",
+        fixedDelayString = "\${orders.partitions.check-interval-ms:21600000}"
+    )
+    fun ensurePartitions() {
+        orderPartitionRepository.ensurePartitions(monthsAhead)
+            .doOnNext { created ->
+                if (created > 0) logger.info("Created order partitions for {} months from {}", created, LocalDate.now())
+            }
+            .doOnError { error -> logger.warn("Order partition maintenance failed: {}", error.message) }
+            .onErrorResume { Mono.empty() }
+            .subscribe()
+    }
+}
@@ -2,26 +2,47 @@ package com.execodex.demolocalai.service
 
 import com.execodex.demolocalai.entities.Order
 import com.execodex.demolocalai.entities.OrderItem
+import com.execodex.demolocalai.entities.OrderStatus
+import com.execodex.demolocalai.entities.OrderStatusChange
+import com.execodex.demolocalai.entities.Product
 import com.execodex.demolocalai.pojos.CreateOrderRequest
+import com.execodex.demolocalai.pojos.OrderDetailResponse
+import com.execodex.demolocalai.pojos.OrderItemRequest
+import com.execodex.demolocalai.repositories.CheckoutRepository
+import com.execodex.demolocalai.repositories.KeysetStreamRepository
+import com.execodex.demolocalai.repositories.OrderDetailRepository
 import com.execodex.demolocalai.repositories.OrderRepository
 import com.execodex.demolocalai.repositories.OrderItemRepository
-import com.execodex.demolocalai.repositories.ProductRepository
+import com.execodex.demolocalai.repositories.OrderStatusChangeRepository
+import com.execodex.demolocalai.repositories.OrderStatusRepository
+import com.execodex.demolocalai.repositories.StatusTransition
 import com.execodex.demolocalai.repositories.UserRepository
 import org.springframework.stereotype.Service
+import org.springframework.transaction.reactive.TransactionalOperator
 import reactor.core.publisher.Flux
 import reactor.core.publisher.Mono
 import java.math.BigDecimal
+import java.time.LocalDate
 import java.time.LocalDateTime
 
 /**
  * Service for managing orders.
+ * Orders are written together with their stock reservations in a single transaction.
  */
 @Service
 class OrderService(
     private val orderRepository: OrderRepository,
     private val orderItemRepository: OrderItemRepository,
-    private val productRepository: ProductRepository,
-    private val userRepository: UserRepository
+    private val productCatalog: ProductCatalog,
+    private val userRepository: UserRepository,
+    private val keysetStreamRepository: KeysetStreamRepository,
+    private val orderDetailRepository: OrderDetailRepository,
+    private val inventoryService: InventoryService,
+    private val salesRollupService: SalesRollupService,
+    private val checkoutRepository: CheckoutRepository,
+    private val orderStatusRepository: OrderStatusRepository,
+    private val orderStatusChangeRepository: OrderStatusChangeRepository,
+    private val transactionalOperator: TransactionalOperator
 ) {
 
     /**
@@ -31,15 +52,6 @@ class OrderService(
      * @return a Mono containing the created order
      */
     fun createOrder(createOrderRequest: CreateOrderRequest): Mono<Order> {
-        // Collect product information for all items
-        val productItemsMono = Flux.fromIterable(createOrderRequest.items)
-            .flatMap { item ->
-                productRepository.findById(item.productId)
-                    .switchIfEmpty(Mono.error(IllegalArgumentException("Product not found: ${item.productId}")))
-                    .map { product -> Pair(product, item.quantity) }
-            }
-            .collectList()
-
         // Get user ID if username is provided
         val userIdMono = if (createOrderRequest.username != null) {
             userRepository.findByUsername(createOrderRequest.username)
@@ -49,45 +61,7 @@ class OrderService(
             Mono.just(0L) // Default user ID if not provided
         }
 
-        // Calculate total amount and create order
-        return Mono.zip(userIdMono, productItemsMono)
-            .flatMap { tuple ->
-                val userId = tuple.t1
-                val productItems = tuple.t2
-                
-                // Calculate total amount
-                val totalAmount = productItems.fold(BigDecimal.ZERO) { acc, pair ->
-                    val (product, quantity) = pair
-                    acc.add(product.price.multiply(BigDecimal(quantity)))
-                }
-                
-                // Create and save the order
-                val order = Order(
-                    userId = userId,
-                    totalAmount = totalAmount,
-                    orderDate = LocalDateTime.now(),
-                    status = "PENDING"
-                )
-                
-                orderRepository.save(order)
-                    .flatMap { savedOrder ->
-                        // Create and save order items
-                        val orderItems = productItems.map { pair ->
-                            val (product, quantity) = pair
-                            OrderItem(
-                                orderId = savedOrder.id,
-                                productId = product.id!!,
-                                quantity = quantity,
-                                price = product.price
-                            )
-                        }
-                        
-                        Flux.fromIterable(orderItems)
-                            .flatMap { orderItem -> orderItemRepository.save(orderItem) }
-                            .collectList()
-                            .thenReturn(savedOrder)
-                    }
-            }
+        return userIdMono.flatMap { userId -> placeOrder(userId, createOrderRequest.items) }
     }
 
     /**
@@ -97,6 +71,24 @@ class OrderService(
      */
     fun getAllOrders(): Flux<Order> = orderRepository.findAll()
 
+    /**
+     * Get one keyset page of orders.
+     *
+     * @param afterId only orders with an id greater than this are returned
+     * @param limit the maximum number of orders to return
+     * @return a Flux of at most `limit` orders in id order
+     */
+    fun getOrdersPage(afterId: Long, limit: Int): Flux<Order> = orderRepository.findPage(afterId, limit)
+
+    /**
+     * Stream every order after a keyset position.
+     *
+     * @param afterId only orders with an id greater than this are returned
+     * @return a Flux of orders in id order
+     */
+    fun streamOrders(afterId: Long): Flux<Order> =
+        keysetStreamRepository.streamAfter(Order::class.java, "orders", afterId)
+
     /**
      * Get an order by its ID.
      *
@@ -105,6 +97,20 @@ class OrderService(
      */
     fun getOrderById(id: Long): Mono<Order> = orderRepository.findById(id)
 
+    /**
+     * Get an order with its line items, read with a single query.
+     *
+     * @param id the ID of the order
+     * @param withProducts whether each item carries the name, slug and image of its product
+     * @return a Mono containing the order with its items if found
+     */
+    fun getOrderDetail(id: Long, withProducts: Boolean): Mono<OrderDetailResponse> {
+        return orderDetailRepository.findById(id)
+            .map { detail ->
+                if (withProducts) detail else detail.copy(items = detail.items?.map { it.copy(product = null) })
+            }
+    }
+
     /**
      * Get orders by user ID.
      *
@@ -113,6 +119,19 @@ class OrderService(
      */
     fun getOrdersByUserId(userId: Long): Flux<Order> = orderRepository.findByUserId(userId)
 
+    /**
+     * Get the orders of a user placed between two days.
+     *
+     * @param userId the ID of the user
+     * @param from the first day, inclusive
+     * @param to the last day, inclusive
+     * @return a Flux containing the orders in date order, or an [IllegalArgumentException] if `from` is after `to`
+     */
+    fun getOrdersByUserId(userId: Long, from: LocalDate, to: LocalDate): Flux<Order> {
+        if (from.isAfter(to)) return Flux.error(IllegalArgumentException("from must not be after to"))
+        return orderRepository.findByUserIdInRange(userId, from.atStartOfDay(), to.plusDays(1).atStartOfDay())
+    }
+
     /**
      * Get order items by order ID.
      *
@@ -123,23 +142,73 @@ class OrderService(
 
     /**
      * Update an existing order.
+     * The status is changed as [changeStatus] does, so it must be the current one or a valid transition from it.
      *
      * @param id the ID of the order to update
      * @param order the updated order data
-     * @return a Mono containing the updated order if found
+     * @return a Mono containing the updated order if found, or an [InvalidOrderTransitionException]
      */
     fun updateOrder(id: Long, order: Order): Mono<Order> {
-        return orderRepository.findById(id)
-            .flatMap { existingOrder ->
-                // Preserve the original ID and update other fields
-                val updatedOrder = order.copy(
-                    id = existingOrder.id,
-                    orderDate = order.orderDate ?: existingOrder.orderDate
-                )
-                orderRepository.save(updatedOrder)
-            }
+        val status = try {
+            OrderStatus.of(order.status)
+        } catch (e: IllegalArgumentException) {
+            return Mono.error(e)
+        }
+        // The order date decides the day the order counts for in the sales rollups
+        val update = salesRollupService.removeOrders(listOf(id))
+            .then(orderRepository.updateDetails(id, order.userId, order.totalAmount, order.orderDate))
+            .filter { it > 0 }
+            .flatMap { salesRollupService.addOrders(listOf(id)).then(transition(id, status, "Order updated")) }
+        return transactionalOperator.transactional(update)
+            .doOnNext { (_, restocked) -> inventoryService.publish(restocked) }
+            .map { (saved, _) -> saved }
+    }
+
+    /**
+     * Move an order to another status with one conditional update that also logs the transition.
+     * Moving the order to `CANCELLED` puts its reserved stock back; moving it to `PAID` keeps the stock for good.
+     * An order already in the requested status is returned unchanged, so repeated requests are harmless.
+     *
+     * @param id the ID of the order
+     * @param status the status to move to
+     * @param reason why the status changes, kept in the order's status history
+     * @return a Mono containing the order if found, or an [InvalidOrderTransitionException]
+     * if it cannot move to the status from the one it is in
+     */
+    fun changeStatus(id: Long, status: OrderStatus, reason: String?): Mono<Order> {
+        return transactionalOperator.transactional(transition(id, status, reason))
+            .doOnNext { (_, restocked) -> inventoryService.publish(restocked) }
+            .map { (saved, _) -> saved }
     }
-    
+
+    /**
+     * Move several orders to a status in one transaction, with one conditional update for all of them that also
+     * logs their transitions, one sales rollup update per status they come from, and one stock update.
+     * Orders already in the requested status are returned unchanged, and orders that cannot move from the status
+     * they are in are left as they are.
+     *
+     * @param reasons why each order's status changes, by order ID
+     * @param status the status to move to
+     * @return a Mono containing the outcome of each order found, by order ID; an order is in the requested status
+     * unless it could not move to it
+     */
+    fun changeStatuses(reasons: Map<Long, String?>, status: OrderStatus): Mono<Map<Long, StatusTransition>> {
+        if (reasons.isEmpty()) {
+            return Mono.just(emptyMap())
+        }
+        return transactionalOperator.transactional(transitionAll(reasons, status))
+            .doOnNext { (_, restocked) -> inventoryService.publish(restocked) }
+            .map { (outcomes, _) -> outcomes }
+    }
+
+    /**
+     * Get the status history of an order, oldest transition first.
+     *
+     * @param orderId the ID of the order
+     * @return a Flux of the order's status transitions
+     */
+    fun getStatusHistory(orderId: Long): Flux<OrderStatusChange> = orderStatusChangeRepository.findByOrderIdOrderById(orderId)
+
     /**
      * Create a new order with items for a specific user ID.
      *
@@ -147,51 +216,186 @@ class OrderService(
      * @param items the list of order items
      * @return a Mono containing the created order
      */
-    fun createOrderForUser(userId: Long, items: List<com.execodex.demolocalai.pojos.OrderItemRequest>): Mono<Order> {
-        // Collect product information for all items
-        val productItemsMono = Flux.fromIterable(items)
-            .flatMap { item ->
-                productRepository.findById(item.productId)
-                    .switchIfEmpty(Mono.error(IllegalArgumentException("Product not found: ${item.productId}")))
-                    .map { product -> Pair(product, item.quantity) }
+    fun createOrderForUser(userId: Long, items: List<OrderItemRequest>): Mono<Order> = placeOrder(userId, items)
+
+    /**
+     * Turn a user's cart into an order in one transaction: the order, its items and its stock reservations
+     * are written and the cart is emptied, or nothing happens at all.
+     * The transaction costs five round-trips whatever the size of the cart: BEGIN, locking the cart and its
+     * products, the checkout statement, the sales rollup update, and COMMIT.
+     *
+     * @param userId the ID of the user
+     * @return a Mono containing the created order, an [IllegalArgumentException] if the cart is empty,
+     * or an [InsufficientStockException] if any product is short of stock
+     */
+    fun checkoutCart(userId: Long): Mono<Order> {
+        val checkout = checkoutRepository.lockCart(userId)
+            .then(checkoutRepository.checkout(userId, inventoryService.expiresAt()).collectList())
+            .flatMap { lines ->
+                if (lines.isEmpty()) {
+                    return@flatMap Mono.error(IllegalArgumentException("Cart is empty, cannot checkout"))
+                }
+                val order = lines.first().order
+                if (order == null) {
+                    inventoryService.recordReservation(accepted = false)
+                    return@flatMap Mono.error(InsufficientStockException(lines.filter { it.product == null }.map { it.productId }))
+                }
+                inventoryService.recordReservation(accepted = true)
+                salesRollupService.addOrders(listOf(order.id!!))
+                    .thenReturn(order to lines.mapNotNull { it.product })
             }
-            .collectList()
+        return transactionalOperator.transactional(checkout)
+            .doOnNext { (_, reservedProducts) -> inventoryService.publish(reservedProducts) }
+            .map { (order, _) -> order }
+    }
+
+    /**
+     * Save an order with its items and reserve its stock in one transaction.
+     * If any product is short of stock, nothing is written and the Mono fails with [InsufficientStockException].
+     *
+     * Products are looked up with one catalog call, and the transaction costs the same number of statements
+     * whatever the number of lines: the order header, the stock reservation, one multi-row item insert and
+     * the sales rollup update.
+     *
+     * @param userId the ID of the ordering user
+     * @param items the ordered products and quantities
+     * @return a Mono containing the created order
+     */
+    private fun placeOrder(userId: Long, items: List<OrderItemRequest>): Mono<Order> {
+        if (items.any { it.quantity <= 0 }) {
+            return Mono.error(IllegalArgumentException("Item quantities must be positive"))
+        }
+        val productIds = items.mapTo(LinkedHashSet()) { it.productId }
 
-        // Calculate total amount and create order
-        return productItemsMono
-            .flatMap { productItems ->
-                // Calculate total amount
-                val totalAmount = productItems.fold(BigDecimal.ZERO) { acc, pair ->
-                    val (product, quantity) = pair
-                    acc.add(product.price.multiply(BigDecimal(quantity)))
+        return productCatalog.findAllById(productIds)
+            .collectMap { it.id!! }
+            .flatMap { products ->
+                val missing = productIds.filterNot { it in products }
+                if (missing.isNotEmpty()) {
+                    return@flatMap Mono.error(IllegalArgumentException("Product not found: ${missing.joinToString(", ")}"))
+                }
+                val orderItems = items.map { item ->
+                    OrderItem(productId = item.productId, quantity = item.quantity, price = products.getValue(item.productId).price)
                 }
-                
-                // Create and save the order
+                val totalAmount = orderItems.fold(BigDecimal.ZERO) { acc, item ->
+                    acc.add(item.price.multiply(BigDecimal(item.quantity)))
+                }
+
                 val order = Order(
                     userId = userId,
                     totalAmount = totalAmount,
                     orderDate = LocalDateTime.now(),
-                    status = "PENDING"
+                    status = OrderStatus.PENDING.name
                 )
-                
-                orderRepository.save(order)
+                val quantitiesByProduct = items.groupingBy { it.productId }.fold(0) { acc, item -> acc + item.quantity }
+
+                val placement = orderRepository.save(order)
                     .flatMap { savedOrder ->
-                        // Create and save order items
-                        val orderItems = productItems.map { pair ->
-                            val (product, quantity) = pair
-                            OrderItem(
-                                orderId = savedOrder.id,
-                                productId = product.id!!,
-                                quantity = quantity,
-                                price = product.price
-                            )
+                        inventoryService.reserve(savedOrder.id!!, quantitiesByProduct)
+                            .flatMap { reservedProducts ->
+                                orderItemRepository.insertAll(savedOrder.id, savedOrder.orderDate, orderItems)
+                                    .then(salesRollupService.addOrders(listOf(savedOrder.id)))
+                                    .then(Mono.just(savedOrder to reservedProducts))
+                            }
+                    }
+                transactionalOperator.transactional(placement)
+            }
+            .doOnNext { (_, reservedProducts) -> inventoryService.publish(reservedProducts) }
+            .map { (savedOrder, _) -> savedOrder }
+    }
+
+    /**
+     * Move an order to a status and release or commit its reservations accordingly.
+     * Must run inside a transaction. An order already in the status is returned as it is, even for `PENDING`,
+     * which no status moves to, so an edit that leaves the status alone is not a transition.
+     *
+     * A status change that loses a race with a concurrent one reads the order as it was before the race;
+     * the statement is then run again to see the status the concurrent change left behind.
+     *
+     * @param id the ID of the order
+     * @param status the status to move to
+     * @param reason why the status changes
+     * @return a Mono containing the order and any products whose stock was put back
+     */
+    private fun transition(id: Long, status: OrderStatus, reason: String?, attempt: Int = 1): Mono<Pair<Order, List<Product>>> {
+        val from = status.previous
+        return orderStatusRepository.transition(id, from, status, reason)
+            .flatMap { outcome ->
+                val current = outcome.order.status
+                when {
+                    outcome.transitioned -> salesRollupService.moveOrders(listOf(id), outcome.previousStatus, current)
+                        .then(applyStockTransition(outcome.order))
+                    current == status.name -> Mono.just(outcome.order to emptyList())
+                    from.any { it.name == current } && attempt < STATUS_RACE_ATTEMPTS ->
+                        transition(id, status, reason, attempt + 1)
+                    else -> Mono.error(InvalidOrderTransitionException(id, current, status))
+                }
+            }
+    }
+
+    private fun transitionAll(
+        reasons: Map<Long, String?>,
+        status: OrderStatus,
+        attempt: Int = 1
+    ): Mono<Pair<Map<Long, StatusTransition>, List<Product>>> {
+        val from = status.previous
+        val ids = reasons.keys.toTypedArray()
+        return orderStatusRepository.transitionAll(ids, ids.map { reasons[it] }.toTypedArray(), from, status)
+            .collectList()
+            .flatMap { outcomes ->
+                val moved = outcomes.filter { it.transitioned }
+                // Orders still shown in a status they may move from were changed by a concurrent transition
+                val raced = outcomes.filter { outcome -> !outcome.transitioned && from.any { it.name == outcome.order.status } }
+                Flux.fromIterable(moved.groupBy({ it.previousStatus }, { it.order.id!! }).entries)
+                    .concatMap { (previous, orderIds) -> salesRollupService.moveOrders(orderIds, previous, status.name) }
+                    .then(applyStockTransitions(moved.map { it.order }, status))
+                    .flatMap { restocked ->
+                        val settled = outcomes.associateBy { it.order.id!! }
+                        if (raced.isEmpty() || attempt >= STATUS_RACE_ATTEMPTS) {
+                            Mono.just(settled to restocked)
+                        } else {
+                            val racedIds = raced.mapTo(HashSet()) { it.order.id!! }
+                            transitionAll(reasons.filterKeys { it in racedIds }, status, attempt + 1)
+                                .map { (retried, more) -> settled + retried to restocked + more }
                         }
-                        
-                        Flux.fromIterable(orderItems)
-                            .flatMap { orderItem -> orderItemRepository.save(orderItem) }
-                            .collectList()
-                            .thenReturn(savedOrder)
                     }
             }
     }
-}
\ No newline at end of file
+
+    /**
+     * Release or commit the order's reservations after its status changed.
+     *
+     * @param saved the updated order
+     * @return a Mono containing the order and any products whose stock was put back
+     */
+    private fun applyStockTransition(saved: Order): Mono<Pair<Order, List<Product>>> {
+        return when (saved.status) {
+            OrderStatus.CANCELLED.name -> inventoryService.release(saved.id!!).map { saved to it }
+            OrderStatus.PAID.name -> inventoryService.commit(saved.id!!).thenReturn(saved to emptyList())
+            else -> Mono.just(saved to emptyList())
+        }
+    }
+
+    /**
+     * Release or commit the reservations of orders after they moved to a status, committing them in one statement.
+     *
+     * @param orders the updated orders
+     * @param status the status the orders moved to
+     * @return a Mono containing any products whose stock was put back
+     */
+    private fun applyStockTransitions(orders: List<Order>, status: OrderStatus): Mono<List<Product>> {
+        if (orders.isEmpty()) return Mono.just(emptyList())
+        return when (status) {
+            OrderStatus.CANCELLED -> Flux.fromIterable(orders)
+                .concatMap { inventoryService.release(it.id!!) }
+                .collectList()
+                .map { it.flatten() }
+            OrderStatus.PAID -> inventoryService.commitAll(orders.map { it.id!! }).thenReturn(emptyList())
+            else -> Mono.just(emptyList())
+        }
+    }
+
+    companion object {
+        private const val STATUS_RACE_ATTEMPTS = 3
+    }
+}
@@ -0,0 +1,7 @@
+package com.execodex.demolocalai.service
+
+/**
+ * Thrown when a payment gateway call is not made or not answered in time: no connection to the gateway is
+ * available, the call failed in transit or timed out, or the gateway answered that it is overloaded or failing.
+ */
+class PaymentGatewayUnavailableException(message: String, cause: Throwable? = null) : RuntimeException(message, cause)
@@ -0,0 +1,281 @@
+package com.execodex.demolocalai.service
+
+import com.execodex.demolocalai.entities.Product
+import com.execodex.demolocalai.repositories.ProductRepository
+import io.micrometer.core.instrument.Counter
+import io.micrometer.core.instrument.MeterRegistry
+import io.micrometer.core.instrument.Timer
+import org.slf4j.LoggerFactory
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.boot.context.event.ApplicationReadyEvent
+import org.springframework.context.event.EventListener
+import org.springframework.scheduling.annotation.Scheduled
+import org.springframework.stereotype.Component
+import reactor.core.publisher.Flux
+import reactor.core.publisher.Mono
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentSkipListMap
+import java.util.concurrent.TimeUnit
+
+/**
+ * In-memory read model of the product catalog.
+ *
+ * Holds every product in concurrent maps indexed by id, slug and SKU. Writes made through [ProductService]
+ * update the maps in place, one product at O(log n), serialized by a lock; reads take no lock. A periodic
+ * reconcile reloads the whole catalog from the `products` table, to pick up changes made by other instances,
+ * and swaps it in. Writes made while the reload queries the table are re-applied on top of what it loaded,
+ * so they are not lost. Lookups that miss the catalog fall through to the repository and populate it.
+ *
+ * Catalogs larger than `product.catalog.max-size` are not loaded: reads then go to the database, and the
+ * catalog keeps the first `product.catalog.max-size` products written or looked up after each reconcile.
+ */
+@Component
+class ProductCatalog(
+    private val productRepository: ProductRepository,
+    meterRegistry: MeterRegistry,
+    @Value("\${product.catalog.max-size:100000}") private val maxSize: Int
+) {
+    private val logger = LoggerFactory.getLogger(ProductCatalog::class.java)
+
+    private val lock = Any()
+    @Volatile
+    private var state = CatalogState(loaded = false)
+    /** The writes made during each reload in progress; guarded by [lock]. */
+    private val reloadJournals = ArrayList<ReloadJournal>()
+
+    private val hits: Counter = meterRegistry.counter("product.catalog.lookups", "result", "hit")
+    private val misses: Counter = meterRegistry.counter("product.catalog.lookups", "result", "miss")
+    private val refreshes: Counter = meterRegistry.counter("product.catalog.refreshes", "type", "write")
+    private val reconcileTimer: Timer = meterRegistry.timer("product.catalog.reconcile")
+
+    init {
+        meterRegistry.gauge("product.catalog.size", this) { it.state.size.toDouble() }
+    }
+
+    /**
+     * Get all products in id order.
+     *
+     * @return a Flux of all products held by the catalog
+     */
+    fun findAll(): Flux<Product> {
+        val current = state
+        if (!current.loaded) {
+            misses.increment()
+            return productRepository.findAll()
+        }
+        hits.increment()
+        return Flux.fromIterable(current.byId.values)
+    }
+
+    /**
+     * Get one keyset page of products in id order.
+     *
+     * @param afterId only products with an id greater than this are returned
+     * @param limit the maximum number of products to return
+     * @return a Flux of at most `limit` products
+     */
+    fun findPage(afterId: Long, limit: Int): Flux<Product> {
+        val current = state
+        if (!current.loaded) {
+            misses.increment()
+            return productRepository.findPage(afterId, limit)
+        }
+        hits.increment()
+        return Flux.fromIterable(current.byId.tailMap(afterId, false).values.take(limit))
+    }
+
+    /**
+     * Find a product by its ID.
+     *
+     * @param id the ID of the product
+     * @return a Mono containing the product if found
+     */
+    fun findById(id: Long): Mono<Product> =
+        lookup(state.byId[id]) { productRepository.findById(id) }
+
+    /**
+     * Find several products by ID, loading any that miss the catalog with a single query.
+     *
+     * @param ids the IDs of the products
+     * @return a Flux of the products found, in no particular order
+     */
+    fun findAllById(ids: Collection<Long>): Flux<Product> {
+        val current = state
+        val cached = ids.mapNotNull { current.byId[it] }
+        if (cached.size == ids.size) {
+            hits.increment()
+            return Flux.fromIterable(cached)
+        }
+        misses.increment()
+        val missing = ids.filterNot { it in current.byId }
+        return Flux.fromIterable(cached)
+            .concatWith(productRepository.findAllById(missing).doOnNext { put(it) })
+    }
+
+    /**
+     * Find a product by its slug.
+     *
+     * @param slug the slug of the product
+     * @return a Mono containing the product if found
+     */
+    fun findBySlug(slug: String): Mono<Product> =
+        lookup(state.bySlug[slug]) { productRepository.findBySlug(slug) }
+
+    /**
+     * Find a product by its SKU.
+     *
+     * @param sku the SKU of the product
+     * @return a Mono containing the product if found
+     */
+    fun findBySku(sku: String): Mono<Product> =
+        lookup(state.bySku[sku]) { productRepository.findBySku(sku) }
+
+    /**
+     * Add or replace a product in the catalog.
+     *
+     * @param product the saved product
+     */
+    fun put(product: Product) {
+        putAll(listOf(product))
+    }
+
+    /**
+     * Add or replace several products in the catalog, taking the write lock once.
+     *
+     * @param products the saved products
+     */
+    fun putAll(products: Collection<Product>) {
+        if (products.isEmpty()) return
+        synchronized(lock) {
+            val current = state
+            for (product in products) {
+                val id = product.id ?: continue
+                reloadJournals.forEach { it.writes[id] = product }
+                if (current.loaded || current.size < maxSize || id in current.byId) {
+                    current.put(product)
+                }
+            }
+        }
+        refreshes.increment(products.size.toDouble())
+    }
+
+    /**
+     * Remove a product from the catalog.
+     *
+     * @param id the ID of the removed product
+     */
+    fun evict(id: Long) {
+        synchronized(lock) {
+            reloadJournals.forEach { it.writes[id] = null }
+            state.remove(id)
+        }
+        refreshes.increment()
+    }
+
+    /**
+     * Reload the whole catalog from the database and swap it in, keeping the writes made meanwhile.
+     *
+     * @return a Mono completing when the reloaded catalog is in place
+     */
+    fun reload(): Mono<Void> {
+        return Mono.defer {
+            val journal = ReloadJournal()
+            synchronized(lock) { reloadJournals.add(journal) }
+            productRepository.findAll()
+                .take(maxSize + 1L)
+                .collectList()
+                .elapsed()
+                .doOnNext { timed ->
+                    install(timed.t2, journal)
+                    reconcileTimer.record(timed.t1, TimeUnit.MILLISECONDS)
+                }
+                .doFinally { synchronized(lock) { reloadJournals.remove(journal) } }
+                .then()
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent::class)
+    fun warmUp() {
+        reconcile()
+    }
+
+    /**
+     * Periodically reconcile the catalog against the `products` table.
+     */
+    @Scheduled(
+        initialDelayString = "\${product.catalog.reconcile-interval-ms:60000}",
+        fixedDelayString = "\${product.catalog.reconcile-interval-ms:60000}"
+    )
+    fun reconcile() {
+        reload()
+            .doOnError { error -> logger.warn("Product catalog reconcile failed: {}", error.message) }
+            .onErrorResume { Mono.empty() }
+            .subscribe()
+    }
+
+    /**
+     * Swap in a reloaded catalog, after re-applying the writes made since its query started. The new maps
+     * are built without the lock; writes made meanwhile still land in the journal.
+     */
+    private fun install(products: List<Product>, journal: ReloadJournal) {
+        if (products.size > maxSize) {
+            synchronized(lock) { state = CatalogState(loaded = false) }
+            logger.warn("Product catalog exceeds {} products; serving reads from the database", maxSize)
+            return
+        }
+        val reloaded = CatalogState(loaded = true)
+        products.forEach { reloaded.put(it) }
+        val written = synchronized(lock) {
+            journal.writes.forEach { (id, product) -> if (product == null) reloaded.remove(id) else reloaded.put(product) }
+            state = reloaded
+            journal.writes.size
+        }
+        logger.debug("Product catalog reloaded with {} products, {} written meanwhile", products.size, written)
+    }
+
+    private fun lookup(cached: Product?, fallback: () -> Mono<Product>): Mono<Product> {
+        if (cached != null) {
+            hits.increment()
+            return Mono.just(cached)
+        }
+        misses.increment()
+        return fallback().doOnNext { put(it) }
+    }
+
+    /**
+     * The catalog's lookup indexes. Writers hold the catalog lock, so the indexes change together;
+     * readers see each index change atomically.
+     */
+    private class CatalogState(val loaded: Boolean) {
+        val byId = ConcurrentSkipListMap<Long, Product>()
+        val bySlug = ConcurrentHashMap<String, Product>()
+        val bySku = ConcurrentHashMap<String, Product>()
+        @Volatile
+        var size = 0
+            private set
+
+        fun put(product: Product) {
+            val id = product.id ?: return
+            val previous = byId.put(id, product)
+            if (previous == null) size++
+            product.slug?.let { bySlug[it] = product }
+            bySku[product.sku] = product
+            previous?.slug?.let { if (it != product.slug) bySlug.remove(it) }
+            previous?.sku?.let { if (it != product.sku) bySku.remove(it) }
+        }
+
+        fun remove(id: Long) {
+            val previous = byId.remove(id) ?: return
+            size--
+            previous.slug?.let { bySlug.remove(it) }
+            bySku.remove(previous.sku)
+        }
+    }
+
+    /**
+     * The products written or evicted (null) while a reload queries the database.
+     */
+    private class ReloadJournal {
+        val writes = HashMap<Long, Product?>()
+    }
+}
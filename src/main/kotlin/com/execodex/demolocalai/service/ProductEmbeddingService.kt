@@ -0,0 +1,200 @@
+package com.execodex.demolocalai.service
+
+import com.execodex.demolocalai.entities.Product
+import com.execodex.demolocalai.pojos.ProductSearchHit
+import com.execodex.demolocalai.repositories.ProductRepository
+import io.micrometer.core.instrument.Counter
+import io.micrometer.core.instrument.MeterRegistry
+import jakarta.annotation.PreDestroy
+import org.slf4j.LoggerFactory
+import org.springframework.ai.document.Document
+import org.springframework.ai.vectorstore.SearchRequest
+import org.springframework.ai.vectorstore.VectorStore
+import org.springframework.beans.factory.ObjectProvider
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.boot.context.event.ApplicationReadyEvent
+import org.springframework.context.event.EventListener
+import org.springframework.stereotype.Service
+import reactor.core.Disposable
+import reactor.core.publisher.Flux
+import reactor.core.publisher.Mono
+import reactor.core.publisher.Sinks
+import reactor.core.scheduler.Schedulers
+import java.time.Duration
+
+/**
+ * Semantic product search backed by the pgvector `product_embeddings` table.
+ *
+ * Product writes only enqueue an embedding task; a background pipeline groups tasks into batches of
+ * `product.embedding.batch-size` (or whatever arrived within `product.embedding.batch-window-ms`),
+ * embeds each batch with one model call and upserts it through the [VectorStore]. The vector store
+ * and the embedding model are blocking, so batches run on the bounded elastic scheduler. Batching uses
+ * fair backpressure, so a slow vector store holds tasks back in the queue instead of failing the pipeline;
+ * should the pipeline fail anyway, it is restarted on a new queue.
+ * When no vector store is configured, enqueueing is a no-op and searches fail with [IllegalStateException].
+ */
+@Service
+class ProductEmbeddingService(
+    private val vectorStoreProvider: ObjectProvider<VectorStore>,
+    private val productRepository: ProductRepository,
+    private val productCatalog: ProductCatalog,
+    meterRegistry: MeterRegistry,
+    @Value("\${product.embedding.batch-size:32}") private val batchSize: Int,
+    @Value("\${product.embedding.batch-window-ms:500}") private val batchWindowMs: Long
+) {
+    private val logger = LoggerFactory.getLogger(ProductEmbeddingService::class.java)
+
+    @Volatile
+    private var tasks = newTaskQueue()
+    @Volatile
+    private var pipeline: Disposable? = null
+    @Volatile
+    private var stopped = false
+
+    private val embedded: Counter = meterRegistry.counter("product.embedding.documents", "result", "embedded")
+    private val failed: Counter = meterRegistry.counter("product.embedding.documents", "result", "failed")
+
+    /**
+     * Queue a created or updated product for (re-)embedding.
+     *
+     * @param product the saved product
+     */
+    fun enqueue(product: Product) {
+        enqueueAll(listOf(product))
+    }
+
+    /**
+     * Queue several created or updated products for (re-)embedding, as one queue entry.
+     *
+     * @param products the saved products
+     */
+    fun enqueueAll(products: Collection<Product>) {
+        val tasks = products.mapNotNull { product -> product.id?.let { EmbeddingTask(it, product) } }
+        if (tasks.isNotEmpty()) submit(tasks)
+    }
+
+    /**
+     * Queue the removal of a deleted product's embedding.
+     *
+     * @param productId the ID of the deleted product
+     */
+    fun remove(productId: Long) {
+        submit(listOf(EmbeddingTask(productId, null)))
+    }
+
+    /**
+     * Find the products semantically closest to a free-text query.
+     *
+     * @param query the free-text query
+     * @param limit the maximum number of products to return
+     * @return a Flux of products with their cosine similarity, closest first
+     */
+    fun search(query: String, limit: Int): Flux<ProductSearchHit> {
+        val vectorStore = vectorStoreProvider.ifAvailable
+            ?: return Flux.error(IllegalStateException("Semantic search is not configured"))
+        return Mono.fromCallable {
+            vectorStore.similaritySearch(SearchRequest.builder().query(query).topK(limit).build()) ?: emptyList()
+        }
+            .subscribeOn(Schedulers.boundedElastic())
+            .flatMapIterable { it }
+            .flatMapSequential { document ->
+                productCatalog.findById(document.id.toLong())
+                    .map { product -> ProductSearchHit(product, document.score ?: 0.0) }
+            }
+    }
+
+    /**
+     * Start the embedding pipeline and queue every product that has no embedding yet.
+     */
+    @EventListener(ApplicationReadyEvent::class)
+    fun start() {
+        val vectorStore = vectorStoreProvider.ifAvailable
+        if (vectorStore == null) {
+            logger.info("No vector store configured; product embeddings are disabled")
+            return
+        }
+        runPipeline(vectorStore)
+
+        productRepository.findWithoutEmbedding()
+            .buffer(batchSize)
+            .doOnNext { enqueueAll(it) }
+            .reduce(0) { count, batch -> count + batch.size }
+            .subscribe(
+                { count -> if (count > 0) logger.info("Queued {} products for embedding backfill", count) },
+                { error -> logger.warn("Product embedding backfill failed: {}", error.message) }
+            )
+    }
+
+    @PreDestroy
+    fun stop() {
+        stopped = true
+        pipeline?.dispose()
+    }
+
+    /**
+     * Consume the task queue in batches. Failed batches are logged and skipped by [process], so the pipeline
+     * only fails on an unexpected error; it then restarts on a new queue, as the failed one is cancelled.
+     */
+    private fun runPipeline(vectorStore: VectorStore) {
+        pipeline = tasks.asFlux()
+            .concatMapIterable { it }
+            .bufferTimeout(batchSize, Duration.ofMillis(batchWindowMs), true)
+            .concatMap { batch -> process(vectorStore, batch) }
+            .subscribe(null) { error ->
+                logger.error("Product embedding pipeline failed; restarting it", error)
+                if (!stopped) {
+                    tasks = newTaskQueue()
+                    runPipeline(vectorStore)
+                }
+            }
+    }
+
+    private fun submit(batch: List<EmbeddingTask>) {
+        if (vectorStoreProvider.ifAvailable == null) return
+        tasks.emitNext(batch, Sinks.EmitFailureHandler.busyLooping(EMIT_TIMEOUT))
+    }
+
+    /**
+     * Apply one batch of tasks. Only the latest task per product counts, so a product updated twice
+     * within the batch window is embedded once.
+     */
+    private fun process(vectorStore: VectorStore, batch: List<EmbeddingTask>): Mono<Void> {
+        val latest = batch.associateBy { it.productId }.values
+        val upserts = latest.mapNotNull { it.product }.map { toDocument(it) }
+        val deletes = latest.filter { it.product == null }.map { it.productId.toString() }
+        return Mono.fromRunnable<Void> {
+            if (deletes.isNotEmpty()) vectorStore.delete(deletes)
+            if (upserts.isNotEmpty()) vectorStore.add(upserts)
+        }
+            .subscribeOn(Schedulers.boundedElastic())
+            .doOnSuccess {
+                embedded.increment(upserts.size.toDouble())
+                logger.debug("Embedded {} products, removed {}", upserts.size, deletes.size)
+            }
+            .onErrorResume { error ->
+                failed.increment(upserts.size.toDouble())
+                logger.warn("Failed to embed a batch of {} products: {}", upserts.size, error.message)
+                Mono.empty()
+            }
+    }
+
+    private fun toDocument(product: Product): Document {
+        val text = listOfNotNull(product.name, product.description).joinToString("\n")
+        return Document.builder()
+            .id(product.id.toString())
+            .text(text)
+            .metadata(mapOf("sku" to product.sku, "slug" to (product.slug ?: "")))
+            .build()
+    }
+
+    /**
+     * An embedding to refresh; a null product means the embedding should be removed.
+     */
+    private data class EmbeddingTask(val productId: Long, val product: Product?)
+
+    companion object {
+        private val EMIT_TIMEOUT = Duration.ofSeconds(1)
+
+        private fun newTaskQueue() = Sinks.many().unicast().onBackpressureBuffer<List<EmbeddingTask>>()
+    }
+}
@@ -0,0 +1,265 @@
+package com.execodex.demolocalai.service
+
+import com.execodex.demolocalai.entities.Product
+import com.execodex.demolocalai.pojos.ProductImportError
+import com.execodex.demolocalai.pojos.ProductImportReport
+import com.execodex.demolocalai.pojos.ProductImportRow
+import com.execodex.demolocalai.repositories.ProductBulkRepository
+import com.fasterxml.jackson.core.JsonProcessingException
+import com.fasterxml.jackson.databind.ObjectMapper
+import org.slf4j.LoggerFactory
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.dao.DuplicateKeyException
+import org.springframework.stereotype.Service
+import reactor.core.publisher.Flux
+import reactor.core.publisher.Mono
+import reactor.util.retry.Retry
+import java.math.BigDecimal
+
+/**
+ * Bulk product import from streamed CSV or NDJSON.
+ *
+ * The upload is consumed line by line and cut into chunks of `product.import.chunk-size` rows; only one
+ * chunk is held in memory at a time. Each chunk costs two statements whatever its size: one query for the
+ * slugs already taken by all of its names, and one multi-row insert that skips SKUs that already exist.
+ * Rows that are malformed, duplicated or already present are reported with their line number instead of
+ * failing the upload; chunks that were inserted stay inserted.
+ */
+@Service
+class ProductImportService(
+    private val productBulkRepository: ProductBulkRepository,
+    private val slugAllocator: SlugAllocator,
+    private val productCatalog: ProductCatalog,
+    private val productEmbeddingService: ProductEmbeddingService,
+    private val objectMapper: ObjectMapper,
+    @Value("\${product.import.chunk-size:1000}") private val chunkSize: Int,
+    @Value("\${product.import.max-reported-errors:1000}") private val maxReportedErrors: Int
+) {
+    private val logger = LoggerFactory.getLogger(ProductImportService::class.java)
+
+    /**
+     * Redo a chunk whose allocated slugs were claimed concurrently by another insert.
+     */
+    private val slugConflictRetry: Retry = Retry.max(SLUG_ALLOCATION_ATTEMPTS - 1L)
+        .filter { it is DuplicateKeyException }
+        .onRetryExhaustedThrow { _, signal -> signal.failure() }
+
+    /**
+     * Import products from the lines of an upload.
+     *
+     * @param lines the lines of the upload, without line terminators
+     * @param format the format of the upload
+     * @return a Mono containing the import report, or an [IllegalArgumentException] if a CSV upload has no usable header
+     */
+    fun importProducts(lines: Flux<String>, format: ImportFormat): Mono<ProductImportReport> {
+        val numbered = lines.index { index, line -> NumberedLine(index + 1, line) }
+        val rows: Flux<ParsedRow> = when (format) {
+            ImportFormat.NDJSON -> numbered.filter { it.text.isNotBlank() }.map { parseJson(it) }
+            ImportFormat.CSV -> numbered.switchOnFirst { first, all ->
+                val header = first.get() ?: return@switchOnFirst all.cast(ParsedRow::class.java)
+                val columns = try {
+                    csvColumns(header.text)
+                } catch (e: IllegalArgumentException) {
+                    return@switchOnFirst Flux.error(e)
+                }
+                all.skip(1).filter { it.text.isNotBlank() }.map { parseCsv(it, columns) }
+            }
+        }
+        return rows.buffer(chunkSize)
+            .concatMap({ chunk -> importChunk(chunk) }, 1)
+            .reduce(ImportTally(maxReportedErrors)) { tally, result -> tally.add(result) }
+            .map { it.toReport() }
+            .doOnNext { report ->
+                logger.info("Imported {} of {} products ({} failed)", report.imported, report.received, report.failed)
+            }
+    }
+
+    private fun importChunk(chunk: List<ParsedRow>): Mono<ChunkResult> {
+        val errors = ArrayList<ProductImportError>()
+        val accepted = LinkedHashMap<String, ParsedRow>()
+        for (row in chunk) {
+            when {
+                row.product == null -> errors.add(ProductImportError(row.line, row.sku, row.error ?: "Invalid row"))
+                accepted.putIfAbsent(row.product.sku, row) != null ->
+                    errors.add(ProductImportError(row.line, row.sku, "Duplicate SKU ${row.sku} in upload"))
+            }
+        }
+        if (accepted.isEmpty()) {
+            return Mono.just(ChunkResult(chunk.size, 0, errors))
+        }
+        val candidates = accepted.values.map { it.product!! }
+
+        return Mono.defer {
+            slugAllocator.allocateAll(candidates.map { it.name })
+                .flatMap { slugs ->
+                    productBulkRepository.insertAll(candidates.zip(slugs) { product, slug -> product.copy(slug = slug) })
+                        .collectList()
+                }
+        }
+            .retryWhen(slugConflictRetry)
+            .map { inserted ->
+                productCatalog.putAll(inserted)
+                productEmbeddingService.enqueueAll(inserted)
+                val insertedSkus = inserted.mapTo(HashSet()) { it.sku }
+                accepted.values.filterNot { it.sku in insertedSkus }.forEach { row ->
+                    errors.add(ProductImportError(row.line, row.sku, "A product with SKU ${row.sku} already exists"))
+                }
+                ChunkResult(chunk.size, inserted.size, errors)
+            }
+            .onErrorResume(DuplicateKeyException::class.java) { error ->
+                logger.warn("Failed to allocate slugs for an import chunk: {}", error.message)
+                accepted.values.forEach { row ->
+                    errors.add(ProductImportError(row.line, row.sku, "Slug conflict, please retry this row"))
+                }
+                Mono.just(ChunkResult(chunk.size, 0, errors))
+            }
+    }
+
+    private fun parseJson(line: NumberedLine): ParsedRow {
+        val row = try {
+            objectMapper.readValue(line.text, ProductImportRow::class.java)
+        } catch (e: JsonProcessingException) {
+            return ParsedRow(line.number, null, null, "Malformed JSON: ${e.originalMessage}")
+        }
+        return validate(line.number, row)
+    }
+
+    private fun parseCsv(line: NumberedLine, columns: Map<String, Int>): ParsedRow {
+        val fields = try {
+            splitCsv(line.text)
+        } catch (e: IllegalArgumentException) {
+            return ParsedRow(line.number, null, null, e.message)
+        }
+        fun field(name: String): String? = columns[name]?.let { fields.getOrNull(it) }?.takeIf { it.isNotEmpty() }
+
+        val price = field("price")?.let { it.toBigDecimalOrNull() ?: return invalid(line, field("sku"), "Invalid price: $it") }
+        val quantity = field("quantity")?.let { it.toIntOrNull() ?: return invalid(line, field("sku"), "Invalid quantity: $it") }
+        return validate(
+            line.number,
+            ProductImportRow(
+                sku = field("sku"),
+                name = field("name"),
+                description = field("description"),
+                imageUrl = field("imageurl"),
+                price = price,
+                quantity = quantity
+            )
+        )
+    }
+
+    private fun invalid(line: NumberedLine, sku: String?, message: String) = ParsedRow(line.number, null, sku, message)
+
+    private fun validate(line: Long, row: ProductImportRow): ParsedRow {
+        val sku = row.sku?.trim()
+        val name = row.name?.trim()
+        val error = when {
+            sku.isNullOrEmpty() -> "SKU is required"
+            sku.length > MAX_SKU_LENGTH -> "SKU is longer than $MAX_SKU_LENGTH characters"
+            name.isNullOrEmpty() -> "Name is required"
+            name.length > MAX_TEXT_LENGTH -> "Name is longer than $MAX_TEXT_LENGTH characters"
+            (row.imageUrl?.length ?: 0) > MAX_TEXT_LENGTH -> "Image URL is longer than $MAX_TEXT_LENGTH characters"
+            row.price == null -> "Price is required"
+            row.price.signum() < 0 || row.price.scale() > 2 || row.price >= MAX_PRICE -> "Invalid price: ${row.price}"
+            (row.quantity ?: 0) < 0 -> "Quantity must not be negative"
+            else -> null
+        }
+        if (error != null) {
+            return ParsedRow(line, null, sku, error)
+        }
+        val product = Product(
+            sku = sku!!,
+            name = name!!,
+            description = row.description,
+            imageUrl = row.imageUrl,
+            price = row.price!!,
+            quantity = row.quantity ?: 0
+        )
+        return ParsedRow(line, product, sku, null)
+    }
+
+    /**
+     * Map the CSV header to column positions. Column names are matched case-insensitively,
+     * ignoring underscores, so both `imageUrl` and `image_url` work.
+     */
+    private fun csvColumns(header: String): Map<String, Int> {
+        val columns = splitCsv(header.removePrefix(BYTE_ORDER_MARK))
+            .mapIndexed { index, name -> name.trim().lowercase().replace("_", "") to index }
+            .toMap()
+        val missing = REQUIRED_CSV_COLUMNS.filterNot { it in columns }
+        require(missing.isEmpty()) { "CSV header is missing column(s): ${missing.joinToString(", ")}" }
+        return columns
+    }
+
+    /**
+     * Split one CSV line into fields, honouring double-quoted fields and `""` escapes.
+     * Quoted fields may contain commas but not line breaks, since the upload is read line by line.
+     */
+    private fun splitCsv(line: String): List<String> {
+        val fields = ArrayList<String>()
+        val current = StringBuilder()
+        var quoted = false
+        var i = 0
+        while (i < line.length) {
+            val c = line[i]
+            when {
+                quoted && c == '"' && i + 1 < line.length && line[i + 1] == '"' -> { current.append('"'); i++ }
+                c == '"' -> quoted = !quoted
+                !quoted && c == ',' -> { fields.add(current.toString()); current.setLength(0) }
+                else -> current.append(c)
+            }
+            i++
+        }
+        require(!quoted) { "Unterminated quoted field" }
+        fields.add(current.toString())
+        return fields
+    }
+
+    /**
+     * The format of an import upload.
+     */
+    enum class ImportFormat { CSV, NDJSON }
+
+    private data class NumberedLine(val number: Long, val text: String)
+
+    /**
+     * A parsed line: either a product ready to insert or the reason it was rejected.
+     */
+    private data class ParsedRow(val line: Long, val product: Product?, val sku: String?, val error: String?)
+
+    private data class ChunkResult(val received: Int, val imported: Int, val errors: List<ProductImportError>)
+
+    /**
+     * Running totals of an import; keeps at most `maxErrors` error details.
+     */
+    private class ImportTally(private val maxErrors: Int) {
+        private var received = 0L
+        private var imported = 0L
+        private var failed = 0L
+        private val errors = ArrayList<ProductImportError>()
+
+        fun add(result: ChunkResult): ImportTally {
+            received += result.received
+            imported += result.imported
+            failed += result.errors.size
+            result.errors.take(maxErrors - errors.size).forEach { errors.add(it) }
+            return this
+        }
+
+        fun toReport() = ProductImportReport(
+            received = received,
+            imported = imported,
+            failed = failed,
+            errors = errors.sortedBy { it.line },
+            errorsTruncated = failed > errors.size
+        )
+    }
+
+    companion object {
+        private const val SLUG_ALLOCATION_ATTEMPTS = 3
+        private const val MAX_SKU_LENGTH = 100
+        private const val MAX_TEXT_LENGTH = 255
+        private const val BYTE_ORDER_MARK = "\uFEFF"
+        private val MAX_PRICE = BigDecimal("100000000")
+        private val REQUIRED_CSV_COLUMNS = listOf("sku", "name", "price")
+    }
+}
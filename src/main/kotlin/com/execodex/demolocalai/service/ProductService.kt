@@ -1,72 +1,64 @@
 package com.execodex.demolocalai.service
 
 import com.execodex.demolocalai.entities.Product
+import com.execodex.demolocalai.pojos.ProductSearchHit
+import com.execodex.demolocalai.pojos.ProductSearchResponse
+import com.execodex.demolocalai.repositories.KeysetStreamRepository
 import com.execodex.demolocalai.repositories.ProductRepository
+import com.execodex.demolocalai.repositories.ProductSearchRepository
+import org.springframework.dao.DuplicateKeyException
 import org.springframework.stereotype.Service
 import reactor.core.publisher.Flux
 import reactor.core.publisher.Mono
-import java.text.Normalizer
-import java.util.Locale
+import reactor.util.retry.Retry
 
 /**
  * Service for managing products.
+ * Reads are served from the in-memory [ProductCatalog]; writes go to the database, refresh the catalog
+ * and queue the product for re-embedding.
  */
 @Service
-class ProductService(private val productRepository: ProductRepository) {
+class ProductService(
+    private val productRepository: ProductRepository,
+    private val productCatalog: ProductCatalog,
+    private val slugAllocator: SlugAllocator,
+    private val keysetStreamRepository: KeysetStreamRepository,
+    private val productSearchRepository: ProductSearchRepository,
+    private val productEmbeddingService: ProductEmbeddingService
+) {
 
     /**
-     * Generate a base URL-friendly slug from a product name.
-     *
-     * @param name the product name
-     * @return a URL-friendly slug
+     * Retry a save whose allocated slug was claimed concurrently by another insert.
+     * The unique constraint on `products.slug` is the final arbiter; the allocation is simply redone.
      */
-    private fun generateBaseSlug(name: String): String {
-        return Normalizer.normalize(name, Normalizer.Form.NFD)
-            .lowercase(Locale.getDefault())
-            .replace("\\p{InCombiningDiacriticalMarks}+".toRegex(), "")
-            .replace("[^a-z0-9\\s-]".toRegex(), "")
-            .replace("\\s+".toRegex(), "-")
-            .replace("-+".toRegex(), "-")
-            .trim('-')
-    }
-    
+    private val slugConflictRetry: Retry = Retry.max(SLUG_ALLOCATION_ATTEMPTS - 1L)
+        .filter { it is DuplicateKeyException }
+        .onRetryExhaustedThrow { _, signal -> signal.failure() }
+
     /**
-     * Generate a unique URL-friendly slug from a product name.
-     * If a product with the generated slug already exists, a number is appended to make it unique.
+     * Get all products.
      *
-     * @param name the product name
-     * @return a Mono containing a unique URL-friendly slug
+     * @return a Flux of all products
      */
-    private fun generateSlug(name: String): Mono<String> {
-        val baseSlug = generateBaseSlug(name)
-        
-        return checkSlugUniqueness(baseSlug, 0)
-    }
-    
+    fun getAllProducts(): Flux<Product> = productCatalog.findAll()
+
     /**
-     * Recursively check if a slug is unique and append a number if needed.
+     * Get one keyset page of products.
      *
-     * @param baseSlug the base slug to check
-     * @param counter the counter to append (0 means no counter)
-     * @return a Mono containing a unique slug
+     * @param afterId only products with an id greater than this are returned
+     * @param limit the maximum number of products to return
+     * @return a Flux of at most `limit` products in id order
      */
-    private fun checkSlugUniqueness(baseSlug: String, counter: Int): Mono<String> {
-        val slugToCheck = if (counter > 0) "$baseSlug-$counter" else baseSlug
-        
-        return productRepository.findBySlug(slugToCheck)
-            .flatMap { 
-                // Slug exists, try with next counter
-                checkSlugUniqueness(baseSlug, counter + 1)
-            }
-            .switchIfEmpty(Mono.just(slugToCheck))
-    }
+    fun getProductsPage(afterId: Long, limit: Int): Flux<Product> = productCatalog.findPage(afterId, limit)
 
     /**
-     * Get all products.
+     * Stream every product after a keyset position straight from the database.
      *
-     * @return a Flux of all products
+     * @param afterId only products with an id greater than this are returned
+     * @return a Flux of products in id order
      */
-    fun getAllProducts(): Flux<Product> = productRepository.findAll()
+    fun streamProducts(afterId: Long): Flux<Product> =
+        keysetStreamRepository.streamAfter(Product::class.java, "products", afterId)
 
     /**
      * Get a product by its ID.
@@ -74,7 +66,7 @@ class ProductService(private val productRepository: ProductRepository) {
      * @param id the ID of the product
      * @return a Mono containing the product if found
      */
-    fun getProductById(id: Long): Mono<Product> = productRepository.findById(id)
+    fun getProductById(id: Long): Mono<Product> = productCatalog.findById(id)
 
     /**
      * Create a new product.
@@ -85,30 +77,36 @@ class ProductService(private val productRepository: ProductRepository) {
      * @return a Mono containing the created product, or an error if a product with the same SKU already exists
      */
     fun createProduct(product: Product): Mono<Product> {
-        return productRepository.findBySku(product.sku)
+        return productCatalog.findBySku(product.sku)
             .flatMap<Product> {
                 Mono.error(IllegalArgumentException("A product with SKU ${product.sku} already exists"))
             }
             .switchIfEmpty(
-                generateSlug(product.name).flatMap { uniqueSlug ->
-                    val productWithSlug = Product(
-                        sku = product.sku,
-                        name = product.name,
-                        slug = uniqueSlug,
-                        description = product.description,
-                        imageUrl = product.imageUrl,
-                        price = product.price,
-                        quantity = product.quantity,
-                        createdAt = product.createdAt
-                    )
-                    productRepository.save(productWithSlug)
-                }
+                Mono.defer {
+                    slugAllocator.allocate(product.name).flatMap { uniqueSlug ->
+                        val productWithSlug = Product(
+                            sku = product.sku,
+                            name = product.name,
+                            slug = uniqueSlug,
+                            description = product.description,
+                            imageUrl = product.imageUrl,
+                            price = product.price,
+                            quantity = product.quantity,
+                            createdAt = product.createdAt
+                        )
+                        productRepository.save(productWithSlug)
+                    }
+                }.retryWhen(slugConflictRetry)
             )
+            .doOnNext {
+                productCatalog.put(it)
+                productEmbeddingService.enqueue(it)
+            }
     }
 
     /**
      * Update an existing product.
-     * Generates a new unique slug based on the updated product name.
+     * Keeps the current slug when the name still maps to it; otherwise allocates a new unique slug.
      *
      * @param id the ID of the product to update
      * @param product the updated product data
@@ -117,21 +115,42 @@ class ProductService(private val productRepository: ProductRepository) {
     fun updateProduct(id: Long, product: Product): Mono<Product> {
         return productRepository.findById(id)
             .flatMap { existingProduct ->
-                generateSlug(product.name).flatMap { uniqueSlug ->
-                    val updatedProduct = Product(
-                        id = existingProduct.id,
-                        sku = product.sku,
-                        name = product.name,
-                        slug = uniqueSlug,
-                        description = product.description,
-                        imageUrl = product.imageUrl,
-                        price = product.price,
-                        quantity = product.quantity,
-                        createdAt = existingProduct.createdAt
-                    )
-                    productRepository.save(updatedProduct)
-                }
+                Mono.defer {
+                    resolveSlugForUpdate(existingProduct, product.name).flatMap { slug ->
+                        val updatedProduct = Product(
+                            id = existingProduct.id,
+                            sku = product.sku,
+                            name = product.name,
+                            slug = slug,
+                            description = product.description,
+                            imageUrl = product.imageUrl,
+                            price = product.price,
+                            quantity = product.quantity,
+                            createdAt = existingProduct.createdAt
+                        )
+                        productRepository.save(updatedProduct)
+                    }
+                }.retryWhen(slugConflictRetry)
             }
+            .doOnNext {
+                productCatalog.put(it)
+                productEmbeddingService.enqueue(it)
+            }
+    }
+
+    /**
+     * Decide the slug of an updated product without touching the database when the name is unchanged.
+     *
+     * @param existingProduct the product as currently stored
+     * @param newName the updated product name
+     * @return a Mono containing the slug to store
+     */
+    private fun resolveSlugForUpdate(existingProduct: Product, newName: String): Mono<String> {
+        val currentSlug = existingProduct.slug
+        if (currentSlug != null && slugAllocator.isDerivedFrom(slugAllocator.baseSlug(newName), currentSlug)) {
+            return Mono.just(currentSlug)
+        }
+        return slugAllocator.allocate(newName, existingProduct.id)
     }
 
     /**
@@ -140,7 +159,12 @@ class ProductService(private val productRepository: ProductRepository) {
      * @param id the ID of the product to delete
      * @return a Mono completing when the product is deleted
      */
-    fun deleteProduct(id: Long): Mono<Void> = productRepository.deleteById(id)
+    fun deleteProduct(id: Long): Mono<Void> =
+        productRepository.deleteById(id)
+            .doOnSuccess {
+                productCatalog.evict(id)
+                productEmbeddingService.remove(id)
+            }
 
     /**
      * Find products by name pattern.
@@ -151,8 +175,65 @@ class ProductService(private val productRepository: ProductRepository) {
     fun findProductsByNamePattern(namePattern: String): Flux<Product> = 
         productRepository.findByNameContainingIgnoreCase(namePattern)
 
+    /**
+     * Full-text search over product names and descriptions.
+     * Every word of the query must match; the last word also matches as a prefix, so partial input
+     * such as `red oni` finds "Red Onion". Name matches rank above description matches.
+     *
+     * @param query the free-text query
+     * @param page the zero-based page number
+     * @param size the number of results per page
+     * @return a Mono containing the page of ranked results, empty when the query has no searchable words
+     */
+    fun searchProducts(query: String, page: Int, size: Int): Mono<ProductSearchResponse> {
+        val tsQuery = toPrefixTsQuery(query)
+            ?: return Mono.just(ProductSearchResponse(query, page, size, hasMore = false, results = emptyList()))
+        return productSearchRepository.search(tsQuery, size + 1, page.toLong() * size)
+            .collectList()
+            .map { hits ->
+                ProductSearchResponse(
+                    query = query,
+                    page = page,
+                    size = size,
+                    hasMore = hits.size > size,
+                    results = hits.take(size)
+                )
+            }
+    }
+
+    /**
+     * Find the products semantically closest to a free-text query.
+     * Embeddings are maintained in the background, so a product appears here shortly after it is saved.
+     *
+     * @param query the free-text query
+     * @param limit the maximum number of products to return
+     * @return a Flux of products with their similarity score, closest first
+     */
+    fun semanticSearch(query: String, limit: Int): Flux<ProductSearchHit> =
+        productEmbeddingService.search(query, limit)
+
     fun getProductBySlug(slug: String): Mono<Product> {
-        return productRepository.findBySlug(slug)
+        return productCatalog.findBySlug(slug)
             .switchIfEmpty(Mono.error(IllegalArgumentException("Product with slug '$slug' not found")))
     }
+
+    companion object {
+        private const val SLUG_ALLOCATION_ATTEMPTS = 3
+        private const val MAX_SEARCH_TERMS = 8
+        private val SEARCH_TERM = "[\\p{L}\\p{N}]+".toRegex()
+
+        /**
+         * Turn free text into a `to_tsquery` expression, dropping every operator character so user
+         * input can never produce a tsquery syntax error.
+         *
+         * @param query the free-text query
+         * @return a query such as `red & oni:*`, or null if the text contains no words
+         */
+        internal fun toPrefixTsQuery(query: String): String? {
+            val terms = SEARCH_TERM.findAll(query.lowercase()).map { it.value }.take(MAX_SEARCH_TERMS).toList()
+            if (terms.isEmpty()) return null
+            return terms.mapIndexed { index, term -> if (index == terms.lastIndex) "$term:*" else term }
+                .joinToString(" & ")
+        }
+    }
 }
\ No newline at end of file
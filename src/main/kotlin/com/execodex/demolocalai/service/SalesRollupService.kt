@@ -0,0 +1,149 @@
+package com.execodex.demolocalai.service
+
+import com.execodex.demolocalai.entities.OrderStatus
+import com.execodex.demolocalai.pojos.DailySales
+import com.execodex.demolocalai.pojos.ProductSales
+import com.execodex.demolocalai.pojos.SalesRollupRebuildReport
+import com.execodex.demolocalai.repositories.SalesRollupRepository
+import org.slf4j.LoggerFactory
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.stereotype.Service
+import org.springframework.transaction.reactive.TransactionalOperator
+import reactor.core.publisher.Flux
+import reactor.core.publisher.Mono
+import java.time.LocalDate
+import java.time.temporal.ChronoUnit
+
+/**
+ * Service for the daily sales rollups behind the analytics endpoints.
+ *
+ * The rollups hold revenue, units and order counts per day, product and order status, and per day and
+ * order status. They are kept up to date incrementally: the transactions that create an order or change
+ * its status call [addOrders], [removeOrders] or [moveOrders], so dashboards never scan `orders` and
+ * `order_details`. [rebuild] recomputes a range of days from the orders, for backfills and repairs.
+ */
+@Service
+class SalesRollupService(
+    private val salesRollupRepository: SalesRollupRepository,
+    private val transactionalOperator: TransactionalOperator,
+    @Value("\${analytics.rollup.rebuild-chunk-days:7}") private val rebuildChunkDays: Long,
+    @Value("\${analytics.rollup.max-range-days:1100}") private val maxRangeDays: Long
+) {
+    private val logger = LoggerFactory.getLogger(SalesRollupService::class.java)
+
+    /**
+     * Add orders to the rollups under their current status. Must run in the transaction that writes the orders' lines.
+     *
+     * @param orderIds the IDs of the orders
+     * @return a Mono completing when the rollups are updated
+     */
+    fun addOrders(orderIds: Collection<Long>): Mono<Void> =
+        applyDeltas(orderIds.map { Delta(it, null, 1) })
+
+    /**
+     * Take orders out of the rollups under their current status, before changing their date or lines.
+     *
+     * @param orderIds the IDs of the orders
+     * @return a Mono completing when the rollups are updated
+     */
+    fun removeOrders(orderIds: Collection<Long>): Mono<Void> =
+        applyDeltas(orderIds.map { Delta(it, null, -1) })
+
+    /**
+     * Move orders from one status to another in the rollups. Must run in the transaction that changes their status.
+     *
+     * @param orderIds the IDs of the orders
+     * @param from the status the orders were in
+     * @param to the status the orders are now in
+     * @return a Mono completing when the rollups are updated
+     */
+    fun moveOrders(orderIds: Collection<Long>, from: String, to: String): Mono<Void> {
+        if (from == to) return Mono.empty()
+        return applyDeltas(orderIds.flatMap { listOf(Delta(it, from, -1), Delta(it, to, 1)) })
+    }
+
+    private fun applyDeltas(deltas: List<Delta>): Mono<Void> {
+        if (deltas.isEmpty()) return Mono.empty()
+        return salesRollupRepository.applyDeltas(
+            deltas.map { it.orderId }.toTypedArray(),
+            deltas.map { it.status }.toTypedArray(),
+            deltas.map { it.sign }.toTypedArray()
+        ).then()
+    }
+
+    /**
+     * Get the sales of each product over a range of days, best-selling first.
+     *
+     * @param from the first day, inclusive
+     * @param to the last day, inclusive
+     * @param statuses the order statuses to count, or empty for all
+     * @param limit the maximum number of products to return
+     * @return a Flux of product sales, or an [IllegalArgumentException] if the range is invalid
+     */
+    fun getProductSales(from: LocalDate, to: LocalDate, statuses: Set<OrderStatus>, limit: Int): Flux<ProductSales> {
+        return Mono.fromCallable { validateRange(from, to) }
+            .flatMapMany { salesRollupRepository.findProductSales(from, to, statusNames(statuses), limit) }
+    }
+
+    /**
+     * Get the sales of each day and order status over a range of days.
+     *
+     * @param from the first day, inclusive
+     * @param to the last day, inclusive
+     * @param statuses the order statuses to count, or empty for all
+     * @return a Flux of daily sales, or an [IllegalArgumentException] if the range is invalid
+     */
+    fun getDailySales(from: LocalDate, to: LocalDate, statuses: Set<OrderStatus>): Flux<DailySales> {
+        return Mono.fromCallable { validateRange(from, to) }
+            .flatMapMany { salesRollupRepository.findDailySales(from, to, statusNames(statuses)) }
+    }
+
+    /**
+     * Recompute the rollups of a range of days from the orders placed in it, `analytics.rollup.rebuild-chunk-days`
+     * days at a time. Each chunk is deleted and recomputed in its own transaction, so a long backfill never holds
+     * locks for long. Orders changed while their day is being rebuilt may be miscounted; rebuild such days again.
+     *
+     * @param from the first day, inclusive
+     * @param to the last day, inclusive
+     * @return a Mono containing the rebuild report, or an [IllegalArgumentException] if the range is invalid
+     */
+    fun rebuild(from: LocalDate, to: LocalDate): Mono<SalesRollupRebuildReport> {
+        return Mono.fromCallable { validateRange(from, to) }
+            .thenMany(
+                Flux.fromIterable(chunks(from, to)).concatMap { (chunkFrom, chunkUntil) ->
+                    transactionalOperator.transactional(
+                        salesRollupRepository.deleteRange(chunkFrom, chunkUntil)
+                            .then(salesRollupRepository.insertRange(chunkFrom, chunkUntil))
+                    )
+                }
+            )
+            .reduce(SalesRollupRebuildReport(from, to, 0, 0, 0)) { report, (productRows, statusRows) ->
+                report.copy(
+                    chunks = report.chunks + 1,
+                    productRows = report.productRows + productRows,
+                    statusRows = report.statusRows + statusRows
+                )
+            }
+            .doOnNext { report ->
+                logger.info("Rebuilt sales rollups from {} to {} in {} chunks", report.from, report.to, report.chunks)
+            }
+    }
+
+    private fun chunks(from: LocalDate, to: LocalDate): List<Pair<LocalDate, LocalDate>> {
+        val until = to.plusDays(1)
+        return generateSequence(from) { it.plusDays(rebuildChunkDays) }
+            .takeWhile { it < until }
+            .map { it to minOf(it.plusDays(rebuildChunkDays), until) }
+            .toList()
+    }
+
+    private fun validateRange(from: LocalDate, to: LocalDate) {
+        require(!from.isAfter(to)) { "from must not be after to" }
+        require(ChronoUnit.DAYS.between(from, to) < maxRangeDays) { "The date range must not exceed $maxRangeDays days" }
+    }
+
+    private fun statusNames(statuses: Set<OrderStatus>): Array<String> =
+        (statuses.ifEmpty { OrderStatus.entries.toSet() }).map { it.name }.toTypedArray()
+
+    private data class Delta(val orderId: Long, val status: String?, val sign: Int)
+}
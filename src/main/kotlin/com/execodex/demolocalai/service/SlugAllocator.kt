@@ -0,0 +1,123 @@
+package com.execodex.demolocalai.service
+
+import com.execodex.demolocalai.repositories.ProductBulkRepository
+import com.execodex.demolocalai.repositories.ProductRepository
+import org.springframework.stereotype.Component
+import reactor.core.publisher.Mono
+import java.text.Normalizer
+import java.util.Locale
+
+/**
+ * Allocates unique, URL-friendly product slugs.
+ *
+ * All slugs already derived from a base (`onion`, `onion-1`, `onion-2`, ...) are fetched with a single
+ * `slug LIKE 'base-%'` query and the lowest free suffix is chosen in memory. Callers are expected to
+ * retry on a unique-constraint violation, since a concurrent insert can still claim the same slug.
+ */
+@Component
+class SlugAllocator(
+    private val productRepository: ProductRepository,
+    private val productBulkRepository: ProductBulkRepository
+) {
+
+    /**
+     * Generate a base URL-friendly slug from a product name.
+     *
+     * @param name the product name
+     * @return a URL-friendly slug
+     */
+    fun baseSlug(name: String): String {
+        val normalized = Normalizer.normalize(name, Normalizer.Form.NFD).lowercase(Locale.getDefault())
+        val slug = COMBINING_MARKS.replace(normalized, "")
+            .let { INVALID_CHARS.replace(it, "") }
+            .let { WHITESPACE.replace(it, "-") }
+            .let { REPEATED_DASHES.replace(it, "-") }
+            .trim('-')
+        return slug.ifEmpty { FALLBACK_SLUG }
+    }
+
+    /**
+     * Allocate a unique slug for a product name.
+     *
+     * @param name the product name
+     * @param excludeId the ID of the product being updated, whose own slug does not count as taken
+     * @return a Mono containing a slug not used by any other product
+     */
+    fun allocate(name: String, excludeId: Long? = null): Mono<String> {
+        val base = baseSlug(name)
+        return productRepository.findSlugsByBase(base, "$base-%", excludeId ?: -1L)
+            .collectList()
+            .map { taken -> nextFree(base, taken) }
+    }
+
+    /**
+     * Allocate unique slugs for a batch of product names with a single query.
+     * Names sharing a base slug get consecutive free suffixes, so the batch never collides with itself.
+     *
+     * @param names the product names
+     * @return a Mono containing one slug per name, in the same order
+     */
+    fun allocateAll(names: List<String>): Mono<List<String>> {
+        val bases = names.map { baseSlug(it) }
+        return productBulkRepository.findSlugsByBases(bases.distinct().toTypedArray())
+            .collectMultimap({ it.first }, { it.second })
+            .map { takenByBase ->
+                val assigned = HashSet<String>()
+                val usedSuffixes = HashMap<String, MutableSet<Int>>()
+                bases.map { base ->
+                    val used = usedSuffixes.getOrPut(base) {
+                        takenByBase[base].orEmpty().mapNotNullTo(HashSet()) { suffixOf(base, it) }
+                    }
+                    var counter = 0
+                    while (counter in used || slugFor(base, counter) in assigned) {
+                        counter++
+                    }
+                    used.add(counter)
+                    slugFor(base, counter).also { assigned.add(it) }
+                }
+            }
+    }
+
+    /**
+     * Check whether a slug was derived from the given base slug.
+     *
+     * @param base the base slug
+     * @param slug the slug to check
+     * @return true if the slug is the base itself or the base followed by a numeric suffix
+     */
+    fun isDerivedFrom(base: String, slug: String): Boolean = suffixOf(base, slug) != null
+
+    /**
+     * Pick the lowest free slug for a base, given the slugs already in use.
+     *
+     * @param base the base slug
+     * @param taken the slugs already in use
+     * @return the base slug if free, otherwise the base followed by the lowest free numeric suffix
+     */
+    fun nextFree(base: String, taken: Collection<String>): String {
+        val usedSuffixes = taken.mapNotNullTo(HashSet()) { suffixOf(base, it) }
+        var counter = 0
+        while (counter in usedSuffixes) {
+            counter++
+        }
+        return slugFor(base, counter)
+    }
+
+    private fun slugFor(base: String, counter: Int): String = if (counter > 0) "$base-$counter" else base
+
+    private fun suffixOf(base: String, slug: String): Int? {
+        if (slug == base) return 0
+        if (!slug.startsWith("$base-")) return null
+        val suffix = slug.substring(base.length + 1)
+        return if (NUMERIC_SUFFIX.matches(suffix)) suffix.toIntOrNull() else null
+    }
+
+    companion object {
+        private const val FALLBACK_SLUG = "product"
+        private val COMBINING_MARKS = "\\p{InCombiningDiacriticalMarks}+".toRegex()
+        private val INVALID_CHARS = "[^a-z0-9\\s-]".toRegex()
+        private val WHITESPACE = "\\s+".toRegex()
+        private val REPEATED_DASHES = "-+".toRegex()
+        private val NUMERIC_SUFFIX = "[1-9][0-9]*".toRegex()
+    }
+}
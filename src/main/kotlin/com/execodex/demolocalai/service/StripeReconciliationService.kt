@@ -0,0 +1,222 @@
+package com.execodex.demolocalai.service
+
+import com.execodex.demolocalai.client.StripeClient
+import com.execodex.demolocalai.entities.OrderStatus
+import com.execodex.demolocalai.repositories.StripeReconciliationRepository
+import com.stripe.model.PaymentIntent
+import com.stripe.param.PaymentIntentListParams
+import io.micrometer.core.instrument.Counter
+import io.micrometer.core.instrument.MeterRegistry
+import org.slf4j.LoggerFactory
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.scheduling.annotation.Scheduled
+import org.springframework.stereotype.Service
+import reactor.core.publisher.Mono
+import java.time.Duration
+import java.time.LocalDateTime
+import java.time.ZoneId
+
+/**
+ * Scheduled reconciliation of orders with their Stripe payments, for orders left `PENDING` because their
+ * payment webhook was lost.
+ *
+ * Each run pages through the payment intents created in the last `stripe.reconciliation.lookback-hours` hours
+ * with Stripe's list API, `stripe.reconciliation.page-size` at a time and at most
+ * `stripe.reconciliation.requests-per-second` pages a second. For each page, the orders named in the metadata
+ * of its succeeded payment intents are looked up with one query, and the pending ones are moved to `PAID` with
+ * one batched update. Orders cancelled before their payment arrived, as unpaid orders are once their stock
+ * reservation lapses, cannot be paid any more: each is logged as a warning to be refunded or restored by hand,
+ * and counted in the report, on every scan that lists its payment intent. The cursor is stored after each page: a run stops after `stripe.reconciliation.max-pages`
+ * pages or on a failure, and the next run resumes the scan where it stopped. A lease on the stored cursor
+ * keeps several instances from running the scan at once.
+ *
+ * Metrics: `stripe.reconciliation.payment.intents` scanned, `stripe.reconciliation.repaired` orders and
+ * `stripe.reconciliation.paid.cancelled` orders found cancelled with a succeeded payment intent.
+ */
+@Service
+class StripeReconciliationService(
+    private val stripeClient: StripeClient,
+    private val orderService: OrderService,
+    private val stripeReconciliationRepository: StripeReconciliationRepository,
+    meterRegistry: MeterRegistry,
+    @Value("\${stripe.reconciliation.lookback-hours:72}") private val lookbackHours: Long,
+    @Value("\${stripe.reconciliation.page-size:100}") private val pageSize: Long,
+    @Value("\${stripe.reconciliation.max-pages:50}") private val maxPages: Int,
+    @Value("\${stripe.reconciliation.requests-per-second:5}") requestsPerSecond: Double,
+    @Value("\${stripe.reconciliation.lease-seconds:300}") private val leaseSeconds: Long
+) {
+    private val logger = LoggerFactory.getLogger(StripeReconciliationService::class.java)
+
+    private val scanned: Counter = meterRegistry.counter("stripe.reconciliation.payment.intents")
+    private val repaired: Counter = meterRegistry.counter("stripe.reconciliation.repaired")
+    private val paidCancelled: Counter = meterRegistry.counter("stripe.reconciliation.paid.cancelled")
+    private val pageInterval: Duration = Duration.ofNanos((1_000_000_000 / requestsPerSecond).toLong())
+
+    /**
+     * Periodically reconcile pending orders with their Stripe payments.
+     */
+    @Scheduled(
+        initialDelayString = "\${stripe.reconciliation.initial-delay-ms:60000}",
+        fixedDelayString = "\${stripe.reconciliation.interval-ms:900000}"
+    )
+    fun reconcilePayments() {
+        reconcile()
+            .doOnNext { report ->
+                logger.info("Stripe payment reconciliation repaired {} orders and found {} paid but cancelled from {} payment intents in {} pages{}",
+                    report.repaired, report.paidButCancelled, report.scanned, report.pages, if (report.complete) "" else ", to be resumed")
+            }
+            .doOnError { error -> logger.warn("Stripe payment reconciliation failed: {}", error.message) }
+            .onErrorResume { Mono.empty() }
+            .subscribe()
+    }
+
+    /**
+     * Run the reconciliation scan, or resume the one in progress, for up to `stripe.reconciliation.max-pages` pages.
+     *
+     * @return a Mono containing the report of the run, empty if another instance is running the scan
+     */
+    fun reconcile(): Mono<ReconciliationReport> {
+        val now = LocalDateTime.now()
+        return stripeReconciliationRepository.claim(now, now.plusSeconds(leaseSeconds))
+            .flatMap { cursor ->
+                val windowStart = cursor.windowStart ?: now.minusHours(lookbackHours)
+                reconcilePage(windowStart, cursor.startingAfter, 1)
+                    .expand { page ->
+                        if (page.hasMore && page.number < maxPages) {
+                            Mono.delay(pageInterval).then(reconcilePage(windowStart, page.lastId, page.number + 1))
+                        } else {
+                            Mono.empty()
+                        }
+                    }
+                    .collectList()
+                    .flatMap { pages ->
+                        val complete = !pages.last().hasMore
+                        stripeReconciliationRepository.release(if (complete) LocalDateTime.now() else null)
+                            .thenReturn(
+                                ReconciliationReport(
+                                    pages = pages.size,
+                                    scanned = pages.sumOf { it.scanned },
+                                    repaired = pages.sumOf { it.repaired },
+                                    paidButCancelled = pages.sumOf { it.paidButCancelled },
+                                    complete = complete
+                                )
+                            )
+                    }
+                    // Pages done so far are stored: the next run resumes after them
+                    .onErrorResume { error -> stripeReconciliationRepository.release(null).then(Mono.error(error)) }
+            }
+    }
+
+    /**
+     * List one page of payment intents, repair its orders and store the cursor past it.
+     */
+    private fun reconcilePage(windowStart: LocalDateTime, startingAfter: String?, number: Int): Mono<ReconciliationPage> {
+        val params = PaymentIntentListParams.builder()
+            .setLimit(pageSize)
+            .setCreated(
+                PaymentIntentListParams.Created.builder()
+                    .setGte(windowStart.atZone(ZoneId.systemDefault()).toEpochSecond())
+                    .build()
+            )
+            .apply { startingAfter?.let { setStartingAfter(it) } }
+            .build()
+
+        return stripeClient.listPaymentIntents(params)
+            .flatMap { collection ->
+                val intents = collection.data.orEmpty()
+                repairOrders(intents).flatMap { repair ->
+                    scanned.increment(intents.size.toDouble())
+                    repaired.increment(repair.repaired.toDouble())
+                    paidCancelled.increment(repair.paidButCancelled.toDouble())
+                    val lastId = intents.lastOrNull()?.id ?: startingAfter
+                    val page = ReconciliationPage(
+                        number, lastId, collection.hasMore == true, intents.size, repair.repaired, repair.paidButCancelled
+                    )
+                    if (lastId == null) {
+                        Mono.just(page)
+                    } else {
+                        stripeReconciliationRepository.saveProgress(
+                            windowStart, lastId, repair.repaired, LocalDateTime.now().plusSeconds(leaseSeconds)
+                        ).thenReturn(page)
+                    }
+                }
+            }
+    }
+
+    /**
+     * Move to `PAID` the pending orders of succeeded payment intents, and report the cancelled ones.
+     *
+     * @param intents one page of payment intents
+     * @return a Mono containing the number of orders moved to `PAID` and of orders found cancelled
+     */
+    private fun repairOrders(intents: List<PaymentIntent>): Mono<PageRepair> {
+        val intentsByOrder = intents
+            .filter { it.status == "succeeded" }
+            .mapNotNull { intent -> intent.metadata?.get("orderId")?.toLongOrNull()?.let { it to intent.id } }
+            .toMap()
+        if (intentsByOrder.isEmpty()) {
+            return Mono.just(PageRepair(0, 0))
+        }
+
+        return stripeReconciliationRepository.findOrderStatuses(intentsByOrder.keys.toTypedArray())
+            .collectList()
+            .flatMap { statuses ->
+                val pending = statuses.filter { (_, status) -> status == OrderStatus.PENDING.name }.map { (id, _) -> id }
+                val cancelled = statuses.filter { (_, status) -> status == OrderStatus.CANCELLED.name }.map { (id, _) -> id }
+                val reasons = pending.associateWith { "Reconciled with Stripe payment intent ${intentsByOrder[it]}" }
+                orderService.changeStatuses(reasons, OrderStatus.PAID)
+                    .map { outcomes ->
+                        val paid = outcomes.values.filter { it.transitioned }.onEach {
+                            logger.info("Reconciled order {} with Stripe payment intent {}", it.order.id, intentsByOrder[it.order.id])
+                        }
+                        // Pending orders the reservation expiry cancelled since the lookup
+                        val cancelledMeanwhile = outcomes.values
+                            .filter { !it.transitioned && it.order.status == OrderStatus.CANCELLED.name }
+                            .map { it.order.id!! }
+                        (cancelled + cancelledMeanwhile).forEach {
+                            logger.warn("Order {} is cancelled but Stripe payment intent {} succeeded: refund the payment or restore the order",
+                                it, intentsByOrder[it])
+                        }
+                        PageRepair(paid.size, cancelled.size + cancelledMeanwhile.size)
+                    }
+            }
+    }
+
+    /**
+     * The orders of one page of payment intents.
+     *
+     * @property repaired the number of pending orders moved to `PAID`
+     * @property paidButCancelled the number of cancelled orders whose payment intent succeeded
+     */
+    private data class PageRepair(val repaired: Int, val paidButCancelled: Int)
+
+    /**
+     * One page of a reconciliation scan.
+     */
+    private data class ReconciliationPage(
+        val number: Int,
+        val lastId: String?,
+        val hasMore: Boolean,
+        val scanned: Int,
+        val repaired: Int,
+        val paidButCancelled: Int
+    )
+}
+
+/**
+ * The outcome of a reconciliation run.
+ *
+ * @property pages the number of pages of payment intents listed
+ * @property scanned the number of payment intents listed
+ * @property repaired the number of pending orders moved to `PAID`
+ * @property paidButCancelled the number of cancelled orders found with a succeeded payment intent, left for a
+ * refund or a manual restore
+ * @property complete whether the scan reached its end, rather than stopping to be resumed by the next run
+ */
+data class ReconciliationReport(
+    val pages: Int,
+    val scanned: Int,
+    val repaired: Int,
+    val paidButCancelled: Int,
+    val complete: Boolean
+)
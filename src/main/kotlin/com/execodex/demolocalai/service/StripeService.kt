@@ -1,214 +1,277 @@
 package com.execodex.demolocalai.service
 
+import com.execodex.demolocalai.client.StripeClient
 import com.execodex.demolocalai.entities.Order
+import com.execodex.demolocalai.entities.OrderStatus
 import com.execodex.demolocalai.pojos.StripeWebhookRequest
-import com.execodex.demolocalai.repositories.ProductRepository
-import com.stripe.Stripe
-import com.stripe.model.Event
-import com.stripe.model.EventDataObjectDeserializer
+import com.execodex.demolocalai.repositories.PaymentSessionRepository
 import com.stripe.model.PaymentIntent
+import com.stripe.model.StripeObject
 import com.stripe.model.checkout.Session
+import com.stripe.net.ApiResource
 import com.stripe.param.PaymentIntentCreateParams
 import com.stripe.param.checkout.SessionCreateParams
-import jakarta.annotation.PostConstruct
 import org.slf4j.LoggerFactory
 import org.springframework.beans.factory.annotation.Value
+import org.springframework.scheduling.annotation.Scheduled
 import org.springframework.stereotype.Service
 import reactor.core.publisher.Mono
 import java.math.BigDecimal
+import java.time.Instant
+import java.time.LocalDateTime
+import java.time.ZoneId
 
 /**
  * Service for handling Stripe payment operations.
+ * Stripe is called through the non-blocking [StripeClient].
+ *
+ * The payment intent and Checkout Session created for an order are kept in `payment_sessions` for
+ * `stripe.payment-sessions.ttl-minutes`, and returned again without calling Stripe while the order is pending
+ * and its total unchanged, so that a repeated "Pay" does not create orphaned sessions.
  */
 @Service
 class StripeService(
-    @Value("\${stripe.api.secretKey}") private val secretKey: String,
     private val orderService: OrderService,
-    private val productRepository: ProductRepository
+    private val stripeClient: StripeClient,
+    private val paymentSessionRepository: PaymentSessionRepository,
+    @Value("\${stripe.payment-sessions.ttl-minutes:60}") private val sessionTtlMinutes: Long,
+    @Value("\${stripe.payment-sessions.purge-batch-size:1000}") private val sessionPurgeBatchSize: Int
 ) {
     private val logger = LoggerFactory.getLogger(StripeService::class.java)
-    
-    @PostConstruct
-    fun init() {
-        Stripe.apiKey = secretKey
-    }
 
     /**
-     * Create a payment intent for an order.
+     * Create a payment intent for an order, or return the open one created before.
      *
      * @param orderId the ID of the order to create a payment for
-     * @return a Mono containing the created PaymentIntent
+     * @return a Mono containing the PaymentIntent
      */
     fun createPaymentIntent(orderId: Long): Mono<PaymentIntent> {
+        return openSession(orderId, PAYMENT_INTENT, PaymentIntent::class.java)
+            .switchIfEmpty(Mono.defer { newPaymentIntent(orderId) })
+    }
+
+    private fun newPaymentIntent(orderId: Long): Mono<PaymentIntent> {
         return orderService.getOrderById(orderId)
             .switchIfEmpty(Mono.error(IllegalArgumentException("Order not found: $orderId")))
             .flatMap { order ->
-                Mono.fromCallable {
-                    // Convert BigDecimal to cents (long) for Stripe
-                    val amountInCents = order.totalAmount.multiply(BigDecimal(100)).toLong()
-
-                    val params = PaymentIntentCreateParams.builder()
-                        .setAmount(amountInCents)
-                        .setCurrency("usd")
-                        .setDescription("Payment for Order #${order.id}")
-                        .putMetadata("orderId", order.id.toString())
-                        .setAutomaticPaymentMethods(
-                            PaymentIntentCreateParams.AutomaticPaymentMethods.builder()
-                                .setEnabled(true)
-                                .build()
-                        )
-                        .build()
-
-                    PaymentIntent.create(params)
-                }
+                // Convert BigDecimal to cents (long) for Stripe
+                val amountInCents = order.totalAmount.multiply(BigDecimal(100)).toLong()
+
+                val params = PaymentIntentCreateParams.builder()
+                    .setAmount(amountInCents)
+                    .setCurrency("usd")
+                    .setDescription("Payment for Order #${order.id}")
+                    .putMetadata("orderId", order.id.toString())
+                    .setAutomaticPaymentMethods(
+                        PaymentIntentCreateParams.AutomaticPaymentMethods.builder()
+                            .setEnabled(true)
+                            .build()
+                    )
+                    .build()
+
+                stripeClient.createPaymentIntent(params, "payment-intent-order-${order.id}")
+                    .flatMap { paymentIntent ->
+                        saveSession(orderId, PAYMENT_INTENT, amountInCents, paymentIntent.id, paymentIntent, null)
+                    }
             }
     }
 
     /**
-     * Confirm a payment was successful and update the order status.
+     * Confirm a payment was successful and move the order to `PAID`.
+     * Confirming an order that is already paid returns it unchanged.
      *
      * @param paymentIntentId the ID of the payment intent
-     * @return a Mono containing the updated order
+     * @return a Mono containing the updated order, or an [InvalidOrderTransitionException] if the order is not payable
      */
     fun confirmPayment(paymentIntentId: String): Mono<Order> {
-        return Mono.fromCallable {
-            val paymentIntent = PaymentIntent.retrieve(paymentIntentId)
+        return stripeClient.retrievePaymentIntent(paymentIntentId)
+            .map { paymentIntent ->
+                if (paymentIntent.status != "succeeded") {
+                    throw IllegalStateException("Payment not successful. Status: ${paymentIntent.status}")
+                }
 
-            if (paymentIntent.status != "succeeded") {
-                throw IllegalStateException("Payment not successful. Status: ${paymentIntent.status}")
+                paymentIntent.metadata["orderId"]?.toLong()
+                    ?: throw IllegalStateException("Order ID not found in payment metadata")
+            }
+            .flatMap { orderId ->
+                orderService.changeStatus(orderId, OrderStatus.PAID, "Payment intent $paymentIntentId confirmed")
+                    .switchIfEmpty(Mono.error(IllegalStateException("Order not found: $orderId")))
             }
-
-            val orderId = paymentIntent.metadata["orderId"]?.toLong()
-                ?: throw IllegalStateException("Order ID not found in payment metadata")
-
-            orderId
-        }.flatMap { orderId ->
-            orderService.getOrderById(orderId)
-                .switchIfEmpty(Mono.error(IllegalStateException("Order not found: $orderId")))
-                .flatMap { order ->
-                    val updatedOrder = order.copy(status = "PAID")
-                    orderService.updateOrder(orderId, updatedOrder)
-                }
-        }
     }
 
     /**
-     * Create a Checkout Session for an order.
+     * Create a Checkout Session for an order, or return the open one created before with the same redirect URLs.
      *
      * @param orderId the ID of the order to create a checkout session for
      * @param successUrl the URL to redirect to on successful payment
      * @param cancelUrl the URL to redirect to if payment is cancelled
-     * @return a Mono containing the created Checkout Session
+     * @return a Mono containing the Checkout Session
      */
     fun createCheckoutSession(orderId: Long, successUrl: String, cancelUrl: String): Mono<Session> {
-        return orderService.getOrderById(orderId)
+        return openSession(orderId, CHECKOUT_SESSION, Session::class.java)
+            .filter { session -> session.successUrl == successUrl && session.cancelUrl == cancelUrl }
+            .switchIfEmpty(Mono.defer { newCheckoutSession(orderId, successUrl, cancelUrl) })
+    }
+
+    private fun newCheckoutSession(orderId: Long, successUrl: String, cancelUrl: String): Mono<Session> {
+        return orderService.getOrderDetail(orderId, withProducts = true)
             .switchIfEmpty(Mono.error(IllegalArgumentException("Order not found: $orderId")))
             .flatMap { order ->
-                orderService.getOrderItemsByOrderId(orderId)
-                    .flatMap { orderItem ->
-                        // Fetch product details for each order item
-                        productRepository.findById(orderItem.productId)
-                            .map { product -> Pair(orderItem, product) }
-                    }
-                    .collectList()
-                    .flatMap { orderItemsWithProducts ->
-                        if (orderItemsWithProducts.isEmpty()) {
-                            return@flatMap Mono.error(IllegalArgumentException("No items found for order: $orderId"))
-                        }
+                val orderItems = order.items.orEmpty()
+                if (orderItems.isEmpty()) {
+                    return@flatMap Mono.error(IllegalArgumentException("No items found for order: $orderId"))
+                }
 
-                        Mono.fromCallable {
-                            val paramsBuilder = SessionCreateParams.builder()
-                                .setMode(SessionCreateParams.Mode.PAYMENT)
-                                .setSuccessUrl(successUrl)
-                                .setCancelUrl(cancelUrl)
-                                .putMetadata("orderId", order.id.toString())
-                                .setPaymentIntentData(
-                                    SessionCreateParams.PaymentIntentData.builder()
-                                        .putMetadata("orderId", order.id.toString())
-                                        .build()
-                                )
-
-                            // Add each order item as a line item
-                            orderItemsWithProducts.forEach { (item, product) ->
-                                // Convert BigDecimal to cents (long) for Stripe
-                                val itemAmountInCents = item.price.multiply(BigDecimal(100)).toLong()
-
-                                paramsBuilder.addLineItem(
-                                    SessionCreateParams.LineItem.builder()
-                                        .setQuantity(item.quantity.toLong())
-                                        .setPriceData(
-                                            SessionCreateParams.LineItem.PriceData.builder()
-                                                .setCurrency("eur")
-                                                .setUnitAmount(itemAmountInCents)
-                                                .setProductData(
-                                                    SessionCreateParams.LineItem.PriceData.ProductData.builder()
-                                                        .setName(product.name)
-                                                        .setDescription("Order #${order.id} - ${product.name}")
-                                                        .build()
-                                                )
-                                                .build()
-                                        )
-                                        .build()
-                                )
-                            }
-
-                            Session.create(paramsBuilder.build())
+                val paramsBuilder = SessionCreateParams.builder()
+                    .setMode(SessionCreateParams.Mode.PAYMENT)
+                    .setSuccessUrl(successUrl)
+                    .setCancelUrl(cancelUrl)
+                    .putMetadata("orderId", order.id.toString())
+                    .setPaymentIntentData(
+                        SessionCreateParams.PaymentIntentData.builder()
+                            .putMetadata("orderId", order.id.toString())
+                            .build()
+                    )
+
+                // Add each order item as a line item
+                orderItems.forEach { item ->
+                    val product = item.product!!
+                    // Convert BigDecimal to cents (long) for Stripe
+                    val itemAmountInCents = item.price.multiply(BigDecimal(100)).toLong()
+
+                    paramsBuilder.addLineItem(
+                        SessionCreateParams.LineItem.builder()
+                            .setQuantity(item.quantity.toLong())
+                            .setPriceData(
+                                SessionCreateParams.LineItem.PriceData.builder()
+                                    .setCurrency("eur")
+                                    .setUnitAmount(itemAmountInCents)
+                                    .setProductData(
+                                        SessionCreateParams.LineItem.PriceData.ProductData.builder()
+                                            .setName(product.name)
+                                            .setDescription("Order #${order.id} - ${product.name}")
+                                            .build()
+                                    )
+                                    .build()
+                            )
+                            .build()
+                    )
+                }
+
+                val amountInCents = order.totalAmount.multiply(BigDecimal(100)).toLong()
+                stripeClient.createCheckoutSession(paramsBuilder.build(), "checkout-session-order-${order.id}")
+                    .flatMap { session ->
+                        val sessionExpiry = session.expiresAt?.let {
+                            LocalDateTime.ofInstant(Instant.ofEpochSecond(it), ZoneId.systemDefault())
                         }
+                        saveSession(orderId, CHECKOUT_SESSION, amountInCents, session.id, session, sessionExpiry)
                     }
             }
     }
+
+    /**
+     * Find the open session of an order. The cache only spares calls to Stripe: if it cannot be read,
+     * a new session is created.
+     */
+    private fun <T : StripeObject> openSession(orderId: Long, kind: String, type: Class<T>): Mono<T> {
+        return paymentSessionRepository.findOpen(orderId, kind, LocalDateTime.now())
+            .map { payload -> StripeObject.deserializeStripeObject(payload, type, ApiResource.getGlobalResponseGetter()) }
+            .doOnNext { logger.debug("Reusing the open {} of order {}", kind, orderId) }
+            .onErrorResume { error ->
+                logger.warn("Could not read the open {} of order {}: {}", kind, orderId, error.message)
+                Mono.empty()
+            }
+    }
+
+    /**
+     * Keep a new session of an order until the session TTL or its own expiry, whichever comes first.
+     * A session that cannot be stored is still returned.
+     */
+    private fun <T : StripeObject> saveSession(
+        orderId: Long,
+        kind: String,
+        amountInCents: Long,
+        stripeId: String,
+        session: T,
+        sessionExpiry: LocalDateTime?
+    ): Mono<T> {
+        val now = LocalDateTime.now()
+        val expiresAt = now.plusMinutes(sessionTtlMinutes).let { ttl -> sessionExpiry?.let { minOf(it, ttl) } ?: ttl }
+        return paymentSessionRepository.save(orderId, kind, amountInCents, stripeId, session.toJson(), now, expiresAt)
+            .onErrorResume { error ->
+                logger.warn("Could not store the {} of order {}: {}", kind, orderId, error.message)
+                Mono.empty()
+            }
+            .thenReturn(session)
+    }
+
+    /**
+     * Periodically delete expired payment sessions.
+     */
+    @Scheduled(
+        initialDelayString = "\${stripe.payment-sessions.purge-interval-ms:3600000}",
+        fixedDelayString = "\${stripe.payment-sessions.purge-interval-ms:3600000}"
+    )
+    fun purgeExpiredSessions() {
+        paymentSessionRepository.deleteExpired(LocalDateTime.now(), sessionPurgeBatchSize)
+            .doOnNext { deleted -> if (deleted > 0) logger.info("Purged {} expired payment sessions", deleted) }
+            .doOnError { error -> logger.warn("Payment session purge failed: {}", error.message) }
+            .onErrorResume { Mono.empty() }
+            .subscribe()
+    }
     
     /**
-     * Handle Stripe webhook events.
-     * This method processes various Stripe events like payment_intent.succeeded,
-     * checkout.session.completed, etc.
+     * Apply a batch of Stripe webhook events.
+     * `checkout.session.completed` and `payment_intent.succeeded` events mark their order as paid: the events are
+     * de-duplicated per order, and all their orders move to `PAID` with one batched update. Other event types
+     * are ignored.
      *
-     * @param webhookRequest the webhook event data from Stripe
-     * @return a Mono containing the processed order (if applicable)
+     * @param events the webhook events
+     * @return a Mono containing the error of each event that could not be applied, by event ID: events without
+     * an order ID, or for an order that does not exist or cannot be paid. The Mono fails if the batch could not
+     * be applied at all.
      */
-    fun handleWebhookEvent(webhookRequest: StripeWebhookRequest): Mono<Order?> {
-        logger.info("Received Stripe webhook event: ${webhookRequest.type} with ID: ${webhookRequest.id}")
-        logger.info("Webhook event data: ${webhookRequest.data.`object`}")
-        return when (webhookRequest.type) {
-            "checkout.session.completed" -> {
-                // Handle successful checkout session
-                val sessionId = webhookRequest.data.`object`.id
-                val orderId = webhookRequest.data.`object`.metadata?.get("orderId")?.toLong()
-                    ?: return Mono.error(IllegalStateException("Order ID not found in session metadata"))
-                
-                logger.info("Processing completed checkout session: $sessionId for order: $orderId")
-                
-                // Update order status to PAID
-                orderService.getOrderById(orderId)
-                    .switchIfEmpty(Mono.error(IllegalStateException("Order not found: $orderId")))
-                    .flatMap { order ->
-                        val updatedOrder = order.copy(status = "PAID")
-                        orderService.updateOrder(orderId, updatedOrder)
-                    }
+    fun handleWebhookEvents(events: List<StripeWebhookRequest>): Mono<Map<String, Throwable>> {
+        val failures = HashMap<String, Throwable>()
+        val eventsByOrder = LinkedHashMap<Long, MutableList<StripeWebhookRequest>>()
+        events.forEach { event ->
+            if (event.type !in PAYMENT_EVENT_TYPES) {
+                logger.debug("Ignoring Stripe webhook event {} of type {}", event.id, event.type)
+                return@forEach
             }
-            
-            "payment_intent.succeeded" -> {
-                // Handle successful payment intent
-                val paymentIntentId = webhookRequest.data.`object`.id
-                val orderId = webhookRequest.data.`object`.metadata?.get("orderId")?.toLong()
-                    ?: return Mono.error(IllegalStateException("Order ID not found in payment intent metadata"))
-                
-                logger.info("Processing succeeded payment intent: $paymentIntentId for order: $orderId")
-                
-                // Update order status to PAID
-                orderService.getOrderById(orderId)
-                    .switchIfEmpty(Mono.error(IllegalStateException("Order not found: $orderId")))
-                    .flatMap { order ->
-                        val updatedOrder = order.copy(status = "PAID")
-                        orderService.updateOrder(orderId, updatedOrder)
-                    }
-            }
-            
-            else -> {
-                // Log other events but don't process them
-                logger.info("Received unhandled Stripe event type: ${webhookRequest.type}")
-                Mono.empty()
+            val orderId = event.data.`object`.metadata?.get("orderId")?.toLongOrNull()
+            if (orderId == null) {
+                failures[event.id] = IllegalStateException("Order ID not found in ${event.data.`object`.`object`} metadata")
+            } else {
+                eventsByOrder.getOrPut(orderId) { mutableListOf() }.add(event)
             }
         }
+        if (eventsByOrder.isEmpty()) {
+            return Mono.just(failures)
+        }
+
+        val reasons = eventsByOrder.mapValues { (_, orderEvents) ->
+            orderEvents.first().let { "Stripe event ${it.type}: ${it.data.`object`.id}" }
+        }
+        return orderService.changeStatuses(reasons, OrderStatus.PAID)
+            .map { outcomes ->
+                eventsByOrder.forEach { (orderId, orderEvents) ->
+                    val order = outcomes[orderId]?.order
+                    val error = when {
+                        order == null -> IllegalStateException("Order not found: $orderId")
+                        order.status != OrderStatus.PAID.name -> InvalidOrderTransitionException(orderId, order.status, OrderStatus.PAID)
+                        else -> null
+                    }
+                    error?.let { orderEvents.forEach { event -> failures[event.id] = it } }
+                }
+                logger.debug("Applied {} Stripe payment events to {} orders", eventsByOrder.values.sumOf { it.size }, eventsByOrder.size)
+                failures
+            }
+    }
+
+    companion object {
+        private const val PAYMENT_INTENT = "PAYMENT_INTENT"
+        private const val CHECKOUT_SESSION = "CHECKOUT_SESSION"
+        private val PAYMENT_EVENT_TYPES = setOf("checkout.session.completed", "payment_intent.succeeded")
     }
-}
\ No newline at end of file
+}
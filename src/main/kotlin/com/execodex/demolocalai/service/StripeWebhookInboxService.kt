@@ -0,0 +1,239 @@
+package com.execodex.demolocalai.service
+
+import com.execodex.demolocalai.pojos.StripeWebhookRequest
+import com.execodex.demolocalai.repositories.ClaimedWebhookEvent
+import com.execodex.demolocalai.repositories.StripeWebhookEventRepository
+import com.fasterxml.jackson.core.JacksonException
+import com.fasterxml.jackson.databind.ObjectMapper
+import io.micrometer.core.instrument.Counter
+import io.micrometer.core.instrument.DistributionSummary
+import io.micrometer.core.instrument.MeterRegistry
+import io.micrometer.core.instrument.Timer
+import org.slf4j.LoggerFactory
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.scheduling.annotation.Scheduled
+import org.springframework.stereotype.Service
+import reactor.core.publisher.Flux
+import reactor.core.publisher.Mono
+import java.time.Duration
+import java.time.Instant
+import java.time.LocalDateTime
+import java.time.ZoneId
+import java.util.concurrent.TimeoutException
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * Durable inbox for Stripe webhook events.
+ *
+ * [receive] only stores the raw event under its Stripe event id and returns, so webhooks are acknowledged
+ * after a single insert; a redelivered event hits the primary key and is dropped. Stored events are then
+ * processed in the background in batches: processing starts `stripe.webhook.inbox.coalesce-window-ms` after
+ * an event arrives, so that a burst of events is claimed as one batch, and each batch is applied by
+ * [StripeService.handleWebhookEvents] with one order update for all its events. Up to
+ * `stripe.webhook.inbox.workers` batches are processed at once; they are claimed with `FOR UPDATE SKIP LOCKED`,
+ * so several instances can share the inbox. A failed event is retried with exponential backoff and
+ * dead-lettered after `stripe.webhook.inbox.max-attempts` attempts, or at once if retrying cannot help.
+ * Processed events are kept `stripe.webhook.inbox.retention-days` days to catch late redeliveries.
+ *
+ * Metrics: `stripe.webhook.events` by result (received, duplicate, processed, retried, dead),
+ * `stripe.webhook.batch.size`, and the lag of processed events from their receipt
+ * (`stripe.webhook.processing.lag`) and from their creation by Stripe (`stripe.webhook.event.lag`).
+ */
+@Service
+class StripeWebhookInboxService(
+    private val stripeWebhookEventRepository: StripeWebhookEventRepository,
+    private val stripeService: StripeService,
+    private val objectMapper: ObjectMapper,
+    meterRegistry: MeterRegistry,
+    @Value("\${stripe.webhook.inbox.ack-timeout-ms:2000}") private val ackTimeoutMs: Long,
+    @Value("\${stripe.webhook.inbox.coalesce-window-ms:50}") private val coalesceWindowMs: Long,
+    @Value("\${stripe.webhook.inbox.workers:2}") private val workers: Int,
+    @Value("\${stripe.webhook.inbox.batch-size:100}") private val batchSize: Int,
+    @Value("\${stripe.webhook.inbox.lease-seconds:60}") private val leaseSeconds: Long,
+    @Value("\${stripe.webhook.inbox.max-attempts:10}") private val maxAttempts: Int,
+    @Value("\${stripe.webhook.inbox.backoff-initial-ms:1000}") private val backoffInitialMs: Long,
+    @Value("\${stripe.webhook.inbox.backoff-max-ms:600000}") private val backoffMaxMs: Long,
+    @Value("\${stripe.webhook.inbox.retention-days:30}") private val retentionDays: Long,
+    @Value("\${stripe.webhook.inbox.purge-batch-size:1000}") private val purgeBatchSize: Int
+) {
+    private val logger = LoggerFactory.getLogger(StripeWebhookInboxService::class.java)
+
+    private val received: Counter = meterRegistry.counter("stripe.webhook.events", "result", "received")
+    private val duplicates: Counter = meterRegistry.counter("stripe.webhook.events", "result", "duplicate")
+    private val processed: Counter = meterRegistry.counter("stripe.webhook.events", "result", "processed")
+    private val retried: Counter = meterRegistry.counter("stripe.webhook.events", "result", "retried")
+    private val dead: Counter = meterRegistry.counter("stripe.webhook.events", "result", "dead")
+    private val processingLag: Timer = meterRegistry.timer("stripe.webhook.processing.lag")
+    private val eventLag: Timer = meterRegistry.timer("stripe.webhook.event.lag")
+    private val batchSizes: DistributionSummary = meterRegistry.summary("stripe.webhook.batch.size")
+
+    private val nudged = AtomicBoolean()
+    private val draining = AtomicBoolean()
+    private val drainAgain = AtomicBoolean()
+
+    /**
+     * Store a webhook event for processing.
+     *
+     * @param payload the raw event body
+     * @return a Mono containing the event, an [IllegalArgumentException] if the body is not a Stripe event,
+     * or a [TimeoutException] if it could not be stored within `stripe.webhook.inbox.ack-timeout-ms`
+     */
+    fun receive(payload: String): Mono<StripeWebhookRequest> {
+        return Mono.fromCallable { parse(payload) }
+            .onErrorMap(JacksonException::class.java) { IllegalArgumentException("Invalid Stripe event: ${it.originalMessage}") }
+            .flatMap { event ->
+                stripeWebhookEventRepository.insert(event.id, event.type, payload, LocalDateTime.now())
+                    .timeout(Duration.ofMillis(ackTimeoutMs))
+                    .map { stored ->
+                        if (stored) {
+                            received.increment()
+                            nudge()
+                        } else {
+                            duplicates.increment()
+                            logger.debug("Ignoring duplicate Stripe event {}", event.id)
+                        }
+                        event
+                    }
+            }
+    }
+
+    /**
+     * Periodically process due events: retries, and events left behind by a stopped instance.
+     */
+    @Scheduled(
+        initialDelayString = "\${stripe.webhook.inbox.initial-delay-ms:5000}",
+        fixedDelayString = "\${stripe.webhook.inbox.poll-interval-ms:1000}"
+    )
+    fun processDueEvents() {
+        drain()
+    }
+
+    /**
+     * Drain the inbox once the coalescing window after a received event has passed.
+     */
+    private fun nudge() {
+        if (nudged.compareAndSet(false, true)) {
+            Mono.delay(Duration.ofMillis(coalesceWindowMs)).subscribe {
+                nudged.set(false)
+                drain()
+            }
+        }
+    }
+
+    /**
+     * Process due events batch after batch until none is left, with up to `stripe.webhook.inbox.workers` batches
+     * at once. A call made while a drain is running makes it go over the inbox once more, so events stored
+     * meanwhile are not left for the next poll.
+     */
+    private fun drain() {
+        if (!draining.compareAndSet(false, true)) {
+            drainAgain.set(true)
+            return
+        }
+        drainAgain.set(false)
+        Flux.range(0, workers)
+            .flatMap {
+                processBatch().expand { claimed ->
+                    if (claimed == batchSize || drainAgain.getAndSet(false)) processBatch() else Mono.empty()
+                }
+            }
+            .then()
+            .doOnError { error -> logger.warn("Stripe webhook inbox processing failed: {}", error.message) }
+            .onErrorResume { Mono.empty() }
+            .doFinally {
+                draining.set(false)
+                if (drainAgain.get()) drain()
+            }
+            .subscribe()
+    }
+
+    private fun processBatch(): Mono<Int> {
+        val now = LocalDateTime.now()
+        return stripeWebhookEventRepository.claimDue(now, now.plusSeconds(leaseSeconds), batchSize)
+            .collectList()
+            .flatMap { claimed -> if (claimed.isEmpty()) Mono.just(0) else process(claimed).thenReturn(claimed.size) }
+    }
+
+    /**
+     * Apply a batch of claimed events, then mark the applied ones as processed with one statement and retry or
+     * dead-letter the others.
+     */
+    private fun process(claimed: List<ClaimedWebhookEvent>): Mono<Void> {
+        batchSizes.record(claimed.size.toDouble())
+        val failures = HashMap<String, Throwable>()
+        val events = claimed.mapNotNull { event ->
+            try {
+                event to parse(event.payload)
+            } catch (e: JacksonException) {
+                failures[event.id] = e
+                null
+            }
+        }
+
+        return stripeService.handleWebhookEvents(events.map { (_, request) -> request })
+            .onErrorResume { error ->
+                // Nothing was applied: every event of the batch is retried
+                Mono.just(events.associate { (event, _) -> event.id to error })
+            }
+            .flatMap { rejected ->
+                failures.putAll(rejected)
+                val applied = events.filter { (event, _) -> event.id !in failures }
+                val now = LocalDateTime.now()
+                stripeWebhookEventRepository.markProcessed(applied.map { (event, _) -> event.id }.toTypedArray(), now)
+                    .doOnSuccess {
+                        processed.increment(applied.size.toDouble())
+                        applied.forEach { (event, request) ->
+                            processingLag.record(Duration.between(event.receivedAt, now))
+                            request.created?.let {
+                                eventLag.record(Duration.between(Instant.ofEpochSecond(it), now.atZone(ZoneId.systemDefault())))
+                            }
+                        }
+                    }
+                    .thenMany(
+                        Flux.fromIterable(claimed.filter { it.id in failures })
+                            .concatMap { event -> fail(event, failures.getValue(event.id)) }
+                    )
+                    .then()
+            }
+    }
+
+    private fun fail(event: ClaimedWebhookEvent, error: Throwable): Mono<Void> {
+        val reason = "${error.javaClass.simpleName}: ${error.message}"
+        val now = LocalDateTime.now()
+        if (event.attempts >= maxAttempts || !isRetryable(error)) {
+            dead.increment()
+            logger.error("Dead-lettering Stripe event {} ({}) after {} attempts: {}", event.id, event.type, event.attempts, reason)
+            return stripeWebhookEventRepository.markDead(event.id, reason, now)
+        }
+        val backoffMs = (backoffInitialMs shl minOf(event.attempts - 1, 30)).coerceIn(backoffInitialMs, backoffMaxMs)
+        retried.increment()
+        logger.warn("Stripe event {} ({}) failed, attempt {} of {}, retrying in {} ms: {}",
+            event.id, event.type, event.attempts, maxAttempts, backoffMs, reason)
+        return stripeWebhookEventRepository.reschedule(event.id, now.plusNanos(backoffMs * 1_000_000), reason)
+    }
+
+    /**
+     * Errors caused by the event itself or by the state of its order: processing it again would fail the same way.
+     */
+    private fun isRetryable(error: Throwable): Boolean =
+        error !is JacksonException && error !is IllegalArgumentException && error !is IllegalStateException &&
+            error !is InvalidOrderTransitionException
+
+    /**
+     * Periodically delete events processed more than `stripe.webhook.inbox.retention-days` days ago.
+     */
+    @Scheduled(
+        initialDelayString = "\${stripe.webhook.inbox.purge-interval-ms:3600000}",
+        fixedDelayString = "\${stripe.webhook.inbox.purge-interval-ms:3600000}"
+    )
+    fun purgeProcessedEvents() {
+        stripeWebhookEventRepository.deleteProcessedBefore(LocalDateTime.now().minusDays(retentionDays), purgeBatchSize)
+            .doOnNext { deleted -> if (deleted > 0) logger.info("Purged {} processed Stripe webhook events", deleted) }
+            .doOnError { error -> logger.warn("Stripe webhook event purge failed: {}", error.message) }
+            .onErrorResume { Mono.empty() }
+            .subscribe()
+    }
+
+    private fun parse(payload: String): StripeWebhookRequest =
+        objectMapper.readValue(payload, StripeWebhookRequest::class.java)
+}
@@ -1,6 +1,7 @@
 package com.execodex.demolocalai.service
 
 import com.execodex.demolocalai.entities.User
+import com.execodex.demolocalai.repositories.KeysetStreamRepository
 import com.execodex.demolocalai.repositories.UserRepository
 import org.springframework.dao.DataIntegrityViolationException
 import org.springframework.stereotype.Service
@@ -13,7 +14,10 @@ import java.util.Base64
  * Service for managing users.
  */
 @Service
-class UserService(private val userRepository: UserRepository) {
+class UserService(
+    private val userRepository: UserRepository,
+    private val keysetStreamRepository: KeysetStreamRepository
+) {
 
     /**
      * Get all users.
@@ -22,6 +26,24 @@ class UserService(private val userRepository: UserRepository) {
      */
     fun getAllUsers(): Flux<User> = userRepository.findAll()
 
+    /**
+     * Get one keyset page of users.
+     *
+     * @param afterId only users with an id greater than this are returned
+     * @param limit the maximum number of users to return
+     * @return a Flux of at most `limit` users in id order
+     */
+    fun getUsersPage(afterId: Long, limit: Int): Flux<User> = userRepository.findPage(afterId, limit)
+
+    /**
+     * Stream every user after a keyset position.
+     *
+     * @param afterId only users with an id greater than this are returned
+     * @return a Flux of users in id order
+     */
+    fun streamUsers(afterId: Long): Flux<User> =
+        keysetStreamRepository.streamAfter(User::class.java, "users", afterId)
+
     /**
      * Get a user by its ID.
      *
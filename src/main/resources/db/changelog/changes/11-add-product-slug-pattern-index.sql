@@ -0,0 +1,4 @@
+--liquibase formatted sql
+
+--changeset liquibase:11
+CREATE INDEX idx_products_slug_pattern ON products (slug varchar_pattern_ops);
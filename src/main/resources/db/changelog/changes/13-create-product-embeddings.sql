@@ -0,0 +1,14 @@
+--liquibase formatted sql
+
+--changeset liquibase:13
+CREATE EXTENSION IF NOT EXISTS vector;
+
+-- Column layout expected by Spring AI's PgVectorStore (id-type TEXT); id is the product id
+CREATE TABLE IF NOT EXISTS product_embeddings (
+    id TEXT PRIMARY KEY,
+    content TEXT,
+    metadata JSON,
+    embedding vector(384)
+);
+
+CREATE INDEX idx_product_embeddings_hnsw ON product_embeddings USING hnsw (embedding vector_cosine_ops);
@@ -0,0 +1,20 @@
+--liquibase formatted sql
+
+--changeset liquibase:14
+CREATE TABLE inventory_reservations (
+    id BIGSERIAL PRIMARY KEY NOT NULL,
+    order_id BIGINT NOT NULL,
+    product_id BIGINT NOT NULL,
+    quantity INT NOT NULL,
+    status VARCHAR(20) NOT NULL DEFAULT 'ACTIVE',
+    expires_at TIMESTAMP NOT NULL,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    released_at TIMESTAMP,
+    FOREIGN KEY (order_id) REFERENCES orders(id),
+    FOREIGN KEY (product_id) REFERENCES products(id)
+);
+
+CREATE INDEX idx_inventory_reservations_order ON inventory_reservations (order_id);
+
+-- Only active reservations are ever scanned for expiry
+CREATE INDEX idx_inventory_reservations_active_expiry ON inventory_reservations (expires_at) WHERE status = 'ACTIVE';
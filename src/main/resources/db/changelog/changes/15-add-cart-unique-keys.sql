@@ -0,0 +1,30 @@
+--liquibase formatted sql
+
+--changeset liquibase:15
+-- Fold duplicate carts of a user into the oldest one before making user_id unique
+UPDATE cart_items ci SET cart_id = keep.id
+FROM cart dup
+JOIN (SELECT user_id, MIN(id) AS id FROM cart GROUP BY user_id) keep ON keep.user_id = dup.user_id
+WHERE ci.cart_id = dup.id AND dup.id <> keep.id;
+
+DELETE FROM cart c
+USING (SELECT user_id, MIN(id) AS id FROM cart GROUP BY user_id) keep
+WHERE c.user_id = keep.user_id AND c.id <> keep.id;
+
+-- Merge duplicate lines of the same product into the oldest line
+UPDATE cart_items ci SET quantity = merged.quantity, updated_at = CURRENT_TIMESTAMP
+FROM (
+    SELECT MIN(id) AS id, SUM(quantity) AS quantity
+    FROM cart_items
+    GROUP BY cart_id, product_id
+    HAVING COUNT(*) > 1
+) merged
+WHERE ci.id = merged.id;
+
+DELETE FROM cart_items ci
+USING (SELECT cart_id, product_id, MIN(id) AS id FROM cart_items GROUP BY cart_id, product_id) keep
+WHERE ci.cart_id = keep.cart_id AND ci.product_id = keep.product_id AND ci.id <> keep.id;
+
+CREATE UNIQUE INDEX uq_cart_user ON cart (user_id);
+
+CREATE UNIQUE INDEX uq_cart_items_cart_product ON cart_items (cart_id, product_id);
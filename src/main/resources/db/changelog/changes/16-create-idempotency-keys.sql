@@ -0,0 +1,20 @@
+--liquibase formatted sql
+
+--changeset liquibase:16
+-- Responses of POST requests sent with an Idempotency-Key header, replayed when the request is retried.
+-- A row without status_code is still being executed; its expires_at is then a short lease, so a claim
+-- left behind by a crashed instance can be taken over.
+CREATE TABLE idempotency_keys (
+    scope VARCHAR(50) NOT NULL,
+    idempotency_key VARCHAR(255) NOT NULL,
+    fingerprint CHAR(64) NOT NULL,
+    status_code INT,
+    content_type VARCHAR(100),
+    response_body TEXT,
+    location VARCHAR(255),
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    expires_at TIMESTAMP NOT NULL,
+    PRIMARY KEY (scope, idempotency_key)
+);
+
+CREATE INDEX idx_idempotency_keys_expires_at ON idempotency_keys (expires_at);
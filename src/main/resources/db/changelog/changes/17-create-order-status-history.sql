@@ -0,0 +1,15 @@
+--liquibase formatted sql
+
+--changeset liquibase:17
+-- One row per order status transition, appended by the same statement that changes orders.status
+CREATE TABLE order_status_history (
+    id BIGSERIAL PRIMARY KEY NOT NULL,
+    order_id BIGINT NOT NULL,
+    from_status VARCHAR(50) NOT NULL,
+    to_status VARCHAR(50) NOT NULL,
+    reason VARCHAR(255),
+    changed_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    FOREIGN KEY (order_id) REFERENCES orders(id)
+);
+
+CREATE INDEX idx_order_status_history_order ON order_status_history (order_id);
@@ -0,0 +1,28 @@
+--liquibase formatted sql
+
+--changeset liquibase:18
+-- Daily sales per product and order status, maintained by the transactions that create orders or change their status.
+-- orders counts the orders with at least one line of the product.
+CREATE TABLE sales_daily_product (
+    day DATE NOT NULL,
+    product_id BIGINT NOT NULL,
+    status VARCHAR(50) NOT NULL,
+    orders BIGINT NOT NULL DEFAULT 0,
+    units BIGINT NOT NULL DEFAULT 0,
+    revenue NUMERIC(14,2) NOT NULL DEFAULT 0,
+    PRIMARY KEY (day, product_id, status)
+);
+
+-- Daily sales per order status. Each day and status is split over a few shards picked by order id, so that
+-- concurrent orders do not all queue on the same row; queries add the shards up.
+CREATE TABLE sales_daily_status (
+    day DATE NOT NULL,
+    status VARCHAR(50) NOT NULL,
+    shard SMALLINT NOT NULL,
+    orders BIGINT NOT NULL DEFAULT 0,
+    units BIGINT NOT NULL DEFAULT 0,
+    revenue NUMERIC(14,2) NOT NULL DEFAULT 0,
+    PRIMARY KEY (day, status, shard)
+);
+
+CREATE INDEX idx_orders_order_date ON orders (order_date);
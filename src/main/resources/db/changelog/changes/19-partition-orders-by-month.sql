@@ -0,0 +1,157 @@
+--liquibase formatted sql
+
+--changeset liquibase:19 splitStatements:false
+-- Range-partition orders and order_details by month of order_date. order_details carries the order_date of its
+-- order so that both tables are pruned and archived by the same months. Primary keys include the partition key;
+-- ids stay unique because they still come from the same sequences.
+
+-- Creates the orders and order_details partitions of the month containing month_date, moving in the rows of the
+-- month that landed in the default partitions. Returns false if the month already has its partitions.
+CREATE OR REPLACE FUNCTION create_order_partition(month_date DATE) RETURNS BOOLEAN AS $$
+DECLARE
+    start_date DATE := date_trunc('month', month_date)::date;
+    end_date DATE := (date_trunc('month', month_date) + INTERVAL '1 month')::date;
+    suffix TEXT := to_char(month_date, 'YYYYMM');
+    stray BOOLEAN;
+BEGIN
+    IF to_regclass('orders_p' || suffix) IS NOT NULL THEN
+        RETURN false;
+    END IF;
+
+    -- A partition cannot be created while the default partition holds rows of its range
+    SELECT EXISTS (SELECT 1 FROM orders_default WHERE order_date >= start_date AND order_date < end_date) INTO stray;
+    IF stray THEN
+        CREATE TEMP TABLE stray_order_details (LIKE order_details);
+        CREATE TEMP TABLE stray_orders (LIKE orders);
+        WITH moved AS (
+            DELETE FROM order_details_default WHERE order_date >= start_date AND order_date < end_date RETURNING *
+        )
+        INSERT INTO stray_order_details SELECT * FROM moved;
+        WITH moved AS (
+            DELETE FROM orders_default WHERE order_date >= start_date AND order_date < end_date RETURNING *
+        )
+        INSERT INTO stray_orders SELECT * FROM moved;
+    END IF;
+
+    EXECUTE format('CREATE TABLE %I PARTITION OF orders FOR VALUES FROM (%L) TO (%L)',
+                   'orders_p' || suffix, start_date, end_date);
+    EXECUTE format('CREATE TABLE %I PARTITION OF order_details FOR VALUES FROM (%L) TO (%L)',
+                   'order_details_p' || suffix, start_date, end_date);
+
+    IF stray THEN
+        INSERT INTO orders SELECT * FROM stray_orders;
+        INSERT INTO order_details SELECT * FROM stray_order_details;
+        DROP TABLE stray_orders;
+        DROP TABLE stray_order_details;
+    END IF;
+    RETURN true;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Creates the partitions of the current month and of the next months_ahead months that do not exist yet.
+-- Returns the number of months created. Called on a schedule by the application.
+CREATE OR REPLACE FUNCTION ensure_order_partitions(months_ahead INT) RETURNS INT AS $$
+DECLARE
+    month_date DATE;
+    created INT := 0;
+BEGIN
+    FOR month_date IN
+        SELECT generate_series(date_trunc('month', LOCALTIMESTAMP),
+                               date_trunc('month', LOCALTIMESTAMP) + make_interval(months => months_ahead),
+                               INTERVAL '1 month')::date
+    LOOP
+        IF create_order_partition(month_date) THEN
+            created := created + 1;
+        END IF;
+    END LOOP;
+    RETURN created;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Detaches the orders and order_details partitions of the month containing month_date, leaving them as standalone
+-- tables orders_pYYYYMM and order_details_pYYYYMM to dump and drop. Their orders disappear from the application;
+-- the sales rollups keep their totals. Returns false if the month has no partitions.
+CREATE OR REPLACE FUNCTION detach_order_partition(month_date DATE) RETURNS BOOLEAN AS $$
+DECLARE
+    suffix TEXT := to_char(month_date, 'YYYYMM');
+BEGIN
+    IF to_regclass('orders_p' || suffix) IS NULL THEN
+        RETURN false;
+    END IF;
+    -- Items first, and without their foreign key, so that the orders partition has nothing referencing it
+    EXECUTE format('ALTER TABLE order_details DETACH PARTITION %I', 'order_details_p' || suffix);
+    EXECUTE format('ALTER TABLE %I DROP CONSTRAINT fk_order_details_order', 'order_details_p' || suffix);
+    EXECUTE format('ALTER TABLE orders DETACH PARTITION %I', 'orders_p' || suffix);
+    RETURN true;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Foreign keys to orders(id) need a unique id, which a table partitioned by order_date cannot enforce
+ALTER TABLE inventory_reservations DROP CONSTRAINT inventory_reservations_order_id_fkey;
+ALTER TABLE order_status_history DROP CONSTRAINT order_status_history_order_id_fkey;
+
+ALTER TABLE order_details RENAME TO order_details_legacy;
+ALTER TABLE order_details_legacy RENAME CONSTRAINT order_details_pkey TO order_details_legacy_pkey;
+ALTER TABLE orders RENAME TO orders_legacy;
+ALTER TABLE orders_legacy RENAME CONSTRAINT orders_pkey TO orders_legacy_pkey;
+DROP INDEX idx_orders_order_date;
+
+CREATE TABLE orders (
+    id BIGINT NOT NULL DEFAULT nextval('orders_id_seq'),
+    user_id BIGINT NOT NULL,
+    total_amount DECIMAL(10,2) NOT NULL,
+    order_date TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    status VARCHAR(50) NOT NULL DEFAULT 'PENDING',
+    PRIMARY KEY (id, order_date),
+    FOREIGN KEY (user_id) REFERENCES users(id)
+) PARTITION BY RANGE (order_date);
+
+-- Moving an order to another date moves its items along with it
+CREATE TABLE order_details (
+    id BIGINT NOT NULL DEFAULT nextval('order_details_id_seq'),
+    order_id BIGINT NOT NULL,
+    product_id BIGINT NOT NULL,
+    quantity INT NOT NULL,
+    price DECIMAL(10,2) NOT NULL,
+    order_date TIMESTAMP NOT NULL,
+    PRIMARY KEY (id, order_date),
+    CONSTRAINT fk_order_details_order FOREIGN KEY (order_id, order_date)
+        REFERENCES orders (id, order_date) ON UPDATE CASCADE,
+    FOREIGN KEY (product_id) REFERENCES products(id)
+) PARTITION BY RANGE (order_date);
+
+ALTER SEQUENCE orders_id_seq OWNED BY orders.id;
+ALTER SEQUENCE order_details_id_seq OWNED BY order_details.id;
+
+-- Catch rows dated outside the monthly partitions, until create_order_partition moves them out
+CREATE TABLE orders_default PARTITION OF orders DEFAULT;
+CREATE TABLE order_details_default PARTITION OF order_details DEFAULT;
+
+CREATE INDEX idx_orders_user_date ON orders (user_id, order_date);
+CREATE INDEX idx_orders_status_date ON orders (status, order_date);
+CREATE INDEX idx_orders_order_date ON orders (order_date);
+CREATE INDEX idx_order_details_order ON order_details (order_id, order_date);
+CREATE INDEX idx_order_details_product ON order_details (product_id);
+
+-- In a DO block rather than SELECTs: the changeset is sent as one script, and the open result of a SELECT over
+-- orders_legacy would keep it from being dropped below
+DO $$
+BEGIN
+    PERFORM create_order_partition(month_date::date)
+    FROM generate_series(date_trunc('month', (SELECT MIN(order_date) FROM orders_legacy)),
+                         (SELECT MAX(order_date) FROM orders_legacy),
+                         INTERVAL '1 month') AS month_date;
+    PERFORM ensure_order_partitions(3);
+END;
+$$;
+
+INSERT INTO orders (id, user_id, total_amount, order_date, status)
+SELECT id, user_id, total_amount, order_date, status FROM orders_legacy;
+
+INSERT INTO order_details (id, order_id, product_id, quantity, price, order_date)
+SELECT d.id, d.order_id, d.product_id, d.quantity, d.price, o.order_date
+FROM order_details_legacy d
+JOIN orders_legacy o ON o.id = d.order_id;
+
+DROP TABLE order_details_legacy;
+DROP TABLE orders_legacy;
@@ -0,0 +1,21 @@
+--liquibase formatted sql
+
+--changeset liquibase:20
+-- Stripe webhook events, stored as received before they are acknowledged and processed asynchronously.
+-- The event id is the primary key, so a redelivered event is not stored twice. PENDING events are due at
+-- next_attempt_at; a worker claims them by pushing next_attempt_at past its lease, so an event whose worker
+-- died is retried once the lease runs out. Events failing max-attempts times are left as DEAD.
+CREATE TABLE stripe_webhook_events (
+    id VARCHAR(255) PRIMARY KEY,
+    type VARCHAR(100) NOT NULL,
+    payload TEXT NOT NULL,
+    status VARCHAR(20) NOT NULL DEFAULT 'PENDING',
+    attempts INT NOT NULL DEFAULT 0,
+    next_attempt_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    last_error TEXT,
+    received_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    processed_at TIMESTAMP
+);
+
+CREATE INDEX idx_stripe_webhook_events_due ON stripe_webhook_events (next_attempt_at) WHERE status = 'PENDING';
+CREATE INDEX idx_stripe_webhook_events_processed_at ON stripe_webhook_events (processed_at) WHERE status = 'PROCESSED';
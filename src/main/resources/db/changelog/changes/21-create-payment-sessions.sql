@@ -0,0 +1,18 @@
+--liquibase formatted sql
+
+--changeset liquibase:21
+-- Open Stripe Checkout Sessions and payment intents per order, returned again instead of creating new ones while
+-- the order is pending, its amount unchanged and the row not expired. amount is the order total in cents at
+-- creation; payload is the Stripe object as JSON.
+CREATE TABLE payment_sessions (
+    order_id BIGINT NOT NULL,
+    kind VARCHAR(20) NOT NULL,
+    amount BIGINT NOT NULL,
+    stripe_id VARCHAR(255) NOT NULL,
+    payload TEXT NOT NULL,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    expires_at TIMESTAMP NOT NULL,
+    PRIMARY KEY (order_id, kind)
+);
+
+CREATE INDEX idx_payment_sessions_expires_at ON payment_sessions (expires_at);
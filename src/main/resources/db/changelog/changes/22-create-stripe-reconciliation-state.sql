@@ -0,0 +1,17 @@
+--liquibase formatted sql
+
+--changeset liquibase:22
+-- Progress of the Stripe payment reconciliation, which pages through recent payment intents to pay the pending
+-- orders whose webhook was lost. While a scan is in progress, window_start is the creation time it lists from and
+-- starting_after the last payment intent done, so an interrupted scan resumes there. locked_until is the lease of
+-- the instance running it.
+CREATE TABLE stripe_reconciliation_state (
+    name VARCHAR(50) PRIMARY KEY,
+    window_start TIMESTAMP,
+    starting_after VARCHAR(255),
+    locked_until TIMESTAMP,
+    last_completed_at TIMESTAMP,
+    repaired_total BIGINT NOT NULL DEFAULT 0
+);
+
+INSERT INTO stripe_reconciliation_state (name) VALUES ('payment_intents');
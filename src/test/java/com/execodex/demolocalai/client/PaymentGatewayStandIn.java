@@ -0,0 +1,722 @@
+package com.execodex.demolocalai.client;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Local stand-in for the Stripe and SumUp APIs the application calls, so that payment flows can be run and
+ * benchmarked on a machine without network access or API keys. The tests start it in-process; the
+ * paymentGatewayStandIn Gradle task runs this file as a single-file program.
+ *
+ * Stripe: POST /v1/checkout/sessions, GET /v1/checkout/sessions/{id}, POST and GET (list) /v1/payment_intents,
+ * GET /v1/payment_intents/{id} and POST /v1/payment_intents/{id}/confirm, with Idempotency-Key replay.
+ * A Checkout Session's url points back at the stand-in: opening it plays the customer paying, completes the
+ * session and its payment intent and sends checkout.session.completed and payment_intent.succeeded to the
+ * application's webhook, as Stripe would. Confirming a payment intent sends payment_intent.succeeded.
+ *
+ * SumUp: POST /v0.1/checkouts, GET, PUT (process) and DELETE /v0.1/checkouts/{id}, GET /v0.1/me/payment-methods.
+ * Processing a checkout sends CHECKOUT_COMPLETED to the application's SumUp webhook.
+ *
+ * Every API request waits latencyMs plus up to jitterMs, and fails with errorStatus with probability errorRate.
+ * With autoCompleteMs set, sessions and payment intents are paid that many milliseconds after their creation
+ * without opening their url. webhookDropRate is the share of webhooks never delivered, as when they are lost.
+ * The program reads the settings from STANDIN_* environment variables (STANDIN_LATENCY_MS for latencyMs), and
+ * they can be changed while running with {@link #configure(Map)} or
+ * POST /standin/config?latencyMs=..&jitterMs=..&errorRate=..&errorStatus=..&autoCompleteMs=..&webhookDropRate=..
+ * GET /standin/stats reports request, error and webhook counts.
+ *
+ * Usage: java PaymentGatewayStandIn.java [port] [appBaseUrl]
+ */
+public class PaymentGatewayStandIn implements AutoCloseable {
+    private static final Pattern JSON_FIELD = Pattern.compile("\"([a-zA-Z_]+)\"\\s*:\\s*(\"((?:[^\"\\\\]|\\\\.)*)\"|-?[0-9.]+)");
+    private static final int WEBHOOK_ATTEMPTS = 3;
+    private static final List<String> SETTINGS =
+            List.of("latencyMs", "jitterMs", "errorRate", "errorStatus", "autoCompleteMs", "webhookDropRate");
+    private static final HttpClient webhookClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+
+    /**
+     * An API request received by the stand-in.
+     *
+     * @param query the raw query string, empty if there is none
+     */
+    public record Request(String method, String path, String authorization, String idempotencyKey, String body, String query) {
+        /**
+         * The value of a form parameter of the body, or of the query string.
+         */
+        public String param(String name) {
+            String value = parseForm(body).get(name);
+            return value != null ? value : parseForm(query).get(name);
+        }
+    }
+
+    private volatile long latencyMs = 0;
+    private volatile long jitterMs = 0;
+    private volatile double errorRate = 0;
+    private volatile int errorStatus = 503;
+    private volatile long autoCompleteMs = -1;
+    private volatile double webhookDropRate = 0;
+    private volatile String[] failure;
+
+    private final Map<String, Map<String, Object>> stripeObjects = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, Object>> sumUpCheckouts = new ConcurrentHashMap<>();
+    private final Map<String, String> sumUpReferences = new ConcurrentHashMap<>();
+    private final Map<String, String[]> idempotentResponses = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> stats = new ConcurrentHashMap<>();
+    private final AtomicLong ids = new AtomicLong();
+    private final AtomicLong requestIds = new AtomicLong();
+    private final List<Request> requests = new CopyOnWriteArrayList<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+    // A thread per request in flight, since requests sleep through the injected latency
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final HttpServer server;
+    private final String publicUrl;
+    private final String appBaseUrl;
+
+    /**
+     * Start a stand-in with no latency and no errors.
+     *
+     * @param port the port to listen on, 0 for any free port
+     * @param appBaseUrl the base URL of the application to send webhooks to, null to send none
+     */
+    public PaymentGatewayStandIn(int port, String appBaseUrl) throws IOException {
+        this.appBaseUrl = appBaseUrl;
+        server = HttpServer.create(new InetSocketAddress(port), 4096);
+        server.setExecutor(executor);
+        server.createContext("/", exchange -> {
+            try (exchange) {
+                handle(exchange);
+            } catch (Exception e) {
+                count("errors.internal");
+                System.out.println("[DEBUG_LOG] " + exchange.getRequestMethod() + " " + exchange.getRequestURI() + " failed: " + e);
+            }
+        });
+        server.start();
+        publicUrl = "http://localhost:" + server.getAddress().getPort();
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 12111;
+        String appBaseUrl = args.length > 1 ? args[1] : "http://localhost:8080";
+        PaymentGatewayStandIn standIn = new PaymentGatewayStandIn(port, appBaseUrl);
+
+        Map<String, String> settings = new LinkedHashMap<>();
+        for (String setting : SETTINGS) {
+            String value = System.getenv("STANDIN_" + setting.replaceAll("([A-Z])", "_$1").toUpperCase());
+            if (value != null && !value.isBlank()) {
+                settings.put(setting, value);
+            }
+        }
+        System.out.println("[DEBUG_LOG] Payment gateway stand-in listening on " + standIn.getBaseUrl() + ", sending webhooks to " + appBaseUrl);
+        standIn.configure(settings);
+    }
+
+    public String getBaseUrl() {
+        return publicUrl;
+    }
+
+    /**
+     * The API requests received so far, in order of arrival.
+     */
+    public List<Request> getRequests() {
+        return requests;
+    }
+
+    /**
+     * The largest number of API requests served at once so far.
+     */
+    public int getPeakInFlight() {
+        return peakInFlight.get();
+    }
+
+    /**
+     * Change the settings present in the map, as POST /standin/config does.
+     */
+    public void configure(Map<String, String> settings) {
+        latencyMs = Long.parseLong(settings.getOrDefault("latencyMs", String.valueOf(latencyMs)));
+        jitterMs = Long.parseLong(settings.getOrDefault("jitterMs", String.valueOf(jitterMs)));
+        errorRate = Double.parseDouble(settings.getOrDefault("errorRate", String.valueOf(errorRate)));
+        errorStatus = Integer.parseInt(settings.getOrDefault("errorStatus", String.valueOf(errorStatus)));
+        autoCompleteMs = Long.parseLong(settings.getOrDefault("autoCompleteMs", String.valueOf(autoCompleteMs)));
+        webhookDropRate = Double.parseDouble(settings.getOrDefault("webhookDropRate", String.valueOf(webhookDropRate)));
+        System.out.println("[DEBUG_LOG] " + config());
+    }
+
+    /**
+     * Answer every following API request with an error, after its latency.
+     *
+     * @param status the HTTP status
+     * @param body the error body
+     */
+    public void failWith(int status, String body) {
+        failure = new String[] {String.valueOf(status), body};
+    }
+
+    /**
+     * Play the customer paying a Checkout Session or a payment intent, as opening a session's url does.
+     *
+     * @return false if there is no such session or payment intent
+     */
+    public boolean pay(String id) {
+        Map<String, Object> object = stripeObjects.get(id);
+        if (object == null) {
+            return false;
+        }
+        if (id.startsWith("cs_test_")) {
+            completeSession(object);
+        } else {
+            succeedPaymentIntent(object);
+        }
+        return true;
+    }
+
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            server.stop(0);
+            executor.shutdownNow();
+            scheduler.shutdownNow();
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws Exception {
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getPath();
+        String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+
+        if (path.startsWith("/standin/")) {
+            handleControl(exchange, method, path);
+            return;
+        }
+        if (path.startsWith("/pay/")) {
+            count("stripe.checkout.pay");
+            Map<String, Object> session = stripeObjects.get(path.substring("/pay/".length()));
+            if (session == null) {
+                respond(exchange, 404, "text/plain", "Unknown checkout session");
+                return;
+            }
+            completeSession(session);
+            exchange.getResponseHeaders().add("Location", String.valueOf(session.get("success_url")));
+            respond(exchange, 303, "text/plain", "Paid");
+            return;
+        }
+        boolean stripe = path.startsWith("/v1/");
+        boolean sumUp = path.startsWith("/v0.1/");
+        if (!stripe && !sumUp) {
+            respond(exchange, 404, "text/plain", "Not found");
+            return;
+        }
+
+        count((stripe ? "stripe." : "sumup.") + "requests");
+        String query = exchange.getRequestURI().getRawQuery();
+        requests.add(new Request(method, path, exchange.getRequestHeaders().getFirst("Authorization"),
+                exchange.getRequestHeaders().getFirst("Idempotency-Key"), body, query == null ? "" : query));
+        peakInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        try {
+            handleApi(exchange, method, path, body, stripe);
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    private void handleApi(HttpExchange exchange, String method, String path, String body, boolean stripe) throws Exception {
+        long delay = latencyMs + (jitterMs > 0 ? ThreadLocalRandom.current().nextLong(jitterMs + 1) : 0);
+        if (delay > 0) {
+            Thread.sleep(delay);
+        }
+        String[] failure = this.failure;
+        if (failure != null) {
+            respond(exchange, Integer.parseInt(failure[0]), "application/json", failure[1]);
+            return;
+        }
+        if (exchange.getRequestHeaders().getFirst("Authorization") == null) {
+            respond(exchange, 401, "application/json", stripe
+                    ? stripeError("invalid_request_error", "You did not provide an API key.")
+                    : "{\"error_code\": \"NOT_AUTHORIZED\", \"message\": \"Missing credentials\"}");
+            return;
+        }
+        if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+            count((stripe ? "stripe." : "sumup.") + "errors.injected");
+            respond(exchange, errorStatus, "application/json", stripe
+                    ? stripeError(errorStatus == 429 ? "rate_limit_error" : "api_error", "Injected error")
+                    : "{\"error_code\": \"INTERNAL_ERROR\", \"message\": \"Injected error\"}");
+            return;
+        }
+
+        String[] response;
+        String idempotencyKey = exchange.getRequestHeaders().getFirst("Idempotency-Key");
+        if (stripe && method.equals("POST") && idempotencyKey != null) {
+            String[] first = idempotentResponses.putIfAbsent(idempotencyKey, new String[] {"409", stripeError(
+                    "idempotency_error", "There is currently another in-progress request using this Idempotency-Key")});
+            if (first != null) {
+                count("stripe.idempotent.replays");
+                respond(exchange, Integer.parseInt(first[0]), "application/json", first[1]);
+                return;
+            }
+            response = handleStripe(method, path, body);
+            idempotentResponses.put(idempotencyKey, response);
+        } else {
+            response = stripe
+                    ? handleStripe(method, path, method.equals("GET") ? exchange.getRequestURI().getRawQuery() : body)
+                    : handleSumUp(method, path, body);
+        }
+        respond(exchange, Integer.parseInt(response[0]), "application/json", response[1]);
+    }
+
+    /**
+     * @param params the form body of a POST, or the query string of a GET
+     */
+    private String[] handleStripe(String method, String path, String params) {
+        Map<String, String> form = parseForm(params);
+        if (method.equals("POST") && path.equals("/v1/checkout/sessions")) {
+            count("stripe.checkout.sessions.created");
+            return ok(createSession(form));
+        }
+        if (method.equals("POST") && path.equals("/v1/payment_intents")) {
+            count("stripe.payment_intents.created");
+            Map<String, Object> intent = createPaymentIntent(
+                    Long.parseLong(form.getOrDefault("amount", "0")), form.getOrDefault("currency", "usd"),
+                    metadata(form, "metadata"));
+            intent.put("description", form.get("description"));
+            scheduleAutoComplete(() -> succeedPaymentIntent(intent));
+            return ok(intent);
+        }
+        if (method.equals("GET") && path.equals("/v1/payment_intents")) {
+            count("stripe.payment_intents.listed");
+            return listPaymentIntents(form);
+        }
+        String[] segments = path.split("/");
+        if (segments.length >= 4 && (path.startsWith("/v1/checkout/sessions/") || path.startsWith("/v1/payment_intents/"))) {
+            Map<String, Object> object = stripeObjects.get(segments[segments.length - (path.endsWith("/confirm") ? 2 : 1)]);
+            if (object == null) {
+                return new String[] {"404", stripeError("invalid_request_error", "No such object: '" + path + "'")};
+            }
+            if (method.equals("POST") && path.endsWith("/confirm")) {
+                count("stripe.payment_intents.confirmed");
+                succeedPaymentIntent(object);
+            }
+            return ok(object);
+        }
+        return new String[] {"404", stripeError("invalid_request_error", "Unrecognized request URL (" + method + ": " + path + ")")};
+    }
+
+    private Map<String, Object> createSession(Map<String, String> form) {
+        long amount = 0;
+        for (int i = 0; form.containsKey("line_items[" + i + "][quantity]"); i++) {
+            amount += Long.parseLong(form.get("line_items[" + i + "][quantity]"))
+                    * Long.parseLong(form.getOrDefault("line_items[" + i + "][price_data][unit_amount]", "0"));
+        }
+        String currency = form.getOrDefault("line_items[0][price_data][currency]", "eur");
+        Map<String, Object> intent = createPaymentIntent(amount, currency, metadata(form, "payment_intent_data[metadata]"));
+
+        String id = "cs_test_" + ids.incrementAndGet();
+        long now = Instant.now().getEpochSecond();
+        Map<String, Object> session = new LinkedHashMap<>();
+        session.put("id", id);
+        session.put("object", "checkout.session");
+        session.put("amount_total", amount);
+        session.put("currency", currency);
+        session.put("created", now);
+        session.put("expires_at", now + 24 * 3600);
+        session.put("mode", form.getOrDefault("mode", "payment"));
+        session.put("status", "open");
+        session.put("payment_status", "unpaid");
+        session.put("payment_intent", intent.get("id"));
+        session.put("success_url", form.get("success_url"));
+        session.put("cancel_url", form.get("cancel_url"));
+        session.put("url", publicUrl + "/pay/" + id);
+        session.put("metadata", metadata(form, "metadata"));
+        stripeObjects.put(id, session);
+        scheduleAutoComplete(() -> completeSession(session));
+        return session;
+    }
+
+    private Map<String, Object> createPaymentIntent(long amount, String currency, Map<String, Object> metadata) {
+        String id = "pi_test_" + ids.incrementAndGet();
+        Map<String, Object> intent = new LinkedHashMap<>();
+        intent.put("id", id);
+        intent.put("object", "payment_intent");
+        intent.put("amount", amount);
+        intent.put("currency", currency);
+        intent.put("created", Instant.now().getEpochSecond());
+        intent.put("client_secret", id + "_secret_" + UUID.randomUUID().toString().replace("-", ""));
+        intent.put("status", "requires_payment_method");
+        intent.put("metadata", metadata);
+        stripeObjects.put(id, intent);
+        return intent;
+    }
+
+    /**
+     * One page of payment intents, newest first, as Stripe lists them: created[gte] and starting_after narrow it
+     * and limit (default 10) sizes it.
+     */
+    private String[] listPaymentIntents(Map<String, String> form) {
+        long createdFrom = Long.parseLong(form.getOrDefault("created[gte]", "0"));
+        int limit = Integer.parseInt(form.getOrDefault("limit", "10"));
+        Map<String, Object> startingAfter = form.containsKey("starting_after") ? stripeObjects.get(form.get("starting_after")) : null;
+        if (form.containsKey("starting_after") && startingAfter == null) {
+            return new String[] {"400", stripeError("invalid_request_error", "No such payment_intent: '" + form.get("starting_after") + "'")};
+        }
+        List<Map<String, Object>> intents = new ArrayList<>();
+        stripeObjects.forEach((id, object) -> {
+            if (id.startsWith("pi_test_") && ((Number) object.get("created")).longValue() >= createdFrom) {
+                intents.add(object);
+            }
+        });
+        // The ids count up, so sorting by them is sorting by creation
+        intents.sort((a, b) -> Long.compare(sequence(b), sequence(a)));
+        int from = 0;
+        if (startingAfter != null) {
+            long after = sequence(startingAfter);
+            while (from < intents.size() && sequence(intents.get(from)) >= after) {
+                from++;
+            }
+        }
+        List<Object> data = new ArrayList<>();
+        for (Map<String, Object> intent : intents.subList(from, Math.min(from + limit, intents.size()))) {
+            synchronized (intent) {
+                data.add(new LinkedHashMap<>(intent));
+            }
+        }
+        return new String[] {"200", toJson(mapOf("object", "list", "url", "/v1/payment_intents",
+                "has_more", from + limit < intents.size(), "data", data))};
+    }
+
+    private static long sequence(Map<String, Object> intent) {
+        return Long.parseLong(String.valueOf(intent.get("id")).substring("pi_test_".length()));
+    }
+
+    /**
+     * Play the customer paying a Checkout Session. Paying twice sends no more events.
+     */
+    private void completeSession(Map<String, Object> session) {
+        synchronized (session) {
+            if (!"open".equals(session.get("status"))) {
+                return;
+            }
+            session.put("status", "complete");
+            session.put("payment_status", "paid");
+        }
+        count("stripe.checkout.sessions.completed");
+        sendStripeEvent("checkout.session.completed", session);
+        Map<String, Object> intent = stripeObjects.get(String.valueOf(session.get("payment_intent")));
+        if (intent != null) {
+            succeedPaymentIntent(intent);
+        }
+    }
+
+    private void succeedPaymentIntent(Map<String, Object> intent) {
+        synchronized (intent) {
+            if ("succeeded".equals(intent.get("status"))) {
+                return;
+            }
+            intent.put("status", "succeeded");
+        }
+        sendStripeEvent("payment_intent.succeeded", intent);
+    }
+
+    private void sendStripeEvent(String type, Map<String, Object> object) {
+        Map<String, Object> event = new LinkedHashMap<>();
+        event.put("id", "evt_test_" + ids.incrementAndGet());
+        event.put("object", "event");
+        event.put("type", type);
+        event.put("created", Instant.now().getEpochSecond());
+        Map<String, Object> data = new LinkedHashMap<>();
+        synchronized (object) {
+            data.put("object", new LinkedHashMap<>(object));
+        }
+        event.put("data", data);
+        sendWebhook("stripe", "/api/payments/webhook", toJson(event), 1);
+    }
+
+    private String[] handleSumUp(String method, String path, String body) {
+        if (method.equals("GET") && path.equals("/v0.1/me/payment-methods")) {
+            List<Object> methods = new ArrayList<>();
+            for (String type : new String[] {"card", "apple_pay", "google_pay"}) {
+                methods.add(sumUp(mapOf("type", type, "name", type, "enabled", true)));
+            }
+            return ok(sumUp(mapOf("payment_methods", methods)));
+        }
+        if (method.equals("POST") && path.equals("/v0.1/checkouts")) {
+            Map<String, String> request = parseJson(body);
+            String reference = request.get("checkout_reference");
+            String id = UUID.randomUUID().toString();
+            if (reference == null || sumUpReferences.putIfAbsent(reference, id) != null) {
+                return new String[] {"409", "{\"error_code\": \"DUPLICATED_CHECKOUT\", \"message\": \"Checkout with this checkout reference already exists\"}"};
+            }
+            count("sumup.checkouts.created");
+            Map<String, Object> checkout = sumUp(mapOf(
+                    "id", id,
+                    "checkout_reference", reference,
+                    "amount", new BigDecimal(request.getOrDefault("amount", "0")),
+                    "currency", request.getOrDefault("currency", "EUR"),
+                    "merchant_code", request.get("merchant_code"),
+                    "description", request.get("description"),
+                    "return_url", request.get("return_url"),
+                    "status", "PENDING",
+                    "date", Instant.now().toString(),
+                    "valid_until", Instant.now().plus(Duration.ofHours(1)).toString(),
+                    "transactions", new ArrayList<>()));
+            sumUpCheckouts.put(id, checkout);
+            return ok(checkout);
+        }
+        if (path.startsWith("/v0.1/checkouts/")) {
+            Map<String, Object> checkout = sumUpCheckouts.get(path.substring("/v0.1/checkouts/".length()));
+            if (checkout == null) {
+                return new String[] {"404", "{\"error_code\": \"NOT_FOUND\", \"message\": \"Resource not found\"}"};
+            }
+            switch (method) {
+                case "PUT":
+                    return processSumUpCheckout(checkout, parseJson(body).getOrDefault("payment_type", "card"));
+                case "DELETE":
+                    count("sumup.checkouts.deactivated");
+                    synchronized (checkout) {
+                        // SumUp reports EXPIRED, which the application's checkout status does not know
+                        checkout.put("status", "FAILED");
+                        return ok(checkout);
+                    }
+                default:
+                    synchronized (checkout) {
+                        return ok(checkout);
+                    }
+            }
+        }
+        return new String[] {"404", "{\"error_code\": \"NOT_FOUND\", \"message\": \"Resource not found\"}"};
+    }
+
+    private String[] processSumUpCheckout(Map<String, Object> checkout, String paymentType) {
+        Map<String, Object> transaction;
+        synchronized (checkout) {
+            if (!"PENDING".equals(checkout.get("status"))) {
+                return new String[] {"409", "{\"error_code\": \"CHECKOUT_PROCESSED\", \"message\": \"Checkout is already processed\"}"};
+            }
+            transaction = sumUp(mapOf(
+                    "id", UUID.randomUUID().toString(),
+                    "transaction_code", "T" + ids.incrementAndGet(),
+                    "amount", checkout.get("amount"),
+                    "currency", checkout.get("currency"),
+                    "timestamp", Instant.now().toString(),
+                    "status", "SUCCESSFUL",
+                    "payment_type", paymentType));
+            checkout.put("status", "PAID");
+            checkout.put("transactions", List.of(transaction));
+        }
+        count("sumup.checkouts.processed");
+        String event = toJson(mapOf(
+                "eventType", "CHECKOUT_COMPLETED",
+                "eventId", UUID.randomUUID().toString(),
+                "timestamp", Instant.now().toString(),
+                "checkoutId", checkout.get("id"),
+                "checkoutReference", checkout.get("checkout_reference"),
+                "amount", checkout.get("amount"),
+                "currency", checkout.get("currency"),
+                "status", "PAID",
+                "transactionId", transaction.get("id"),
+                "transactionCode", transaction.get("transaction_code")));
+        sendWebhook("sumup", "/api/sumup/webhook", event, 1);
+        synchronized (checkout) {
+            return ok(checkout);
+        }
+    }
+
+    /**
+     * Deliver a webhook to a path of the application, retrying failed deliveries with a growing delay as the
+     * gateways do.
+     */
+    private void sendWebhook(String gateway, String path, String json, int attempt) {
+        if (appBaseUrl == null) {
+            return;
+        }
+        String url = appBaseUrl + path;
+        if (attempt == 1 && webhookDropRate > 0 && ThreadLocalRandom.current().nextDouble() < webhookDropRate) {
+            count(gateway + ".webhooks.dropped");
+            return;
+        }
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .timeout(Duration.ofSeconds(10))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json))
+                .build();
+        webhookClient.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                .whenComplete((response, error) -> {
+                    if (error == null && response.statusCode() / 100 == 2) {
+                        count(gateway + ".webhooks.delivered");
+                    } else if (attempt < WEBHOOK_ATTEMPTS) {
+                        count(gateway + ".webhooks.retried");
+                        scheduler.schedule(() -> sendWebhook(gateway, path, json, attempt + 1), attempt, TimeUnit.SECONDS);
+                    } else {
+                        count(gateway + ".webhooks.failed");
+                        System.out.println("[DEBUG_LOG] Gave up on " + gateway + " webhook to " + url + ": "
+                                + (error != null ? error : "HTTP " + response.statusCode()));
+                    }
+                });
+    }
+
+    private void scheduleAutoComplete(Runnable completion) {
+        long delay = autoCompleteMs;
+        if (delay >= 0) {
+            scheduler.schedule(completion, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void handleControl(HttpExchange exchange, String method, String path) throws IOException {
+        if (path.equals("/standin/stats")) {
+            Map<String, Object> counts = new java.util.TreeMap<>();
+            stats.forEach((key, value) -> counts.put(key, value.get()));
+            respond(exchange, 200, "application/json", toJson(counts));
+            return;
+        }
+        if (path.equals("/standin/config") && method.equals("POST")) {
+            configure(parseForm(exchange.getRequestURI().getRawQuery()));
+        }
+        if (path.equals("/standin/config")) {
+            respond(exchange, 200, "application/json", config());
+            return;
+        }
+        respond(exchange, 404, "text/plain", "Not found");
+    }
+
+    private String config() {
+        return toJson(mapOf("latencyMs", latencyMs, "jitterMs", jitterMs, "errorRate", errorRate,
+                "errorStatus", errorStatus, "autoCompleteMs", autoCompleteMs, "webhookDropRate", webhookDropRate));
+    }
+
+    private static String[] ok(Map<String, Object> object) {
+        synchronized (object) {
+            return new String[] {"200", toJson(object)};
+        }
+    }
+
+    private static String stripeError(String type, String message) {
+        return "{\"error\": {\"type\": \"" + type + "\", \"message\": \"" + message + "\"}}";
+    }
+
+    private void respond(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", contentType);
+        exchange.getResponseHeaders().add("Request-Id", "req_" + requestIds.incrementAndGet());
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    private void count(String key) {
+        stats.computeIfAbsent(key, k -> new AtomicLong()).incrementAndGet();
+    }
+
+    /**
+     * Stripe form parameters: keys keep their brackets, e.g. line_items[0][quantity].
+     */
+    private static Map<String, String> parseForm(String body) {
+        Map<String, String> form = new LinkedHashMap<>();
+        if (body == null || body.isEmpty()) {
+            return form;
+        }
+        for (String pair : body.split("&")) {
+            String[] parts = pair.split("=", 2);
+            form.put(URLDecoder.decode(parts[0], StandardCharsets.UTF_8),
+                    parts.length > 1 ? URLDecoder.decode(parts[1], StandardCharsets.UTF_8) : "");
+        }
+        return form;
+    }
+
+    private static Map<String, Object> metadata(Map<String, String> form, String prefix) {
+        Map<String, Object> metadata = new LinkedHashMap<>();
+        form.forEach((key, value) -> {
+            if (key.startsWith(prefix + "[") && key.endsWith("]") && key.indexOf('[', prefix.length() + 1) < 0) {
+                metadata.put(key.substring(prefix.length() + 1, key.length() - 1), value);
+            }
+        });
+        return metadata;
+    }
+
+    /**
+     * The top-level string and number fields of a flat JSON object.
+     */
+    private static Map<String, String> parseJson(String json) {
+        Map<String, String> fields = new LinkedHashMap<>();
+        Matcher matcher = JSON_FIELD.matcher(json);
+        while (matcher.find()) {
+            fields.putIfAbsent(matcher.group(1), matcher.group(3) != null ? matcher.group(3) : matcher.group(2));
+        }
+        return fields;
+    }
+
+    /**
+     * A SumUp object with its snake_case fields, plus the camelCase names the application's SumUp models read.
+     */
+    private static Map<String, Object> sumUp(Map<String, Object> fields) {
+        Map<String, Object> object = new LinkedHashMap<>(fields);
+        fields.forEach((key, value) -> {
+            if (key.contains("_")) {
+                Matcher matcher = Pattern.compile("_([a-z])").matcher(key);
+                object.put(matcher.replaceAll(match -> match.group(1).toUpperCase()), value);
+            }
+        });
+        return object;
+    }
+
+    private static Map<String, Object> mapOf(Object... keysAndValues) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            map.put((String) keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return map;
+    }
+
+    private static String toJson(Object value) {
+        if (value == null) {
+            return "null";
+        }
+        if (value instanceof Number || value instanceof Boolean) {
+            return value.toString();
+        }
+        if (value instanceof Map<?, ?> map) {
+            StringBuilder json = new StringBuilder("{");
+            map.forEach((key, item) -> json.append(json.length() > 1 ? ", " : "")
+                    .append(toJson(String.valueOf(key))).append(": ").append(toJson(item)));
+            return json.append("}").toString();
+        }
+        if (value instanceof List<?> list) {
+            StringBuilder json = new StringBuilder("[");
+            list.forEach(item -> json.append(json.length() > 1 ? ", " : "").append(toJson(item)));
+            return json.append("]").toString();
+        }
+        return "\"" + value.toString().replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+}
@@ -0,0 +1,153 @@
+package com.execodex.demolocalai.client
+
+import com.execodex.demolocalai.service.PaymentGatewayUnavailableException
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.stripe.exception.InvalidRequestException
+import com.stripe.param.PaymentIntentCreateParams
+import com.stripe.param.PaymentIntentListParams
+import com.stripe.param.checkout.SessionCreateParams
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Test
+import org.springframework.web.reactive.function.client.WebClient
+import reactor.core.publisher.Flux
+import reactor.test.StepVerifier
+import java.time.Duration
+import java.util.concurrent.ConcurrentHashMap
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+/**
+ * Runs [StripeClient] against a local [PaymentGatewayStandIn].
+ */
+class StripeClientTest {
+
+    private val standIn = PaymentGatewayStandIn(0, null)
+    private val client = StripeClient(
+        WebClient.builder(), ObjectMapper(), "sk_test_client", standIn.baseUrl,
+        maxConnections = CONCURRENT_CHECKOUTS, pendingAcquireMaxCount = 1000, pendingAcquireTimeoutMs = 5000,
+        maxIdleTimeMs = 20000, connectTimeoutMs = 5000, readTimeoutMs = 15000
+    )
+
+    @AfterEach
+    fun close() {
+        client.shutdown()
+        standIn.close()
+    }
+
+    @Test
+    fun `concurrent checkout creations are in flight at once without a thread each`() {
+        standIn.configure(mapOf("latencyMs" to "1000"))
+        val threads = ConcurrentHashMap.newKeySet<String>()
+
+        val sessions = Flux.range(1, CONCURRENT_CHECKOUTS)
+            .flatMap({ id ->
+                client.createCheckoutSession(checkout(id), "checkout-$id").doOnNext { threads.add(Thread.currentThread().name) }
+            }, CONCURRENT_CHECKOUTS)
+            .collectList()
+            .block(Duration.ofSeconds(30))!!
+
+        assertEquals(CONCURRENT_CHECKOUTS, sessions.map { it.id }.toSet().size)
+        assertEquals(CONCURRENT_CHECKOUTS, standIn.requests.size)
+        assertTrue(standIn.requests.all { it.authorization == "Bearer sk_test_client" })
+        assertEquals(CONCURRENT_CHECKOUTS, standIn.requests.mapNotNull { it.idempotencyKey }.toSet().size)
+        assertTrue(standIn.requests.first().body.contains("metadata[orderId]="), standIn.requests.first().body)
+        // Calls of a second each overlap by the hundreds (the stand-in accepts connections on a single thread, so
+        // not all 500 at once), yet complete on the few reactor-netty event loop threads
+        assertTrue(standIn.peakInFlight >= CONCURRENT_CHECKOUTS / 5, "Peak in flight: ${standIn.peakInFlight}")
+        assertTrue(threads.all { it.startsWith("reactor-http-") }, "Completed on $threads")
+        assertTrue(threads.size <= maxOf(Runtime.getRuntime().availableProcessors(), 4), "Completed on $threads")
+    }
+
+    @Test
+    fun `creations carry an idempotency key that changes with the request`() {
+        client.createCheckoutSession(checkout(1), "checkout-order-1").block(Duration.ofSeconds(10))
+        client.createCheckoutSession(checkout(1), "checkout-order-1").block(Duration.ofSeconds(10))
+        client.createCheckoutSession(checkout(2), "checkout-order-1").block(Duration.ofSeconds(10))
+
+        val keys = standIn.requests.map { it.idempotencyKey!! }
+        assertTrue(keys.all { it.startsWith("checkout-order-1-") }, "Keys: $keys")
+        assertEquals(keys[0], keys[1])
+        assertTrue(keys[2] != keys[0], "Keys: $keys")
+    }
+
+    @Test
+    fun `payment intent lists send their parameters in the query string`() {
+        val intentIds = (1..4).map { orderId ->
+            client.createPaymentIntent(paymentIntent(orderId), "payment-intent-$orderId").block(Duration.ofSeconds(10))!!.id
+        }
+        standIn.requests.clear()
+        val params = PaymentIntentListParams.builder()
+            .setLimit(2L)
+            .setStartingAfter(intentIds.last())
+            .setCreated(PaymentIntentListParams.Created.builder().setGte(1_700_000_000L).build())
+            .build()
+
+        val page = client.listPaymentIntents(params).block(Duration.ofSeconds(10))!!
+
+        // Newest first, after the newest
+        assertEquals(listOf(intentIds[2], intentIds[1]), page.data.map { it.id })
+        assertEquals("3", page.data.first().metadata["orderId"])
+        assertTrue(page.hasMore)
+        val request = standIn.requests.single()
+        assertEquals("GET", request.method)
+        assertEquals("2", request.param("limit"))
+        assertEquals(intentIds.last(), request.param("starting_after"))
+        assertEquals("1700000000", request.param("created[gte]"))
+    }
+
+    @Test
+    fun `stripe request errors become stripe exceptions`() {
+        standIn.failWith(400, """{"error": {"type": "invalid_request_error", "param": "line_items", "message": "Missing line_items"}}""")
+
+        StepVerifier.create(client.createCheckoutSession(checkout(1), "checkout-1"))
+            .expectErrorMatches { it is InvalidRequestException && it.param == "line_items" && it.statusCode == 400 }
+            .verify()
+    }
+
+    @Test
+    fun `stripe outages and unreachable stripe become gateway unavailable`() {
+        standIn.failWith(503, """{"error": {"type": "api_error", "message": "Service unavailable"}}""")
+
+        StepVerifier.create(client.retrievePaymentIntent("pi_test"))
+            .expectError(PaymentGatewayUnavailableException::class.java)
+            .verify()
+
+        standIn.close()
+        StepVerifier.create(client.retrievePaymentIntent("pi_test"))
+            .expectError(PaymentGatewayUnavailableException::class.java)
+            .verify()
+    }
+
+    private fun paymentIntent(orderId: Int): PaymentIntentCreateParams =
+        PaymentIntentCreateParams.builder()
+            .setAmount(500)
+            .setCurrency("eur")
+            .putMetadata("orderId", orderId.toString())
+            .build()
+
+    private fun checkout(orderId: Int): SessionCreateParams =
+        SessionCreateParams.builder()
+            .setMode(SessionCreateParams.Mode.PAYMENT)
+            .setSuccessUrl("http://localhost/ok")
+            .setCancelUrl("http://localhost/ko")
+            .putMetadata("orderId", orderId.toString())
+            .addLineItem(
+                SessionCreateParams.LineItem.builder()
+                    .setQuantity(1)
+                    .setPriceData(
+                        SessionCreateParams.LineItem.PriceData.builder()
+                            .setCurrency("eur")
+                            .setUnitAmount(500)
+                            .setProductData(
+                                SessionCreateParams.LineItem.PriceData.ProductData.builder().setName("Red Onion").build()
+                            )
+                            .build()
+                    )
+                    .build()
+            )
+            .build()
+
+    companion object {
+        private const val CONCURRENT_CHECKOUTS = 500
+    }
+}
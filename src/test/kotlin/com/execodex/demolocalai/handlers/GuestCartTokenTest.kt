@@ -0,0 +1,69 @@
+package com.execodex.demolocalai.handlers
+
+import org.junit.jupiter.api.Test
+import java.util.Base64
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+
+/**
+ * Runs [GuestCartToken] round trips, and checks that tampered, expired and oversized tokens read as empty carts.
+ */
+class GuestCartTokenTest {
+
+    private val tokens = GuestCartToken(SECRET, maxItems = 3, maxQuantity = 99, maxAgeDays = 30)
+
+    @Test
+    fun `a token reads back as the cart it was encoded from`() {
+        val lines = mapOf(4L to 2, 9L to 99, Long.MAX_VALUE to 1)
+
+        assertEquals(lines, tokens.decode(tokens.encode(lines)))
+    }
+
+    @Test
+    fun `tampered tokens read as empty carts`() {
+        val token = tokens.encode(mapOf(4L to 2))
+        val payload = token.substringBefore('.')
+        val signature = token.substringAfter('.')
+        val forged = Base64.getUrlEncoder().withoutPadding().encodeToString(
+            String(Base64.getUrlDecoder().decode(payload)).replace("4:2", "4:9").toByteArray()
+        )
+
+        assertEquals(emptyMap(), tokens.decode("$forged.$signature"))
+        assertEquals(emptyMap(), tokens.decode("$payload.${signature.reversed()}"))
+        assertEquals(emptyMap(), tokens.decode(payload))
+        assertEquals(emptyMap(), GuestCartToken("another secret", 3, 99, 30).decode(token))
+    }
+
+    @Test
+    fun `expired tokens read as empty carts`() {
+        val expiring = GuestCartToken(SECRET, maxItems = 3, maxQuantity = 99, maxAgeDays = 0)
+
+        assertEquals(emptyMap(), expiring.decode(expiring.encode(mapOf(4L to 2))))
+    }
+
+    @Test
+    fun `raised limits keep full carts readable`() {
+        val large = GuestCartToken(SECRET, maxItems = 500, maxQuantity = 99_999, maxAgeDays = 30)
+        val lines = (1..500).associate { Long.MAX_VALUE - it to 99_999 }
+
+        val token = large.encode(lines)
+
+        assertEquals(lines, large.decode(token))
+        assertEquals(emptyMap(), tokens.decode(token))
+    }
+
+    @Test
+    fun `carts over the limits are neither issued nor read`() {
+        val wide = GuestCartToken(SECRET, maxItems = 4, maxQuantity = 99, maxAgeDays = 30)
+        val lines = (1L..4L).associateWith { 1 }
+
+        assertFailsWith<IllegalArgumentException> { tokens.encode(lines) }
+        assertFailsWith<IllegalArgumentException> { tokens.encode(mapOf(4L to 100)) }
+        assertEquals(emptyMap(), tokens.decode(wide.encode(lines)))
+        assertEquals(emptyMap(), tokens.decode("a".repeat(10_000) + "." + "b".repeat(43)))
+    }
+
+    companion object {
+        private const val SECRET = "guest cart test secret"
+    }
+}
@@ -0,0 +1,143 @@
+package com.execodex.demolocalai.handlers
+
+import com.execodex.demolocalai.entities.Order
+import com.execodex.demolocalai.repositories.EmbeddedDatabase
+import com.execodex.demolocalai.repositories.IdempotencyKeyRepository
+import com.execodex.demolocalai.repositories.TestDatabase
+import com.execodex.demolocalai.service.IdempotencyService
+import com.fasterxml.jackson.databind.ObjectMapper
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+import org.springframework.mock.web.reactive.function.server.MockServerRequest
+import org.springframework.web.reactive.function.server.EntityResponse
+import org.springframework.web.reactive.function.server.ServerResponse
+import reactor.core.publisher.Mono
+import reactor.core.publisher.Sinks
+import java.math.BigDecimal
+import java.time.Duration
+import java.time.LocalDateTime
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertNull
+
+/**
+ * Runs [IdempotentOrderResponder] with an [IdempotencyService] over an [EmbeddedDatabase]. Two services stand
+ * for two instances of the application sharing the `idempotency_keys` table.
+ */
+class IdempotentOrderResponderTest {
+
+    private val objectMapper = ObjectMapper().findAndRegisterModules()
+    private val responder = IdempotentOrderResponder(idempotencyService(), objectMapper)
+    private val otherInstance = IdempotentOrderResponder(idempotencyService(), objectMapper)
+    private val creations = AtomicInteger()
+
+    @Test
+    fun `a retry gets the first response back, marked as replayed`() {
+        val key = "replay"
+
+        val first = responder.respond(request(key), SCOPE, REQUEST) { create(Mono.just(ORDER)) }.block(TIMEOUT)!!
+        val retry = responder.respond(request(key), SCOPE, REQUEST) { create(Mono.just(ORDER)) }.block(TIMEOUT)!!
+        val retryElsewhere = otherInstance.respond(request(key), SCOPE, REQUEST) { create(Mono.just(ORDER)) }.block(TIMEOUT)!!
+
+        assertEquals(1, creations.get())
+        assertEquals(201, first.statusCode().value())
+        assertNull(first.headers().getFirst(IdempotentOrderResponder.REPLAYED_HEADER))
+        for (response in listOf(retry, retryElsewhere)) {
+            assertEquals(201, response.statusCode().value())
+            assertEquals("true", response.headers().getFirst(IdempotentOrderResponder.REPLAYED_HEADER))
+            assertEquals("/orders/42", response.headers().location.toString())
+            assertEquals(body(first), body(response))
+        }
+    }
+
+    @Test
+    fun `a key reused for another request is rejected`() {
+        val key = "reused"
+        responder.respond(request(key), SCOPE, REQUEST) { create(Mono.just(ORDER)) }.block(TIMEOUT)
+
+        val other = mapOf("productId" to 7, "quantity" to 3)
+        val reused = responder.respond(request(key), SCOPE, other) { create(Mono.just(ORDER)) }.block(TIMEOUT)!!
+        val reusedElsewhere = otherInstance.respond(request(key), SCOPE, other) { create(Mono.just(ORDER)) }.block(TIMEOUT)!!
+
+        assertEquals(1, creations.get())
+        assertEquals(422, reused.statusCode().value())
+        assertEquals(422, reusedElsewhere.statusCode().value())
+    }
+
+    @Test
+    fun `a duplicate sent while the first request runs waits for its response`() {
+        val key = "concurrent"
+        val order = Sinks.one<Order>()
+
+        val first = responder.respond(request(key), SCOPE, REQUEST) { create(order.asMono()) }.toFuture()
+        waitForClaim(key)
+        val duplicate = responder.respond(request(key), SCOPE, REQUEST) { create(Mono.just(ORDER)) }.toFuture()
+        val duplicateElsewhere = otherInstance.respond(request(key), SCOPE, REQUEST) { create(Mono.just(ORDER)) }.toFuture()
+        Thread.sleep(200)
+        assertFalse(duplicate.isDone || duplicateElsewhere.isDone)
+
+        order.tryEmitValue(ORDER)
+
+        assertEquals(201, first.get().statusCode().value())
+        for (response in listOf(duplicate.get(), duplicateElsewhere.get())) {
+            assertEquals(201, response.statusCode().value())
+            assertEquals("true", response.headers().getFirst(IdempotentOrderResponder.REPLAYED_HEADER))
+        }
+        assertEquals(1, creations.get())
+    }
+
+    @Test
+    fun `a duplicate that outwaits the first request is told it is still in progress`() {
+        val key = "in-flight"
+        val impatient = IdempotentOrderResponder(idempotencyService(waitTimeoutMs = 300), objectMapper)
+
+        val first = responder.respond(request(key), SCOPE, REQUEST) { create(Mono.never()) }.subscribe()
+        try {
+            waitForClaim(key)
+            val duplicate = impatient.respond(request(key), SCOPE, REQUEST) { create(Mono.just(ORDER)) }.block(TIMEOUT)!!
+
+            assertEquals(409, duplicate.statusCode().value())
+            assertEquals(1, creations.get())
+        } finally {
+            first.dispose()
+        }
+    }
+
+    private fun create(order: Mono<Order>): Mono<Order> = order.doOnSubscribe { creations.incrementAndGet() }
+
+    private fun waitForClaim(key: String) {
+        val deadline = System.nanoTime() + TIMEOUT.toNanos()
+        while (database.query("SELECT count(*) FROM idempotency_keys WHERE idempotency_key = '$key'", java.lang.Long::class.java)
+                .single().toLong() == 0L && System.nanoTime() < deadline
+        ) {
+            Thread.sleep(10)
+        }
+    }
+
+    private fun body(response: ServerResponse): Any? = (response as EntityResponse<*>).entity()
+
+    private fun request(key: String): MockServerRequest =
+        MockServerRequest.builder().header(IdempotentOrderResponder.IDEMPOTENCY_KEY_HEADER, key).build()
+
+    private fun idempotencyService(waitTimeoutMs: Long = 10_000) = IdempotencyService(
+        IdempotencyKeyRepository(database.databaseClient), SimpleMeterRegistry(),
+        ttlHours = 24, leaseSeconds = 60, cacheSize = 100, waitTimeoutMs = waitTimeoutMs, pollIntervalMs = 20, purgeBatchSize = 100
+    )
+
+    companion object {
+        private const val SCOPE = "orders"
+        private val TIMEOUT = Duration.ofSeconds(30)
+        private val REQUEST = mapOf("productId" to 7, "quantity" to 2)
+        private val ORDER = Order(id = 42, userId = 1, totalAmount = BigDecimal("9.50"), orderDate = LocalDateTime.now())
+
+        private lateinit var database: TestDatabase
+
+        @BeforeAll
+        @JvmStatic
+        fun createDatabase() {
+            database = EmbeddedDatabase.create()
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.execodex.demolocalai.handlers
+
+import org.junit.jupiter.api.Test
+import org.springframework.mock.web.reactive.function.server.MockServerRequest
+import java.net.URI
+import java.time.Duration
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertNull
+
+/**
+ * Runs [KeysetPage] on mock requests, following the next-page headers it writes.
+ */
+class KeysetPageTest {
+
+    @Test
+    fun `the next-page headers lead to the rows after the page`() {
+        val first = KeysetPage.from(request("/products?limit=2"))
+        assertEquals(KeysetPage(afterId = 0, limit = 2), first)
+
+        val response = first.toResponse(request("/products?limit=2"), listOf(3L, 7L, 9L)) { it }.block(TIMEOUT)!!
+
+        val cursor = response.headers().getFirst(KeysetPage.NEXT_CURSOR_HEADER)!!
+        assertEquals(7L, KeysetPage.decodeCursor(cursor))
+        val link = response.headers().getFirst("Link")!!
+        val next = URI.create(link.substringAfter('<').substringBefore('>'))
+        assertEquals("rel=\"next\"", link.substringAfter("; "))
+        assertEquals(KeysetPage(afterId = 7, limit = 2), KeysetPage.from(request(next.toString())))
+    }
+
+    @Test
+    fun `the last page has no next-page headers`() {
+        val page = KeysetPage.from(request("/products?after=${KeysetPage.encodeCursor(7)}&limit=2"))
+
+        val response = page.toResponse(request("/products"), listOf(9L, 12L)) { it }.block(TIMEOUT)!!
+
+        assertNull(response.headers().getFirst(KeysetPage.NEXT_CURSOR_HEADER))
+        assertNull(response.headers().getFirst("Link"))
+    }
+
+    @Test
+    fun `a request without parameters gets the default limit`() {
+        assertEquals(KeysetPage(afterId = 0, limit = KeysetPage.DEFAULT_LIMIT), KeysetPage.from(request("/products")))
+    }
+
+    @Test
+    fun `malformed cursors and limits are rejected`() {
+        assertFailsWith<IllegalArgumentException> { KeysetPage.from(request("/products?after=not-a-cursor")) }
+        assertFailsWith<IllegalArgumentException> { KeysetPage.from(request("/products?after=${KeysetPage.encodeCursor(7).drop(1)}")) }
+        assertFailsWith<IllegalArgumentException> { KeysetPage.from(request("/products?limit=0")) }
+        assertFailsWith<IllegalArgumentException> { KeysetPage.from(request("/products?limit=${KeysetPage.MAX_LIMIT + 1}")) }
+    }
+
+    private fun request(uri: String): MockServerRequest {
+        val url = URI.create("http://localhost$uri")
+        val builder = MockServerRequest.builder().uri(url)
+        url.query?.split('&')?.forEach { parameter ->
+            builder.queryParam(parameter.substringBefore('='), parameter.substringAfter('='))
+        }
+        return builder.build()
+    }
+
+    companion object {
+        private val TIMEOUT = Duration.ofSeconds(5)
+    }
+}
@@ -0,0 +1,121 @@
+package com.execodex.demolocalai.repositories
+
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+import java.time.Duration
+import java.time.LocalDateTime
+import kotlin.test.assertEquals
+
+/**
+ * Runs the reservation expiry statement of [InventoryRepository] on an [EmbeddedDatabase].
+ */
+class InventoryRepositoryTest {
+
+    private val inventoryRepository = InventoryRepository(database.databaseClient, database.template.converter)
+
+    @Test
+    fun `orders with more reservations than the batch are cancelled and restocked whole`() {
+        val products = (1..3).map { product(stock = 7) }
+        val first = pendingOrder(products.associateWith { 3 }, expiresAt = LocalDateTime.now().minusMinutes(1))
+        val second = pendingOrder(mapOf(products[0] to 2), expiresAt = LocalDateTime.now().minusMinutes(1))
+
+        val firstBatch = inventoryRepository.expireReservations(LocalDateTime.now(), 1).collectList().block(TIMEOUT)!!
+
+        assertEquals(products.toSet(), firstBatch.map { it.first.id }.toSet())
+        assertEquals(listOf(first), firstBatch.first().second)
+        assertEquals(listOf(10, 10, 10), products.map { stockOf(it) })
+        assertEquals(listOf("RELEASED"), reservationStatuses(first).distinct())
+        assertEquals("CANCELLED", orderStatus(first))
+        assertEquals(listOf("PENDING"), database.query("SELECT from_status FROM order_status_history WHERE order_id = $first", String::class.java))
+        assertEquals("PENDING", orderStatus(second))
+
+        val secondBatch = inventoryRepository.expireReservations(LocalDateTime.now(), 1).collectList().block(TIMEOUT)!!
+
+        assertEquals(listOf(second), secondBatch.single().second)
+        assertEquals(listOf(12, 10, 10), products.map { stockOf(it) })
+        assertEquals("CANCELLED", orderStatus(second))
+    }
+
+    @Test
+    fun `an order paid while expiry runs keeps its stock`() {
+        val product = product(stock = 7)
+        val order = pendingOrder(mapOf(product to 3), expiresAt = LocalDateTime.now().minusMinutes(1))
+
+        database.jdbc { payment ->
+            payment.autoCommit = false
+            payment.createStatement().use { it.execute("SELECT id FROM orders WHERE id = $order FOR UPDATE") }
+
+            val expiry = inventoryRepository.expireReservations(LocalDateTime.now(), 10).collectList().toFuture()
+            // The payment commits once the expiry has run into its lock, or got past it
+            val deadline = System.nanoTime() + TIMEOUT.toNanos()
+            while (!expiry.isDone && !waitingOnLock() && System.nanoTime() < deadline) {
+                Thread.sleep(10)
+            }
+
+            payment.createStatement().use { statement ->
+                statement.execute("UPDATE orders SET status = 'PAID' WHERE id = $order")
+                statement.execute("UPDATE inventory_reservations SET status = 'COMMITTED' WHERE order_id = $order")
+            }
+            payment.commit()
+            assertEquals(emptyList(), expiry.get().filter { order in it.second })
+        }
+
+        assertEquals(7, stockOf(product))
+        assertEquals("PAID", orderStatus(order))
+        assertEquals(listOf("COMMITTED"), reservationStatuses(order))
+    }
+
+    private fun waitingOnLock(): Boolean =
+        database.query(
+            "SELECT count(*) FROM pg_stat_activity WHERE datname = current_database() AND wait_event_type = 'Lock'",
+            java.lang.Long::class.java
+        ).single().toLong() > 0
+
+    private fun product(stock: Int): Long {
+        val sku = "SKU-${products++}"
+        return database.query(
+            "INSERT INTO products (sku, name, price, quantity) VALUES ('$sku', 'Onion $sku', 1.00, $stock) RETURNING id",
+            java.lang.Long::class.java
+        ).single().toLong()
+    }
+
+    /**
+     * A pending order with an active reservation of each given quantity per product ID.
+     */
+    private fun pendingOrder(quantities: Map<Long, Int>, expiresAt: LocalDateTime): Long {
+        val order = database.query(
+            "INSERT INTO orders (user_id, total_amount) VALUES ($userId, 10) RETURNING id", java.lang.Long::class.java
+        ).single().toLong()
+        database.execute(*quantities.map { (productId, quantity) ->
+            "INSERT INTO inventory_reservations (order_id, product_id, quantity, expires_at) VALUES ($order, $productId, $quantity, '$expiresAt')"
+        }.toTypedArray())
+        return order
+    }
+
+    private fun stockOf(productId: Long): Int =
+        database.query("SELECT quantity FROM products WHERE id = $productId", Integer::class.java).single().toInt()
+
+    private fun orderStatus(orderId: Long): String =
+        database.query("SELECT status FROM orders WHERE id = $orderId", String::class.java).single()
+
+    private fun reservationStatuses(orderId: Long): List<String> =
+        database.query("SELECT status FROM inventory_reservations WHERE order_id = $orderId ORDER BY id", String::class.java)
+
+    companion object {
+        private val TIMEOUT = Duration.ofSeconds(30)
+
+        private lateinit var database: TestDatabase
+        private var userId = 0L
+        private var products = 0
+
+        @BeforeAll
+        @JvmStatic
+        fun createDatabase() {
+            database = EmbeddedDatabase.create()
+            userId = database.query(
+                "INSERT INTO users (username, password, email) VALUES ('inventory', 'x', 'inventory@example.com') RETURNING id",
+                java.lang.Long::class.java
+            ).single().toLong()
+        }
+    }
+}
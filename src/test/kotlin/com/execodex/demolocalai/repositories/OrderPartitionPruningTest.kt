@@ -0,0 +1,270 @@
+package com.execodex.demolocalai.repositories
+
+import com.execodex.demolocalai.entities.OrderStatus
+import io.r2dbc.spi.Connection
+import io.r2dbc.spi.ConnectionFactory
+import io.r2dbc.spi.Statement
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.reactivestreams.Publisher
+import org.springframework.data.r2dbc.core.R2dbcEntityTemplate
+import org.springframework.data.r2dbc.dialect.PostgresDialect
+import org.springframework.data.r2dbc.repository.support.R2dbcRepositoryFactory
+import org.springframework.r2dbc.core.DatabaseClient
+import reactor.core.publisher.Flux
+import reactor.core.publisher.Mono
+import java.lang.reflect.InvocationTargetException
+import java.lang.reflect.Method
+import java.lang.reflect.Proxy
+import java.sql.DriverManager
+import java.time.Duration
+import java.time.LocalDateTime
+import java.time.YearMonth
+import java.time.format.DateTimeFormatter
+import java.util.concurrent.CopyOnWriteArrayList
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+/**
+ * Checks with EXPLAIN that the statements the repositories send, bounded by order date, only read the monthly
+ * partitions of their range.
+ *
+ * Runs on an [EmbeddedDatabase]. The repositories run on a connection factory that records each statement and its bindings; the test then
+ * replays the recorded statement under EXPLAIN.
+ */
+class OrderPartitionPruningTest {
+
+    private val month = YearMonth.now()
+    private val from = month.atDay(1)
+    private val until = month.plusMonths(1).atDay(1)
+    private val suffix = month.format(DateTimeFormatter.ofPattern("yyyyMM"))
+
+    private val databaseClient = DatabaseClient.create(recording(connectionFactory))
+    private val template = R2dbcEntityTemplate(databaseClient, PostgresDialect.INSTANCE)
+    private val orderRepository = R2dbcRepositoryFactory(template).getRepository(OrderRepository::class.java)
+
+    @BeforeEach
+    fun clearStatements() {
+        statements.clear()
+    }
+
+    @Test
+    fun `user history within a month reads one orders partition`() {
+        orderRepository.findByUserIdInRange(1, from.atStartOfDay(), until.atStartOfDay()).collectList().block(TIMEOUT)
+
+        val plan = explain(statements.single())
+
+        assertEquals(setOf("orders_p$suffix"), scannedPartitions(plan), plan)
+    }
+
+    @Test
+    fun `generic plans prune partitions when the range is bound at execution`() {
+        orderRepository.findByUserIdInRange(1, from.atStartOfDay(), until.atStartOfDay()).collectList().block(TIMEOUT)
+
+        val plan = explainGenericPlan(statements.single())
+
+        assertTrue(plan.contains("Subplans Removed"), plan)
+        assertEquals(setOf("orders_p$suffix"), scannedPartitions(plan), plan)
+    }
+
+    @Test
+    fun `order export of a month reads one partition of each table`() {
+        OrderExportRepository(databaseClient, fetchSize = 100)
+            .stream(from.atStartOfDay(), until.atStartOfDay()).collectList().block(TIMEOUT)
+
+        val plan = explain(statements.single())
+
+        assertEquals(setOf("orders_p$suffix", "order_details_p$suffix"), scannedPartitions(plan), plan)
+    }
+
+    @Test
+    fun `rollup rebuild of a month reads one partition of each table`() {
+        SalesRollupRepository(databaseClient).insertRange(from, until).block(TIMEOUT)
+
+        val plan = explain(statements.single())
+
+        assertEquals(setOf("orders_p$suffix", "order_details_p$suffix"), scannedPartitions(plan), plan)
+    }
+
+    @Test
+    fun `single order status transition updates the partition of the order only`() {
+        OrderStatusRepository(databaseClient, template.converter)
+            .transition(ORDER_ID, listOf(OrderStatus.PENDING), OrderStatus.PAID, null).block(TIMEOUT)
+
+        val plan = withOrder(ORDER_ID, from.plusDays(1).atStartOfDay()) { explainAnalyze(statements.single()) }
+
+        // The order is looked up by id in every partition; the update only runs on the order's partition
+        val update = plan.substring(plan.indexOf("CTE updated"), plan.indexOf("CTE history"))
+        assertEquals(setOf("orders_p$suffix"), executedPartitions(update), plan)
+    }
+
+    @Test
+    fun `unbounded user history still reads every partition`() {
+        orderRepository.findByUserId(1).collectList().block(TIMEOUT)
+
+        val plan = explain(statements.single())
+
+        assertTrue(scannedPartitions(plan).containsAll(setOf("orders_p$suffix", "orders_default")), plan)
+    }
+
+    /**
+     * Run a recorded statement under EXPLAIN, with its recorded bindings.
+     */
+    private fun explain(recorded: RecordedStatement): String {
+        return Mono.usingWhen(connectionFactory.create(), { connection ->
+            val statement = connection.createStatement("EXPLAIN ${recorded.sql}")
+            recorded.bindings.forEach { (method, args) -> method.invoke(statement, *args) }
+            Flux.from(statement.execute())
+                .flatMap { result -> result.map { row, _ -> row.get(0, String::class.java)!! } }
+                .collectList()
+                .map { it.joinToString("\n") }
+        }, Connection::close).block(TIMEOUT)!!
+    }
+
+    /**
+     * Prepare a recorded statement and EXPLAIN its execution with the recorded bindings, under the generic plan
+     * a prepared statement gets once PostgreSQL stops planning it for each execution's parameters. Runs on JDBC,
+     * in simple query mode, as the drivers would otherwise take the parameter markers in `PREPARE` for their own.
+     */
+    private fun explainGenericPlan(recorded: RecordedStatement): String {
+        val url = database.jdbcUrl + "&preferQueryMode=simple"
+        return DriverManager.getConnection(url).use { connection ->
+            connection.createStatement().use { statement ->
+                statement.execute("SET plan_cache_mode = force_generic_plan")
+                statement.execute("PREPARE recorded AS ${recorded.sql}")
+            }
+            val parameters = PARAMETER.findAll(recorded.sql).map { it.groupValues[1].toInt() }.maxOrNull() ?: 0
+            connection.prepareStatement("EXPLAIN EXECUTE recorded(${(1..parameters).joinToString { "?" }})").use { statement ->
+                recorded.bindings.forEach { (method, args) ->
+                    statement.setObject((args[0] as Int) + 1, if (method.name == "bindNull") null else args[1])
+                }
+                statement.executeQuery().use { rows ->
+                    generateSequence { if (rows.next()) rows.getString(1) else null }.joinToString("\n")
+                }
+            }
+        }
+    }
+
+    /**
+     * Run a recorded statement under EXPLAIN ANALYZE, with its recorded bindings, in a transaction rolled back after.
+     */
+    private fun explainAnalyze(recorded: RecordedStatement): String {
+        return Mono.usingWhen(connectionFactory.create(), { connection ->
+            val statement = connection.createStatement("EXPLAIN (ANALYZE, COSTS OFF, TIMING OFF, SUMMARY OFF) ${recorded.sql}")
+            recorded.bindings.forEach { (method, args) -> method.invoke(statement, *args) }
+            Mono.from(connection.beginTransaction())
+                .thenMany(Flux.from(statement.execute()))
+                .flatMap { result -> result.map { row, _ -> row.get(0, String::class.java)!! } }
+                .collectList()
+                .map { it.joinToString("\n") }
+                .flatMap { plan -> Mono.from(connection.rollbackTransaction()).thenReturn(plan) }
+        }, Connection::close).block(TIMEOUT)!!
+    }
+
+    /**
+     * Run `block` with a pending order of a user stored, and delete them after.
+     */
+    private fun <T> withOrder(orderId: Long, orderDate: LocalDateTime, block: () -> T): T {
+        database.execute(
+            "INSERT INTO users (id, username, password, email) VALUES ($orderId, 'pruning', 'x', 'pruning@example.com')",
+            "INSERT INTO orders (id, user_id, total_amount, order_date) VALUES ($orderId, $orderId, 10, '$orderDate')"
+        )
+        try {
+            return block()
+        } finally {
+            database.execute("DELETE FROM orders WHERE id = $orderId", "DELETE FROM users WHERE id = $orderId")
+        }
+    }
+
+    private fun executedPartitions(plan: String): Set<String> =
+        EXECUTED_SCAN.findAll(plan).map { it.groupValues[1] }.toSet()
+
+    private fun scannedPartitions(plan: String): Set<String> =
+        PARTITION_SCAN.findAll(plan).map { it.groupValues[1] }.toSet()
+
+    /**
+     * A statement sent by a repository, with the calls that bound its parameters.
+     */
+    class RecordedStatement(val sql: String) {
+        val bindings = CopyOnWriteArrayList<Pair<Method, Array<Any?>>>()
+    }
+
+    companion object {
+        private val TIMEOUT = Duration.ofSeconds(30)
+        private val PARAMETER = Regex("""\$(\d+)""")
+        private val PARTITION_SCAN = Regex("""(?:Scan|Update)(?: using \S+)? on ((?:orders|order_details)_(?:p\d{6}|default))\b""")
+
+        private val EXECUTED_SCAN = Regex("""Scan(?: using \S+)? on ((?:orders|order_details)_(?:p\d{6}|default))\b[^\n]*\(actual""")
+        private const val ORDER_ID = 1L
+
+        private lateinit var database: TestDatabase
+        private lateinit var connectionFactory: ConnectionFactory
+        private val statements = CopyOnWriteArrayList<RecordedStatement>()
+
+        @BeforeAll
+        @JvmStatic
+        fun createDatabase() {
+            database = EmbeddedDatabase.create()
+            database.execute("SELECT ensure_order_partitions(0)")
+            connectionFactory = database.connectionFactory
+        }
+
+        /**
+         * A connection factory that records the statements created on its connections.
+         */
+        private fun recording(factory: ConnectionFactory): ConnectionFactory =
+            intercept(factory, ConnectionFactory::class.java) { method, _, result ->
+                if (method.name == "create") {
+                    @Suppress("UNCHECKED_CAST")
+                    Mono.from(result as Publisher<Connection>).map { connection ->
+                        intercept(connection, Connection::class.java) { connectionMethod, args, statement ->
+                            if (connectionMethod.name == "createStatement") {
+                                record(statement as Statement, args[0] as String)
+                            } else {
+                                statement
+                            }
+                        }
+                    }
+                } else {
+                    result
+                }
+            }
+
+        private fun record(statement: Statement, sql: String): Statement {
+            val recorded = RecordedStatement(sql)
+            statements.add(recorded)
+            return interceptCalls(statement, Statement::class.java) { method, args ->
+                if (method.name.startsWith("bind")) recorded.bindings.add(method to args)
+            }
+        }
+
+        private fun <T : Any> intercept(target: T, type: Class<T>, after: (Method, Array<Any?>, Any?) -> Any?): T =
+            proxy(target, type, { _, _ -> }, after)
+
+        private fun <T : Any> interceptCalls(target: T, type: Class<T>, before: (Method, Array<Any?>) -> Unit): T =
+            proxy(target, type, before) { _, _, result -> result }
+
+        /**
+         * A proxy of `target` that sees each call before and after it runs. Calls returning the target itself,
+         * as builder methods do, return the proxy instead.
+         */
+        private fun <T : Any> proxy(
+            target: T,
+            type: Class<T>,
+            before: (Method, Array<Any?>) -> Unit,
+            after: (Method, Array<Any?>, Any?) -> Any?
+        ): T {
+            return type.cast(Proxy.newProxyInstance(type.classLoader, arrayOf(type)) { proxy, method, args ->
+                val arguments = args ?: emptyArray()
+                before(method, arguments)
+                val result = try {
+                    method.invoke(target, *arguments)
+                } catch (e: InvocationTargetException) {
+                    throw e.targetException
+                }
+                if (result === target) proxy else after(method, arguments, result)
+            })
+        }
+    }
+}
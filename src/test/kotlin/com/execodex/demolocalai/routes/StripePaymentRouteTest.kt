@@ -0,0 +1,163 @@
+package com.execodex.demolocalai.routes
+
+import com.execodex.demolocalai.client.PaymentGatewayStandIn
+import com.execodex.demolocalai.entities.Order
+import com.execodex.demolocalai.entities.OrderStatus
+import com.execodex.demolocalai.pojos.OrderDetailItemResponse
+import com.execodex.demolocalai.pojos.OrderDetailResponse
+import com.execodex.demolocalai.pojos.OrderItemProductResponse
+import com.execodex.demolocalai.repositories.PaymentSessionRepository
+import com.execodex.demolocalai.service.OrderService
+import org.junit.jupiter.api.AfterAll
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.mockito.Mockito
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient
+import org.springframework.boot.test.context.SpringBootTest
+import org.springframework.boot.test.context.TestConfiguration
+import org.springframework.context.annotation.Bean
+import org.springframework.context.annotation.Primary
+import org.springframework.test.context.DynamicPropertyRegistry
+import org.springframework.test.context.DynamicPropertySource
+import org.springframework.test.web.reactive.server.WebTestClient
+import reactor.core.publisher.Mono
+import java.math.BigDecimal
+import java.time.LocalDateTime
+import java.util.concurrent.ConcurrentHashMap
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+/**
+ * Runs the payment routes on the real server against a local [PaymentGatewayStandIn].
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@AutoConfigureWebTestClient
+class StripePaymentRouteTest {
+
+    @Autowired
+    private lateinit var webTestClient: WebTestClient
+
+    @TestConfiguration
+    class TestConfig {
+        @Bean
+        @Primary
+        fun mockOrderService(): OrderService {
+            val order = Order(id = 1, userId = 1, totalAmount = BigDecimal("10.00"), orderDate = LocalDateTime.now())
+            // The stand-in names the payment intents, so confirming any payment of order 1 pays it
+            val mockService = Mockito.mock(OrderService::class.java) { invocation ->
+                if (invocation.method.name == "changeStatus" && invocation.arguments[0] == 1L) {
+                    Mono.just(order.copy(status = OrderStatus.PAID.name))
+                } else {
+                    null
+                }
+            }
+            Mockito.`when`(mockService.getOrderById(1)).thenReturn(Mono.just(order))
+            Mockito.`when`(mockService.getOrderDetail(1, true)).thenReturn(
+                Mono.just(
+                    OrderDetailResponse(
+                        id = 1, userId = 1, totalAmount = order.totalAmount, orderDate = order.orderDate, status = order.status,
+                        items = listOf(
+                            OrderDetailItemResponse(
+                                id = 1, productId = 1, quantity = 2, price = BigDecimal("5.00"),
+                                product = OrderItemProductResponse(name = "Red Onion", slug = "red-onion", imageUrl = null)
+                            )
+                        )
+                    )
+                )
+            )
+            return mockService
+        }
+
+        /**
+         * Keeps the stored payment sessions in memory.
+         */
+        @Bean
+        @Primary
+        fun inMemoryPaymentSessionRepository(): PaymentSessionRepository {
+            return Mockito.mock(PaymentSessionRepository::class.java) { invocation ->
+                val key = "${invocation.arguments.getOrNull(0)}/${invocation.arguments.getOrNull(1)}"
+                when (invocation.method.name) {
+                    "findOpen" -> Mono.justOrEmpty(sessions[key])
+                    "save" -> Mono.fromRunnable<Void> { sessions[key] = invocation.getArgument(4) }
+                    else -> Mono.empty<Any>()
+                }
+            }
+        }
+    }
+
+    @BeforeEach
+    fun reset() {
+        standIn.requests.clear()
+        sessions.clear()
+    }
+
+    @Test
+    fun `payment routes call stripe through the stripe client`() {
+        val intent = webTestClient.post().uri("/api/payments/create-intent")
+            .bodyValue(mapOf("orderId" to 1))
+            .exchange()
+            .expectStatus().isOk
+            .expectBody(Map::class.java).returnResult().responseBody!!
+        val intentId = intent["paymentIntentId"] as String
+        assertTrue((intent["clientSecret"] as String).startsWith("${intentId}_secret_"), "Client secret: ${intent["clientSecret"]}")
+        assertTrue(standIn.pay(intentId))
+        webTestClient.post().uri("/api/payments/confirm")
+            .bodyValue(mapOf("paymentIntentId" to intentId))
+            .exchange()
+            .expectStatus().isOk
+            .expectBody().jsonPath("$.status").isEqualTo(OrderStatus.PAID.name)
+        webTestClient.post().uri("/api/payments/create-checkout")
+            .bodyValue(mapOf("orderId" to 1, "successUrl" to "http://localhost/ok", "cancelUrl" to "http://localhost/ko"))
+            .exchange()
+            .expectStatus().isOk
+            .expectBody().jsonPath("$.checkoutUrl").exists()
+
+        val requests = standIn.requests.map { "${it.method} ${it.path}" }
+        assertEquals(listOf("POST /v1/payment_intents", "GET /v1/payment_intents/$intentId", "POST /v1/checkout/sessions"), requests)
+        assertTrue(standIn.requests.all { it.authorization == "Bearer sk_test_routes" })
+        assertTrue(standIn.requests.last().body.contains("line_items[0][quantity]=2"), standIn.requests.last().body)
+        assertTrue(standIn.requests.last().idempotencyKey!!.startsWith("checkout-session-order-1-"))
+    }
+
+    @Test
+    fun `repeated payment requests for an order reuse its open session`() {
+        val checkout = mapOf("orderId" to 1, "successUrl" to "http://localhost/paid", "cancelUrl" to "http://localhost/ko")
+        val sessionIds = (1..3).map {
+            webTestClient.post().uri("/api/payments/create-checkout")
+                .bodyValue(checkout)
+                .exchange()
+                .expectStatus().isOk
+                .expectBody(Map::class.java).returnResult().responseBody!!["sessionId"]
+        }
+        val intentIds = (1..2).map {
+            webTestClient.post().uri("/api/payments/create-intent")
+                .bodyValue(mapOf("orderId" to 1))
+                .exchange()
+                .expectStatus().isOk
+                .expectBody(Map::class.java).returnResult().responseBody!!["paymentIntentId"]
+        }
+
+        assertEquals(1, sessionIds.toSet().size)
+        assertEquals(1, intentIds.toSet().size)
+        assertEquals(listOf("POST /v1/checkout/sessions", "POST /v1/payment_intents"), standIn.requests.map { "${it.method} ${it.path}" })
+    }
+
+    companion object {
+        private val standIn = PaymentGatewayStandIn(0, null)
+        private val sessions = ConcurrentHashMap<String, String>()
+
+        @JvmStatic
+        @DynamicPropertySource
+        fun stripeProperties(registry: DynamicPropertyRegistry) {
+            registry.add("stripe.api.base-url") { standIn.baseUrl }
+            registry.add("stripe.api.secretKey") { "sk_test_routes" }
+        }
+
+        @JvmStatic
+        @AfterAll
+        fun stopStandIn() {
+            standIn.close()
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.execodex.demolocalai.service
+
+import com.execodex.demolocalai.entities.Order
+import com.execodex.demolocalai.entities.OrderStatus
+import com.execodex.demolocalai.repositories.CheckoutRepository
+import com.execodex.demolocalai.repositories.EmbeddedDatabase
+import com.execodex.demolocalai.repositories.InventoryRepository
+import com.execodex.demolocalai.repositories.KeysetStreamRepository
+import com.execodex.demolocalai.repositories.OrderDetailRepository
+import com.execodex.demolocalai.repositories.OrderItemRepository
+import com.execodex.demolocalai.repositories.OrderRepository
+import com.execodex.demolocalai.repositories.OrderStatusChangeRepository
+import com.execodex.demolocalai.repositories.OrderStatusRepository
+import com.execodex.demolocalai.repositories.ProductRepository
+import com.execodex.demolocalai.repositories.SalesRollupRepository
+import com.execodex.demolocalai.repositories.TestDatabase
+import com.execodex.demolocalai.repositories.UserRepository
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+import org.mockito.Mockito
+import org.springframework.data.r2dbc.repository.support.R2dbcRepositoryFactory
+import reactor.core.publisher.Mono
+import java.math.BigDecimal
+import java.time.Duration
+import java.time.LocalDateTime
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+
+/**
+ * Runs the status changes of [OrderService] against an [EmbeddedDatabase], with the real transition statements,
+ * sales rollups and stock reservations.
+ */
+class OrderServiceTest {
+
+    private val repositories = R2dbcRepositoryFactory(database.template)
+    private val orderRepository = repositories.getRepository(OrderRepository::class.java)
+    private val productRepository = Mockito.mock(ProductRepository::class.java) { Mono.empty<Any>() }
+    private val productCatalog = ProductCatalog(productRepository, SimpleMeterRegistry(), maxSize = 1000)
+    private val salesRollupService = SalesRollupService(
+        SalesRollupRepository(database.databaseClient), database.transactionalOperator, rebuildChunkDays = 7, maxRangeDays = 1100
+    )
+    private val inventoryService = InventoryService(
+        InventoryRepository(database.databaseClient, database.template.converter),
+        productCatalog,
+        salesRollupService,
+        database.transactionalOperator,
+        SimpleMeterRegistry(),
+        ttlMinutes = 30,
+        expiryBatchSize = 500
+    )
+    private val orderService = OrderService(
+        orderRepository,
+        Mockito.mock(OrderItemRepository::class.java),
+        productCatalog,
+        Mockito.mock(UserRepository::class.java),
+        Mockito.mock(KeysetStreamRepository::class.java),
+        Mockito.mock(OrderDetailRepository::class.java),
+        inventoryService,
+        salesRollupService,
+        Mockito.mock(CheckoutRepository::class.java),
+        OrderStatusRepository(database.databaseClient, database.template.converter),
+        repositories.getRepository(OrderStatusChangeRepository::class.java),
+        database.transactionalOperator
+    )
+
+    @Test
+    fun `an edit that keeps a pending order pending updates its details`() {
+        val order = pendingOrder(reserved = 3)
+        val id = order.id!!
+
+        val updated = orderService.updateOrder(id, order.copy(totalAmount = BigDecimal("25.00"), status = "pending"))
+            .block(TIMEOUT)!!
+
+        assertEquals(OrderStatus.PENDING.name, updated.status)
+        assertEquals(BigDecimal("25.00"), orderRepository.findById(id).block(TIMEOUT)!!.totalAmount)
+        assertEquals(emptyList(), history(id))
+        assertEquals(listOf("ACTIVE"), reservationStatuses(id))
+    }
+
+    @Test
+    fun `an edit to a status the order cannot move to changes nothing`() {
+        val order = pendingOrder(reserved = 3)
+        val id = order.id!!
+
+        val error = assertFailsWith<InvalidOrderTransitionException> {
+            orderService.updateOrder(id, order.copy(totalAmount = BigDecimal("25.00"), status = "SHIPPED"))
+                .block(TIMEOUT)
+        }
+
+        assertEquals(OrderStatus.PENDING.name, error.currentStatus)
+        assertEquals(OrderStatus.SHIPPED, error.requestedStatus)
+        assertEquals(BigDecimal("10.00"), orderRepository.findById(id).block(TIMEOUT)!!.totalAmount)
+        assertEquals(emptyList(), history(id))
+    }
+
+    @Test
+    fun `a status change is logged once and repeating it is harmless`() {
+        val order = pendingOrder(reserved = 3)
+        val id = order.id!!
+
+        orderService.changeStatus(id, OrderStatus.PAID, "Paid at the till").block(TIMEOUT)
+        val repeated = orderService.changeStatus(id, OrderStatus.PAID, "Paid at the till").block(TIMEOUT)!!
+
+        assertEquals(OrderStatus.PAID.name, repeated.status)
+        assertEquals(listOf(Triple("PENDING", "PAID", "Paid at the till")), history(id))
+        assertEquals(listOf("COMMITTED"), reservationStatuses(id))
+        assertFailsWith<InvalidOrderTransitionException> {
+            orderService.changeStatus(id, OrderStatus.PENDING, null).block(TIMEOUT)
+        }
+    }
+
+    private fun history(orderId: Long): List<Triple<String, String, String?>> =
+        orderService.getStatusHistory(orderId)
+            .map { Triple(it.fromStatus, it.toStatus, it.reason) }
+            .collectList()
+            .block(TIMEOUT)!!
+
+    private fun reservationStatuses(orderId: Long): List<String> =
+        database.query("SELECT status FROM inventory_reservations WHERE order_id = $orderId ORDER BY id", String::class.java)
+
+    /**
+     * A pending order with an active reservation of `reserved` units of a new product.
+     */
+    private fun pendingOrder(reserved: Int): Order {
+        val order = orderRepository.save(Order(userId = userId, totalAmount = BigDecimal("10.00"), orderDate = LocalDateTime.now()))
+            .block(TIMEOUT)!!
+        val productId = database.query(
+            "INSERT INTO products (sku, name, price, quantity) VALUES ('SKU-${order.id}', 'Leek ${order.id}', 1.00, 10) RETURNING id",
+            java.lang.Long::class.java
+        ).single().toLong()
+        database.execute(
+            "INSERT INTO inventory_reservations (order_id, product_id, quantity, expires_at) " +
+                "VALUES (${order.id}, $productId, $reserved, '${LocalDateTime.now().plusMinutes(30)}')"
+        )
+        return order
+    }
+
+    companion object {
+        private val TIMEOUT = Duration.ofSeconds(30)
+
+        private lateinit var database: TestDatabase
+        private var userId = 0L
+
+        @BeforeAll
+        @JvmStatic
+        fun createDatabase() {
+            database = EmbeddedDatabase.create()
+            database.execute("SELECT ensure_order_partitions(0)")
+            userId = database.query(
+                "INSERT INTO users (username, password, email) VALUES ('orders', 'x', 'orders@example.com') RETURNING id",
+                java.lang.Long::class.java
+            ).single().toLong()
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.execodex.demolocalai.service
+
+import com.execodex.demolocalai.entities.Product
+import com.execodex.demolocalai.repositories.ProductRepository
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import org.junit.jupiter.api.Test
+import org.mockito.Mockito
+import reactor.core.publisher.Mono
+import reactor.core.publisher.Sinks
+import java.math.BigDecimal
+import java.time.Duration
+import kotlin.test.assertEquals
+
+/**
+ * Runs [ProductCatalog] against a stub [ProductRepository] whose queries complete when the test says so.
+ */
+class ProductCatalogTest {
+
+    private val rows = Sinks.one<List<Product>>()
+    private val productRepository = Mockito.mock(ProductRepository::class.java) { invocation ->
+        when (invocation.method.name) {
+            "findAll" -> rows.asMono().flatMapIterable { it }
+            else -> Mono.empty<Product>()
+        }
+    }
+    private val catalog = ProductCatalog(productRepository, SimpleMeterRegistry(), maxSize = 1000)
+
+    @Test
+    fun `writes made while a reload queries the database are kept`() {
+        val reload = catalog.reload().toFuture()
+
+        catalog.put(product(2, "updated"))
+        catalog.put(product(3, "created"))
+        catalog.evict(1)
+        rows.tryEmitValue(listOf(product(1, "loaded"), product(2, "loaded")))
+        reload.get()
+
+        val products = catalog.findAll().collectList().block(Duration.ofSeconds(5))!!
+        assertEquals(listOf(2L to "updated", 3L to "created"), products.map { it.id to it.name })
+        assertEquals("updated", catalog.findBySku("SKU-2").block(Duration.ofSeconds(5))!!.name)
+        assertEquals(null, catalog.findBySlug("product-1").block(Duration.ofSeconds(5)))
+    }
+
+    @Test
+    fun `replacing a product moves its slug and sku lookups`() {
+        val reload = catalog.reload().toFuture()
+        rows.tryEmitValue(listOf(product(1, "loaded")))
+        reload.get()
+
+        catalog.put(product(1, "renamed").copy(slug = "renamed", sku = "SKU-RENAMED"))
+
+        assertEquals("renamed", catalog.findBySlug("renamed").block(Duration.ofSeconds(5))!!.name)
+        assertEquals("renamed", catalog.findBySku("SKU-RENAMED").block(Duration.ofSeconds(5))!!.name)
+        assertEquals(null, catalog.findBySlug("product-1").block(Duration.ofSeconds(5)))
+        assertEquals(null, catalog.findBySku("SKU-1").block(Duration.ofSeconds(5)))
+    }
+
+    @Test
+    fun `a chunk of products is added in one write`() {
+        val reload = catalog.reload().toFuture()
+        rows.tryEmitValue(emptyList())
+        reload.get()
+
+        catalog.putAll((1L..500L).map { product(it, "imported") })
+
+        assertEquals(500, catalog.findAll().count().block(Duration.ofSeconds(5)))
+        assertEquals("imported", catalog.findBySlug("product-250").block(Duration.ofSeconds(5))!!.name)
+    }
+
+    private fun product(id: Long, name: String) =
+        Product(id = id, sku = "SKU-$id", name = name, slug = "product-$id", price = BigDecimal.TEN, quantity = 1)
+}
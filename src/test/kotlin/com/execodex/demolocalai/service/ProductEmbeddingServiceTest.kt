@@ -0,0 +1,80 @@
+package com.execodex.demolocalai.service
+
+import com.execodex.demolocalai.entities.Product
+import com.execodex.demolocalai.repositories.ProductRepository
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Test
+import org.mockito.Mockito
+import org.springframework.ai.document.Document
+import org.springframework.ai.vectorstore.VectorStore
+import org.springframework.beans.factory.ObjectProvider
+import reactor.core.publisher.Flux
+import reactor.core.publisher.Mono
+import java.math.BigDecimal
+import java.util.concurrent.ConcurrentHashMap
+import kotlin.test.assertEquals
+
+/**
+ * Runs the [ProductEmbeddingService] pipeline against a slow stub [VectorStore].
+ */
+class ProductEmbeddingServiceTest {
+
+    private val embeddedIds = ConcurrentHashMap.newKeySet<String>()
+    private val vectorStore = Mockito.mock(VectorStore::class.java) { invocation ->
+        if (invocation.method.name == "add") {
+            Thread.sleep(STORE_LATENCY_MS)
+            @Suppress("UNCHECKED_CAST")
+            (invocation.arguments[0] as List<Document>).forEach { embeddedIds.add(it.id) }
+        }
+        null
+    }
+    @Suppress("UNCHECKED_CAST")
+    private val vectorStoreProvider = Mockito.mock(ObjectProvider::class.java) { vectorStore } as ObjectProvider<VectorStore>
+    private val productRepository = Mockito.mock(ProductRepository::class.java) { invocation ->
+        if (invocation.method.returnType == Flux::class.java) Flux.empty<Product>() else Mono.empty<Product>()
+    }
+    private val service = ProductEmbeddingService(
+        vectorStoreProvider, productRepository, ProductCatalog(productRepository, SimpleMeterRegistry(), 1000),
+        SimpleMeterRegistry(), batchSize = BATCH_SIZE, batchWindowMs = 1
+    )
+
+    @AfterEach
+    fun stop() {
+        service.stop()
+    }
+
+    @Test
+    fun `a slow vector store holds tasks back without stopping the pipeline`() {
+        service.start()
+
+        // Tasks trickling in slower than the batch window are flushed one per batch by the timer, which
+        // fills the 32 batches concatMap prefetches while the store is still busy with the first ones
+        val count = BATCH_SIZE * 32 * 2
+        (1..count).forEach {
+            service.enqueue(product(it.toLong()))
+            Thread.sleep(TRICKLE_INTERVAL_MS)
+        }
+        awaitEmbedded(count)
+
+        service.enqueue(product(count + 1L))
+        awaitEmbedded(count + 1)
+    }
+
+    private fun awaitEmbedded(count: Int) {
+        val deadline = System.nanoTime() + 30_000_000_000
+        while (embeddedIds.size < count && System.nanoTime() < deadline) {
+            Thread.sleep(20)
+        }
+        assertEquals(count, embeddedIds.size)
+    }
+
+    private fun product(id: Long) =
+        Product(id = id, sku = "SKU-$id", name = "Onion $id", price = BigDecimal.ONE, quantity = 1)
+
+    companion object {
+        private const val BATCH_SIZE = 4
+        private const val STORE_LATENCY_MS = 10L
+        private const val TRICKLE_INTERVAL_MS = 3L
+    }
+}
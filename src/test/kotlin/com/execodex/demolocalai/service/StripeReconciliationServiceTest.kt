@@ -0,0 +1,122 @@
+package com.execodex.demolocalai.service
+
+import com.execodex.demolocalai.client.PaymentGatewayStandIn
+import com.execodex.demolocalai.client.StripeClient
+import com.execodex.demolocalai.entities.Order
+import com.execodex.demolocalai.entities.OrderStatus
+import com.execodex.demolocalai.repositories.EmbeddedDatabase
+import com.execodex.demolocalai.repositories.StatusTransition
+import com.execodex.demolocalai.repositories.StripeReconciliationRepository
+import com.execodex.demolocalai.repositories.TestDatabase
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.stripe.param.PaymentIntentCreateParams
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+import org.mockito.Mockito
+import org.springframework.web.reactive.function.client.WebClient
+import reactor.core.publisher.Mono
+import java.math.BigDecimal
+import java.time.Duration
+import kotlin.test.assertEquals
+
+/**
+ * Runs [StripeReconciliationService] against a local [PaymentGatewayStandIn] and an [EmbeddedDatabase], with an
+ * [OrderService] stub that pays the orders it is given unless the test cancelled them meanwhile.
+ */
+class StripeReconciliationServiceTest {
+
+    private val standIn = PaymentGatewayStandIn(0, null)
+    private val client = StripeClient(
+        WebClient.builder(), ObjectMapper(), "sk_test_reconciliation", standIn.baseUrl,
+        maxConnections = 10, pendingAcquireMaxCount = 1000, pendingAcquireTimeoutMs = 5000,
+        maxIdleTimeMs = 20000, connectTimeoutMs = 5000, readTimeoutMs = 15000
+    )
+    private val paidOrders = mutableListOf<Long>()
+    private val cancelledMeanwhile = mutableSetOf<Long>()
+    private val orderService = Mockito.mock(OrderService::class.java) { invocation ->
+        when (invocation.method.name) {
+            "changeStatuses" -> {
+                @Suppress("UNCHECKED_CAST")
+                val reasons = invocation.arguments[0] as Map<Long, String?>
+                Mono.just(reasons.keys.associateWith { id ->
+                    if (id in cancelledMeanwhile) {
+                        StatusTransition(order(id, OrderStatus.CANCELLED), OrderStatus.CANCELLED.name, transitioned = false)
+                    } else {
+                        paidOrders.add(id)
+                        StatusTransition(order(id, OrderStatus.PAID), OrderStatus.PENDING.name, transitioned = true)
+                    }
+                })
+            }
+            else -> Mono.empty<Any>()
+        }
+    }
+    private val meterRegistry = SimpleMeterRegistry()
+    private val reconciliation = StripeReconciliationService(
+        client, orderService, StripeReconciliationRepository(database.databaseClient), meterRegistry,
+        lookbackHours = 1, pageSize = 100, maxPages = 5, requestsPerSecond = 100.0, leaseSeconds = 60
+    )
+
+    @AfterEach
+    fun close() {
+        client.shutdown()
+        standIn.close()
+    }
+
+    @Test
+    fun `orders cancelled before their payment arrived are reported rather than skipped`() {
+        val pending = order(OrderStatus.PENDING)
+        val cancelled = order(OrderStatus.CANCELLED)
+        val expiring = order(OrderStatus.PENDING)
+        val unpaid = order(OrderStatus.PENDING)
+        listOf(pending, cancelled, expiring).forEach { standIn.pay(paymentIntent(it)) }
+        paymentIntent(unpaid)
+        cancelledMeanwhile.add(expiring)
+
+        val report = reconciliation.reconcile().block(TIMEOUT)!!
+
+        assertEquals(listOf(pending), paidOrders)
+        assertEquals(4, report.scanned)
+        assertEquals(1, report.repaired)
+        assertEquals(2, report.paidButCancelled)
+        assertEquals(true, report.complete)
+        assertEquals(2.0, meterRegistry.counter("stripe.reconciliation.paid.cancelled").count())
+    }
+
+    private fun paymentIntent(orderId: Long): String {
+        val params = PaymentIntentCreateParams.builder()
+            .setAmount(1000)
+            .setCurrency("eur")
+            .putMetadata("orderId", orderId.toString())
+            .build()
+        return client.createPaymentIntent(params, "order-$orderId").block(TIMEOUT)!!.id
+    }
+
+    private fun order(status: OrderStatus): Long =
+        database.query(
+            "INSERT INTO orders (user_id, total_amount, status) VALUES ($userId, 10, '${status.name}') RETURNING id",
+            java.lang.Long::class.java
+        ).single().toLong()
+
+    private fun order(id: Long, status: OrderStatus) =
+        Order(id = id, userId = userId, totalAmount = BigDecimal.TEN, status = status.name)
+
+    companion object {
+        private val TIMEOUT = Duration.ofSeconds(30)
+
+        private lateinit var database: TestDatabase
+        private var userId = 0L
+
+        @BeforeAll
+        @JvmStatic
+        fun createDatabase() {
+            database = EmbeddedDatabase.create()
+            database.execute("SELECT ensure_order_partitions(0)")
+            userId = database.query(
+                "INSERT INTO users (username, password, email) VALUES ('reconciled', 'x', 'reconciled@example.com') RETURNING id",
+                java.lang.Long::class.java
+            ).single().toLong()
+        }
+    }
+}